@@ -0,0 +1,52 @@
+package org.erlide.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.List;
+
+import org.erlide.core.internal.model.root.ModelCacheMap;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ModelCacheMapTest {
+
+    @Test
+    public void weightShouldBeBounded() {
+        final ModelCacheMap<Integer, List<Integer>> cache = new ModelCacheMap<Integer, List<Integer>>(
+                "test", 160, ModelCacheMap.BY_SIZE);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, Lists.newArrayList(1, 2, 3));
+        }
+        assertThat(cache.getWeight(), is(lessThanOrEqualTo(160L)));
+        assertThat(cache.getWeight(), is(4L * cache.size()));
+        assertThat(cache.getEvictionCount(), is(1000L - cache.size()));
+    }
+
+    @Test
+    public void hitsAndMissesShouldBeCounted() {
+        final ModelCacheMap<String, String> cache = new ModelCacheMap<String, String>(
+                "test", 100);
+        cache.put("a", "1");
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void nullValueShouldRemove() {
+        final ModelCacheMap<String, String> cache = new ModelCacheMap<String, String>(
+                "test", 100);
+        cache.put("a", "1");
+        cache.put("a", null);
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getWeight(), is(0L));
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.erlide.core.backend.console;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.erlide.core.backend.console.IoRequest.IoRequestKind;
+import org.erlide.core.backend.console.IoRequestBuffer.TextUpdate;
+import org.junit.Test;
+
+public class IoRequestBufferTest {
+
+    private static IoRequest req(final String text) {
+        return new IoRequest(text, IoRequestKind.INPUT);
+    }
+
+    @Test
+    public void findAtPosShouldLocateRequests() {
+        final IoRequestBuffer buffer = new IoRequestBuffer();
+        final IoRequest a = req("abc");
+        final IoRequest b = req("de");
+        final IoRequest c = req("fghi");
+        buffer.add(a);
+        buffer.add(b);
+        buffer.add(c);
+        assertThat(buffer.getTextLength(), is(9));
+        assertThat(buffer.findAtPos(0), sameInstance(a));
+        assertThat(buffer.findAtPos(2), sameInstance(a));
+        assertThat(buffer.findAtPos(3), sameInstance(b));
+        assertThat(buffer.findAtPos(8), sameInstance(c));
+        assertThat(buffer.findAtPos(9), nullValue());
+        assertThat(c.getStart(), is(5));
+        assertThat(buffer.getText(2, 4), is("cdef"));
+    }
+
+    @Test
+    public void retentionShouldDiscardOldestAndShiftOffsets() {
+        final IoRequestBuffer buffer = new IoRequestBuffer(10);
+        for (int i = 0; i < 1000; i++) {
+            buffer.add(req("line" + i % 10 + "\n"));
+        }
+        assertThat(buffer.getTextLength(), is(6));
+        assertThat(buffer.getText(), is("line9\n"));
+        assertThat(buffer.findAtPos(0).getStart(), is(0));
+        assertThat(buffer.getBase(), is(999L * 6));
+    }
+
+    @Test
+    public void textSinceShouldReturnOnlyNewText() {
+        final IoRequestBuffer buffer = new IoRequestBuffer();
+        buffer.add(req("abc"));
+        final TextUpdate u1 = buffer.getTextSince(0);
+        assertThat(u1.getText(), is("abc"));
+        buffer.add(req("de"));
+        final TextUpdate u2 = buffer.getTextSince(u1.getEnd());
+        assertThat(u2.getText(), is("de"));
+        assertThat(u2.getEnd(), is(5L));
+    }
+
+}
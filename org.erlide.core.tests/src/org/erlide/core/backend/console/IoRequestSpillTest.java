@@ -0,0 +1,131 @@
+package org.erlide.core.backend.console;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.File;
+import java.util.List;
+
+import org.erlide.core.backend.console.IoRequest.IoRequestKind;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IoRequestSpillTest {
+
+    // past what fits in an int
+    private static final long BASE = 3L * Integer.MAX_VALUE;
+
+    private File dir;
+    private IoRequestSpill spill;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "spilltest"
+                + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        if (spill != null) {
+            spill.dispose();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void spilledRequestsShouldReadBackUnchanged() throws Exception {
+        spill = new IoRequestSpill(dir, "console");
+        final String[] texts = { "abc", "d\u00e9f\n", "", "ghij" };
+        final IoRequestKind[] kinds = { IoRequestKind.INPUT,
+                IoRequestKind.STDOUT, IoRequestKind.HEADER,
+                IoRequestKind.STDERR };
+        long start = BASE;
+        for (int i = 0; i < texts.length; i++) {
+            spill.append(new IoRequest(texts[i], kinds[i]), start);
+            start += texts[i].length();
+        }
+        spill.flush();
+
+        final List<IoRequest> all = spill.read(0, 10);
+        assertThat(all.size(), is(texts.length));
+        start = BASE;
+        for (int i = 0; i < texts.length; i++) {
+            final IoRequest req = all.get(i);
+            assertThat(req.getMessage(), is(texts[i]));
+            assertThat(req.getKind(), is(kinds[i]));
+            assertThat(req.getAbsoluteStart(), is(start));
+            start += texts[i].length();
+        }
+        assertThat(spill.getStart(), is(BASE));
+
+        final List<IoRequest> range = spill.readRange(BASE + 4, BASE + 8);
+        assertThat(range.size(), is(3));
+        assertThat(range.get(0).getMessage(), is("d\u00e9f\n"));
+        assertThat(range.get(2).getMessage(), is("ghij"));
+        assertThat(spill.readRange(0, BASE).size(), is(0));
+    }
+
+    @Test
+    public void spillShouldDropOldestOverLimit() throws Exception {
+        spill = new IoRequestSpill(dir, "console", 1000);
+        final String line = "0123456789\n";
+        for (int i = 0; i < 1000; i++) {
+            spill.append(new IoRequest(line, IoRequestKind.STDOUT), i
+                    * line.length());
+        }
+        spill.flush();
+        assertThat(spillBytes(), lessThan(1000L));
+        final List<IoRequest> kept = spill.read(0, spill.size());
+        final IoRequest last = kept.get(kept.size() - 1);
+        assertThat(last.getAbsoluteStart(), is(999L * line.length()));
+        assertThat(last.getMessage(), is(line));
+        assertThat(spill.getStart(), is(kept.get(0).getAbsoluteStart()));
+    }
+
+    @Test
+    public void indexShouldCountTowardsLimit() throws Exception {
+        // chatty output: the index records are most of the size
+        spill = new IoRequestSpill(dir, "console", 4096);
+        for (int i = 0; i < 20000; i++) {
+            spill.append(new IoRequest("x", IoRequestKind.STDOUT), i);
+        }
+        spill.flush();
+        assertThat(spillBytes(), lessThan(4096L));
+        assertThat(spill.size(), is((int) (20000 - spill.getStart())));
+        final List<IoRequest> last = spill.read(spill.size() - 1, 1);
+        assertThat(last.get(0).getAbsoluteStart(), is(19999L));
+    }
+
+    @Test
+    public void searchShouldFindNewestMatchInRange() throws Exception {
+        spill = new IoRequestSpill(dir, "console");
+        final String line = "line\n";
+        long start = BASE;
+        for (int i = 0; i < 1000; i++) {
+            final String text = i % 100 == 0 ? "ab" : line;
+            spill.append(new IoRequest(text, IoRequestKind.STDOUT), start);
+            start += text.length();
+        }
+        // a match that spans two requests
+        spill.append(new IoRequest("xa", IoRequestKind.STDOUT), start);
+        spill.append(new IoRequest("by", IoRequestKind.STDOUT), start + 2);
+        final long end = start + 4;
+
+        assertThat(spill.lastIndexOf("ab", BASE, end), is(start + 1));
+        final List<IoRequest> reqs = spill.read(0, 1000);
+        final long at900 = reqs.get(900).getAbsoluteStart();
+        final long at100 = reqs.get(100).getAbsoluteStart();
+        assertThat(spill.lastIndexOf("ab", BASE, start + 2), is(at900));
+        assertThat(spill.lastIndexOf("ab", BASE + 1, at100 + 2), is(at100));
+        assertThat(spill.lastIndexOf("ab", BASE + 1, at100 + 1), is(-1L));
+        assertThat(spill.lastIndexOf("zz", BASE, end), is(-1L));
+    }
+
+    private long spillBytes() {
+        return new File(dir, "console.log").length()
+                + new File(dir, "console.idx").length();
+    }
+
+}
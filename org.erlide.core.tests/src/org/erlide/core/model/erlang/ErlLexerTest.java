@@ -0,0 +1,183 @@
+package org.erlide.core.model.erlang;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.erlide.core.backend.BackendCore;
+import org.erlide.core.backend.BackendException;
+import org.erlide.core.internal.model.erlang.ErlLexer;
+import org.erlide.core.internal.model.erlang.ErlideScanner;
+import org.erlide.core.model.root.ErlToken;
+import org.erlide.core.model.root.ErlTokenBuffer;
+import org.erlide.core.services.search.ErlideOpen;
+import org.erlide.jinterface.rpc.IRpcCallSite;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+public class ErlLexerTest {
+
+    private static final String SOURCE = "-module(m).\n"
+            + "-define(X, 1).\n" + "%% comment\n"
+            + "f(A, 'B c') when A =:= ?X ->\n"
+            + "    {\"str\\\"ing\", $a, $\\n, 16#fF, 1.5e-3, ??A, ? y};\n"
+            + "f(_, _) ->\n" + "    [X || X <- lists:seq(1, 3)].\n";
+
+    @Test
+    public void macrosShouldBeSingleTokens() {
+        final ErlTokenBuffer tokens = scan("?X ?y ? z ?Z");
+        assertKinds(tokens, ErlToken.KIND_MACRO, ErlToken.KIND_WHITESPACE,
+                ErlToken.KIND_MACRO, ErlToken.KIND_WHITESPACE, '?',
+                ErlToken.KIND_WHITESPACE, ErlToken.KIND_ATOM,
+                ErlToken.KIND_WHITESPACE, ErlToken.KIND_MACRO);
+        assertThat(tokens.getLength(0), is(2));
+    }
+
+    @Test
+    public void stringifiedMacroArgumentShouldNotBeAMacro() {
+        assertKinds(scan("??X"), '?', '?', ErlToken.KIND_VAR);
+    }
+
+    @Test
+    public void fullStopShouldDifferFromDot() {
+        assertKinds(scan("a.b."), ErlToken.KIND_ATOM, '.', ErlToken.KIND_ATOM,
+                ErlToken.KIND_OTHER);
+    }
+
+    @Test
+    public void numbersShouldBeScanned() {
+        final ErlTokenBuffer tokens = scan("1.5e-3 16#fF 1.a");
+        assertKinds(tokens, ErlToken.KIND_FLOAT, ErlToken.KIND_WHITESPACE,
+                ErlToken.KIND_INTEGER, ErlToken.KIND_WHITESPACE,
+                ErlToken.KIND_INTEGER, '.', ErlToken.KIND_ATOM);
+        assertThat(tokens.getLength(0), is(6));
+        assertThat(tokens.getLength(2), is(5));
+    }
+
+    @Test
+    public void keywordsShouldBeRecognized() {
+        assertKinds(scan("case X of"), ErlToken.KIND_KEYWORD,
+                ErlToken.KIND_WHITESPACE, ErlToken.KIND_VAR,
+                ErlToken.KIND_WHITESPACE, ErlToken.KIND_KEYWORD);
+    }
+
+    @Test
+    public void linesShouldBeCounted() {
+        final ErlTokenBuffer tokens = scan("a\n\"b\nc\"\nd");
+        assertThat(tokens.getLine(2), is(1));
+        assertThat(tokens.getLine(4), is(3));
+    }
+
+    @Test
+    public void rescanShouldMatchFullScan() {
+        final Random random = new Random(42);
+        final String alphabet = "aX_1.?\"'%$\\ \n(->=:#";
+        String text = SOURCE;
+        ErlTokenBuffer tokens = scan(text);
+        for (int i = 0; i < 1000; i++) {
+            final int offset = random.nextInt(text.length() + 1);
+            final int removed = random.nextInt(Math.min(4, text.length()
+                    - offset) + 1);
+            final StringBuilder inserted = new StringBuilder();
+            for (int j = random.nextInt(4); j > 0; j--) {
+                inserted.append(alphabet.charAt(random.nextInt(alphabet
+                        .length())));
+            }
+            text = text.substring(0, offset) + inserted
+                    + text.substring(offset + removed);
+            tokens = ErlLexer.rescan(tokens, text, offset, removed,
+                    inserted.length());
+            assertThat(text, tokens.toString(), is(scan(text).toString()));
+        }
+    }
+
+    /**
+     * Compares the lexer with the backend scanner on the OTP sources. The
+     * known differences are allowed explicitly: white space after a final
+     * full stop, the length of based integers and a backslash at the end of
+     * the text. Unterminated quoted atoms don't occur in sources that
+     * compile.
+     */
+    @Test
+    public void tokensShouldMatchBackendScanner() throws IOException,
+            BackendException {
+        final IRpcCallSite backend = BackendCore.getBackendManager()
+                .getIdeBackend();
+        Assume.assumeTrue(backend != null);
+        final List<File> files = Lists.newArrayList();
+        final List<String> libDirs = ErlideOpen.getLibDirs(backend);
+        if (libDirs != null) {
+            for (final String libDir : libDirs) {
+                final File[] sources = new File(libDir, "src").listFiles();
+                if (sources != null) {
+                    for (final File file : sources) {
+                        if (file.getName().endsWith(".erl")) {
+                            files.add(file);
+                        }
+                    }
+                }
+            }
+        }
+        Assume.assumeTrue(!files.isEmpty());
+        for (final File file : files) {
+            String text = Files.toString(file, Charsets.ISO_8859_1);
+            // the lexer skips a trailing backslash, the backend doesn't
+            while (text.endsWith("\\")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            final ErlTokenBuffer expected = ErlideScanner.lightScanString(
+                    text, 0);
+            final ErlTokenBuffer actual = scan(text);
+            // the backend drops white space after a final full stop
+            final int last = actual.size() - 1;
+            if (last == expected.size()
+                    && actual.getKind(last) == ErlToken.KIND_WHITESPACE) {
+                actual.removeLast();
+            }
+            assertThat(file.getPath(), actual.size(), is(expected.size()));
+            for (int i = 0; i < expected.size(); i++) {
+                final String where = file.getPath() + " token " + i;
+                assertThat(where, actual.getKind(i), is(expected.getKind(i)));
+                assertThat(where, actual.getLine(i), is(expected.getLine(i)));
+                assertThat(where, actual.getOffset(i),
+                        is(expected.getOffset(i)));
+                if (!isBasedInteger(text, actual, i)) {
+                    // based integers have their source length in the lexer
+                    assertThat(where, actual.getLength(i),
+                            is(expected.getLength(i)));
+                }
+            }
+        }
+    }
+
+    private static boolean isBasedInteger(final String text,
+            final ErlTokenBuffer tokens, final int i) {
+        if (tokens.getKind(i) != ErlToken.KIND_INTEGER) {
+            return false;
+        }
+        final int offset = tokens.getOffset(i);
+        return text.substring(offset, offset + tokens.getLength(i))
+                .indexOf('#') >= 0;
+    }
+
+    private static ErlTokenBuffer scan(final String text) {
+        return new ErlLexer(text).scan();
+    }
+
+    private static void assertKinds(final ErlTokenBuffer tokens,
+            final int... kinds) {
+        assertThat(tokens.toString(), tokens.size(), is(kinds.length));
+        for (int i = 0; i < kinds.length; i++) {
+            assertThat(tokens.toString(), tokens.getKind(i), is(kinds[i]));
+        }
+    }
+
+}
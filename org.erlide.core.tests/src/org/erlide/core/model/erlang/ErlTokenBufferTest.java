@@ -0,0 +1,96 @@
+package org.erlide.core.model.erlang;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+
+import org.erlide.core.model.root.ErlToken;
+import org.erlide.core.model.root.ErlTokenBuffer;
+import org.erlide.jinterface.ErlLogger;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ErlTokenBufferTest {
+
+    private static final int TOKENS = 200000;
+
+    @Test
+    public void binaryTokensShouldBeDecoded() {
+        final byte[] bytes = new byte[] { ErlToken.KIND_ATOM, 0, 0, 3, 0, 1,
+                2, 0, 0, 5, ErlToken.KIND_VAR, 1, 0, 0, 0, 0, 9, 0, 0, 1 };
+        final ErlTokenBuffer tokens = ErlTokenBuffer.fromBinary(bytes, 100);
+        assertThat(tokens.size(), is(2));
+        assertThat(tokens.getKind(0), is(ErlToken.KIND_ATOM));
+        assertThat(tokens.getLine(0), is(3));
+        assertThat(tokens.getOffset(0), is(100 + 258));
+        assertThat(tokens.getLength(0), is(5));
+        assertThat(tokens.getKind(1), is(ErlToken.KIND_VAR));
+        assertThat(tokens.getLine(1), is(65536));
+        assertThat(tokens.getOffset(1), is(109));
+        assertThat(tokens.getLength(1), is(1));
+    }
+
+    @Test
+    public void bufferShouldGrow() {
+        final ErlTokenBuffer tokens = new ErlTokenBuffer(1);
+        for (int i = 0; i < 100; i++) {
+            tokens.add(ErlToken.KIND_OTHER, i, i * 2, 1);
+        }
+        assertThat(tokens.size(), is(100));
+        assertThat(tokens.getOffset(99), is(198));
+        assertThat(tokens.getToken(99).getLine(), is(99));
+    }
+
+    /**
+     * Packed tokens take 16 bytes each, a list of token objects more than
+     * twice that (object header, four ints and the reference); measured on
+     * the heap, with both kept reachable.
+     */
+    @Test
+    public void packedTokensShouldUseLessMemory() {
+        final byte[] bytes = new byte[TOKENS * 10];
+        for (int i = 0; i < bytes.length; i += 10) {
+            bytes[i] = ErlToken.KIND_ATOM;
+            bytes[i + 6] = (byte) i;
+            bytes[i + 9] = 4;
+        }
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        long start = System.nanoTime();
+        final List<ErlToken> list = Lists.newArrayListWithCapacity(TOKENS);
+        for (int i = 0; i < bytes.length; i += 10) {
+            list.add(new ErlToken(bytes, i));
+        }
+        final long listTime = System.nanoTime() - start;
+        gc();
+        final long listBytes = memory.getHeapMemoryUsage().getUsed() - before;
+
+        before = memory.getHeapMemoryUsage().getUsed();
+        start = System.nanoTime();
+        final ErlTokenBuffer buffer = ErlTokenBuffer.fromBinary(bytes, 0);
+        final long bufferTime = System.nanoTime() - start;
+        gc();
+        final long bufferBytes = memory.getHeapMemoryUsage().getUsed()
+                - before;
+
+        assertThat(buffer.size(), is(list.size()));
+        assertThat(bufferBytes, lessThan(listBytes * 3 / 4));
+        ErlLogger.info("%d tokens: list %d KB in %d ms, packed %d KB in %d ms",
+                TOKENS, listBytes / 1024, listTime / 1000000,
+                bufferBytes / 1024, bufferTime / 1000000);
+    }
+
+    private static void gc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+    }
+
+}
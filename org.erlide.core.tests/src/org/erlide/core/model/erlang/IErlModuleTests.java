@@ -223,6 +223,44 @@ public class IErlModuleTests extends ErlModelTestBase {
         assertNotNull(function6);
     }
 
+    @Test
+    public void reconcileShouldApplyAllEditsOfACycle() throws Exception {
+        module.open(null);
+        module.reconcileText(33, 1, "g", null);
+        module.reconcileText(13, 0, "h(B) -> B.\n", null);
+        module.postReconcile(null);
+        assertNull(module.findFunction(new ErlangFunction("f", 1)));
+        assertNotNull(module.findFunction(new ErlangFunction("g", 1)));
+        assertNotNull(module.findFunction(new ErlangFunction("h", 1)));
+    }
+
+    @Test
+    public void reconcileShouldKeepUnchangedElements() throws Exception {
+        final ErlangFunction f_1 = new ErlangFunction("f", 1);
+        module.open(null);
+        final IErlElement attribute = module.getElementAt(0);
+        final IErlFunction function = module.findFunction(f_1);
+        final int offset = function.getSourceRange().getOffset();
+        final int line = function.getLineStart();
+        module.reconcileText(13, 0, "\n", null);
+        module.postReconcile(null);
+        final IErlFunction function2 = module.findFunction(f_1);
+        assertTrue(attribute == module.getElementAt(0));
+        // the moved function is a copy, the previous one isn't changed
+        assertNotSame(function, function2);
+        assertEquals(offset, function.getSourceRange().getOffset());
+        assertEquals(line, function.getLineStart());
+        assertEquals(offset + 1, function2.getSourceRange().getOffset());
+        assertEquals(line + 1, function2.getLineStart());
+        for (final IErlFunctionClause clause : function2.getClauses()) {
+            assertTrue(clause.getParent() == function2);
+        }
+        module.reconcileText(offset + 19, 7, "sort", null);
+        module.postReconcile(null);
+        assertNotSame(function, module.findFunction(f_1));
+        assertTrue(attribute == module.getElementAt(0));
+    }
+
     // void finalReconcile();
     // Empty method
 
@@ -260,6 +298,17 @@ public class IErlModuleTests extends ErlModelTestBase {
         assertEquals(0, dependentModules.size());
     }
 
+    @Test
+    public void getDependentModulesShouldNotOpenModules() throws Exception {
+        final IErlModule include = ErlideTestUtils.createInclude(project,
+                "yy.hrl", "-define(A, hej).\n");
+        assertFalse(module.isOpen());
+        final Set<IErlModule> dependents = include.getDirectDependentModules();
+        assertEquals(1, dependents.size());
+        assertEquals(module, dependents.iterator().next());
+        assertFalse(module.isOpen());
+    }
+
     // void resetAndCacheScannerAndParser(String newText) throws
     // ErlModelException;
 
@@ -0,0 +1,148 @@
+package org.erlide.core.model.erlang;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.erlide.core.internal.model.erlang.ErlAttribute;
+import org.erlide.core.internal.model.erlang.ErlFunction;
+import org.erlide.core.model.root.IErlElement;
+import org.erlide.core.model.root.IErlElement.Kind;
+import org.erlide.core.model.util.ErlangFunction;
+import org.erlide.jinterface.ErlLogger;
+import org.erlide.test.support.ErlideTestUtils;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.google.common.collect.Lists;
+
+/**
+ * Runs simulated reconciles (replacing all children of a module) and lookups
+ * on many threads at once. Readers must always see a complete set of
+ * children, and lookups must keep going while modules are rewritten: every
+ * reader and writer makes progress, and no lookup waits long for a writer.
+ */
+public class ModelContentionTest extends ErlModelTestBase {
+
+    private static final int MODULES = 8;
+    private static final int FUNCTIONS = 50;
+    private static final int THREADS = 8;
+    private static final long DURATION_MS = 2000;
+    // a lookup never waits for a reconcile, so this only allows for
+    // scheduling and GC pauses
+    private static final long MAX_LOOKUP_MS = 500;
+
+    @Test
+    public void readersShouldSeeConsistentSnapshots() throws Exception {
+        final List<IErlModule> modules = Lists.newArrayList();
+        for (int i = 0; i < MODULES; i++) {
+            final IErlModule m = ErlideTestUtils.createModule(project, "cm"
+                    + i + ".erl", "-module(cm" + i + ").\n");
+            reconcile(m);
+            modules.add(m);
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS * 2);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Long>> writers = Lists.newArrayList();
+        final List<Future<Long>> readers = Lists.newArrayList();
+        final AtomicLong maxLookup = new AtomicLong();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                final IErlModule m = modules.get(t % MODULES);
+                writers.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        start.await();
+                        long n = 0;
+                        while (!stop.get()) {
+                            reconcile(m);
+                            n++;
+                        }
+                        return n;
+                    }
+                }));
+                readers.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        start.await();
+                        long n = 0;
+                        while (!stop.get()) {
+                            for (final IErlModule mm : modules) {
+                                final long t = System.nanoTime();
+                                assertThat(mm.getChildCount(),
+                                        is(FUNCTIONS + 1));
+                                assertThat(mm.getChildrenOfKind(Kind.FUNCTION)
+                                        .size(), is(FUNCTIONS));
+                                assertTrue(mm.findFunction(new ErlangFunction(
+                                        "f" + (n % FUNCTIONS), 0)) != null);
+                                max(maxLookup, System.nanoTime() - t);
+                                n++;
+                            }
+                        }
+                        return n;
+                    }
+                }));
+            }
+            final long t0 = System.nanoTime();
+            start.countDown();
+            Thread.sleep(DURATION_MS);
+            stop.set(true);
+            long reconciles = 0;
+            for (final Future<Long> f : writers) {
+                final long n = f.get();
+                assertThat(n, greaterThan(0L));
+                reconciles += n;
+            }
+            long lookups = 0;
+            for (final Future<Long> f : readers) {
+                final long n = f.get();
+                assertThat(n, greaterThan(0L));
+                lookups += n;
+            }
+            final long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                    - t0);
+            ErlLogger.info("model contention: " + THREADS + " writers, "
+                    + THREADS + " readers, " + reconciles + " reconciles, "
+                    + lookups + " lookups in " + ms + " ms, longest lookup "
+                    + TimeUnit.NANOSECONDS.toMillis(maxLookup.get()) + " ms");
+            assertThat(TimeUnit.NANOSECONDS.toMillis(maxLookup.get()),
+                    lessThan(MAX_LOOKUP_MS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void max(final AtomicLong max, final long value) {
+        long old;
+        while (value > (old = max.get())) {
+            if (max.compareAndSet(old, value)) {
+                return;
+            }
+        }
+    }
+
+    private static void reconcile(final IErlModule module) {
+        final List<IErlElement> children = Lists.newArrayList();
+        children.add(new ErlAttribute(module, "module", null, "test"));
+        for (int i = 0; i < FUNCTIONS; i++) {
+            children.add(new ErlFunction(module, "f" + i, 0, "", null, true,
+                    new OtpErlangList()));
+        }
+        module.setChildren(children);
+    }
+
+}
@@ -0,0 +1,117 @@
+package org.erlide.core.model.erlang;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+
+import org.erlide.core.internal.model.erlang.ModuleStructureCache;
+import org.erlide.jinterface.util.TermParser;
+import org.erlide.test.support.ErlideTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class ModuleStructureCacheTest {
+
+    private static final String PATH = "/tmp/src/sc.erl";
+    private static final String SOURCE = "-module(sc).\nf() -> ok.\n";
+
+    private File dir;
+    private ModuleStructureCache cache;
+
+    @Before
+    public void setUp() {
+        dir = new File(ErlideTestUtils.getTmpPath("structure").toOSString());
+        cache = new ModuleStructureCache(dir);
+    }
+
+    @After
+    public void tearDown() {
+        cache.remove(PATH);
+        dir.delete();
+    }
+
+    @Test
+    public void snapshotShouldRoundTrip() throws Exception {
+        final OtpErlangList forms = (OtpErlangList) TermParser.getParser()
+                .parse("[{attribute, {{1,1,0},12}, module, sc, \"sc\"}]");
+        final OtpErlangList comments = new OtpErlangList();
+        cache.put(PATH, digest(SOURCE),
+                structure(forms, comments));
+        final OtpErlangTuple snapshot = (OtpErlangTuple) cache.get(PATH,
+                digest(SOURCE));
+        assertThat(snapshot, is(notNullValue()));
+        assertThat(snapshot.elementAt(0), is((Object) forms));
+        assertThat(snapshot.elementAt(1), is((Object) comments));
+    }
+
+    @Test
+    public void changedSourceShouldMiss() throws Exception {
+        final OtpErlangList forms = (OtpErlangList) TermParser.getParser()
+                .parse("[{attribute, {{1,1,0},12}, module, sc, \"sc\"}]");
+        cache.put(PATH, digest(SOURCE),
+                structure(forms, new OtpErlangList()));
+        assertThat(cache.get(PATH, digest(SOURCE + " ")),
+                is(nullValue()));
+    }
+
+    @Test
+    public void parseErrorsShouldNotBeSaved() throws Exception {
+        final OtpErlangList forms = (OtpErlangList) TermParser.getParser()
+                .parse("[{error, {{{1,1,0},3}, erl_parse, \"bad\"}}]");
+        cache.put(PATH, digest(SOURCE),
+                structure(forms, new OtpErlangList()));
+        assertThat(cache.get(PATH, digest(SOURCE)),
+                is(nullValue()));
+    }
+
+    @Test
+    public void binarySnapshotShouldRoundTrip() {
+        final OtpErlangBinary structure = new OtpErlangBinary(new byte[] {
+                'E', 'N', 'P', 1, 0, 0 });
+        cache.put(PATH, digest(SOURCE), structure);
+        assertThat(cache.get(PATH, digest(SOURCE)),
+                is((Object) structure));
+    }
+
+    @Test
+    public void pruneShouldDeleteSnapshotsOfMissingFiles() throws Exception {
+        final File source = new File(dir.getParentFile(), "sc_prune.erl");
+        source.getParentFile().mkdirs();
+        Files.write(SOURCE, source, Charsets.ISO_8859_1);
+        final String path = source.getPath();
+        final OtpErlangBinary structure = new OtpErlangBinary(new byte[] {
+                'E', 'N', 'P', 1, 0, 0 });
+        try {
+            cache.put(path, digest(SOURCE), structure);
+            cache.put(PATH, digest(SOURCE), structure);
+            assertThat(cache.prune(), is(1));
+            assertThat(cache.contains(path), is(true));
+            assertThat(cache.contains(PATH), is(false));
+        } finally {
+            cache.remove(path);
+            source.delete();
+        }
+    }
+
+    private static byte[] digest(final String source) {
+        return ModuleStructureCache.digest(source
+                .getBytes(Charsets.ISO_8859_1));
+    }
+
+    private static OtpErlangTuple structure(final OtpErlangList forms,
+            final OtpErlangList comments) {
+        return new OtpErlangTuple(new OtpErlangObject[] { forms, comments });
+    }
+
+}
@@ -0,0 +1,214 @@
+package org.erlide.core.model.erlang;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.List;
+
+import org.erlide.core.backend.BackendCore;
+import org.erlide.core.internal.model.erlang.ErlParser;
+import org.erlide.core.internal.model.erlang.ErlideNoparse;
+import org.erlide.core.internal.model.erlang.ErlideScanner;
+import org.erlide.core.internal.model.erlang.ModuleStructureDecoder;
+import org.erlide.core.model.root.ErlModelException;
+import org.erlide.core.model.root.IErlElement;
+import org.erlide.core.model.root.IParent;
+import org.erlide.core.model.util.ErlangFunction;
+import org.erlide.jinterface.ErlLogger;
+import org.erlide.jinterface.rpc.IRpcCallSite;
+import org.erlide.test.support.ErlideTestUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpOutputStream;
+import com.google.common.collect.Lists;
+
+/**
+ * Compares the binary encoding of noparse results with the term encoding:
+ * both must give the same model, and the binary one must be smaller and
+ * faster to parse and build the model from.
+ */
+public class ModuleStructureEncodingTest extends ErlModelTestBase {
+
+    private static final int FUNCTIONS = 500;
+    private static final int ROUNDS = 20;
+
+    private IRpcCallSite backend;
+    private IErlModule m;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        backend = BackendCore.getBackendManager().getIdeBackend();
+        Assume.assumeTrue(backend != null);
+        final String source = source();
+        m = ErlideTestUtils.createModule(project, "enc.erl", source);
+        ErlideScanner.initialScan(m.getScannerName(), "", source, false);
+    }
+
+    @Test
+    public void binaryModelShouldMatchTermModel() throws Exception {
+        final List<IErlElement> terms = parse(new ErlParser(false));
+        final List<IErlElement> binary = parse(new ErlParser(true));
+        assertSameElements(terms, binary);
+
+        int functions = 0;
+        int exports = 0;
+        int records = 0;
+        for (final IErlElement e : binary) {
+            if (e instanceof IErlFunction) {
+                functions++;
+            } else if (e instanceof IErlExport) {
+                exports++;
+            } else if (e instanceof IErlRecordDef) {
+                records++;
+            }
+        }
+        assertThat(functions, is(FUNCTIONS));
+        assertThat(exports, is(1));
+        assertThat(records, is(2));
+    }
+
+    @Test
+    public void binaryEncodingShouldBeSmaller() throws Exception {
+        final OtpErlangTuple termResult = ErlideNoparse.reparse(backend,
+                m.getScannerName());
+        final OtpErlangTuple binaryResult = ErlideNoparse.reparse(backend,
+                m.getScannerName(), new OtpErlangTuple(new OtpErlangObject[] {
+                        new OtpErlangAtom("binary"),
+                        new OtpErlangLong(ModuleStructureDecoder.VERSION) }));
+        assertThat(binaryResult.elementAt(1),
+                instanceOf(OtpErlangBinary.class));
+        final int term = new OtpOutputStream(termResult.elementAt(1))
+                .toByteArray().length;
+        final int binary = ((OtpErlangBinary) binaryResult.elementAt(1))
+                .binaryValue().length;
+        assertThat(binary, lessThan(term));
+
+        // the same end-to-end work for both: reparse, transfer, decode and
+        // build all the elements
+        final long termTime = timeParse(new ErlParser(false));
+        final long binaryTime = timeParse(new ErlParser(true));
+        assertThat(binaryTime, lessThan(termTime));
+        ErlLogger.info("module structure: term %d bytes, %d us to parse; "
+                + "binary %d bytes, %d us to parse", term, termTime / 1000,
+                binary, binaryTime / 1000);
+    }
+
+    /**
+     * Reparses the module, building all its elements anew.
+     */
+    private List<IErlElement> parse(final ErlParser parser)
+            throws ErlModelException {
+        // without previous children, no element is reused
+        m.setChildren(null);
+        assertThat(parser.parse(m, m.getScannerName(), false, "", false),
+                is(true));
+        return m.getChildren();
+    }
+
+    private long timeParse(final ErlParser parser) throws ErlModelException {
+        // warm up
+        parse(parser);
+        final long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            parse(parser);
+        }
+        return (System.nanoTime() - start) / ROUNDS;
+    }
+
+    private static void assertSameElements(
+            final List<? extends IErlElement> expected,
+            final List<? extends IErlElement> actual) throws ErlModelException {
+        assertThat(actual.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameElement(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static void assertSameElement(final IErlElement expected,
+            final IErlElement actual) throws ErlModelException {
+        assertThat(actual.getKind(), is(expected.getKind()));
+        assertThat(actual.getName(), is(expected.getName()));
+        if (expected instanceof ISourceReference) {
+            final ISourceReference e = (ISourceReference) expected;
+            final ISourceReference a = (ISourceReference) actual;
+            assertSameRange(e.getSourceRange(), a.getSourceRange());
+            assertThat(a.getLineStart(), is(e.getLineStart()));
+            assertThat(a.getLineEnd(), is(e.getLineEnd()));
+        }
+        if (expected instanceof IErlMember) {
+            assertSameRange(((IErlMember) expected).getNameRange(),
+                    ((IErlMember) actual).getNameRange());
+        }
+        if (expected instanceof IErlFunction) {
+            final IErlFunction e = (IErlFunction) expected;
+            final IErlFunction a = (IErlFunction) actual;
+            assertThat(a.getArity(), is(e.getArity()));
+            assertThat(a.isExported(), is(e.isExported()));
+            assertThat(a.getClauses().size(), is(e.getClauses().size()));
+            assertThat(a.getClauses().size(), greaterThan(0));
+        }
+        if (expected instanceof IErlFunctionClause) {
+            final IErlFunctionClause e = (IErlFunctionClause) expected;
+            final IErlFunctionClause a = (IErlFunctionClause) actual;
+            assertThat(a.getHead(), is(e.getHead()));
+            assertThat(a.getParameters(), is(e.getParameters()));
+        }
+        if (expected instanceof IErlImportExport) {
+            final List<ErlangFunction> e = Lists
+                    .newArrayList(((IErlImportExport) expected).getFunctions());
+            final List<ErlangFunction> a = Lists
+                    .newArrayList(((IErlImportExport) actual).getFunctions());
+            assertThat(a, is(e));
+        }
+        if (expected instanceof IErlRecordField) {
+            final IErlRecordField e = (IErlRecordField) expected;
+            final IErlRecordField a = (IErlRecordField) actual;
+            assertThat(a.getFieldName(), is(e.getFieldName()));
+            assertThat(a.getExtra(), is(e.getExtra()));
+        }
+        // clauses of functions, fields of records
+        if (expected instanceof IParent) {
+            assertSameElements(((IParent) expected).getChildren(),
+                    ((IParent) actual).getChildren());
+        }
+    }
+
+    private static void assertSameRange(final ISourceRange expected,
+            final ISourceRange actual) {
+        if (expected == null) {
+            assertThat(actual == null, is(true));
+            return;
+        }
+        assertThat(actual.getOffset(), is(expected.getOffset()));
+        assertThat(actual.getLength(), is(expected.getLength()));
+    }
+
+    private static String source() {
+        final StringBuilder b = new StringBuilder(
+                "-module(enc).\n-export([f0/1, f1/1]).\n"
+                        + "-import(lists, [reverse/1]).\n"
+                        + "-record(r, {a = 1, b}).\n"
+                        + "-record(s, {c :: integer(), d = \"x\"}).\n");
+        for (int i = 0; i < FUNCTIONS; i++) {
+            b.append("%% @doc Function ").append(i).append(".\n");
+            b.append("f").append(i).append("([H | T]) ->\n")
+                    .append("    [H + ").append(i).append(" | f").append(i)
+                    .append("(T)];\n");
+            b.append("f").append(i).append("([]) ->\n    [].\n\n");
+        }
+        return b.toString();
+    }
+
+}
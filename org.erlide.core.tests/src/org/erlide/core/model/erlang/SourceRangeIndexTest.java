@@ -0,0 +1,125 @@
+package org.erlide.core.model.erlang;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.List;
+
+import org.erlide.core.model.root.IErlElement;
+import org.erlide.core.model.util.ErlangFunction;
+import org.erlide.test.support.ErlideTestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+
+/**
+ * getElementAt and getElementAtLine use a SourceRangeIndex; the results must
+ * be those of the tree walk with innermostThat that they replaced, also where
+ * ranges nest, touch or share lines.
+ */
+public class SourceRangeIndexTest extends ErlModelTestBase {
+
+    private static final String SOURCE = "-module(sr).\n"
+            + "-record(r, {a = 1,\n" //
+            + "            b}).\n" //
+            + "f(0) -> zero;\n" //
+            + "f(N) ->\n" //
+            + "    N.\n" //
+            + "g() -> ok. h() -> ok.\n" //
+            + "-define(M, 1).\n" //
+            + "i() -> #r{a = ?M}.j() -> ok.\n";
+
+    @Test
+    public void elementAtShouldMatchInnermostThat() throws Exception {
+        final IErlModule m = createModule();
+        for (int offset = -1; offset <= SOURCE.length() + 1; offset++) {
+            assertThat("offset " + offset, m.getElementAt(offset),
+                    sameInstance(innermostAt(m, offset)));
+        }
+    }
+
+    @Test
+    public void elementAtLineShouldMatchInnermostThat() throws Exception {
+        final IErlModule m = createModule();
+        final int lines = SOURCE.split("\n").length;
+        for (int line = -1; line <= lines + 1; line++) {
+            assertThat("line " + line, m.getElementAtLine(line),
+                    sameInstance(innermostAtLine(m, line)));
+        }
+    }
+
+    @Test
+    public void nestedRangesShouldGiveInnermost() throws Exception {
+        final IErlModule m = createModule();
+        final IErlFunction f = m.findFunction(new ErlangFunction("f", 1));
+        final List<IErlFunctionClause> clauses = f.getClauses();
+        final ISourceRange second = clauses.get(1).getSourceRange();
+        assertThat(m.getElementAt(second.getOffset()),
+                sameInstance((IErlElement) clauses.get(1)));
+        final int fieldB = SOURCE.indexOf("b}");
+        assertThat(m.getElementAt(fieldB), instanceOf(IErlRecordField.class));
+    }
+
+    @Test
+    public void rangeEndsShouldBelongToTheirForm() throws Exception {
+        final IErlModule m = createModule();
+        final IErlFunction g = m.findFunction(new ErlangFunction("g", 0));
+        final ISourceRange r = g.getSourceRange();
+        final IErlElement atEnd = m.getElementAt(r.getOffset() + r.getLength());
+        assertThat(atEnd == g || atEnd.getParent() == g, is(true));
+        // i's end is also j's start; the first form wins
+        final int j = SOURCE.indexOf("j()");
+        final IErlElement atJ = m.getElementAt(j);
+        assertThat(atJ, sameInstance(innermostAt(m, j)));
+    }
+
+    @Test
+    public void sharedLineShouldGiveFirstForm() throws Exception {
+        final IErlModule m = createModule();
+        final IErlFunction g = m.findFunction(new ErlangFunction("g", 0));
+        final IErlFunction h = m.findFunction(new ErlangFunction("h", 0));
+        assertThat(h.getLineStart(), is(g.getLineStart()));
+        final IErlElement atLine = m.getElementAtLine(g.getLineStart());
+        assertThat(atLine == g || atLine.getParent() == g, is(true));
+    }
+
+    private IErlModule createModule() throws Exception {
+        final IErlModule m = ErlideTestUtils.createModule(project, "sr.erl",
+                SOURCE);
+        m.open(null);
+        return m;
+    }
+
+    private static IErlElement innermostAt(final IErlModule m,
+            final int offset) {
+        return m.getModel().innermostThat(m, new Predicate<IErlElement>() {
+            @Override
+            public boolean apply(final IErlElement e) {
+                if (e instanceof ISourceReference) {
+                    final ISourceRange r = ((ISourceReference) e)
+                            .getSourceRange();
+                    return r != null && r.hasPosition(offset);
+                }
+                return false;
+            }
+        });
+    }
+
+    private static IErlElement innermostAtLine(final IErlModule m,
+            final int line) {
+        return m.getModel().innermostThat(m, new Predicate<IErlElement>() {
+            @Override
+            public boolean apply(final IErlElement e) {
+                if (e instanceof ISourceReference) {
+                    final ISourceReference sr = (ISourceReference) e;
+                    return sr.getLineStart() <= line
+                            && sr.getLineEnd() >= line;
+                }
+                return false;
+            }
+        });
+    }
+
+}
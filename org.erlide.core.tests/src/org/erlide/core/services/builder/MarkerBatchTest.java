@@ -0,0 +1,137 @@
+package org.erlide.core.services.builder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.erlide.core.model.root.IErlProject;
+import org.erlide.test.support.ErlideTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class MarkerBatchTest {
+
+    private static final int MARKERS = 200;
+
+    private IErlProject project;
+    private IFile file;
+    private int notifications;
+
+    // counts the workspace operations that changed the file's markers
+    private final IResourceChangeListener counter = new IResourceChangeListener() {
+        @Override
+        public void resourceChanged(final IResourceChangeEvent event) {
+            final IResourceDelta delta = event.getDelta();
+            final IResourceDelta d = delta == null ? null : delta
+                    .findMember(file.getFullPath());
+            if (d != null && (d.getFlags() & IResourceDelta.MARKERS) != 0) {
+                notifications++;
+            }
+        }
+    };
+
+    @Before
+    public void setUp() throws CoreException {
+        ErlideTestUtils.initProjects();
+        ErlideTestUtils.initModulesAndIncludes();
+        project = ErlideTestUtils.createTmpErlProject("testproject_markers");
+        file = (IFile) ErlideTestUtils.createModule(project, "mb.erl",
+                "-module(mb).\n% TODO one\nf() -> ok. % FIXME two\n")
+                .getResource();
+        ResourcesPlugin.getWorkspace().addResourceChangeListener(counter,
+                IResourceChangeEvent.POST_CHANGE);
+    }
+
+    @After
+    public void tearDown() throws CoreException {
+        ResourcesPlugin.getWorkspace().removeResourceChangeListener(counter);
+        ErlideTestUtils.deleteModules();
+        ErlideTestUtils.deleteProjects();
+    }
+
+    @Test
+    public void batchShouldNotifyOnce() throws CoreException {
+        final IWorkspace workspace = ResourcesPlugin.getWorkspace();
+        notifications = 0;
+        for (int i = 0; i < MARKERS; i++) {
+            MarkerUtils.addMarker(file, null, null, "m" + i, i,
+                    IMarker.SEVERITY_WARNING, MarkerUtils.PROBLEM_MARKER);
+        }
+        final int single = notifications;
+        file.deleteMarkers(MarkerUtils.PROBLEM_MARKER, false,
+                IResource.DEPTH_ZERO);
+
+        notifications = 0;
+        final MarkerBatch batch = new MarkerBatch();
+        addMarkers(batch, MARKERS);
+        batch.apply(null);
+        // AVOID_UPDATE may defer the notification: have it broadcast now
+        workspace.checkpoint(false);
+
+        // each marker creation and attribute is an operation of its own
+        assertThat(single, greaterThanOrEqualTo(MARKERS));
+        assertThat(notifications, is(1));
+        assertThat(MarkerUtils.getProblemsFor(file).length, is(MARKERS));
+    }
+
+    @Test
+    public void builderShouldFlushOnlyOverThreshold() throws CoreException {
+        final IWorkspace workspace = ResourcesPlugin.getWorkspace();
+        final BuilderHelper helper = new BuilderHelper();
+        final MarkerBatch batch = new MarkerBatch();
+        helper.setMarkerBatch(batch);
+        notifications = 0;
+
+        // a few compiled modules: kept for the end of the build
+        for (int i = 0; i < 10; i++) {
+            addMarkers(batch, 1);
+            helper.flushMarkers();
+        }
+        workspace.checkpoint(false);
+        assertThat(notifications, is(0));
+        assertThat(batch.size(), is(10));
+
+        // over the count threshold: one operation for all of them
+        addMarkers(batch, BuilderHelper.FLUSH_MARKERS);
+        helper.flushMarkers();
+        workspace.checkpoint(false);
+        assertThat(notifications, is(1));
+        assertThat(batch.size(), is(0));
+        assertThat(MarkerUtils.getProblemsFor(file).length,
+                is(10 + BuilderHelper.FLUSH_MARKERS));
+    }
+
+    @Test
+    public void taskMarkersShouldBeFound() throws CoreException {
+        final MarkerBatch batch = new MarkerBatch();
+        MarkerUtils.createTaskMarkers(batch, project.getWorkspaceProject(),
+                file);
+        assertThat(batch.size(), is(2));
+        batch.apply(null);
+        assertThat(MarkerUtils.getTasksFor(file).length, is(2));
+    }
+
+    private void addMarkers(final MarkerBatch batch, final int count) {
+        for (int i = 0; i < count; i++) {
+            final Map<String, Object> attrs = Maps.newHashMap();
+            attrs.put(IMarker.MESSAGE, "m" + i);
+            attrs.put(IMarker.LINE_NUMBER, Integer.valueOf(i));
+            batch.add(file, MarkerUtils.PROBLEM_MARKER, attrs);
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.erlide.core.services.codeassist;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.List;
+
+import org.erlide.jinterface.rpc.IRpcCallSite;
+import org.erlide.jinterface.rpc.IRpcCallback;
+import org.erlide.jinterface.rpc.IRpcFuture;
+import org.erlide.jinterface.rpc.IRpcResultCallback;
+import org.erlide.jinterface.rpc.RpcException;
+import org.erlide.jinterface.rpc.RpcResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangPid;
+import com.google.common.collect.Lists;
+
+public class CompletionCacheTest {
+
+    private static final int MAX_MODULES = Integer.getInteger(
+            "erlide.completion.modules", 100);
+
+    private CompletionCache cache;
+    private CountingCallSite backend;
+
+    @Before
+    public void setUp() {
+        cache = new CompletionCache();
+        backend = new CountingCallSite();
+    }
+
+    @Test
+    public void signaturesShouldBeFetchedOnce() {
+        final OtpErlangList first = cache.getSignatures(backend, "lists", "");
+        final OtpErlangList second = cache.getSignatures(backend, "lists", "");
+        assertThat(second, sameInstance(first));
+        assertThat(backend.calls.size(), is(1));
+        assertThat(backend.calls.get(0), is("lists"));
+    }
+
+    @Test
+    public void signaturesShouldBeKeptPerBackend() {
+        cache.getSignatures(backend, "lists", "");
+        final CountingCallSite other = new CountingCallSite();
+        cache.getSignatures(other, "lists", "");
+        assertThat(other.calls.size(), is(1));
+    }
+
+    @Test
+    public void removedModuleShouldBeFetchedAgain() {
+        cache.getSignatures(backend, "lists", "");
+        cache.getSignatures(backend, "dict", "");
+        cache.remove("lists");
+        cache.getSignatures(backend, "lists", "");
+        cache.getSignatures(backend, "dict", "");
+        assertThat(backend.calls, contains("lists", "dict", "lists"));
+    }
+
+    @Test
+    public void leastRecentlyUsedModuleShouldBeEvicted() {
+        for (int i = 0; i < MAX_MODULES; i++) {
+            cache.getSignatures(backend, "m" + i, "");
+        }
+        // m0 is now the most recently used, m1 the least
+        cache.getSignatures(backend, "m0", "");
+        cache.getSignatures(backend, "extra", "");
+        backend.calls.clear();
+
+        cache.getSignatures(backend, "m0", "");
+        assertThat(backend.calls.size(), is(0));
+        cache.getSignatures(backend, "m1", "");
+        assertThat(backend.calls.size(), is(1));
+    }
+
+    @Test
+    public void failedFetchShouldNotBeCached() {
+        backend.fail = true;
+        assertThat(cache.getSignatures(backend, "lists", ""), nullValue());
+        backend.fail = false;
+        cache.getSignatures(backend, "lists", "");
+        assertThat(backend.calls.size(), is(2));
+    }
+
+    /**
+     * Answers get_signatures calls with an empty list, recording the module
+     * of each call.
+     */
+    private static class CountingCallSite implements IRpcCallSite {
+
+        final List<String> calls = Lists.newArrayList();
+        boolean fail;
+
+        @Override
+        public OtpErlangObject call(final String m, final String f,
+                final String signature, final Object... a)
+                throws RpcException {
+            calls.add((String) a[0]);
+            if (fail) {
+                return new OtpErlangAtom("error");
+            }
+            return new OtpErlangList();
+        }
+
+        @Override
+        public RpcResult call_noexception(final String m, final String f,
+                final String signature, final Object... a) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RpcResult call_noexception(final int timeout, final String m,
+                final String f, final String signature, final Object... args) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IRpcFuture async_call(final String m, final String f,
+                final String signature, final Object... args)
+                throws RpcException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void async_call_cb(final IRpcCallback cb, final String m,
+                final String f, final String signature, final Object... args)
+                throws RpcException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cast(final String m, final String f,
+                final String signature, final Object... args)
+                throws RpcException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public OtpErlangObject call(final int timeout, final String m,
+                final String f, final String signature, final Object... a)
+                throws RpcException {
+            return call(m, f, signature, a);
+        }
+
+        @Override
+        public OtpErlangObject call(final int timeout,
+                final OtpErlangObject gleader, final String m, final String f,
+                final String signature, final Object... a) throws RpcException {
+            return call(m, f, signature, a);
+        }
+
+        @Override
+        public void async_call_result(final IRpcResultCallback cb,
+                final String m, final String f, final String signature,
+                final Object... args) throws RpcException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void send(final OtpErlangPid pid, final Object msg) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void send(final String name, final Object msg) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
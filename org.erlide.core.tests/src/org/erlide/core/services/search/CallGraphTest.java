@@ -0,0 +1,66 @@
+package org.erlide.core.services.search;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Map;
+
+import org.erlide.core.model.erlang.FunctionRef;
+import org.erlide.jinterface.util.ErlUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+
+public class CallGraphTest {
+
+    private static final FunctionRef F = new FunctionRef("a", "f", 0);
+    private static final FunctionRef G = new FunctionRef("b", "g", 1);
+    private static final FunctionRef H = new FunctionRef("a", "h", 0);
+    private static final FunctionRef K = new FunctionRef("c", "k", 0);
+
+    private CallGraph graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new CallGraph(edges("[{{a,f,0},{b,g,1}}, {{a,f,0},{a,h,0}},"
+                + " {{a,h,0},{b,g,1}}, {{c,k,0},{a,f,0}}]"));
+    }
+
+    @Test
+    public void callersAndCalleesShouldFollowTheEdges() {
+        assertThat(graph.getCallers(G), arrayContainingInAnyOrder(F, H));
+        assertThat(graph.getCallees(F), arrayContainingInAnyOrder(G, H));
+        assertThat(graph.getCallers(K), is(emptyArray()));
+        assertThat(graph.getCallers(new FunctionRef("x", "y", 0)),
+                is(emptyArray()));
+    }
+
+    @Test
+    public void replacedModuleShouldOnlyKeepItsNewCalls() throws Exception {
+        graph.replaceModule("a", edges("[{{a,f,0},{c,k,0}}]"));
+        assertThat(graph.getCallers(G), is(emptyArray()));
+        assertThat(graph.getCallees(F), arrayContainingInAnyOrder(K));
+        assertThat(graph.getCallers(K), arrayContainingInAnyOrder(F));
+        assertThat(graph.getCallers(F), arrayContainingInAnyOrder(K));
+        assertThat(graph.getEdgeCount(), is(2));
+    }
+
+    @Test
+    public void hierarchyShouldStopAtDepth() throws Exception {
+        final Map<FunctionRef, FunctionRef[]> two = graph.getCallerHierarchy(
+                G, 2);
+        assertThat(two.size(), is(3));
+        assertThat(two.get(G), arrayContainingInAnyOrder(F, H));
+        assertThat(two.get(F), arrayContainingInAnyOrder(K));
+        assertThat(two.get(H), arrayContainingInAnyOrder(F));
+        assertThat(graph.getCallerHierarchy(G, 1).size(), is(1));
+    }
+
+    private static OtpErlangList edges(final String s) throws Exception {
+        return (OtpErlangList) ErlUtils.parse(s);
+    }
+
+}
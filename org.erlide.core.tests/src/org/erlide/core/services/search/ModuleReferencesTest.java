@@ -0,0 +1,73 @@
+package org.erlide.core.services.search;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.List;
+
+import org.erlide.core.services.search.ErlangSearchPattern.LimitTo;
+import org.erlide.jinterface.util.ErlUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.google.common.collect.Lists;
+
+public class ModuleReferencesTest {
+
+    // f(X) -> g(X), ?M.
+    // g(Y) -> Y.
+    // h() -> m:g(1).
+    private static final String REFS = "["
+            + "{ref, {function_def, f, 1}, 0, 1, f, 1, \"f(X)\", false},"
+            + "{ref, {var_def, 'X'}, 2, 1, f, 1, \"f(X)\", false},"
+            + "{ref, {local_call, g, 1}, 8, 1, f, 1, \"f(X)\", false},"
+            + "{ref, {var_ref, 'X'}, 10, 1, f, 1, \"f(X)\", false},"
+            + "{ref, {macro_ref, 'M'}, 14, 2, f, 1, \"f(X)\", false},"
+            + "{ref, {function_def, g, 1}, 18, 1, g, 1, \"g(Y)\", false},"
+            + "{ref, {var_def, 'Y'}, 20, 1, g, 1, \"g(Y)\", false},"
+            + "{ref, {var_ref, 'Y'}, 26, 1, g, 1, \"g(Y)\", false},"
+            + "{ref, {external_call, m, g, 1}, 38, 3, h, 0, \"h()\", false}]";
+
+    private ModuleReferences refs;
+
+    @Before
+    public void setUp() throws Exception {
+        refs = new ModuleReferences("m", "/m.erl",
+                (OtpErlangList) ErlUtils.parse(REFS));
+    }
+
+    @Test
+    public void functionPatternShouldMatchCallsAndDefinition() {
+        final List<ModuleLineFunctionArityRef> found = refs
+                .find(new FunctionPattern("m", "g", 1,
+                        LimitTo.ALL_OCCURRENCES, true).getSearchObject());
+        assertThat(offsets(found), containsInAnyOrder(8, 18, 38));
+        assertThat(offsets(refs.find(new FunctionPattern("m", "g", -1,
+                LimitTo.REFERENCES, true).getSearchObject())),
+                containsInAnyOrder(8, 38));
+    }
+
+    @Test
+    public void occurrencesShouldFollowTheReferenceAtOffset() {
+        assertThat(offsets(refs.findOccurrences(39)),
+                containsInAnyOrder(8, 18, 38));
+        assertThat(offsets(refs.findOccurrences(10)),
+                containsInAnyOrder(2, 10));
+        assertThat(offsets(refs.findOccurrences(15)), contains(14));
+        assertThat(refs.findOccurrences(32), is(nullValue()));
+    }
+
+    private static List<Integer> offsets(
+            final List<ModuleLineFunctionArityRef> found) {
+        final List<Integer> result = Lists.newArrayList();
+        for (final ModuleLineFunctionArityRef ref : found) {
+            result.add(ref.getOffset());
+        }
+        return result;
+    }
+
+}
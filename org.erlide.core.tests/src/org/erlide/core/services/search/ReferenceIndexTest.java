@@ -0,0 +1,157 @@
+package org.erlide.core.services.search;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.util.List;
+
+import org.erlide.core.services.search.ErlangSearchPattern.LimitTo;
+import org.erlide.jinterface.util.ErlUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpOutputStream;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * The index must only look at the modules having a searched key, keep the
+ * references of a parse of the file across sessions, and leave modules whose
+ * file changed to the backend.
+ */
+public class ReferenceIndexTest {
+
+    // a.erl: f() -> b:g(1).
+    private static final String A_REFS = "["
+            + "{ref, {function_def, f, 0}, 0, 1, f, 0, \"f()\", false},"
+            + "{ref, {external_call, b, g, 1}, 7, 5, f, 0, \"f()\", false}]";
+    // b.erl: g(X) -> X.
+    private static final String B_REFS = "["
+            + "{ref, {function_def, g, 1}, 0, 1, g, 1, \"g(X)\", false},"
+            + "{ref, {var_def, 'X'}, 2, 1, g, 1, \"g(X)\", false},"
+            + "{ref, {var_ref, 'X'}, 8, 1, g, 1, \"g(X)\", false}]";
+
+    private File dir;
+    private File a;
+    private File b;
+    private ReferenceIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "refstest"
+                + System.nanoTime());
+        dir.mkdirs();
+        a = new File(dir, "a.erl");
+        b = new File(dir, "b.erl");
+        Files.write("f() -> b:g(1).\n", a, Charsets.ISO_8859_1);
+        Files.write("g(X) -> X.\n", b, Charsets.ISO_8859_1);
+        index = new ReferenceIndex(new File(dir, "refs"));
+        index.put(a.getPath(), "a", encode(A_REFS), true);
+        index.put(b.getPath(), "b", encode(B_REFS), true);
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    @Test
+    public void findShouldOnlyLookAtCandidates() throws Exception {
+        final List<String> notIndexed = Lists.newArrayList();
+        final List<ModuleLineFunctionArityRef> found = index.find(
+                callsOfG(), paths(), notIndexed);
+        assertThat(offsets(found), containsInAnyOrder(0, 7));
+        assertThat(notIndexed, is(empty()));
+
+        final List<ModuleLineFunctionArityRef> none = index.find(
+                new FunctionPattern("c", "h", 0, LimitTo.ALL_OCCURRENCES,
+                        true).getSearchObject(), paths(), notIndexed);
+        assertThat(none, is(empty()));
+        assertThat(notIndexed, is(empty()));
+    }
+
+    @Test
+    public void savedReferencesShouldSurviveASession() throws Exception {
+        index.save();
+        final ReferenceIndex reloaded = new ReferenceIndex(new File(dir,
+                "refs"));
+        final List<String> notIndexed = Lists.newArrayList();
+        assertThat(offsets(reloaded.find(callsOfG(), paths(), notIndexed)),
+                containsInAnyOrder(0, 7));
+        assertThat(notIndexed, is(empty()));
+        assertThat(reloaded.get(b.getPath()), is(notNullValue()));
+        assertThat(reloaded.prune(), is(0));
+    }
+
+    @Test
+    public void editorReferencesShouldNotBeSaved() throws Exception {
+        index.put(b.getPath(), "b", encode(B_REFS), false);
+        assertThat(index.get(b.getPath()), is(notNullValue()));
+        index.save();
+        final ReferenceIndex reloaded = new ReferenceIndex(new File(dir,
+                "refs"));
+        assertThat(reloaded.get(b.getPath()), is(nullValue()));
+        assertThat(reloaded.get(a.getPath()), is(notNullValue()));
+    }
+
+    @Test
+    public void changedFilesShouldBeLeftToTheBackend() throws Exception {
+        Files.write("g(Y) -> Y + 1.\n", b, Charsets.ISO_8859_1);
+        final List<String> notIndexed = Lists.newArrayList();
+        assertThat(offsets(index.find(callsOfG(), paths(), notIndexed)),
+                contains(7));
+        assertThat(notIndexed, contains(b.getPath()));
+        assertThat(index.get(b.getPath()), is(nullValue()));
+    }
+
+    @Test
+    public void variablePatternsShouldBeLeftToTheBackend() throws Exception {
+        final List<String> notIndexed = Lists.newArrayList();
+        final OtpErlangObject pattern = new VariablePattern("g", 1, "g(X)",
+                "X", LimitTo.ALL_OCCURRENCES).getSearchObject();
+        assertThat(index.find(pattern, paths(), notIndexed), is(empty()));
+        assertThat(notIndexed, containsInAnyOrder(a.getPath(), b.getPath()));
+    }
+
+    private OtpErlangObject callsOfG() {
+        return new FunctionPattern("b", "g", 1, LimitTo.ALL_OCCURRENCES, true)
+                .getSearchObject();
+    }
+
+    private List<String> paths() {
+        return Lists.newArrayList(a.getPath(), b.getPath());
+    }
+
+    private static byte[] encode(final String refs) throws Exception {
+        return new OtpOutputStream(ErlUtils.parse(refs)).toByteArray();
+    }
+
+    private static List<Integer> offsets(
+            final List<ModuleLineFunctionArityRef> found) {
+        final List<Integer> result = Lists.newArrayList();
+        for (final ModuleLineFunctionArityRef ref : found) {
+            result.add(ref.getOffset());
+        }
+        return result;
+    }
+
+    private static void delete(final File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,133 @@
+package org.erlide.core.services.search;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.erlide.core.ErlangPlugin;
+import org.erlide.core.backend.BackendCore;
+import org.erlide.core.model.erlang.ErlModelTestBase;
+import org.erlide.core.services.search.ErlangSearchPattern.LimitTo;
+import org.erlide.jinterface.ErlLogger;
+import org.erlide.jinterface.rpc.IRpcCallSite;
+import org.erlide.jinterface.rpc.IRpcResultCallback;
+import org.erlide.test.support.ErlideTestUtils;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+
+/**
+ * Searches scopes of growing size, serially and partitioned over the
+ * backend's schedulers, and checks that both find every reference. On the
+ * largest scope, the partitioned search must be faster when the backend has
+ * several schedulers, and must not cost much more when it has one.
+ */
+public class SearchThroughputTest extends ErlModelTestBase {
+
+    private static final int[] SCOPE_SIZES = { 10, 50, 200 };
+    private static final int FUNCTIONS = 20;
+    private static final int RUNS = 3;
+
+    @Test
+    public void partitionedSearchShouldFindAllReferences() throws Exception {
+        final IRpcCallSite backend = BackendCore.getBackendManager()
+                .getIdeBackend();
+        Assume.assumeTrue(backend != null);
+        final ErlangSearchPattern pattern = new FunctionPattern("lists",
+                "reverse", 1, LimitTo.REFERENCES, true);
+        final ErlSearchScope scope = new ErlSearchScope();
+        int created = 0;
+        long serial = 0;
+        long partitioned = 0;
+        for (final int size : SCOPE_SIZES) {
+            for (; created < size; created++) {
+                scope.addModule(ErlideTestUtils.createModule(project, "s"
+                        + created + ".erl", source(created)));
+            }
+            serial = search(backend, pattern, scope, 1, size);
+            partitioned = search(backend, pattern, scope, 0, size);
+            ErlLogger.info("search of %d modules: serial %d ms (%d modules/s)"
+                    + ", partitioned %d ms (%d modules/s)", size, serial,
+                    size * 1000L / Math.max(1, serial), partitioned,
+                    size * 1000L / Math.max(1, partitioned));
+        }
+        if (getSchedulers(backend) > 1) {
+            assertThat(partitioned, lessThan(serial));
+        } else {
+            assertThat(partitioned, lessThan(serial * 3 / 2 + 10));
+        }
+    }
+
+    /**
+     * The shortest of a few runs of the search, in ms.
+     */
+    private static long search(final IRpcCallSite backend,
+            final ErlangSearchPattern pattern, final ErlSearchScope scope,
+            final int shards, final int size) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            best = Math.min(best,
+                    searchOnce(backend, pattern, scope, shards, size));
+        }
+        return best;
+    }
+
+    private static int getSchedulers(final IRpcCallSite backend)
+            throws Exception {
+        final OtpErlangObject r = backend.call("erlang", "system_info", "a",
+                "schedulers_online");
+        return ((OtpErlangLong) r).intValue();
+    }
+
+    private static long searchOnce(final IRpcCallSite backend,
+            final ErlangSearchPattern pattern, final ErlSearchScope scope,
+            final int shards, final int size) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger found = new AtomicInteger();
+        final IRpcResultCallback callback = new IRpcResultCallback() {
+
+            @Override
+            public void start(final OtpErlangObject msg) {
+            }
+
+            @Override
+            public void stop(final OtpErlangObject msg) {
+                done.countDown();
+            }
+
+            @Override
+            public void progress(final OtpErlangObject msg) {
+                final OtpErlangTuple result = (OtpErlangTuple) ((OtpErlangTuple) msg)
+                        .elementAt(2);
+                found.addAndGet(((OtpErlangList) result.elementAt(1)).arity());
+            }
+        };
+        final long start = System.nanoTime();
+        ErlideSearchServer.startFindRefs(backend, pattern, scope, ErlangPlugin
+                .getDefault().getStateLocation().toString(), 1, shards,
+                callback);
+        assertThat(done.await(60, TimeUnit.SECONDS), is(true));
+        final long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                - start);
+        assertThat(found.get(), is(size * FUNCTIONS));
+        return time;
+    }
+
+    private static String source(final int i) {
+        final StringBuilder b = new StringBuilder("-module(s").append(i)
+                .append(").\n");
+        for (int f = 0; f < FUNCTIONS; f++) {
+            b.append("f").append(f).append("(L) ->\n    lists:reverse(L).\n");
+        }
+        return b.toString();
+    }
+
+}
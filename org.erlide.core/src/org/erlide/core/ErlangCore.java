@@ -27,6 +27,7 @@ import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.erlide.core.backend.BackendUtils;
 import org.erlide.core.common.EncodingUtils;
 import org.erlide.core.debug.ErlangDebugOptionsManager;
+import org.erlide.core.internal.model.root.ModelWarmUp;
 import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.RpcMonitor;
 import org.erlide.jinterface.util.SystemUtils;
@@ -85,6 +86,9 @@ public final class ErlangCore {
                 getSaveParticipant());
 
         ErlangDebugOptionsManager.getDefault().start();
+        if (!SystemUtils.isTest() && ModelWarmUp.isEnabled()) {
+            new ModelWarmUp().schedule();
+        }
         ErlLogger.debug("Started CORE");
     }
 
@@ -10,13 +10,17 @@
  *******************************************************************************/
 package org.erlide.core.backend.console;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.erlide.core.ErlangPlugin;
 import org.erlide.core.backend.IBackend;
 import org.erlide.core.backend.console.IoRequest.IoRequestKind;
+import org.erlide.core.backend.console.IoRequestBuffer.TextUpdate;
 import org.erlide.core.backend.events.ErlangEventHandler;
+import org.erlide.jinterface.ErlLogger;
 
 import com.ericsson.otp.erlang.OtpErlang;
 import com.ericsson.otp.erlang.OtpErlangAtom;
@@ -36,14 +40,55 @@ public class BackendShell implements IBackendShell {
         this.backend = backend;
         fId = id;
         this.server = server;
-        requests = new ArrayList<IoRequest>(1000);
+        requests = new IoRequestBuffer(getDefaultRetention());
+        requests.setSpill(createSpill(backend.getName() + "_" + id));
         listeners = new ArrayList<BackendShellListener>();
+        coalescer = new OutputCoalescer(new Runnable() {
+            @Override
+            public void run() {
+                // write discarded output here, away from the buffer's lock
+                final IoRequestSpill spill = requests.getSpill();
+                if (spill != null) {
+                    spill.flush();
+                }
+                notifyListeners();
+            }
+        }, Integer.getInteger("erlide.console.maxrate",
+                OutputCoalescer.DEFAULT_RATE).intValue());
 
         final ErlangEventHandler handler = new ConsoleEventHandler(backend,
                 this);
         handler.register();
     }
 
+    private static long getDefaultRetention() {
+        final String value = System.getProperty("erlide.console.retention");
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (final NumberFormatException e) {
+                ErlLogger.warn("bad value for erlide.console.retention: %s",
+                        value);
+            }
+        }
+        return IoRequestBuffer.DEFAULT_RETENTION;
+    }
+
+    private static IoRequestSpill createSpill(final String name) {
+        try {
+            final ErlangPlugin plugin = ErlangPlugin.getDefault();
+            final File dir = plugin != null ? plugin.getStateLocation()
+                    .append("console").toFile() : new File(
+                    System.getProperty("java.io.tmpdir"), "erlide_console");
+            return new IoRequestSpill(dir, name.replaceAll("[^\\w.-]", "_"),
+                    Long.getLong("erlide.console.spill",
+                            IoRequestSpill.DEFAULT_LIMIT).longValue());
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+            return null;
+        }
+    }
+
     @Override
     public void close() {
         if (server != null) {
@@ -71,37 +116,21 @@ public class BackendShell implements IBackendShell {
         return fId;
     }
 
-    private static final int MAX_REQUESTS = 5000;
-    private static final int DELTA_REQUESTS = 500;
-
-    private final List<IoRequest> requests;
+    private final IoRequestBuffer requests;
     private final List<BackendShellListener> listeners;
-    private int pos = 0;
+    private final OutputCoalescer coalescer;
 
     @Override
     public void input(String s) {
         if (!s.endsWith("\n")) {
             s += "\n";
         }
-        final IoRequest req = new IoRequest(s, IoRequestKind.INPUT);
-        req.setStart(pos);
-        pos += req.getLength();
-        synchronized (requests) {
-            requests.add(req);
-        }
-        notifyListeners();
+        added(new IoRequest(s, IoRequestKind.INPUT));
     }
 
     @Override
     public void add(final OtpErlangObject msg) {
-        synchronized (requests) {
-            deleteOldItems();
-            final IoRequest req = doAdd(msg);
-            if (req == null) {
-                return;
-            }
-        }
-        notifyListeners();
+        doAdd(msg);
     }
 
     @Override
@@ -110,24 +139,8 @@ public class BackendShell implements IBackendShell {
                 && IoRequest.RE_PROMPT.matcher(text).matches()) {
             return;
         }
-        final IoRequest req = new IoRequest(text, kind);
-        req.setStart(pos);
-        pos += req.getLength();
-        synchronized (requests) {
-            // TODO this is not complete
-            // IoRequest last = requests.get(requests.size() - 1);
-            // if (last.getKind() == IoRequestKind.PROMPT) {
-            // requests.remove(last);
-            // }
-
-            // System.out.println(req.toString());
-            requests.add(req);
-
-            // if (last.getKind() == IoRequestKind.PROMPT) {
-            // requests.add(last);
-            // }
-        }
-        notifyListeners();
+        // TODO this is not complete: a trailing prompt should stay last
+        added(new IoRequest(text, kind));
     }
 
     private IoRequest doAdd(final OtpErlangObject msg) {
@@ -135,68 +148,92 @@ public class BackendShell implements IBackendShell {
             return null;
         }
         final IoRequest req = new IoRequest((OtpErlangTuple) msg);
-        req.setStart(pos);
-        pos += req.getLength();
-
-        requests.add(req);
-
+        added(req);
         return req;
     }
 
-    private void deleteOldItems() {
-        // TODO use a configuration for this
-        synchronized (requests) {
-            if (requests.size() > MAX_REQUESTS) {
-                requests.subList(0, DELTA_REQUESTS).clear();
-                final IoRequest first = requests.get(0);
-                final int start = first.getStart();
-                for (final IoRequest areq : requests) {
-                    areq.setStart(areq.getStart() - start);
-                }
+    /**
+     * Stores the request; listeners are notified later, at a capped rate,
+     * for all requests added in the meantime.
+     */
+    private void added(final IoRequest req) {
+        requests.add(req);
+        int lines = 0;
+        final String message = req.getMessage();
+        for (int i = 0; i < message.length(); i++) {
+            if (message.charAt(i) == '\n') {
+                lines++;
             }
         }
+        coalescer.outputAdded(lines);
+    }
+
+    @Override
+    public double getLinesPerSecond() {
+        return coalescer.getLinesPerSecond();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return coalescer.getDroppedFrames();
     }
 
     @Override
     public IoRequest findAtPos(final int thePos) {
-        synchronized (requests) {
-            for (final IoRequest req : requests) {
-                if (req.getStart() <= thePos
-                        && req.getStart() + req.getLength() > thePos) {
-                    return req;
-                }
-            }
-            return null;
-        }
+        return requests.findAtPos(thePos);
     }
 
     @Override
     public List<IoRequest> getAllFrom(final OtpErlangPid sender) {
-        final List<IoRequest> result = new ArrayList<IoRequest>();
-        synchronized (requests) {
-            for (final IoRequest element : requests) {
-                if (element.getSender().equals(sender)) {
-                    result.add(element);
-                }
-            }
-        }
-        return result;
+        return requests.getAllFrom(sender);
     }
 
     @Override
     public void add(final List<OtpErlangObject> msgs) {
-        synchronized (requests) {
-            deleteOldItems();
-            for (final OtpErlangObject element : msgs) {
-                doAdd(element);
-            }
+        for (final OtpErlangObject element : msgs) {
+            doAdd(element);
+        }
+    }
+
+    @Override
+    public void setRetention(final long chars) {
+        requests.setRetention(chars);
+    }
+
+    @Override
+    public long getHistoryStart() {
+        final IoRequestSpill spill = requests.getSpill();
+        return spill == null ? -1 : spill.getStart();
+    }
+
+    @Override
+    public List<IoRequest> getHistory(final long from, final long to) {
+        final IoRequestSpill spill = requests.getSpill();
+        if (spill == null) {
+            return new ArrayList<IoRequest>();
         }
-        notifyListeners();
+        return spill.readRange(from, to);
+    }
+
+    @Override
+    public long findInHistory(final String text, final long from,
+            final long to) {
+        final IoRequestSpill spill = requests.getSpill();
+        return spill == null ? -1 : spill.lastIndexOf(text, from, to);
     }
 
     @Override
     public void dispose() {
+        ErlLogger.debug("console %s: %d notifications, %d dropped", fId,
+                Long.valueOf(coalescer.getFrames()),
+                Long.valueOf(coalescer.getDroppedFrames()));
+        coalescer.dispose();
         listeners.clear();
+        final IoRequestSpill spill = requests.getSpill();
+        if (spill != null) {
+            requests.setSpill(null);
+            spill.dispose();
+        }
     }
 
     @Override
@@ -225,24 +262,22 @@ public class BackendShell implements IBackendShell {
 
     @Override
     public int getTextLength() {
-        int res = 0;
-        synchronized (requests) {
-            for (final IoRequest req : requests) {
-                res += req.getLength();
-            }
-        }
-        return res;
+        return requests.getTextLength();
     }
 
     @Override
     public String getText() {
-        final StringBuffer res = new StringBuffer();
-        synchronized (requests) {
-            for (final IoRequest req : requests) {
-                res.append(req.getMessage());
-            }
-        }
-        return res.toString();
+        return requests.getText();
+    }
+
+    @Override
+    public String getText(final int offset, final int length) {
+        return requests.getText(offset, length);
+    }
+
+    @Override
+    public TextUpdate getTextSince(final long offset) {
+        return requests.getTextSince(offset);
     }
 
 }
@@ -13,6 +13,7 @@ package org.erlide.core.backend.console;
 import java.util.List;
 
 import org.erlide.core.backend.console.IoRequest.IoRequestKind;
+import org.erlide.core.backend.console.IoRequestBuffer.TextUpdate;
 
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangPid;
@@ -47,4 +48,51 @@ public interface IBackendShell {
 
     String getText();
 
+    /**
+     * Text between two offsets, relative to the first retained character.
+     */
+    String getText(int offset, int length);
+
+    /**
+     * Text appended after the given absolute offset, with the current bounds
+     * of the retained text; lets views update incrementally.
+     */
+    TextUpdate getTextSince(long offset);
+
+    /**
+     * Maximum number of characters kept; older output is discarded.
+     */
+    void setRetention(long chars);
+
+    /**
+     * Absolute offset of the oldest discarded character that is still kept
+     * on disk, or -1 if there is none.
+     */
+    long getHistoryStart();
+
+    /**
+     * Pages discarded requests overlapping a range of absolute offsets back
+     * in, oldest first; their starts are absolute.
+     */
+    List<IoRequest> getHistory(long from, long to);
+
+    /**
+     * Searches the discarded output kept on disk between two absolute
+     * offsets, newest first; returns the absolute offset of the last match,
+     * or -1.
+     */
+    long findInHistory(String text, long from, long to);
+
+    /**
+     * Lines of output received per second, measured over the last second
+     * or so; 0 when the shell is idle.
+     */
+    double getLinesPerSecond();
+
+    /**
+     * Number of listener notifications that couldn't be delivered at the
+     * capped rate because the previous one took too long.
+     */
+    long getDroppedFrames();
+
 }
@@ -34,7 +34,8 @@ public class IoRequest {
     private OtpErlangPid leader;
     private OtpErlangPid sender;
     private String message;
-    private int start;
+    private long start;
+    private IoRequestBuffer buffer;
     private final IoRequestKind kind;
 
     public IoRequest(final OtpErlangTuple obj) {
@@ -85,6 +86,14 @@ public class IoRequest {
         this.kind = kind;
     }
 
+    IoRequest(final String msg, final IoRequestKind kind,
+            final OtpErlangPid sender) {
+        message = msg;
+        leader = new OtpErlangPid("s", 0, 0, 0);
+        this.sender = sender;
+        this.kind = kind;
+    }
+
     @Override
     public String toString() {
         return "{" + kind.toString() + ":: '" + message + "', " + start + "/"
@@ -103,8 +112,15 @@ public class IoRequest {
         return sender;
     }
 
+    /**
+     * Returns the start offset relative to the first character retained by
+     * the buffer holding this request.
+     */
     public int getStart() {
-        return start;
+        if (buffer == null) {
+            return (int) start;
+        }
+        return (int) (start - buffer.getBase());
     }
 
     public int getLength() {
@@ -115,7 +131,21 @@ public class IoRequest {
         return kind;
     }
 
-    public void setStart(final int pos) {
+    /**
+     * Returns the start offset counted from the very first character the
+     * console received.
+     */
+    public long getAbsoluteStart() {
+        return start;
+    }
+
+    public void setStart(final long pos) {
+        buffer = null;
         start = pos;
     }
+
+    void attach(final IoRequestBuffer aBuffer, final long absoluteStart) {
+        buffer = aBuffer;
+        start = absoluteStart;
+    }
 }
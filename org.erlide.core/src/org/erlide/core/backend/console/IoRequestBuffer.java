@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2009 * and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available
+ * at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     *
+ *******************************************************************************/
+package org.erlide.core.backend.console;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ericsson.otp.erlang.OtpErlangPid;
+
+/**
+ * Offset-indexed storage for the io requests of a console.
+ * <p>
+ * Requests are kept in a ring in arrival order, together with their absolute
+ * start offsets (counted from the very first character the console ever
+ * received). Since offsets grow monotonically, a position lookup is a binary
+ * search and discarding old output never rewrites the remaining entries: only
+ * the base offset moves. The text is kept in one buffer that is compacted
+ * lazily, so that length is O(1) and text ranges can be extracted without
+ * concatenating all requests.
+ * <p>
+ * Retention is bounded by a number of characters; when it is exceeded, the
+ * oldest requests are discarded until the buffer is back under the limit.
+ * Discarded requests can be kept on disk by setting an {@link IoRequestSpill}.
+ */
+public class IoRequestBuffer {
+
+    public static final long DEFAULT_RETENTION = 4 * 1024 * 1024;
+
+    /**
+     * The text added since a given offset, together with the current bounds
+     * of the buffer.
+     */
+    public static class TextUpdate {
+        private final long base;
+        private final long end;
+        private final long from;
+        private final String text;
+
+        TextUpdate(final long base, final long end, final long from,
+                final String text) {
+            this.base = base;
+            this.end = end;
+            this.from = from;
+            this.text = text;
+        }
+
+        /** Absolute offset of the first retained character. */
+        public long getBase() {
+            return base;
+        }
+
+        /** Absolute offset after the last character. */
+        public long getEnd() {
+            return end;
+        }
+
+        /** Absolute offset where {@link #getText()} starts. */
+        public long getFrom() {
+            return from;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    private IoRequest[] requests = new IoRequest[1024];
+    private long[] starts = new long[1024];
+    private int head;
+    private int size;
+
+    private final StringBuilder text = new StringBuilder();
+    // absolute offset of text.charAt(0); may be lower than base until the
+    // dead prefix is compacted away
+    private long textOrigin;
+    private long base;
+    private long end;
+    private long retention;
+    private IoRequestSpill spill;
+
+    public IoRequestBuffer() {
+        this(DEFAULT_RETENTION);
+    }
+
+    public IoRequestBuffer(final long retention) {
+        setRetention(retention);
+    }
+
+    public synchronized void setRetention(final long retention) {
+        this.retention = Math.max(1, retention);
+        trim();
+    }
+
+    public synchronized long getRetention() {
+        return retention;
+    }
+
+    public synchronized void add(final IoRequest req) {
+        if (size == requests.length) {
+            grow();
+        }
+        final int ix = (head + size) % requests.length;
+        requests[ix] = req;
+        starts[ix] = end;
+        size++;
+        req.attach(this, end);
+        text.append(req.getMessage());
+        end += req.getLength();
+        trim();
+    }
+
+    public synchronized long getBase() {
+        return base;
+    }
+
+    public synchronized int getTextLength() {
+        return (int) (end - base);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized String getText() {
+        return text.substring((int) (base - textOrigin));
+    }
+
+    /**
+     * Returns the text between the given offsets, relative to the first
+     * retained character.
+     */
+    public synchronized String getText(final int offset, final int length) {
+        final int from = (int) (base - textOrigin) + Math.max(0, offset);
+        final int to = Math.min(text.length(), from + Math.max(0, length));
+        if (from >= to) {
+            return "";
+        }
+        return text.substring(from, to);
+    }
+
+    /**
+     * Returns what was added after the given absolute offset. If that has
+     * already been discarded, the whole retained text is returned.
+     */
+    public synchronized TextUpdate getTextSince(final long offset) {
+        final long from = Math.min(end, Math.max(base, offset));
+        final String s = text.substring((int) (from - textOrigin));
+        return new TextUpdate(base, end, from, s);
+    }
+
+    /**
+     * Finds the request covering a position relative to the first retained
+     * character, in O(log n).
+     */
+    public synchronized IoRequest findAtPos(final int pos) {
+        final long abs = base + pos;
+        if (pos < 0 || abs >= end) {
+            return null;
+        }
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int ix = (head + mid) % requests.length;
+            final long start = starts[ix];
+            if (abs < start) {
+                hi = mid - 1;
+            } else if (abs >= start + requests[ix].getLength()) {
+                lo = mid + 1;
+            } else {
+                return requests[ix];
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<IoRequest> getAllFrom(final OtpErlangPid sender) {
+        final List<IoRequest> result = new ArrayList<IoRequest>();
+        for (int i = 0; i < size; i++) {
+            final IoRequest req = requests[(head + i) % requests.length];
+            if (req.getSender().equals(sender)) {
+                result.add(req);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Discarded requests are appended to the spill, if any, instead of being
+     * dropped.
+     */
+    public synchronized void setSpill(final IoRequestSpill spill) {
+        this.spill = spill;
+    }
+
+    public synchronized IoRequestSpill getSpill() {
+        return spill;
+    }
+
+    private void trim() {
+        while (size > 1 && end - base > retention) {
+            final IoRequest req = requests[head];
+            final long start = starts[head];
+            requests[head] = null;
+            head = (head + 1) % requests.length;
+            size--;
+            base = starts[head];
+            if (spill != null) {
+                spill.append(req, start);
+            }
+        }
+        // compact the text only when the dead prefix dominates, so that the
+        // copy is amortized over many discarded characters
+        final int dead = (int) (base - textOrigin);
+        if (dead > 0 && dead >= text.length() / 2) {
+            text.delete(0, dead);
+            textOrigin = base;
+        }
+    }
+
+    private void grow() {
+        final int n = requests.length;
+        final IoRequest[] newRequests = new IoRequest[n * 2];
+        final long[] newStarts = new long[n * 2];
+        for (int i = 0; i < size; i++) {
+            newRequests[i] = requests[(head + i) % n];
+            newStarts[i] = starts[(head + i) % n];
+        }
+        requests = newRequests;
+        starts = newStarts;
+        head = 0;
+    }
+
+}
@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * Copyright (c) 2009 * and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available
+ * at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     *
+ *******************************************************************************/
+package org.erlide.core.backend.console;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+import org.erlide.core.backend.console.IoRequest.IoRequestKind;
+import org.erlide.jinterface.ErlLogger;
+
+import com.ericsson.otp.erlang.OtpErlangPid;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Disk storage for io requests discarded from a console's in-memory buffer,
+ * so that long-running nodes keep their recent history without growing the
+ * heap.
+ * <p>
+ * Two files are written: the text of the requests (UTF-8), and a fixed-size
+ * index record per request (absolute start offset, position and length in the
+ * text file, kind, sender). Only the distinct senders are kept in memory.
+ * <p>
+ * Appended requests are only queued; {@link #flush()} writes them in one go,
+ * so that the console buffer's lock is never held during disk writes. When
+ * the two files together grow over their limit, the oldest requests are
+ * dropped until they fit in half of it.
+ */
+public class IoRequestSpill {
+
+    public static final long DEFAULT_LIMIT = 64 * 1024 * 1024;
+
+    // start offset (8), data position (8), data length (4), char length (4),
+    // kind (1), sender (4)
+    private static final int RECORD_SIZE = 29;
+    private static final String ENCODING = "UTF-8";
+    private static final int COPY_BUFFER = 64 * 1024;
+    // requests read at a time when searching
+    private static final int SEARCH_CHUNK = 256;
+
+    private final File dataFile;
+    private final File indexFile;
+    private final long limit;
+    private RandomAccessFile data;
+    private RandomAccessFile index;
+    private int size;
+    private long dataEnd;
+
+    private final List<IoRequest> pending = Lists.newArrayList();
+    private final List<Long> pendingStarts = Lists.newArrayList();
+
+    private final List<OtpErlangPid> senders = Lists.newArrayList();
+    private final Map<OtpErlangPid, Integer> senderIds = Maps.newHashMap();
+
+    public IoRequestSpill(final File dir, final String name)
+            throws IOException {
+        this(dir, name, DEFAULT_LIMIT);
+    }
+
+    /**
+     * @param limit
+     *            the size in bytes of the text and index files above which
+     *            the oldest requests are dropped
+     */
+    public IoRequestSpill(final File dir, final String name, final long limit)
+            throws IOException {
+        this.limit = Math.max(1, limit);
+        dir.mkdirs();
+        dataFile = new File(dir, name + ".log");
+        indexFile = new File(dir, name + ".idx");
+        data = new RandomAccessFile(dataFile, "rw");
+        index = new RandomAccessFile(indexFile, "rw");
+        data.setLength(0);
+        index.setLength(0);
+    }
+
+    /**
+     * Queues a discarded request; it is written by the next {@link #flush()}.
+     */
+    public void append(final IoRequest req, final long start) {
+        synchronized (pending) {
+            pending.add(req);
+            pendingStarts.add(Long.valueOf(start));
+        }
+    }
+
+    /**
+     * Writes the queued requests.
+     */
+    public synchronized void flush() {
+        final List<IoRequest> reqs;
+        final List<Long> starts;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            reqs = Lists.newArrayList(pending);
+            starts = Lists.newArrayList(pendingStarts);
+            pending.clear();
+            pendingStarts.clear();
+        }
+        if (data == null) {
+            return;
+        }
+        try {
+            final List<byte[]> texts = Lists.newArrayList();
+            int textSize = 0;
+            for (final IoRequest req : reqs) {
+                final byte[] bytes = req.getMessage().getBytes(ENCODING);
+                texts.add(bytes);
+                textSize += bytes.length;
+            }
+            final ByteBuffer text = ByteBuffer.allocate(textSize);
+            final ByteBuffer records = ByteBuffer.allocate(reqs.size()
+                    * RECORD_SIZE);
+            long pos = dataEnd;
+            for (int i = 0; i < reqs.size(); i++) {
+                final IoRequest req = reqs.get(i);
+                final byte[] bytes = texts.get(i);
+                text.put(bytes);
+                records.putLong(starts.get(i).longValue());
+                records.putLong(pos);
+                records.putInt(bytes.length);
+                records.putInt(req.getLength());
+                records.put((byte) req.getKind().ordinal());
+                records.putInt(getSenderId(req.getSender()));
+                pos += bytes.length;
+            }
+            data.seek(dataEnd);
+            data.write(text.array());
+            index.seek((long) size * RECORD_SIZE);
+            index.write(records.array());
+            dataEnd = pos;
+            size += reqs.size();
+            if (dataEnd + (long) size * RECORD_SIZE > limit) {
+                dropOldest();
+            }
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+        }
+    }
+
+    public synchronized int size() {
+        flush();
+        return size;
+    }
+
+    /**
+     * Absolute offset of the oldest character still kept, or -1 if there is
+     * none.
+     */
+    public synchronized long getStart() {
+        flush();
+        if (data == null || size == 0) {
+            return -1;
+        }
+        try {
+            return readRecords(0, 1).getLong(0);
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+            return -1;
+        }
+    }
+
+    /**
+     * Reads back the requests overlapping the given range of absolute
+     * offsets, oldest first. Their starts are absolute.
+     */
+    public synchronized List<IoRequest> readRange(final long from,
+            final long to) {
+        flush();
+        if (data == null || size == 0 || from >= to) {
+            return Lists.newArrayList();
+        }
+        try {
+            final int first = Math.max(0, indexAt(from));
+            final int last = Math.min(size - 1, indexAt(to - 1));
+            return read(first, last - first + 1);
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+            return Lists.newArrayList();
+        }
+    }
+
+    /**
+     * Reads back a range of spilled requests, oldest first.
+     */
+    public synchronized List<IoRequest> read(final int first, final int count) {
+        flush();
+        final List<IoRequest> result = Lists.newArrayList();
+        final int from = Math.max(0, first);
+        final int to = Math.min(size, from + count);
+        if (data == null || from >= to) {
+            return result;
+        }
+        try {
+            final ByteBuffer records = readRecords(from, to - from);
+            final long dataStart = records.getLong(8);
+            final int lastRecord = (to - from - 1) * RECORD_SIZE;
+            final long dataStop = records.getLong(lastRecord + 8)
+                    + records.getInt(lastRecord + 16);
+            final ByteBuffer text = ByteBuffer
+                    .allocate((int) (dataStop - dataStart));
+            readFully(data.getChannel(), text, dataStart);
+            final IoRequestKind[] kinds = IoRequestKind.values();
+            for (int i = 0; i < to - from; i++) {
+                final int r = i * RECORD_SIZE;
+                final long start = records.getLong(r);
+                final long pos = records.getLong(r + 8);
+                final int length = records.getInt(r + 16);
+                final IoRequestKind kind = kinds[records.get(r + 24)];
+                final OtpErlangPid sender = senders.get(records.getInt(r + 25));
+                final IoRequest req = new IoRequest(new String(text.array(),
+                        (int) (pos - dataStart), length, ENCODING), kind,
+                        sender);
+                req.setStart(start);
+                result.add(req);
+            }
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+        }
+        return result;
+    }
+
+    /**
+     * Searches the spilled text between two absolute offsets, newest first.
+     * Returns the absolute offset of the last occurrence that lies entirely
+     * in the range, or -1.
+     */
+    public synchronized long lastIndexOf(final String str, final long from,
+            final long to) {
+        flush();
+        if (data == null || size == 0 || str.length() == 0 || from >= to) {
+            return -1;
+        }
+        try {
+            final int first = Math.max(0, indexAt(from));
+            int last = Math.min(size - 1, indexAt(to - 1));
+            // the start of the text after the current chunk, for matches
+            // that span two chunks
+            String carry = "";
+            while (last >= first) {
+                final int lo = Math.max(first, last - SEARCH_CHUNK + 1);
+                final List<IoRequest> reqs = read(lo, last - lo + 1);
+                if (reqs.isEmpty()) {
+                    return -1;
+                }
+                final StringBuilder b = new StringBuilder();
+                for (final IoRequest req : reqs) {
+                    b.append(req.getMessage());
+                }
+                final String chunk = b.toString();
+                final String text = chunk + carry;
+                final long start = reqs.get(0).getAbsoluteStart();
+                int i = text.lastIndexOf(str);
+                while (i >= 0) {
+                    final long at = start + i;
+                    if (at < from) {
+                        return -1;
+                    }
+                    if (at + str.length() <= to) {
+                        return at;
+                    }
+                    i = text.lastIndexOf(str, i - 1);
+                }
+                carry = chunk.substring(0,
+                        Math.min(chunk.length(), str.length() - 1));
+                last = lo - 1;
+            }
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+        }
+        return -1;
+    }
+
+    public synchronized void dispose() {
+        synchronized (pending) {
+            pending.clear();
+            pendingStarts.clear();
+        }
+        try {
+            if (data != null) {
+                data.close();
+            }
+            if (index != null) {
+                index.close();
+            }
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+        }
+        data = null;
+        index = null;
+        dataFile.delete();
+        indexFile.delete();
+    }
+
+    /**
+     * Finds the index of the request covering an absolute offset: -1 if it
+     * is before the first request, size if it is after the last one.
+     */
+    private int indexAt(final long offset) throws IOException {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final ByteBuffer record = readRecords(mid, 1);
+            final long start = record.getLong(0);
+            final int length = record.getInt(20);
+            if (offset < start) {
+                hi = mid - 1;
+            } else if (offset >= start + length) {
+                lo = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return lo == 0 ? -1 : lo;
+    }
+
+    /**
+     * Moves the newest requests that fit in half of the limit, text and
+     * index records together, to the start of the files. The copy is
+     * amortized over the half of the limit written since the last one, and
+     * is done in bounded chunks.
+     */
+    private void dropOldest() throws IOException {
+        final int first = firstToKeep(limit / 2);
+        final long shift = readRecords(first, 1).getLong(8);
+        final FileChannel channel = data.getChannel();
+        final ByteBuffer buf = ByteBuffer.allocate(COPY_BUFFER);
+        for (long pos = shift; pos < dataEnd; pos += COPY_BUFFER) {
+            buf.clear();
+            buf.limit((int) Math.min(COPY_BUFFER, dataEnd - pos));
+            readFully(channel, buf, pos);
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf, pos - shift + buf.position());
+            }
+        }
+        dataEnd -= shift;
+        data.setLength(dataEnd);
+
+        final int kept = size - first;
+        final FileChannel indexChannel = index.getChannel();
+        final int chunk = COPY_BUFFER / RECORD_SIZE;
+        for (int i = 0; i < kept; i += chunk) {
+            final int n = Math.min(chunk, kept - i);
+            final ByteBuffer records = readRecords(first + i, n);
+            for (int r = 0; r < n; r++) {
+                final int pos = r * RECORD_SIZE + 8;
+                records.putLong(pos, records.getLong(pos) - shift);
+            }
+            records.clear();
+            final long to = (long) i * RECORD_SIZE;
+            while (records.hasRemaining()) {
+                indexChannel.write(records, to + records.position());
+            }
+        }
+        index.setLength((long) kept * RECORD_SIZE);
+        size = kept;
+    }
+
+    /**
+     * Finds the oldest request from which the text and the index records
+     * to the end fit in the given number of bytes; the newest request is
+     * always kept.
+     */
+    private int firstToKeep(final long budget) throws IOException {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            final long pos = readRecords(mid, 1).getLong(8);
+            if (dataEnd - pos + (long) (size - mid) * RECORD_SIZE <= budget) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    private ByteBuffer readRecords(final int first, final int count)
+            throws IOException {
+        final ByteBuffer records = ByteBuffer.allocate(count * RECORD_SIZE);
+        readFully(index.getChannel(), records, (long) first * RECORD_SIZE);
+        return records;
+    }
+
+    private static void readFully(final FileChannel channel,
+            final ByteBuffer buf, final long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            final int n = channel.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("unexpected end of console spill");
+            }
+            pos += n;
+        }
+    }
+
+    private int getSenderId(final OtpErlangPid sender) {
+        final Integer id = senderIds.get(sender);
+        if (id != null) {
+            return id.intValue();
+        }
+        senders.add(sender);
+        senderIds.put(sender, Integer.valueOf(senders.size() - 1));
+        return senders.size() - 1;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2009 * and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available
+ * at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     *
+ *******************************************************************************/
+package org.erlide.core.backend.console;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.erlide.jinterface.ErlLogger;
+
+/**
+ * Coalesces console output notifications: any number of requests arriving
+ * within one frame result in a single call of the flush action, and flushes
+ * are never run more often than the configured rate. Flushes run on a shared
+ * daemon thread, not on the thread delivering the output.
+ */
+public class OutputCoalescer {
+
+    public static final int DEFAULT_RATE = 30;
+
+    private static final ScheduledExecutorService executor = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "erlide console updates");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final Runnable flush;
+    private final long frameNanos;
+
+    private boolean scheduled;
+    private boolean disposed;
+    private long lastFlush;
+
+    private long pendingLines;
+    private long rateWindowStart;
+    private long rateWindowLines;
+    private double linesPerSecond;
+    private long frames;
+    private long droppedFrames;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            doFlush();
+        }
+    };
+
+    public OutputCoalescer(final Runnable flush, final int maxRate) {
+        this.flush = flush;
+        frameNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxRate);
+        rateWindowStart = System.nanoTime();
+    }
+
+    /**
+     * Records new output and makes sure a flush will happen within one frame.
+     */
+    public synchronized void outputAdded(final int lines) {
+        pendingLines += lines;
+        if (scheduled || disposed) {
+            return;
+        }
+        scheduled = true;
+        final long delay = Math.max(0, lastFlush + frameNanos
+                - System.nanoTime());
+        executor.schedule(flushTask, delay, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void dispose() {
+        disposed = true;
+    }
+
+    public synchronized double getLinesPerSecond() {
+        // the rate is only measured when output is flushed
+        if (System.nanoTime() - lastFlush > TimeUnit.SECONDS.toNanos(2)) {
+            return 0;
+        }
+        return linesPerSecond;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Number of frames that could not be delivered on time because a flush
+     * took longer than the frame period.
+     */
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private void doFlush() {
+        final long start = System.nanoTime();
+        synchronized (this) {
+            scheduled = false;
+            if (disposed) {
+                return;
+            }
+            lastFlush = start;
+            frames++;
+            rateWindowLines += pendingLines;
+            pendingLines = 0;
+            final long window = start - rateWindowStart;
+            if (window >= TimeUnit.SECONDS.toNanos(1)) {
+                linesPerSecond = rateWindowLines * 1e9 / window;
+                rateWindowLines = 0;
+                rateWindowStart = start;
+            }
+        }
+        try {
+            flush.run();
+        } catch (final Exception e) {
+            ErlLogger.warn(e);
+        }
+        final long duration = System.nanoTime() - start;
+        if (duration > frameNanos) {
+            synchronized (this) {
+                droppedFrames += duration / frameNanos;
+            }
+        }
+    }
+
+}
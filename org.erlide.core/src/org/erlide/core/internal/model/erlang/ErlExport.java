@@ -1,7 +1,10 @@
 package org.erlide.core.internal.model.erlang;
 
+import java.util.List;
+
 import org.erlide.core.model.erlang.IErlExport;
 import org.erlide.core.model.root.IParent;
+import org.erlide.core.model.util.ErlangFunction;
 
 import com.ericsson.otp.erlang.OtpErlangList;
 
@@ -15,6 +18,12 @@ public class ErlExport extends ErlImportExport implements IErlExport {
         this.functions = functions;
     }
 
+    public ErlExport(final IParent parent,
+            final List<ErlangFunction> functionList, final String functions) {
+        super(parent, "export", functionList);
+        this.functions = functions;
+    }
+
     @Override
     public Kind getKind() {
         return Kind.EXPORT;
@@ -0,0 +1,117 @@
+package org.erlide.core.internal.model.erlang;
+
+import java.util.List;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.erlide.core.internal.model.root.ErlModel;
+import org.erlide.core.internal.model.root.ErlModelCache;
+import org.erlide.core.model.root.ErlModelException;
+import org.erlide.core.model.root.ErlModelManager;
+import org.erlide.core.model.root.IErlElement;
+import org.erlide.core.model.root.IErlModel;
+import org.erlide.core.model.root.IErlProject;
+import org.erlide.core.model.root.IParent;
+import org.erlide.core.model.util.CoreUtil;
+import org.erlide.core.services.search.ErlideOpen;
+import org.erlide.core.services.search.ErlideOpen.ExternalTreeEntry;
+import org.erlide.jinterface.rpc.IRpcCallSite;
+
+import com.google.common.collect.Lists;
+
+/**
+ * An external file (usually an .erlidex file) listing modules and other
+ * external files. Its children are fetched from the backend when it is
+ * opened, one level at a time.
+ */
+public class ErlExternalFileEntry extends ErlExternalReferenceEntry {
+
+    private final boolean includeDir;
+
+    protected ErlExternalFileEntry(final IParent parent, final String name,
+            final String path, final boolean includeDir) {
+        super(parent, name, path, false, includeDir);
+        this.includeDir = includeDir;
+    }
+
+    @Override
+    protected boolean buildStructure(final IProgressMonitor pm)
+            throws ErlModelException {
+        final String path = getExternalName();
+        final List<ExternalTreeEntry> entries = getExternalChildren(
+                getProject(), path, path, "");
+        if (entries == null) {
+            return false;
+        }
+        final List<IErlElement> children = createChildren(this, entries,
+                includeDir);
+        setChildren(children);
+        addToModuleIndexes(getProject(), children, includeDir);
+        return true;
+    }
+
+    /**
+     * Returns the entries listed by an external file (or by the root of a
+     * packed list of external files), from the model cache if possible.
+     *
+     * @param key
+     *            the key of the node in the model cache
+     * @return the entries, or null if there is no backend
+     */
+    static List<ExternalTreeEntry> getExternalChildren(
+            final IErlProject project, final String key,
+            final String parentPath, final String externalModules) {
+        final ErlModelCache cache = ErlModel.getErlModelCache();
+        List<ExternalTreeEntry> entries = cache.getExternalTree(key);
+        if (entries == null) {
+            final IRpcCallSite backend = CoreUtil.getBuildOrIdeBackend(project
+                    .getWorkspaceProject());
+            if (backend == null) {
+                return null;
+            }
+            entries = ErlideOpen.getExternalChildren(backend, parentPath,
+                    externalModules, ErlModelManager.getErlangModel()
+                            .getPathVars());
+            cache.putExternalTree(key, project, entries);
+        }
+        return entries;
+    }
+
+    static List<IErlElement> createChildren(final IParent parent,
+            final List<ExternalTreeEntry> entries, final boolean includeDir) {
+        final IErlModel model = ErlModelManager.getErlangModel();
+        final List<IErlElement> children = Lists
+                .newArrayListWithCapacity(entries.size());
+        for (final ExternalTreeEntry entry : entries) {
+            final String path = entry.getPath();
+            if (entry.isModule()) {
+                children.add(model.getModuleFromFile(parent,
+                        getNameFromPath(path), null, path, path));
+            } else {
+                children.add(new ErlExternalFileEntry(parent,
+                        getNameFromExternalPath(path), path, includeDir));
+            }
+        }
+        return children;
+    }
+
+    static String getNameFromPath(final String path) {
+        final IPath p = new Path(path);
+        return p.lastSegment();
+    }
+
+    static String getNameFromExternalPath(String path) {
+        int i = path.indexOf(".settings");
+        if (i > 2) {
+            path = path.substring(0, i - 1);
+        }
+        i = path.lastIndexOf('/');
+        path = path.substring(i + 1);
+        if (path.endsWith(".erlidex")) {
+            path = path.substring(0, path.length() - 8);
+        }
+        return path;
+    }
+
+}
@@ -1,15 +1,19 @@
 package org.erlide.core.internal.model.erlang;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.Path;
+import org.erlide.core.internal.model.root.ErlModel;
 import org.erlide.core.internal.model.root.Openable;
 import org.erlide.core.model.erlang.IErlModule;
 import org.erlide.core.model.root.ErlModelException;
+import org.erlide.core.model.root.IErlElement;
 import org.erlide.core.model.root.IErlExternal;
+import org.erlide.core.model.root.IErlProject;
 import org.erlide.core.model.root.IParent;
 import org.erlide.core.model.util.CoreUtil;
 import org.erlide.core.services.search.ErlideOpen;
@@ -55,11 +59,29 @@ public class ErlExternalReferenceEntry extends Openable implements IErlExternal
                         file, false));
             }
             setChildren(children);
+            addToModuleIndexes(getProject(), children, hasHeaders);
             return true;
         }
         return false;
     }
 
+    /**
+     * Adds the modules among newly loaded children to the project's module
+     * indexes, instead of having the indexes rebuilt.
+     */
+    static void addToModuleIndexes(final IErlProject project,
+            final Collection<? extends IErlElement> children,
+            final boolean includes) {
+        final List<IErlModule> modules = Lists.newArrayList();
+        for (final IErlElement child : children) {
+            if (child instanceof IErlModule) {
+                modules.add((IErlModule) child);
+            }
+        }
+        ErlModel.getErlModelCache().addToExternalModuleIndexes(project,
+                modules, includes);
+    }
+
     private String getName(final String file) {
         final IPath p = new Path(file);
         return p.lastSegment();
@@ -1,18 +1,15 @@
 package org.erlide.core.internal.model.erlang;
 
 import java.util.List;
-import java.util.Map;
 
 import org.eclipse.core.resources.IResource;
-import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.Path;
 import org.erlide.core.internal.model.root.ErlModel;
 import org.erlide.core.internal.model.root.ErlModelCache;
 import org.erlide.core.internal.model.root.Openable;
-import org.erlide.core.model.erlang.IErlModule;
 import org.erlide.core.model.root.ErlModelException;
 import org.erlide.core.model.root.ErlModelManager;
+import org.erlide.core.model.root.IErlElement;
 import org.erlide.core.model.root.IErlExternal;
 import org.erlide.core.model.root.IErlModel;
 import org.erlide.core.model.root.IErlProject;
@@ -22,8 +19,9 @@ import org.erlide.core.services.search.ErlideOpen;
 import org.erlide.core.services.search.ErlideOpen.ExternalTreeEntry;
 import org.erlide.jinterface.rpc.IRpcCallSite;
 
-import com.ericsson.otp.erlang.OtpErlangList;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 
 public class ErlExternalReferenceEntryList extends Openable implements
         IErlExternal {
@@ -31,6 +29,7 @@ public class ErlExternalReferenceEntryList extends Openable implements
     private final String externalIncludes, externalModules;
     private final String externalName;
     private final List<String> projectIncludes;
+    private boolean prefetched;
 
     public ErlExternalReferenceEntryList(final IParent parent,
             final String name, final String externalName,
@@ -51,111 +50,101 @@ public class ErlExternalReferenceEntryList extends Openable implements
     @Override
     protected boolean buildStructure(final IProgressMonitor pm)
             throws ErlModelException {
-        // TODO some code duplication within this function
-        // ErlLogger.debug("ErlExternalReferenceEntryList.buildStructure %s",
-        // externalName);
+        // only the top level entries are fetched here, the others when they
+        // are opened
         final IErlProject project = getProject();
-        final ErlModelCache cache = ErlModel.getErlModelCache();
-        List<ExternalTreeEntry> externalModuleTree = cache
-                .getExternalTree(externalModules);
-        List<ExternalTreeEntry> externalIncludeTree = cache
-                .getExternalTree(externalIncludes);
-        if (externalModuleTree == null || externalIncludeTree == null) {
-            final IRpcCallSite backend = CoreUtil.getBuildOrIdeBackend(project
-                    .getWorkspaceProject());
-            final OtpErlangList pathVars = ErlModelManager.getErlangModel()
-                    .getPathVars();
-            if (externalModuleTree == null && externalModules.length() > 0) {
-                if (pm != null) {
-                    pm.worked(1);
-                }
-                externalModuleTree = ErlideOpen.getExternalModuleTree(backend,
-                        externalModules, pathVars);
-            }
-            if (externalIncludeTree == null && externalIncludes.length() > 0) {
-                if (pm != null) {
-                    pm.worked(1);
-                }
-                externalIncludeTree = ErlideOpen.getExternalModuleTree(backend,
-                        externalIncludes, pathVars);
+        final List<IErlElement> children = Lists.newArrayList();
+        if (externalModules.length() > 0) {
+            final List<ExternalTreeEntry> entries = ErlExternalFileEntry
+                    .getExternalChildren(project, rootKey(externalModules),
+                            ErlideOpen.EXTERNAL_ROOT, externalModules);
+            if (entries == null) {
+                return false;
             }
+            children.addAll(ErlExternalFileEntry.createChildren(this, entries,
+                    false));
         }
-        setChildren(null);
-        final IErlModel model = getModel();
-        if (externalModuleTree != null && !externalModuleTree.isEmpty()) {
-            addExternalEntries(pm, externalModuleTree, model, "modules", null,
-                    false);
-            cache.putExternalTree(externalModules, project, externalModuleTree);
+        if (externalIncludes.length() > 0) {
+            final List<ExternalTreeEntry> entries = ErlExternalFileEntry
+                    .getExternalChildren(project, rootKey(externalIncludes),
+                            ErlideOpen.EXTERNAL_ROOT, externalIncludes);
+            if (entries == null) {
+                return false;
+            }
+            children.addAll(ErlExternalFileEntry.createChildren(this, entries,
+                    true));
         }
-        if (externalIncludeTree != null && !externalIncludeTree.isEmpty()
-                || !projectIncludes.isEmpty()) {
-            addExternalEntries(pm, externalIncludeTree, model, "includes",
-                    projectIncludes, true);
-            if (externalIncludeTree != null) {
-                cache.putExternalTree(externalIncludes, project,
-                        externalIncludeTree);
+        if (!projectIncludes.isEmpty()) {
+            final IErlModel model = getModel();
+            final IErlExternal includes = new ErlExternalReferenceEntry(this,
+                    "includes", ".includes.", true, true);
+            for (final String path : projectIncludes) {
+                includes.addChild(model.getModuleFromFile(includes,
+                        ErlExternalFileEntry.getNameFromPath(path), null,
+                        path, path));
             }
+            children.add(includes);
+            ErlExternalReferenceEntry.addToModuleIndexes(project,
+                    includes.getChildren(), true);
         }
+        setChildren(children);
         return true;
     }
 
-    private void addExternalEntries(final IProgressMonitor pm,
-            final List<ExternalTreeEntry> externalTree, final IErlModel model,
-            final String rootName, final List<String> otherItems,
-            final boolean includeDir) throws ErlModelException {
-        final Map<String, IErlExternal> pathToEntryMap = Maps.newHashMap();
-        pathToEntryMap.put("root", this);
-        IErlExternal parent = null;
-        if (externalTree != null && !externalTree.isEmpty()) {
-            for (final ExternalTreeEntry entry : externalTree) {
-                final String path = entry.getPath();
-                // final String name = entry.getName();
-                parent = pathToEntryMap.get(entry.getParentPath());
-                if (entry.isModule()) {
-                    final IErlModule module = model.getModuleFromFile(parent,
-                            getNameFromPath(path), null, path, path);
-                    parent.addChild(module);
-                } else {
-                    final String name = getNameFromExternalPath(path);
-                    final ErlExternalReferenceEntry externalReferenceEntry = new ErlExternalReferenceEntry(
-                            parent, name, path, true, includeDir);
-                    pathToEntryMap.put(path, externalReferenceEntry);
-                    externalReferenceEntry.open(pm);
-                    parent.addChild(externalReferenceEntry);
-                }
-            }
+    /**
+     * Fetches the whole trees of external files in one call each and puts
+     * every level in the model cache, so that walking all the entries doesn't
+     * cost one call per external file. A file listed more than once is only
+     * kept the first time, which also breaks cycles between external files.
+     */
+    public synchronized void prefetchExternalTrees() {
+        if (prefetched) {
+            return;
         }
-        if (otherItems != null) {
-            if (parent == null) {
-                parent = new ErlExternalReferenceEntry(this, rootName, "."
-                        + rootName + ".", true, includeDir);
-                addChild(parent);
-            }
-            for (final String path : otherItems) {
-                final IErlModule module = model.getModuleFromFile(parent,
-                        getNameFromPath(path), null, path, path);
-                parent.addChild(module);
-            }
+        final IRpcCallSite backend = CoreUtil.getBuildOrIdeBackend(getProject()
+                .getWorkspaceProject());
+        if (backend == null) {
+            return;
         }
+        prefetched = true;
+        prefetchExternalTree(backend, externalModules);
+        prefetchExternalTree(backend, externalIncludes);
     }
 
-    private String getNameFromPath(final String path) {
-        final IPath p = new Path(path);
-        final String name = p.lastSegment();
-        return name;
-    }
-
-    private static String getNameFromExternalPath(String path) {
-        int i = path.indexOf(".settings");
-        if (i > 2) {
-            path = path.substring(0, i - 1);
+    private void prefetchExternalTree(final IRpcCallSite backend,
+            final String packedFileNames) {
+        if (packedFileNames.length() == 0) {
+            return;
         }
-        i = path.lastIndexOf('/');
-        path = path.substring(i + 1);
-        if (path.endsWith(".erlidex")) {
-            path = path.substring(0, path.length() - 8);
+        final List<ExternalTreeEntry> tree = ErlideOpen.getExternalModuleTree(
+                backend, packedFileNames, ErlModelManager.getErlangModel()
+                        .getPathVars());
+        if (tree == null) {
+            return;
         }
-        return path;
+        final ListMultimap<String, ExternalTreeEntry> byParent = ArrayListMultimap
+                .create();
+        for (final ExternalTreeEntry entry : tree) {
+            byParent.put(entry.getParentPath(), entry);
+        }
+        final ErlModelCache cache = ErlModel.getErlModelCache();
+        final IErlProject project = getProject();
+        cache.putExternalTree(rootKey(packedFileNames), project,
+                byParent.get(ErlideOpen.EXTERNAL_ROOT));
+        for (final ExternalTreeEntry entry : tree) {
+            if (!entry.isModule()) {
+                cache.putExternalTree(entry.getPath(), project,
+                        byParent.get(entry.getPath()));
+            }
+        }
+    }
+
+    /**
+     * The model cache key of the top level entries; it must differ from the
+     * path of the external file when the list has only one.
+     */
+    private static String rootKey(final String packedFileNames) {
+        return ErlideOpen.EXTERNAL_ROOT + ":" + packedFileNames;
     }
 
     @Override
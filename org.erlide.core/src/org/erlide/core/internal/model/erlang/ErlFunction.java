@@ -47,22 +47,27 @@ public class ErlFunction extends ErlMember implements IErlFunction, IParent {
     public ErlFunction(final IParent parent, final String name,
             final int arity, final String head, final String comment,
             final boolean exported, final OtpErlangList parameters) {
+        this(parent, name, arity, head, comment, exported, ErlFunctionClause
+                .getParameters(parameters));
+    }
+
+    public ErlFunction(final IParent parent, final String name,
+            final int arity, final String head, final String comment,
+            final boolean exported, final List<String> parameters) {
         super(parent, name);
         this.arity = arity;
         this.head = head;
         fComment = comment;
         fExported = exported;
-        this.parameters = ErlFunctionClause.getParameters(parameters);
+        this.parameters = parameters;
     }
 
     @Override
     public List<IErlFunctionClause> getClauses() {
         final ArrayList<IErlFunctionClause> fc = new ArrayList<IErlFunctionClause>();
-        synchronized (getModelLock()) {
-            for (final IErlElement el : internalGetChildren()) {
-                if (el instanceof IErlFunctionClause) {
-                    fc.add((IErlFunctionClause) el);
-                }
+        for (final IErlElement el : internalGetChildren()) {
+            if (el instanceof IErlFunctionClause) {
+                fc.add((IErlFunctionClause) el);
             }
         }
         return fc;
@@ -96,6 +101,25 @@ public class ErlFunction extends ErlMember implements IErlFunction, IParent {
         return b.toString();
     }
 
+    @Override
+    protected SourceRefElement shifted(final int offsetDelta,
+            final int lineDelta) {
+        final ErlFunction copy = (ErlFunction) super.shifted(offsetDelta,
+                lineDelta);
+        final List<IErlElement> clauses = new ArrayList<IErlElement>();
+        for (final IErlElement el : internalGetChildren()) {
+            if (el instanceof ErlFunctionClause) {
+                final ErlFunctionClause c = (ErlFunctionClause) el;
+                final ErlFunctionClause clause = new ErlFunctionClause(copy,
+                        c.getName(), c.head, c.parameters);
+                clause.setPositions(c, offsetDelta, lineDelta);
+                clauses.add(clause);
+            }
+        }
+        copy.setChildren(clauses);
+        return copy;
+    }
+
     @Override
     public ErlangFunction getFunction() {
         return new ErlangFunction(getName(), getArity());
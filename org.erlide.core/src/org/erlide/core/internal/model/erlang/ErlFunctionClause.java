@@ -30,9 +30,14 @@ public class ErlFunctionClause extends ErlMember implements IErlFunctionClause {
 
     public ErlFunctionClause(final IParent parent, final String name,
             final String head, final OtpErlangList parameters) {
+        this(parent, name, head, getParameters(parameters));
+    }
+
+    public ErlFunctionClause(final IParent parent, final String name,
+            final String head, final List<String> parameters) {
         super(parent, name);
         this.head = head;
-        this.parameters = getParameters(parameters);
+        this.parameters = parameters;
     }
 
     public static ArrayList<String> getParameters(final OtpErlangList parameters) {
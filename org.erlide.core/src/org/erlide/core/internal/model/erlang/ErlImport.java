@@ -1,8 +1,11 @@
 package org.erlide.core.internal.model.erlang;
 
+import java.util.List;
+
 import org.erlide.core.model.erlang.IErlImport;
 import org.erlide.core.model.erlang.IErlModule;
 import org.erlide.core.model.root.IParent;
+import org.erlide.core.model.util.ErlangFunction;
 
 import com.ericsson.otp.erlang.OtpErlangList;
 
@@ -27,6 +30,12 @@ public class ErlImport extends ErlImportExport implements IErlImport {
         fImportModule = importModule;
     }
 
+    public ErlImport(final IErlModule parent, final String importModule,
+            final List<ErlangFunction> functionList) {
+        super(parent, "import", functionList);
+        fImportModule = importModule;
+    }
+
     @Override
     public Kind getKind() {
         return Kind.IMPORT;
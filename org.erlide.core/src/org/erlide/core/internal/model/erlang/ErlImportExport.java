@@ -29,6 +29,12 @@ public abstract class ErlImportExport extends ErlMember implements IParent,
         }
     }
 
+    protected ErlImportExport(final IParent parent, final String name,
+            final List<ErlangFunction> functions) {
+        super(parent, name);
+        fFunctions = functions;
+    }
+
     @Override
     public boolean hasFunction(final ErlangFunction f) {
         return fFunctions.contains(f);
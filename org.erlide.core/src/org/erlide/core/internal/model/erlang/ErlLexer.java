@@ -0,0 +1,526 @@
+package org.erlide.core.internal.model.erlang;
+
+import java.util.Set;
+
+import org.erlide.core.model.root.ErlToken;
+import org.erlide.core.model.root.ErlTokenBuffer;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Erlang lexer for syntax highlighting. It returns the same tokens as the
+ * backend's light scanner (<code>erlide_scanner:light_scan_string</code>,
+ * which uses <code>erlide_scan</code>) without a round trip to the backend:
+ * white space, comments, and macros as single tokens, keywords, and for
+ * other punctuation the character itself as the kind.
+ * <p>
+ * The lexer keeps no state between tokens, so it can restart at any token
+ * boundary; {@link #rescan} uses this to relex only the tokens around a
+ * change. Where the backend scanner fails, tokens are still returned for as
+ * much as could be recognized and {@link #hasErrors()} is set. Unlike the
+ * backend scanner, a quoted atom left open at the end of a line doesn't
+ * swallow the newline, and white space at the end of the text is always
+ * returned.
+ */
+public final class ErlLexer {
+
+    /**
+     * How many characters after the end of a token the lexer may look at to
+     * decide where the token ends (e.g. <code>1.5</code> or <code>=:=</code>).
+     */
+    private static final int LOOKAHEAD = 2;
+    private static final int MAX_NAME_LENGTH = 255;
+    private static final int MAX_KEYWORD_LENGTH = 7;
+    private static final int QUESTION = '?';
+
+    private static final Set<String> RESERVED_WORDS = ImmutableSet.of("after",
+            "begin", "case", "try", "cond", "catch", "andalso", "orelse",
+            "end", "fun", "if", "let", "of", "query", "receive", "when",
+            "bnot", "not", "div", "rem", "band", "and", "bor", "bxor", "bsl",
+            "bsr", "or", "xor", "spec");
+
+    private final CharSequence text;
+    private final int end;
+    private final ErlTokenBuffer tokens;
+    private int pos;
+    private int line;
+    private boolean errors;
+
+    // a '?' that may start a macro together with the next token
+    private int heldOffset = -1;
+    private int heldLine;
+    // the token after '??' is never merged
+    private boolean noMacro;
+
+    public ErlLexer(final CharSequence text) {
+        this(text, new ErlTokenBuffer(text.length() / 4));
+    }
+
+    private ErlLexer(final CharSequence text, final ErlTokenBuffer tokens) {
+        this.text = text;
+        this.tokens = tokens;
+        end = text.length();
+    }
+
+    public ErlTokenBuffer scan() {
+        while (pos < end) {
+            scanToken();
+        }
+        flush();
+        return tokens;
+    }
+
+    public boolean hasErrors() {
+        return errors;
+    }
+
+    /**
+     * Updates the tokens of a text after a change, relexing from the last
+     * token that is not affected by it until the new tokens line up with the
+     * old ones again.
+     *
+     * @param oldTokens
+     *            the tokens of the text before the change
+     * @param text
+     *            the text after the change
+     * @param offset
+     *            where the change starts
+     * @param removed
+     *            the number of characters removed
+     * @param inserted
+     *            the number of characters inserted
+     * @return the tokens of the changed text
+     */
+    public static ErlTokenBuffer rescan(final ErlTokenBuffer oldTokens,
+            final CharSequence text, final int offset, final int removed,
+            final int inserted) {
+        final int n = oldTokens.size();
+        int restart = oldTokens.indexOfFirstEndingAfter(offset - LOOKAHEAD);
+        if (restart == n && n > 0) {
+            restart--;
+        }
+        while (restart > 0 && oldTokens.getKind(restart - 1) == QUESTION) {
+            restart--;
+        }
+        final ErlTokenBuffer result = new ErlTokenBuffer(n + inserted / 4);
+        result.addAll(oldTokens, 0, restart, 0, 0);
+        final ErlLexer lexer = new ErlLexer(text, result);
+        if (restart > 0) {
+            lexer.pos = oldTokens.getEnd(restart - 1);
+            lexer.line = oldTokens.getLine(restart);
+        }
+        final int delta = inserted - removed;
+        final int changeEnd = offset + inserted;
+        while (lexer.pos < lexer.end) {
+            if (lexer.pos >= changeEnd && lexer.isAtBoundary()) {
+                final int k = oldTokens.indexOf(lexer.pos - delta);
+                if (k >= 0
+                        && (k == 0 || oldTokens.getKind(k - 1) != QUESTION)) {
+                    result.addAll(oldTokens, k, n, delta, lexer.line
+                            - oldTokens.getLine(k));
+                    return result;
+                }
+            }
+            lexer.scanToken();
+        }
+        lexer.flush();
+        return result;
+    }
+
+    private boolean isAtBoundary() {
+        return heldOffset < 0 && !noMacro;
+    }
+
+    private void scanToken() {
+        final int start = pos;
+        final int startLine = line;
+        final char c = text.charAt(pos);
+        if (c == '\n') {
+            pos++;
+            line++;
+            emit(ErlToken.KIND_WHITESPACE, start, startLine);
+        } else if (isWhitespace(c)) {
+            pos++;
+            while (pos < end && text.charAt(pos) != '\n'
+                    && isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            emit(ErlToken.KIND_WHITESPACE, start, startLine);
+        } else if (isAtomStart(c)) {
+            scanName();
+            if (pos - start > MAX_NAME_LENGTH) {
+                errors = true;
+            } else if (pos - start <= MAX_KEYWORD_LENGTH
+                    && RESERVED_WORDS.contains(text.subSequence(start, pos)
+                            .toString())) {
+                emit(ErlToken.KIND_KEYWORD, start, startLine);
+            } else {
+                emit(ErlToken.KIND_ATOM, start, startLine);
+            }
+        } else if (c >= 'A' && c <= 'Z' || c == '_') {
+            scanName();
+            if (pos - start > MAX_NAME_LENGTH) {
+                errors = true;
+            } else {
+                emit(ErlToken.KIND_VAR, start, startLine);
+            }
+        } else if (isDigit(c)) {
+            scanNumber(start, startLine);
+        } else if (c == '$') {
+            scanChar(start, startLine);
+        } else if (c == '\'') {
+            scanQuotedAtom(start, startLine);
+        } else if (c == '"') {
+            scanString(start, startLine);
+        } else if (c == '%') {
+            pos++;
+            while (pos < end && text.charAt(pos) != '\n'
+                    && text.charAt(pos) != '\r') {
+                pos++;
+            }
+            emit(ErlToken.KIND_COMMENT, start, startLine);
+        } else if (c == '.') {
+            pos++;
+            if (pos == end || text.charAt(pos) == '%'
+                    || isWhitespace(text.charAt(pos))) {
+                // full stop
+                emit(ErlToken.KIND_OTHER, start, startLine);
+            } else {
+                emit('.', start, startLine);
+            }
+        } else {
+            scanPunctuation(c, start, startLine);
+        }
+    }
+
+    private void scanPunctuation(final char c, final int start,
+            final int startLine) {
+        final char c1 = peek(1);
+        int length = 1;
+        switch (c) {
+        case '<':
+            if (c1 == '<' || c1 == '-' || c1 == '=') {
+                length = 2;
+            }
+            break;
+        case '>':
+            if (c1 == '>' || c1 == '=') {
+                length = 2;
+            }
+            break;
+        case '-':
+            if (c1 == '>') {
+                pos += 2;
+                emit(ErlToken.KIND_ARROW, start, startLine);
+                return;
+            } else if (c1 == '-') {
+                length = 2;
+            }
+            break;
+        case '+':
+            if (c1 == '+') {
+                length = 2;
+            }
+            break;
+        case '=':
+            if ((c1 == ':' || c1 == '/') && peek(2) == '=') {
+                length = 3;
+            } else if (c1 == '<' || c1 == '=') {
+                length = 2;
+            }
+            break;
+        case '/':
+            if (c1 == '=') {
+                length = 2;
+            }
+            break;
+        case '|':
+            if (c1 == '|') {
+                length = 2;
+            }
+            break;
+        case ':':
+            if (c1 == '-' || c1 == ':') {
+                length = 2;
+            }
+            break;
+        default:
+            break;
+        }
+        pos += length;
+        if (length > 1) {
+            emit(ErlToken.KIND_OTHER, start, startLine);
+        } else {
+            // the backend sends the character as an 8 bit kind
+            emit(c < 256 ? (byte) c : ErlToken.KIND_OTHER, start, startLine);
+        }
+    }
+
+    private void scanName() {
+        pos++;
+        while (pos < end && isNameChar(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void scanNumber(final int start, final int startLine) {
+        pos++;
+        while (pos < end) {
+            final char c = text.charAt(pos);
+            if (isDigit(c)) {
+                pos++;
+            } else if (c == '.' && isDigit(peek(1))) {
+                pos += 2;
+                scanFraction(start, startLine);
+                return;
+            } else if (c == '#') {
+                final int base = parseBase(start, pos);
+                pos++;
+                if (base >= 2 && base <= 36) {
+                    scanBasedInteger(base, start, startLine);
+                } else {
+                    errors = true;
+                }
+                return;
+            } else {
+                break;
+            }
+        }
+        emit(ErlToken.KIND_INTEGER, start, startLine);
+    }
+
+    private int parseBase(final int from, final int to) {
+        int base = 0;
+        for (int i = from; i < to && base <= 36; i++) {
+            base = base * 10 + text.charAt(i) - '0';
+        }
+        return base;
+    }
+
+    private void scanBasedInteger(final int base, final int start,
+            final int startLine) {
+        final int digits = pos;
+        while (pos < end && isDigitInBase(text.charAt(pos), base)) {
+            pos++;
+        }
+        if (pos == digits) {
+            errors = true;
+        } else {
+            emit(ErlToken.KIND_INTEGER, start, startLine);
+        }
+    }
+
+    private void scanFraction(final int start, final int startLine) {
+        while (pos < end && isDigit(text.charAt(pos))) {
+            pos++;
+        }
+        if (pos < end && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < end
+                    && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+                pos++;
+            }
+            final int exponent = pos;
+            while (pos < end && isDigit(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos == exponent) {
+                errors = true;
+                return;
+            }
+        }
+        emit(ErlToken.KIND_FLOAT, start, startLine);
+    }
+
+    private void scanChar(final int start, final int startLine) {
+        pos++;
+        if (pos == end) {
+            errors = true;
+            return;
+        }
+        if (text.charAt(pos) == '\\') {
+            final int length = escapeLength(pos + 1);
+            if (length < 0) {
+                // the backend drops the character and goes on after the '\'
+                pos++;
+                return;
+            }
+            final char c = text.charAt(pos + 1);
+            if (c == '\n' || c == 'n') {
+                // the backend counts a line here, even for "\n"
+                line++;
+            }
+            pos += 1 + length;
+        } else {
+            pos++;
+        }
+        emit(ErlToken.KIND_CHAR, start, startLine);
+    }
+
+    private void scanString(final int start, final int startLine) {
+        pos++;
+        while (pos < end) {
+            final char c = text.charAt(pos);
+            if (c == '"') {
+                pos++;
+                emit(ErlToken.KIND_STRING, start, startLine);
+                return;
+            } else if (c == '\n') {
+                line++;
+                pos++;
+            } else if (c == '\\') {
+                final int length = escapeLength(pos + 1);
+                if (length < 0) {
+                    pos++;
+                    return;
+                }
+                pos += 1 + length;
+            } else {
+                pos++;
+            }
+        }
+        errors = true;
+        emit(ErlToken.KIND_STRING, start, startLine);
+    }
+
+    private void scanQuotedAtom(final int start, final int startLine) {
+        pos++;
+        int chars = 0;
+        while (pos < end) {
+            final char c = text.charAt(pos);
+            if (c == '\'') {
+                pos++;
+                emitAtom(chars, start, startLine);
+                return;
+            } else if (c == '\n') {
+                emitAtom(chars, start, startLine);
+                return;
+            } else if (c == '\\') {
+                final int length = escapeLength(pos + 1);
+                if (length < 0) {
+                    pos++;
+                    return;
+                }
+                pos += 1 + length;
+            } else {
+                pos++;
+            }
+            chars++;
+        }
+        errors = true;
+        emit(ErlToken.KIND_ATOM, start, startLine);
+    }
+
+    private void emitAtom(final int chars, final int start,
+            final int startLine) {
+        if (chars > MAX_NAME_LENGTH) {
+            errors = true;
+        } else {
+            emit(ErlToken.KIND_ATOM, start, startLine);
+        }
+    }
+
+    /**
+     * The length of the escape sequence starting at <code>index</code>
+     * (after the backslash), or -1 if the text ends there.
+     */
+    private int escapeLength(final int index) {
+        if (index >= end) {
+            return -1;
+        }
+        final char c = text.charAt(index);
+        if (isOctal(c)) {
+            if (index + 1 < end && isOctal(text.charAt(index + 1))) {
+                if (index + 2 < end && isOctal(text.charAt(index + 2))) {
+                    return 3;
+                }
+                return 2;
+            }
+            return 1;
+        }
+        if (c == '^') {
+            return index + 1 < end ? 2 : -1;
+        }
+        return 1;
+    }
+
+    private void emit(final int kind, final int start, final int startLine) {
+        final int length = pos - start;
+        if (heldOffset >= 0) {
+            final int held = heldOffset;
+            heldOffset = -1;
+            if (startLine == heldLine) {
+                if (kind == QUESTION) {
+                    // ?? isn't a macro, and neither is the token after it
+                    tokens.add(QUESTION, heldLine, held, 1);
+                    tokens.add(QUESTION, startLine, start, length);
+                    noMacro = true;
+                    return;
+                }
+                if ((kind == ErlToken.KIND_VAR || kind == ErlToken.KIND_ATOM)
+                        && start == held + 1) {
+                    tokens.add(ErlToken.KIND_MACRO, heldLine, held,
+                            length + 1);
+                    return;
+                }
+            }
+            tokens.add(QUESTION, heldLine, held, 1);
+        }
+        if (kind == QUESTION && !noMacro) {
+            heldOffset = start;
+            heldLine = startLine;
+            return;
+        }
+        noMacro = false;
+        tokens.add(kind, startLine, start, length);
+    }
+
+    private void flush() {
+        if (heldOffset >= 0) {
+            tokens.add(QUESTION, heldLine, heldOffset, 1);
+            heldOffset = -1;
+        }
+        noMacro = false;
+    }
+
+    private char peek(final int n) {
+        return pos + n < end ? text.charAt(pos + n) : 0;
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c <= ' ' || c >= '\200' && c <= '\240';
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isOctal(final char c) {
+        return c >= '0' && c <= '7';
+    }
+
+    private static boolean isDigitInBase(final char c, final int base) {
+        if (c >= '0' && c <= '9') {
+            return c < '0' + base;
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c < 'a' + base - 10;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c < 'A' + base - 10;
+        }
+        return false;
+    }
+
+    private static boolean isAtomStart(final char c) {
+        return c >= 'a' && c <= 'z' || c >= '\337' && c <= '\377'
+                && c != '\367';
+    }
+
+    private static boolean isNameChar(final char c) {
+        return isAtomStart(c) || c >= 'A' && c <= 'Z' || c >= '\300'
+                && c <= '\336' && c != '\327' || isDigit(c) || c == '_'
+                || c == '@';
+    }
+
+}
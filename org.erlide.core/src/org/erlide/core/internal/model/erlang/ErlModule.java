@@ -10,12 +10,16 @@
  *******************************************************************************/
 package org.erlide.core.internal.model.erlang;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
@@ -38,8 +42,8 @@ import org.erlide.core.model.erlang.IErlPreprocessorDef;
 import org.erlide.core.model.erlang.IErlScanner;
 import org.erlide.core.model.erlang.IErlTypespec;
 import org.erlide.core.model.erlang.ISourceRange;
-import org.erlide.core.model.erlang.ISourceReference;
 import org.erlide.core.model.erlang.ModuleKind;
+import org.erlide.core.model.erlang.ScannerEdit;
 import org.erlide.core.model.root.ErlModelException;
 import org.erlide.core.model.root.ErlToken;
 import org.erlide.core.model.root.IErlElement;
@@ -56,9 +60,11 @@ import org.erlide.jinterface.util.SystemUtils;
 import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangString;
-import com.google.common.base.Predicate;
+import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 
 public class ErlModule extends Openable implements IErlModule {
 
@@ -69,11 +75,21 @@ public class ErlModule extends Openable implements IErlModule {
     private final ModuleKind moduleKind;
     protected String path;
     private String initialText;
+    private byte[] fileDigest;
+    private long fileDigestStamp;
+    private long fileDigestLength;
     private boolean parsed;
     private final String scannerName;
     private IErlScanner scanner;
+    /**
+     * Edits of the current reconcile cycle; they are sent to the scanner
+     * together, before the module is parsed again.
+     */
+    private final List<ScannerEdit> pendingEdits = Lists.newArrayList();
+    private long reconcileStart;
     private final boolean useCaches;
-    private final Collection<IErlComment> comments;
+    private volatile Collection<IErlComment> comments;
+    private volatile SourceRangeIndex sourceRangeIndex;
 
     public ErlModule(final IParent parent, final String name,
             final String initialText, final IFile file, final String path,
@@ -87,7 +103,7 @@ public class ErlModule extends Openable implements IErlModule {
         scannerName = createScannerName();
         scanner = null;
         this.useCaches = useCaches;
-        comments = Lists.newArrayList();
+        comments = Collections.emptyList();
         if (ModelConfig.verbose) {
             final IErlElement element = (IErlElement) parent;
             final String parentName = element.getName();
@@ -100,9 +116,25 @@ public class ErlModule extends Openable implements IErlModule {
     }
 
     public boolean internalBuildStructure(final IProgressMonitor pm) {
+        return internalBuildStructure(pm, true);
+    }
+
+    private boolean internalBuildStructure(final IProgressMonitor pm,
+            final boolean allowSnapshot) {
+        flushEdits();
         if (scanner == null) {
             parsed = false;
         }
+        final IErlParser parser = getModel().getParser();
+        final boolean initialParse = !parsed && useCaches;
+        if (allowSnapshot && initialParse) {
+            final byte[] digest = getSnapshotDigest(true);
+            if (digest != null && parser.restore(this, getFilePath(), digest)) {
+                // the backend still has to see it, but that can wait
+                ModuleStructureCache.getDefault().scheduleRefresh(this);
+                return true;
+            }
+        }
         if (scanner == null) {
             // There are two places that we make the initial scanner... this
             // is one
@@ -110,9 +142,8 @@ public class ErlModule extends Openable implements IErlModule {
         }
         getScanner();
         try {
-            final IErlParser parser = getModel().getParser();
             parsed = parser.parse(this, scannerName, !parsed, getFilePath(),
-                    useCaches);
+                    initialParse ? getSnapshotDigest(false) : null, useCaches);
         } finally {
             disposeScanner();
         }
@@ -123,21 +154,99 @@ public class ErlModule extends Openable implements IErlModule {
     protected synchronized boolean buildStructure(final IProgressMonitor pm)
             throws ErlModelException {
         if (internalBuildStructure(pm)) {
-            final IErlModel model = getModel();
-            if (model != null) {
-                model.notifyChange(this);
-            }
-            final IResource r = getResource();
-            if (r instanceof IFile) {
-                timestamp = ((IFile) r).getLocalTimeStamp();
-            } else {
-                timestamp = IResource.NULL_STAMP;
-            }
+            structureBuilt();
             return true;
         }
         return false;
     }
 
+    /**
+     * Parses a module whose structure was restored from a snapshot, on the
+     * backend. Nothing is done if it was parsed or reset in the meantime.
+     */
+    synchronized void refreshStructure() {
+        if (parsed || !isStructureKnown()) {
+            return;
+        }
+        final boolean built = internalBuildStructure(null, false);
+        if (built) {
+            structureBuilt();
+        }
+        setStructureKnown(built);
+    }
+
+    private void structureBuilt() {
+        ReverseIncludeIndex.getDefault().moduleParsed(this,
+                collectIncludeFiles());
+        final IErlModel model = getModel();
+        if (model != null) {
+            model.notifyChange(this);
+        }
+        final IResource r = getResource();
+        if (r instanceof IFile) {
+            timestamp = ((IFile) r).getLocalTimeStamp();
+        } else {
+            timestamp = IResource.NULL_STAMP;
+        }
+    }
+
+    /**
+     * Digest of the file bytes the module is parsed from, used to validate
+     * structure snapshots. Editor text is encoded with the file's charset, so
+     * that it digests like the file when it is unchanged. The file digest is
+     * kept until the file changes, and computed only if there is a snapshot
+     * to check or a parse result to save.
+     */
+    private byte[] getSnapshotDigest(final boolean forRestore) {
+        final String filePath = getFilePath();
+        if (filePath == null || forRestore
+                && !ModuleStructureCache.getDefault().contains(filePath)) {
+            return null;
+        }
+        if (initialText != null && initialText.length() > 0) {
+            try {
+                return ModuleStructureCache.digest(initialText
+                        .getBytes(getCharset()));
+            } catch (final UnsupportedEncodingException e) {
+                return null;
+            }
+        }
+        final File file = new File(filePath);
+        final long stamp = file.lastModified();
+        final long length = file.length();
+        if (fileDigest == null || stamp != fileDigestStamp
+                || length != fileDigestLength) {
+            try {
+                fileDigest = ModuleStructureCache.digest(Files
+                        .toByteArray(file));
+            } catch (final IOException e) {
+                return null;
+            }
+            fileDigestStamp = stamp;
+            fileDigestLength = length;
+        }
+        return fileDigest;
+    }
+
+    /**
+     * Whether the module is parsed from its file rather than from editor
+     * text, so that what the parse gives can be saved for the file.
+     */
+    boolean isParsedFromFile() {
+        return initialText == null || initialText.length() == 0;
+    }
+
+    private String getCharset() {
+        if (fFile != null) {
+            try {
+                return fFile.getCharset();
+            } catch (final CoreException e) {
+                // use the default
+            }
+        }
+        return Charsets.ISO_8859_1.name();
+    }
+
     @Override
     public String getFilePath() {
         if (fFile != null) {
@@ -152,38 +261,26 @@ public class ErlModule extends Openable implements IErlModule {
     @Override
     public IErlElement getElementAt(final int position)
             throws ErlModelException {
-        return getModel().innermostThat(this, new Predicate<IErlElement>() {
-            @Override
-            public boolean apply(final IErlElement e) {
-                if (e instanceof ISourceReference) {
-                    final ISourceReference ch = (ISourceReference) e;
-                    ISourceRange r;
-                    r = ch.getSourceRange();
-                    if (r != null && r.hasPosition(position)) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-        });
+        return getSourceRangeIndex().getElementAt(position);
     }
 
     @Override
     public IErlMember getElementAtLine(final int lineNumber) {
-        return (IErlMember) getModel().innermostThat(this,
-                new Predicate<IErlElement>() {
-                    @Override
-                    public boolean apply(final IErlElement e) {
-                        if (e instanceof ISourceReference) {
-                            final ISourceReference sr = (ISourceReference) e;
-                            if (sr.getLineStart() <= lineNumber
-                                    && sr.getLineEnd() >= lineNumber) {
-                                return true;
-                            }
-                        }
-                        return false;
-                    }
-                });
+        return (IErlMember) getSourceRangeIndex().getElementAtLine(lineNumber);
+    }
+
+    /**
+     * The position index for the current children, built on first use after
+     * each reparse.
+     */
+    private SourceRangeIndex getSourceRangeIndex() {
+        final List<IErlElement> children = internalGetChildren();
+        SourceRangeIndex index = sourceRangeIndex;
+        if (index == null || !index.isFor(children)) {
+            index = new SourceRangeIndex(children);
+            sourceRangeIndex = index;
+        }
+        return index;
     }
 
     @Override
@@ -216,19 +313,19 @@ public class ErlModule extends Openable implements IErlModule {
 
     @Override
     public void setComments(final Collection<? extends IErlComment> comments) {
-        synchronized (getModelLock()) {
-            this.comments.clear();
-            if (comments != null) {
-                this.comments.addAll(comments);
-            }
+        // publish a new snapshot; readers keep the one they already have
+        if (comments == null || comments.isEmpty()) {
+            this.comments = Collections.emptyList();
+        } else {
+            final List<IErlComment> newComments = Lists
+                    .newArrayList(comments);
+            this.comments = Collections.unmodifiableList(newComments);
         }
     }
 
     @Override
     public Collection<IErlComment> getComments() {
-        synchronized (getModelLock()) {
-            return Collections.unmodifiableCollection(comments);
-        }
+        return comments;
     }
 
     @Override
@@ -303,14 +400,12 @@ public class ErlModule extends Openable implements IErlModule {
     @Override
     public IErlPreprocessorDef findPreprocessorDef(final String definedName,
             final Kind kind) {
-        synchronized (getModelLock()) {
-            for (final IErlElement m : internalGetChildren()) {
-                if (m instanceof IErlPreprocessorDef) {
-                    final IErlPreprocessorDef pd = (IErlPreprocessorDef) m;
-                    if (pd.getKind() == kind
-                            && pd.getDefinedName().equals(definedName)) {
-                        return pd;
-                    }
+        for (final IErlElement m : internalGetChildren()) {
+            if (m instanceof IErlPreprocessorDef) {
+                final IErlPreprocessorDef pd = (IErlPreprocessorDef) m;
+                if (pd.getKind() == kind
+                        && pd.getDefinedName().equals(definedName)) {
+                    return pd;
                 }
             }
         }
@@ -323,19 +418,21 @@ public class ErlModule extends Openable implements IErlModule {
         if (!isStructureKnown()) {
             open(null);
         }
+        return collectIncludeFiles();
+    }
+
+    private Collection<ErlangIncludeFile> collectIncludeFiles() {
         final List<ErlangIncludeFile> r = Lists.newArrayList();
-        synchronized (getModelLock()) {
-            for (final IErlElement m : internalGetChildren()) {
-                if (m instanceof IErlAttribute) {
-                    final IErlAttribute a = (IErlAttribute) m;
-                    final OtpErlangObject v = a.getValue();
-                    if (v instanceof OtpErlangString) {
-                        final String s = ((OtpErlangString) v).stringValue();
-                        if ("include".equals(a.getName())) {
-                            r.add(new ErlangIncludeFile(false, s));
-                        } else if ("include_lib".equals(a.getName())) {
-                            r.add(new ErlangIncludeFile(true, s));
-                        }
+        for (final IErlElement m : internalGetChildren()) {
+            if (m instanceof IErlAttribute) {
+                final IErlAttribute a = (IErlAttribute) m;
+                final OtpErlangObject v = a.getValue();
+                if (v instanceof OtpErlangString) {
+                    final String s = ((OtpErlangString) v).stringValue();
+                    if ("include".equals(a.getName())) {
+                        r.add(new ErlangIncludeFile(false, s));
+                    } else if ("include_lib".equals(a.getName())) {
+                        r.add(new ErlangIncludeFile(true, s));
                     }
                 }
             }
@@ -346,39 +443,46 @@ public class ErlModule extends Openable implements IErlModule {
     @Override
     public Collection<IErlImport> getImports() {
         final List<IErlImport> result = new ArrayList<IErlImport>();
-        synchronized (getModelLock()) {
-            for (final IErlElement e : internalGetChildren()) {
-                if (e instanceof IErlImport) {
-                    final IErlImport ei = (IErlImport) e;
-                    result.add(ei);
-                }
+        for (final IErlElement e : internalGetChildren()) {
+            if (e instanceof IErlImport) {
+                final IErlImport ei = (IErlImport) e;
+                result.add(ei);
             }
         }
         return result;
     }
 
+    /**
+     * Queues the edit; the edits of a reconcile cycle are sent to the scanner
+     * in {@link #postReconcile(IProgressMonitor)}. The scanner is kept from
+     * the first edit of the cycle until then.
+     */
     @Override
     public synchronized void reconcileText(final int offset,
             final int removeLength, final String newText,
             final IProgressMonitor mon) {
-        if (scanner == null) {
-            // There are two places that we make the initial scanner... this
-            // is one too
+        if (pendingEdits.isEmpty()) {
+            reconcileStart = System.nanoTime();
+            if (scanner == null) {
+                // There are two places that we make the initial scanner...
+                // this is one too
+                getScanner();
+            }
             getScanner();
         }
-        getScanner();
-        if (scanner != null) {
-            scanner.replaceText(offset, removeLength, newText);
-        }
+        pendingEdits.add(new ScannerEdit(offset, removeLength, newText));
         if (mon != null) {
             mon.worked(1);
         }
         setStructureKnown(false);
-        disposeScanner();
     }
 
     @Override
     public synchronized void postReconcile(final IProgressMonitor mon) {
+        final int edits = pendingEdits.size();
+        final long start = edits > 0 ? reconcileStart : System.nanoTime();
+        flushEdits();
+        final long scanned = System.nanoTime();
         try {
             open(mon);
         } catch (final ErlModelException e) {
@@ -387,6 +491,29 @@ public class ErlModule extends Openable implements IErlModule {
         if (mon != null) {
             mon.worked(1);
         }
+        if (edits > 0) {
+            final long end = System.nanoTime();
+            ErlLogger.debug("reconcile %s: %d edits in %d ms "
+                    + "(scanner %d ms, parse %d ms)", getName(), edits,
+                    TimeUnit.NANOSECONDS.toMillis(end - start),
+                    TimeUnit.NANOSECONDS.toMillis(scanned - start),
+                    TimeUnit.NANOSECONDS.toMillis(end - scanned));
+        }
+    }
+
+    /**
+     * Sends the queued edits to the scanner and releases the scanner
+     * reference taken for the reconcile cycle.
+     */
+    private void flushEdits() {
+        if (pendingEdits.isEmpty()) {
+            return;
+        }
+        if (scanner != null) {
+            scanner.replaceText(Lists.newArrayList(pendingEdits));
+        }
+        pendingEdits.clear();
+        disposeScanner();
     }
 
     @Override
@@ -425,50 +552,82 @@ public class ErlModule extends Openable implements IErlModule {
 
     @Override
     public void dispose() {
+        synchronized (this) {
+            if (!pendingEdits.isEmpty()) {
+                pendingEdits.clear();
+                disposeScanner();
+            }
+        }
         disposeScanner();
+        ReverseIncludeIndex.getDefault().removeModule(this);
         getModel().removeModule(this);
     }
 
     @Override
     public Set<IErlModule> getDirectDependentModules() throws ErlModelException {
-        final Set<IErlModule> result = new HashSet<IErlModule>();
         final IErlProject project = getProject();
-        for (final IErlModule module : project.getModules()) {
-            final boolean wasOpen = module.isOpen();
-            if (!wasOpen) {
-                module.open(null);
-            }
-            final Collection<ErlangIncludeFile> incs = module.getIncludeFiles();
-            for (final ErlangIncludeFile inc : incs) {
-                if (inc.getFilename().equals(getName())) {
-                    result.add(module);
-                    break;
-                }
-            }
-            if (!wasOpen) {
-                module.close();
-            }
-        }
+        final Collection<IErlModule> modules = project.getModules();
+        final ReverseIncludeIndex index = ReverseIncludeIndex.getDefault();
+        index.ensureIndexed(modules);
+        final Set<IErlModule> result = index.getDirectIncluders(getName());
+        result.retainAll(modules);
         return result;
     }
 
     @Override
     public Set<IErlModule> getAllDependentModules() throws CoreException {
-        final Set<IErlModule> result = new HashSet<IErlModule>();
         final IErlProject project = getProject();
-        for (final IErlModule module : project.getModules()) {
-            final Collection<IErlModule> allIncludedFiles = module
-                    .findAllIncludedFiles();
-            if (allIncludedFiles.contains(this)) {
-                result.add(module);
+        final Collection<IErlModule> modules = project.getModules();
+        final ReverseIncludeIndex index = ReverseIncludeIndex.getDefault();
+        final Collection<IErlModule> includes = project.getIncludes();
+        index.ensureIndexed(modules);
+        index.ensureIndexed(includes);
+        indexIncludeChains(project, index, modules, includes);
+        final Set<IErlModule> result = index.getAllIncluders(getName());
+        result.retainAll(modules);
+        return result;
+    }
+
+    /**
+     * Indexes the headers from referenced projects and external includes that
+     * the project's modules include, directly or through other headers, since
+     * this module can be included through them too.
+     */
+    private static void indexIncludeChains(final IErlProject project,
+            final ReverseIncludeIndex index,
+            final Collection<IErlModule> modules,
+            final Collection<IErlModule> includes) throws CoreException {
+        final Map<String, IErlModule> others = Maps.newHashMap();
+        for (final IErlModule include : project.getExternalIncludes()) {
+            others.put(include.getName(), include);
+        }
+        for (final IErlProject referenced : project.getReferencedProjects()) {
+            for (final IErlModule include : referenced.getIncludes()) {
+                others.put(include.getName(), include);
             }
         }
-        return result;
+        for (final IErlModule include : includes) {
+            others.remove(include.getName());
+        }
+        Collection<IErlModule> work = Lists.newArrayList(modules);
+        work.addAll(includes);
+        while (!work.isEmpty() && !others.isEmpty()) {
+            final List<IErlModule> next = Lists.newArrayList();
+            for (final String name : index.getIncludedNames(work)) {
+                final IErlModule header = others.remove(name);
+                if (header != null) {
+                    next.add(header);
+                }
+            }
+            index.ensureIndexed(next);
+            work = next;
+        }
     }
 
     @Override
     public synchronized void resetAndCacheScannerAndParser(final String newText)
             throws ErlModelException {
+        pendingEdits.clear();
         while (scanner != null) {
             disposeScanner();
         }
@@ -480,7 +639,9 @@ public class ErlModule extends Openable implements IErlModule {
     }
 
     @Override
-    public ErlToken getScannerTokenAt(final int offset) {
+    public synchronized ErlToken getScannerTokenAt(final int offset) {
+        // the token must reflect the edits queued since the last reconcile
+        flushEdits();
         if (scanner != null) {
             return scanner.getTokenAt(offset);
         }
@@ -521,13 +682,11 @@ public class ErlModule extends Openable implements IErlModule {
     @Override
     public Collection<IErlPreprocessorDef> getPreprocessorDefs(final Kind kind) {
         final List<IErlPreprocessorDef> result = Lists.newArrayList();
-        synchronized (getModelLock()) {
-            for (final IErlElement e : internalGetChildren()) {
-                if (e instanceof IErlPreprocessorDef) {
-                    final IErlPreprocessorDef pd = (IErlPreprocessorDef) e;
-                    if (pd.getKind() == kind || kind == Kind.ERROR) {
-                        result.add(pd);
-                    }
+        for (final IErlElement e : internalGetChildren()) {
+            if (e instanceof IErlPreprocessorDef) {
+                final IErlPreprocessorDef pd = (IErlPreprocessorDef) e;
+                if (pd.getKind() == kind || kind == Kind.ERROR) {
+                    result.add(pd);
                 }
             }
         }
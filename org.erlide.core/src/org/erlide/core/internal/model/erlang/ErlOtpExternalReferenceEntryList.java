@@ -1,6 +1,8 @@
 package org.erlide.core.internal.model.erlang;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IPath;
@@ -8,12 +10,15 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.Path;
 import org.erlide.core.internal.model.root.Openable;
 import org.erlide.core.model.root.ErlModelException;
+import org.erlide.core.model.root.IErlElement;
 import org.erlide.core.model.root.IErlExternal;
 import org.erlide.core.model.root.IParent;
 import org.erlide.core.model.util.CoreUtil;
 import org.erlide.core.services.search.ErlideOpen;
 import org.erlide.jinterface.rpc.IRpcCallSite;
 
+import com.google.common.collect.Lists;
+
 public class ErlOtpExternalReferenceEntryList extends Openable implements
         IErlExternal {
 
@@ -32,39 +37,30 @@ public class ErlOtpExternalReferenceEntryList extends Openable implements
             throws ErlModelException {
         final IRpcCallSite backend = CoreUtil.getBuildOrIdeBackend(getProject()
                 .getWorkspaceProject());
-        final List<String> libList = ErlideOpen.getLibDirs(backend);
-        addExternalEntries(pm, libList, backend);
-        return true;
-    }
-
-    private void addExternalEntries(final IProgressMonitor pm,
-            final List<String> libList, final IRpcCallSite backend) {
-        for (final String libDir : libList) {
-            final List<String> srcInclude = ErlideOpen.getLibSrcInclude(
-                    backend, libDir);
-            boolean hasHeaders = false;
-            for (final String path : srcInclude) {
-                if (includePath(path)) {
-                    hasHeaders = true;
-                    break;
-                }
-            }
-            final IErlExternal external = new ErlExternalReferenceEntry(this,
-                    getLibName(libDir), libDir, true, hasHeaders);
-            addChild(external);
-            for (final String i : srcInclude) {
-                external.addChild(new ErlExternalReferenceEntry(external,
-                        getLibName(i), i, false, includePath(i)));
-            }
+        final Map<String, Boolean> libs = ErlideOpen
+                .getLibDirsWithIncludes(backend);
+        if (libs == null) {
+            return false;
+        }
+        // the src and include directories of each library are fetched when
+        // it is opened
+        final List<IErlElement> children = Lists.newArrayListWithCapacity(libs
+                .size());
+        for (final Entry<String, Boolean> lib : libs.entrySet()) {
+            final String libDir = lib.getKey();
+            children.add(new ErlOtpLibEntry(this, getLibName(libDir), libDir,
+                    lib.getValue().booleanValue()));
         }
+        setChildren(children);
+        return true;
     }
 
-    private final boolean includePath(final String path) {
+    static final boolean includePath(final String path) {
         final IPath p = new Path(path);
         return p.lastSegment().equals("include");
     }
 
-    private String getLibName(final String libDir) {
+    static String getLibName(final String libDir) {
         final IPath p = new Path(libDir);
         String s = p.lastSegment();
         if (s.equals("ebin")) {
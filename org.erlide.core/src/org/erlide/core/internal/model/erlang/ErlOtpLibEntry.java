@@ -0,0 +1,69 @@
+package org.erlide.core.internal.model.erlang;
+
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.erlide.core.internal.model.root.ErlModel;
+import org.erlide.core.internal.model.root.ErlModelCache;
+import org.erlide.core.model.root.ErlModelException;
+import org.erlide.core.model.root.IErlElement;
+import org.erlide.core.model.root.IParent;
+import org.erlide.core.model.util.CoreUtil;
+import org.erlide.core.services.search.ErlideOpen;
+import org.erlide.core.services.search.ErlideOpen.ExternalTreeEntry;
+import org.erlide.jinterface.rpc.IRpcCallSite;
+
+import com.google.common.collect.Lists;
+
+/**
+ * An OTP library. Its src and include directories are looked up when it is
+ * opened, not when the OTP entry list is.
+ */
+public class ErlOtpLibEntry extends ErlExternalReferenceEntry {
+
+    /**
+     * @param hasIncludes
+     *            whether the library has an include directory, known from
+     *            the library list so that it doesn't have to be opened
+     */
+    protected ErlOtpLibEntry(final IParent parent, final String name,
+            final String libDir, final boolean hasIncludes) {
+        super(parent, name, libDir, false, hasIncludes);
+    }
+
+    @Override
+    protected boolean buildStructure(final IProgressMonitor pm)
+            throws ErlModelException {
+        final String libDir = getExternalName();
+        final ErlModelCache cache = ErlModel.getErlModelCache();
+        List<ExternalTreeEntry> entries = cache.getExternalTree(libDir);
+        if (entries == null) {
+            final IRpcCallSite backend = CoreUtil
+                    .getBuildOrIdeBackend(getProject().getWorkspaceProject());
+            if (backend == null) {
+                return false;
+            }
+            final List<String> srcInclude = ErlideOpen.getLibSrcInclude(
+                    backend, libDir);
+            if (srcInclude == null) {
+                return false;
+            }
+            entries = Lists.newArrayListWithCapacity(srcInclude.size());
+            for (final String path : srcInclude) {
+                entries.add(new ExternalTreeEntry(libDir, path, false));
+            }
+            cache.putExternalTree(libDir, getProject(), entries);
+        }
+        final List<IErlElement> children = Lists
+                .newArrayListWithCapacity(entries.size());
+        for (final ExternalTreeEntry entry : entries) {
+            final String path = entry.getPath();
+            children.add(new ErlExternalReferenceEntry(this,
+                    ErlOtpExternalReferenceEntryList.getLibName(path), path,
+                    false, ErlOtpExternalReferenceEntryList.includePath(path)));
+        }
+        setChildren(children);
+        return true;
+    }
+
+}
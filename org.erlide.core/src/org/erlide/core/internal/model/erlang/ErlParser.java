@@ -16,6 +16,7 @@ import java.util.List;
 import org.erlide.core.ErlangPlugin;
 import org.erlide.core.backend.BackendCore;
 import org.erlide.core.internal.backend.BackendHelper;
+import org.erlide.core.internal.model.root.ErlElementDelta;
 import org.erlide.core.internal.model.root.ErlMember;
 import org.erlide.core.model.erlang.IErlAttribute;
 import org.erlide.core.model.erlang.IErlComment;
@@ -24,7 +25,11 @@ import org.erlide.core.model.erlang.IErlMember;
 import org.erlide.core.model.erlang.IErlModule;
 import org.erlide.core.model.erlang.IErlParser;
 import org.erlide.core.model.erlang.IErlRecordDef;
+import org.erlide.core.model.root.ErlModelException;
+import org.erlide.core.model.root.ErlModelManager;
 import org.erlide.core.model.root.IErlElement;
+import org.erlide.core.model.root.IErlElementDelta;
+import org.erlide.core.services.search.ReferenceIndex;
 import org.erlide.jinterface.Bindings;
 import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.IRpcCallSite;
@@ -33,12 +38,15 @@ import org.erlide.jinterface.util.TermParserException;
 import org.erlide.jinterface.util.Util;
 
 import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
 import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangLong;
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangRangeException;
 import com.ericsson.otp.erlang.OtpErlangString;
 import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 
 /**
@@ -47,58 +55,230 @@ import com.google.common.collect.Lists;
  */
 public final class ErlParser implements IErlParser {
 
+    /**
+     * Asks noparse for the model encoded by erlide_np_binary, which is
+     * smaller than the term and is decoded without building it.
+     */
+    private static final OtpErlangObject BINARY_FORMAT = new OtpErlangTuple(
+            new OtpErlangObject[] { new OtpErlangAtom("binary"),
+                    new OtpErlangLong(ModuleStructureDecoder.VERSION) });
+    private static final OtpErlangObject TERM_FORMAT = new OtpErlangAtom(
+            "term");
+
+    /**
+     * The forms of a parse result, as terms or binary encoded.
+     */
+    private interface FormSource {
+        int size();
+
+        FormSignature getSignature(int index);
+
+        IErlMember create(IErlModule module, int index);
+    }
+
+    private final class TermForms implements FormSource {
+        private final OtpErlangObject[] forms;
+
+        TermForms(final OtpErlangList forms) {
+            this.forms = forms.elements();
+        }
+
+        @Override
+        public int size() {
+            return forms.length;
+        }
+
+        @Override
+        public FormSignature getSignature(final int index) {
+            return FormSignature.of(forms[index]);
+        }
+
+        @Override
+        public IErlMember create(final IErlModule module, final int index) {
+            return ErlParser.this.create(module, (OtpErlangTuple) forms[index]);
+        }
+    }
+
+    private static final class BinaryForms implements FormSource {
+        private final ModuleStructureDecoder decoder;
+
+        BinaryForms(final ModuleStructureDecoder decoder) {
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int size() {
+            return decoder.getFormCount();
+        }
+
+        @Override
+        public FormSignature getSignature(final int index) {
+            return decoder.getSignature(index);
+        }
+
+        @Override
+        public IErlMember create(final IErlModule module, final int index) {
+            return decoder.createForm(module, index);
+        }
+    }
+
+    private final OtpErlangObject format;
+
     public ErlParser() {
+        this(true);
+    }
+
+    /**
+     * @param binaryModel
+     *            whether noparse is asked for the binary encoded model; if
+     *            not, or if it can't be decoded, the model is got as terms
+     */
+    public ErlParser(final boolean binaryModel) {
+        format = binaryModel ? BINARY_FORMAT : TERM_FORMAT;
     }
 
     @Override
     public boolean parse(final IErlModule module, final String scannerName,
             final boolean initialParse, final String path,
             final boolean useCaches) {
+        return parse(module, scannerName, initialParse, path, null, useCaches);
+    }
+
+    @Override
+    public boolean parse(final IErlModule module, final String scannerName,
+            final boolean initialParse, final String path,
+            final byte[] sourceDigest, final boolean useCaches) {
         final IRpcCallSite b = BackendCore.getBackendManager().getIdeBackend();
         if (b == null || module == null) {
             return false;
         }
-        OtpErlangList forms = null;
-        OtpErlangList comments = null;
         OtpErlangTuple res = null;
         if (initialParse) {
             // ErlLogger.debug("initialParse %s", path);
             final String stateDir = ErlangPlugin.getDefault()
                     .getStateLocation().toString();
-            res = ErlideNoparse.initialParse(b, scannerName, path, stateDir,
-                    useCaches, true);
+            res = ErlideNoparse.initialParseWithRefs(b, scannerName, path,
+                    stateDir, useCaches, true, format);
+        } else {
+            res = ErlideNoparse.reparseWithRefs(b, scannerName, format);
+        }
+        OtpErlangObject structure = getStructure(path, res);
+        if (!setStructure(module, structure)) {
+            // the binary model couldn't be decoded: parse again for terms
+            structure = getStructure(path,
+                    ErlideNoparse.reparse(b, scannerName, TERM_FORMAT));
+            setStructure(module, structure);
+        }
+        if (initialParse && sourceDigest != null && path != null) {
+            ModuleStructureCache.getDefault().put(path, sourceDigest,
+                    structure);
+        }
+        indexReferences(module, initialParse, res);
+        return true;
+    }
+
+    /**
+     * Feeds the references noparse collected to the index. Only those of a
+     * parse of the module file are saved.
+     */
+    private static void indexReferences(final IErlModule module,
+            final boolean initialParse, final OtpErlangTuple res) {
+        final OtpErlangObject refs = Util.isOk(res) && res.arity() > 3 ? res
+                .elementAt(3) : null;
+        if (refs instanceof OtpErlangBinary) {
+            final boolean save = initialParse && module instanceof ErlModule
+                    && ((ErlModule) module).isParsedFromFile();
+            ReferenceIndex.getDefault().put(module,
+                    ((OtpErlangBinary) refs).binaryValue(), save);
         } else {
-            res = ErlideNoparse.reparse(b, scannerName);
+            ReferenceIndex.getDefault().remove(module);
         }
-        if (Util.isOk(res)) {
+    }
+
+    /**
+     * @return the binary encoded model, <code>{Forms, Comments}</code>, or
+     *         null if the parse failed
+     */
+    private static OtpErlangObject getStructure(final String path,
+            final OtpErlangTuple res) {
+        if (Util.isOk(res) && res.elementAt(1) instanceof OtpErlangBinary) {
+            return res.elementAt(1);
+        } else if (Util.isOk(res)) {
             Bindings bindings = null;
             try {
-                bindings = ErlUtils.match("{ok, {_, Forms, Comments}, _}", res);
+                bindings = ErlUtils.match("{_, Forms, Comments}",
+                        res.elementAt(1));
             } catch (final TermParserException e) {
                 e.printStackTrace();
             }
             if (bindings != null) {
-                forms = (OtpErlangList) bindings.get("Forms");
-                comments = (OtpErlangList) bindings.get("Comments");
-            } else {
-                ErlLogger.error("parser for %s got: %s", path, res);
+                return new OtpErlangTuple(new OtpErlangObject[] {
+                        bindings.get("Forms"), bindings.get("Comments") });
             }
+            ErlLogger.error("parser for %s got: %s", path, res);
         } else {
             ErlLogger.error("rpc error when parsing %s: %s", path, res);
         }
+        return null;
+    }
+
+    @Override
+    public boolean restore(final IErlModule module, final String path,
+            final byte[] sourceDigest) {
+        if (module == null || path == null || sourceDigest == null) {
+            return false;
+        }
+        final OtpErlangObject snapshot = ModuleStructureCache.getDefault()
+                .get(path, sourceDigest);
+        if (snapshot == null) {
+            return false;
+        }
+        if (!setStructure(module, snapshot)) {
+            // the module is parsed instead
+            ModuleStructureCache.getDefault().remove(path);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param structure
+     *            the binary encoded model, or <code>{Forms, Comments}</code>
+     * @return false if a binary model couldn't be decoded; the module's
+     *         children must then be set from a term model
+     */
+    private boolean setStructure(final IErlModule module,
+            final OtpErlangObject structure) {
+        if (structure instanceof OtpErlangBinary) {
+            try {
+                final ModuleStructureDecoder decoder = new ModuleStructureDecoder(
+                        ((OtpErlangBinary) structure).binaryValue(), this);
+                final IErlElementDelta delta = setChildren(module,
+                        new BinaryForms(decoder));
+                module.setComments(decoder.createComments(module));
+                ErlModelManager.getErlangModel().fireReconcileDelta(delta);
+                return true;
+            } catch (final IllegalArgumentException e) {
+                ErlLogger.error("could not decode structure of %s: %s",
+                        module.getName(), e.getMessage());
+                return false;
+            }
+        }
+        OtpErlangList forms = null;
+        OtpErlangList comments = null;
+        if (structure instanceof OtpErlangTuple) {
+            final OtpErlangTuple t = (OtpErlangTuple) structure;
+            forms = (OtpErlangList) t.elementAt(0);
+            comments = (OtpErlangList) t.elementAt(1);
+        }
         // mm.setParseTree(forms);
+        final IErlElementDelta delta;
         if (forms == null) {
             module.setChildren(null);
+            delta = new ErlElementDelta(IErlElementDelta.CHANGED,
+                    IErlElementDelta.F_CONTENT, module);
         } else {
-            final List<IErlElement> children = Lists
-                    .newArrayListWithCapacity(forms.arity());
-            for (final OtpErlangObject form : forms) {
-                final IErlMember elem = create(module, (OtpErlangTuple) form);
-                if (elem != null) {
-                    children.add(elem);
-                }
-            }
-            module.setChildren(children);
+            delta = setChildren(module, new TermForms(forms));
         }
         if (comments == null) {
             module.setComments(null);
@@ -114,9 +294,91 @@ public final class ErlParser implements IErlParser {
             }
             module.setComments(moduleComments);
         }
+        ErlModelManager.getErlangModel().fireReconcileDelta(delta);
         return true;
     }
 
+    /**
+     * Sets the module's children from the forms. Elements for forms that
+     * didn't change since the previous parse are kept; those that an edit
+     * above them moved are replaced by moved copies, so that the previous
+     * children are never changed. Only the other forms are converted.
+     * 
+     * @return the delta for the element changed listeners: with the removed
+     *         and added elements (a moved element is both), or a plain
+     *         content change if there were no previous children
+     */
+    private IErlElementDelta setChildren(final IErlModule module,
+            final FormSource forms) {
+        final ListMultimap<Long, SourceRefElement> previous = LinkedListMultimap
+                .create();
+        try {
+            for (final IErlElement child : module.getChildren()) {
+                if (child instanceof SourceRefElement) {
+                    final SourceRefElement e = (SourceRefElement) child;
+                    if (e.formSignature != null) {
+                        previous.put(e.formSignature.getHash(), e);
+                    }
+                }
+            }
+        } catch (final ErlModelException e) {
+            ErlLogger.warn(e);
+        }
+        final boolean initial = previous.isEmpty();
+        final List<IErlElement> children = Lists
+                .newArrayListWithCapacity(forms.size());
+        final List<IErlElement> removed = Lists.newArrayList();
+        final List<IErlElement> added = Lists.newArrayList();
+        for (int i = 0; i < forms.size(); i++) {
+            final FormSignature signature = forms.getSignature(i);
+            final List<SourceRefElement> same = previous.get(signature
+                    .getHash());
+            if (!same.isEmpty()) {
+                final SourceRefElement elem = same.remove(0);
+                final FormSignature old = elem.formSignature;
+                if (old.getOffset() == signature.getOffset()
+                        && old.getLine() == signature.getLine()) {
+                    children.add(elem);
+                    continue;
+                }
+                final SourceRefElement moved = elem.shifted(
+                        signature.getOffset() - old.getOffset(),
+                        signature.getLine() - old.getLine());
+                moved.formSignature = signature;
+                children.add(moved);
+                removed.add(elem);
+                added.add(moved);
+                continue;
+            }
+            final IErlMember elem = forms.create(module, i);
+            if (elem != null) {
+                if (elem instanceof SourceRefElement) {
+                    ((SourceRefElement) elem).formSignature = signature;
+                }
+                children.add(elem);
+                added.add(elem);
+            }
+        }
+        module.setChildren(children);
+        if (initial) {
+            return new ErlElementDelta(IErlElementDelta.CHANGED,
+                    IErlElementDelta.F_CONTENT, module);
+        }
+        removed.addAll(previous.values());
+        final ErlElementDelta delta = new ErlElementDelta(
+                IErlElementDelta.CHANGED, IErlElementDelta.F_CONTENT
+                        | IErlElementDelta.F_FINE_GRAINED, module);
+        // removed first, so that an element replaced by an equal one
+        // becomes a change
+        for (final IErlElement elem : removed) {
+            delta.removed(elem);
+        }
+        for (final IErlElement elem : added) {
+            delta.added(elem);
+        }
+        return delta;
+    }
+
     /**
      * create an IErlComment from a token record
      * 
@@ -190,14 +452,14 @@ public final class ErlParser implements IErlParser {
             final OtpErlangObject val = atr.elementAt(2);
             final OtpErlangObject extra = el.arity() > 4 ? el.elementAt(4)
                     : null;
-            return addAttribute(module, pos, n, val, extra);
+            return createAttribute(module, pos, n, val, extra);
         } else if ("attribute".equals(typeS)) {
             final OtpErlangObject pos = el.elementAt(1);
             final OtpErlangAtom name = (OtpErlangAtom) el.elementAt(2);
             final OtpErlangObject val = el.elementAt(3);
             final OtpErlangObject extra = el.arity() > 4 ? el.elementAt(4)
                     : null;
-            return addAttribute(module, pos, name, val, extra);
+            return createAttribute(module, pos, name, val, extra);
         } else if ("function".equals(typeS)) {
             final ErlFunction f = makeErlFunction(module, el);
             final OtpErlangList clauses = (OtpErlangList) el.elementAt(6);
@@ -292,50 +554,60 @@ public final class ErlParser implements IErlParser {
         f.setNameRange(ofs, len);
     }
 
-    private IErlMember addAttribute(final IErlModule module,
+    private IErlMember createAttribute(final IErlModule module,
             final OtpErlangObject pos, final OtpErlangAtom name,
             final OtpErlangObject val, final OtpErlangObject extra) {
+        final IErlMember a = createAttribute(module, name, val, extra);
+        if (a != null) {
+            setPos((SourceRefElement) a, pos, false);
+        }
+        return a;
+    }
+
+    /**
+     * Creates the element for an attribute, without setting its position.
+     */
+    IErlMember createAttribute(final IErlModule module,
+            final OtpErlangAtom name, final OtpErlangObject val,
+            final OtpErlangObject extra) {
         final String nameS = name.atomValue();
         if ("module".equals(nameS) && val instanceof OtpErlangAtom) {
-            return addModuleAttribute(module, pos, (OtpErlangAtom) val, extra,
+            return addModuleAttribute(module, (OtpErlangAtom) val, extra,
                     nameS);
         } else if ("import".equals(nameS)) {
             if (val instanceof OtpErlangTuple) {
-                return addImportAttribute(module, pos, val);
+                return addImportAttribute(module, val);
             }
         } else if ("export".equals(nameS)) {
-            return addExportAttribute(module, pos, val, extra);
+            return addExportAttribute(module, val, extra);
         } else if ("record".equals(nameS)) {
-            return addRecordDef(module, pos, val, extra);
+            return addRecordDef(module, val, extra);
         } else if ("type".equals(nameS) || "spec".equals(nameS)
                 || "opaque".equals(nameS)) {
-            return addTypespec(module, pos, extra);
+            return addTypespec(module, extra);
         } else if ("define".equals(nameS)) {
-            return addMacroDef(module, pos, val, extra, nameS);
+            return addMacroDef(module, val, extra, nameS);
         }
-        return addOtherAttribute(module, pos, val, extra, nameS);
+        return addOtherAttribute(module, val, extra, nameS);
     }
 
     private IErlMember addExportAttribute(final IErlModule module,
-            final OtpErlangObject pos, final OtpErlangObject val,
-            final OtpErlangObject extra) {
+            final OtpErlangObject val, final OtpErlangObject extra) {
         final OtpErlangList functionList = (OtpErlangList) val;
         final ErlExport ex = new ErlExport(module, functionList,
                 Util.stringValue(extra));
-        setPos(ex, pos, false);
         return ex;
     }
 
     private IErlMember addMacroDef(final IErlModule module,
-            final OtpErlangObject pos, final OtpErlangObject val,
-            final OtpErlangObject extra, final String nameS) {
+            final OtpErlangObject val, final OtpErlangObject extra,
+            final String nameS) {
         if (val instanceof OtpErlangAtom) {
             // final OtpErlangAtom o = (OtpErlangAtom) val;
             final String s = Util.stringValue(extra);
             // final ErlMacroDef r = new ErlMacroDef(parent, o.toString(),
             // s);
             final ErlMember r = new ErlMacroDef(module, s);
-            setPos(r, pos, false);
             // r.setParseTree(val);
             return r;
         } else if (val instanceof OtpErlangList) {
@@ -358,17 +630,16 @@ public final class ErlParser implements IErlParser {
                             module.getName(), o.toString());
                     r = new ErlMacroDef(module, o.toString(), null);
                 }
-                setPos(r, pos, false);
                 // r.setParseTree(val);
                 return r;
             }
         }
-        return addOtherAttribute(module, pos, val, extra, nameS);
+        return addOtherAttribute(module, val, extra, nameS);
     }
 
     private IErlAttribute addOtherAttribute(final IErlModule module,
-            final OtpErlangObject pos, final OtpErlangObject val,
-            final OtpErlangObject extra, final String nameS) {
+            final OtpErlangObject val, final OtpErlangObject extra,
+            final String nameS) {
         // user-defined attribute? or maybe if else endif...
         // OtpErlangObject val1 = concreteTerm(val);
         // if (val instanceof OtpErlangList) {
@@ -388,14 +659,12 @@ public final class ErlParser implements IErlParser {
         }
         final ErlAttribute a = new ErlAttribute(module, nameS, o,
                 Util.stringValue(extra));
-        setPos(a, pos, false);
         // a.setParseTree(val);
         return a;
     }
 
     private IErlRecordDef addRecordDef(final IErlModule module,
-            final OtpErlangObject pos, final OtpErlangObject val,
-            final OtpErlangObject extra) {
+            final OtpErlangObject val, final OtpErlangObject extra) {
         if (val instanceof OtpErlangTuple) {
             final OtpErlangTuple recordTuple = (OtpErlangTuple) val;
             if (recordTuple.elementAt(0) instanceof OtpErlangAtom) {
@@ -404,7 +673,6 @@ public final class ErlParser implements IErlParser {
                 final OtpErlangList fields = (OtpErlangList) recordTuple
                         .elementAt(1);
                 final ErlRecordDef r = new ErlRecordDef(module, s);
-                setPos(r, pos, false);
                 if (fields != null) {
                     final List<ErlRecordField> children = Lists
                             .newArrayListWithCapacity(fields.arity());
@@ -440,24 +708,22 @@ public final class ErlParser implements IErlParser {
             final String s = extra instanceof OtpErlangString ? ((OtpErlangString) extra)
                     .stringValue() : null;
             final ErlRecordDef r = new ErlRecordDef(module, s);
-            setPos(r, pos, false);
             return r;
         }
         return null;
     }
 
     private IErlMember addTypespec(final IErlModule module,
-            final OtpErlangObject pos, final OtpErlangObject extra) {
+            final OtpErlangObject extra) {
         final String s = Util.stringValue(extra);
         final int p = s.indexOf('(');
         final String typeName = p < 0 ? s : s.substring(0, p);
         final ErlTypespec a = new ErlTypespec(module, typeName, s);
-        setPos(a, pos, false);
         return a;
     }
 
     private IErlImport addImportAttribute(final IErlModule module,
-            final OtpErlangObject pos, final OtpErlangObject val) {
+            final OtpErlangObject val) {
         final OtpErlangTuple t = (OtpErlangTuple) val;
         if (t.elementAt(0) instanceof OtpErlangAtom
                 && t.elementAt(1) instanceof OtpErlangList) {
@@ -465,18 +731,16 @@ public final class ErlParser implements IErlParser {
             final OtpErlangList functionList = (OtpErlangList) t.elementAt(1);
             final ErlImport imp = new ErlImport(module,
                     importModule.atomValue(), functionList);
-            setPos(imp, pos, false);
             return imp;
         }
         return null;
     }
 
     private IErlAttribute addModuleAttribute(final IErlModule module,
-            final OtpErlangObject pos, final OtpErlangAtom value,
-            final OtpErlangObject extra, final String nameS) {
+            final OtpErlangAtom value, final OtpErlangObject extra,
+            final String nameS) {
         final String s = Util.stringValue(extra);
         final ErlAttribute r = new ErlAttribute(module, nameS, value, s);
-        setPos(r, pos, false);
         return r;
     }
 
@@ -522,7 +786,7 @@ public final class ErlParser implements IErlParser {
 
     }
 
-    private void setPos(final SourceRefElement e, final int line,
+    static void setPos(final SourceRefElement e, final int line,
             final int lastLine, final int ofs, final int len,
             final boolean minusOne) {
         e.setSourceRangeOffset(ofs);
@@ -1,5 +1,8 @@
 package org.erlide.core.internal.model.erlang;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.erlide.core.internal.model.root.ErlElement;
 import org.erlide.core.internal.model.root.ErlMember;
 import org.erlide.core.model.erlang.IErlRecordDef;
@@ -66,6 +69,26 @@ public class ErlRecordDef extends ErlMember implements IErlRecordDef {
         return false;
     }
 
+    @Override
+    protected SourceRefElement shifted(final int offsetDelta,
+            final int lineDelta) {
+        final ErlRecordDef copy = (ErlRecordDef) super.shifted(offsetDelta,
+                lineDelta);
+        final List<IErlElement> fields = new ArrayList<IErlElement>();
+        for (final IErlElement e : internalGetChildren()) {
+            if (e instanceof ErlRecordField) {
+                final ErlRecordField f = (ErlRecordField) e;
+                final ErlRecordField field = new ErlRecordField(copy,
+                        f.getFieldName());
+                field.setExtra(f.getExtra());
+                field.setPositions(f, offsetDelta, lineDelta);
+                fields.add(field);
+            }
+        }
+        copy.setChildren(fields);
+        return copy;
+    }
+
     @Override
     public String getExtra() {
         return extra;
@@ -10,7 +10,10 @@
  *******************************************************************************/
 package org.erlide.core.internal.model.erlang;
 
+import java.util.List;
+
 import org.erlide.core.model.erlang.IErlScanner;
+import org.erlide.core.model.erlang.ScannerEdit;
 import org.erlide.core.model.root.ErlToken;
 import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.util.IDisposable;
@@ -56,6 +59,11 @@ public class ErlScanner implements IDisposable, IErlScanner {
         ErlideScanner.replaceText(name, offset, removeLength, newText);
     }
 
+    @Override
+    public void replaceText(final List<ScannerEdit> edits) {
+        ErlideScanner.replaceText(name, edits);
+    }
+
     @Override
     public ErlToken getTokenAt(final int offset) {
         return ErlideScanner.getTokenAt(name, offset);
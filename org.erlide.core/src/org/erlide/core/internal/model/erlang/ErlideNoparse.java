@@ -34,6 +34,50 @@ public class ErlideNoparse {
         return res;
     }
 
+    /**
+     * Like {@link #initialParse(IRpcCallSite, String, String, String, boolean,
+     * boolean)}, but the model is returned in the given format, either the
+     * atom <code>term</code> or <code>{binary, Version}</code>. A binary
+     * model is only returned if the backend supports the version.
+     */
+    public static OtpErlangTuple initialParse(final IRpcCallSite b,
+            final String scannerModuleName, final String moduleFileName,
+            final String stateDir, final boolean useCaches,
+            final boolean updateRefs, final OtpErlangObject format) {
+        OtpErlangTuple res = null;
+        try {
+            res = (OtpErlangTuple) b.call(200000, ERLIDE_NOPARSE,
+                    "initial_parse", "assoox", scannerModuleName,
+                    moduleFileName, stateDir, useCaches, updateRefs, format);
+        } catch (final RpcException e) {
+            ErlLogger.warn(e);
+        }
+        return res;
+    }
+
+    /**
+     * Like {@link #initialParse(IRpcCallSite, String, String, String, boolean,
+     * boolean, OtpErlangObject)}, but the result also has the references of
+     * the module, in external term format:
+     * <code>{ok, Model, Cached, Refs}</code>. Refs is <code>undefined</code>
+     * if noparse couldn't read them.
+     */
+    public static OtpErlangTuple initialParseWithRefs(final IRpcCallSite b,
+            final String scannerModuleName, final String moduleFileName,
+            final String stateDir, final boolean useCaches,
+            final boolean updateRefs, final OtpErlangObject format) {
+        OtpErlangTuple res = null;
+        try {
+            res = (OtpErlangTuple) b.call(200000, ERLIDE_NOPARSE,
+                    "initial_parse", "assooxa", scannerModuleName,
+                    moduleFileName, stateDir, useCaches, updateRefs, format,
+                    "with_refs");
+        } catch (final RpcException e) {
+            ErlLogger.warn(e);
+        }
+        return res;
+    }
+
     public static OtpErlangTuple reparse(final IRpcCallSite b,
             final String scannerModuleName) {
         OtpErlangTuple res = null;
@@ -46,6 +90,35 @@ public class ErlideNoparse {
         return res;
     }
 
+    public static OtpErlangTuple reparse(final IRpcCallSite b,
+            final String scannerModuleName, final OtpErlangObject format) {
+        OtpErlangTuple res = null;
+        try {
+            res = (OtpErlangTuple) b.call(20000, ERLIDE_NOPARSE, "reparse",
+                    "ax", scannerModuleName, format);
+        } catch (final RpcException e) {
+            ErlLogger.warn(e);
+        }
+        return res;
+    }
+
+    /**
+     * Like {@link #reparse(IRpcCallSite, String, OtpErlangObject)}, but the
+     * result also has the references of the module, in external term format:
+     * <code>{ok, Model, unused, Refs}</code>.
+     */
+    public static OtpErlangTuple reparseWithRefs(final IRpcCallSite b,
+            final String scannerModuleName, final OtpErlangObject format) {
+        OtpErlangTuple res = null;
+        try {
+            res = (OtpErlangTuple) b.call(20000, ERLIDE_NOPARSE, "reparse",
+                    "axa", scannerModuleName, format, "with_refs");
+        } catch (final RpcException e) {
+            ErlLogger.warn(e);
+        }
+        return res;
+    }
+
     // public static void destroy(final Backend b, final String module) {
     // try {
     // b.call("erlide_noparse_server", "destroy", "a", module);
@@ -1,12 +1,13 @@
 package org.erlide.core.internal.model.erlang;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.erlide.core.ErlangPlugin;
 import org.erlide.core.backend.BackendCore;
 import org.erlide.core.backend.BackendException;
+import org.erlide.core.model.erlang.ScannerEdit;
 import org.erlide.core.model.root.ErlToken;
+import org.erlide.core.model.root.ErlTokenBuffer;
 import org.erlide.jinterface.Assert;
 import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.RpcException;
@@ -16,7 +17,9 @@ import org.erlide.jinterface.util.Util;
 import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangBinary;
 import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
 import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
 import com.ericsson.otp.erlang.OtpErlangTuple;
 
 public class ErlideScanner {
@@ -95,13 +98,37 @@ public class ErlideScanner {
         }
     }
 
+    public static void replaceText(final String module,
+            final List<ScannerEdit> edits) {
+        final OtpErlangObject[] list = new OtpErlangObject[edits.size()];
+        for (int i = 0; i < list.length; i++) {
+            final ScannerEdit edit = edits.get(i);
+            list[i] = new OtpErlangTuple(new OtpErlangObject[] {
+                    new OtpErlangLong(edit.offset),
+                    new OtpErlangLong(edit.removeLength),
+                    new OtpErlangString(edit.text) });
+        }
+        try {
+            final OtpErlangObject r = BackendCore
+                    .getBackendManager()
+                    .getIdeBackend()
+                    .call(ERLIDE_SCANNER, "replaceTexts", "ax", module,
+                            new OtpErlangList(list));
+            if (r instanceof OtpErlangTuple) {
+                ErlLogger.error("GOT::" + r.toString());
+            }
+        } catch (final RpcException e) {
+            ErlLogger.debug(e);
+        }
+    }
+
     /**
      * @param string
      * @param offset
      * @return
      * @throws BackendException
      */
-    public static List<ErlToken> lightScanString(final String string,
+    public static ErlTokenBuffer lightScanString(final String string,
             final int offset) throws BackendException {
         OtpErlangObject r1 = null;
         try {
@@ -124,7 +151,6 @@ public class ErlideScanner {
         }
         final OtpErlangTuple t1 = (OtpErlangTuple) r1;
 
-        List<ErlToken> toks = null;
         if (!(t1.elementAt(0) instanceof OtpErlangAtom)) {
             throw new BackendException("Could not parse string \"" + string
                     + "\": funny return value" + t1);
@@ -133,7 +159,7 @@ public class ErlideScanner {
             if (t1.elementAt(1) instanceof OtpErlangList) {
                 final OtpErlangList l = (OtpErlangList) t1.elementAt(1);
                 if (l != null) {
-                    toks = new ArrayList<ErlToken>(l.arity() + 1);
+                    final ErlTokenBuffer toks = new ErlTokenBuffer(l.arity());
                     for (final OtpErlangObject o : l) {
                         final OtpErlangTuple t = (OtpErlangTuple) o;
                         final ErlToken tk = new ErlToken(t);
@@ -144,14 +170,7 @@ public class ErlideScanner {
                 }
             } else if (t1.elementAt(1) instanceof OtpErlangBinary) {
                 final OtpErlangBinary b = (OtpErlangBinary) t1.elementAt(1);
-                final byte[] bytes = b.binaryValue();
-                toks = new ArrayList<ErlToken>(bytes.length / 10);
-                for (int i = 0; i < bytes.length; i += 10) {
-                    final ErlToken tk = new ErlToken(bytes, i);
-                    tk.fixOffset(offset);
-                    toks.add(tk);
-                }
-                return toks;
+                return ErlTokenBuffer.fromBinary(b.binaryValue(), offset);
             }
         }
         throw new BackendException("Could not parse string \"" + string
@@ -0,0 +1,165 @@
+package org.erlide.core.internal.model.erlang;
+
+import org.erlide.jinterface.util.Util;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangRangeException;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+
+/**
+ * Identifies a form returned by noparse independently of where it is in the
+ * module. Positions in the form are hashed relative to its first position,
+ * so a form that was only moved by an edit above it keeps its hash; the
+ * first position is kept to compute how far it moved.
+ */
+final class FormSignature {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long hash;
+    private final int line;
+    private final int offset;
+
+    private FormSignature(final long hash, final int line, final int offset) {
+        this.hash = hash;
+        this.line = line;
+        this.offset = offset;
+    }
+
+    public static FormSignature of(final OtpErlangObject form) {
+        final Hasher hasher = new Hasher();
+        hasher.add(form);
+        return new FormSignature(hasher.hash, hasher.baseLine,
+                hasher.baseOffset);
+    }
+
+    /**
+     * Signature of a form encoded by erlide_np_binary; positions in the body
+     * are already relative to the form's.
+     */
+    public static FormSignature of(final byte[] bytes, final int from,
+            final int length, final int line, final int offset) {
+        long hash = FNV_OFFSET;
+        for (int i = from; i < from + length; i++) {
+            hash = (hash ^ bytes[i] & 0xff) * FNV_PRIME;
+        }
+        return new FormSignature(hash, line, offset);
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    private static final class Hasher {
+        long hash = FNV_OFFSET;
+        boolean hasBase;
+        int baseLine;
+        int baseOffset;
+
+        void add(final OtpErlangObject o) {
+            if (o instanceof OtpErlangTuple) {
+                final OtpErlangTuple t = (OtpErlangTuple) o;
+                if (!addPosition(t)) {
+                    add('T');
+                    add(t.arity());
+                    for (final OtpErlangObject e : t.elements()) {
+                        add(e);
+                    }
+                }
+            } else if (o instanceof OtpErlangList) {
+                final OtpErlangList l = (OtpErlangList) o;
+                add('L');
+                add(l.arity());
+                for (final OtpErlangObject e : l) {
+                    add(e);
+                }
+                if (l.getLastTail() != null) {
+                    add(l.getLastTail());
+                }
+            } else if (o instanceof OtpErlangLong) {
+                add('l');
+                add(((OtpErlangLong) o).longValue());
+            } else if (o instanceof OtpErlangAtom) {
+                add('a');
+                add(((OtpErlangAtom) o).atomValue());
+            } else if (o instanceof OtpErlangString) {
+                add('s');
+                add(Util.stringValue(o));
+            } else if (o != null) {
+                add('o');
+                add(o.toString());
+            }
+        }
+
+        /**
+         * Adds a position, <code>{{Line, Offset}, Length}</code> or
+         * <code>{{Line, LastLine, Offset}, Length}</code>, relative to the
+         * first one.
+         */
+        private boolean addPosition(final OtpErlangTuple t) {
+            if (t.arity() != 2 || !(t.elementAt(0) instanceof OtpErlangTuple)
+                    || !(t.elementAt(1) instanceof OtpErlangLong)) {
+                return false;
+            }
+            final OtpErlangTuple pos = (OtpErlangTuple) t.elementAt(0);
+            final int arity = pos.arity();
+            if (arity != 2 && arity != 3) {
+                return false;
+            }
+            final int[] values = new int[arity];
+            try {
+                for (int i = 0; i < arity; i++) {
+                    if (!(pos.elementAt(i) instanceof OtpErlangLong)) {
+                        return false;
+                    }
+                    values[i] = ((OtpErlangLong) pos.elementAt(i)).intValue();
+                }
+            } catch (final OtpErlangRangeException e) {
+                return false;
+            }
+            if (!hasBase) {
+                hasBase = true;
+                baseLine = values[0];
+                baseOffset = values[arity - 1];
+            }
+            add('p');
+            for (int i = 0; i < arity - 1; i++) {
+                add(values[i] - baseLine);
+            }
+            add(values[arity - 1] - baseOffset);
+            add(((OtpErlangLong) t.elementAt(1)).longValue());
+            return true;
+        }
+
+        private void add(final String s) {
+            add(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                add(s.charAt(i));
+            }
+        }
+
+        private void add(final long value) {
+            for (int i = 0; i < 64; i += 8) {
+                add((char) (value >>> i & 0xff));
+            }
+        }
+
+        private void add(final char c) {
+            hash = (hash ^ c) * FNV_PRIME;
+        }
+    }
+
+}
@@ -0,0 +1,325 @@
+package org.erlide.core.internal.model.erlang;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.erlide.core.ErlangPlugin;
+import org.erlide.jinterface.ErlLogger;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Persistent snapshots of module structure, so that modules can be opened
+ * after a restart without a round trip to the backend.
+ * <p>
+ * For each module path, the structure returned by the last initial parse
+ * (binary encoded, or the forms and comments) is kept in a deflated file
+ * under the plugin state location, together with a digest of the source it
+ * was parsed from. A snapshot is only used if the digest still matches.
+ * Modules built from a snapshot are refreshed from the backend later, in a
+ * low priority background job. Snapshots of deleted files are removed when
+ * the model sees the deletion, and by a background pass after startup.
+ */
+public class ModuleStructureCache {
+
+    private static final int MAGIC = 0x45534331; // "ESC1"
+    private static final int VERSION = 1;
+    private static final long REFRESH_DELAY = 3000;
+    private static final long PRUNE_DELAY = 60000;
+
+    private static ModuleStructureCache fgInstance = null;
+
+    private final File dir;
+    private final Set<ErlModule> toRefresh = new LinkedHashSet<ErlModule>();
+
+    private final Job pruneJob = new Job("prune module structure") {
+        @Override
+        protected IStatus run(final IProgressMonitor monitor) {
+            final int n = prune();
+            if (n > 0) {
+                ErlLogger.debug("deleted %d stale structure snapshots", n);
+            }
+            return Status.OK_STATUS;
+        }
+    };
+
+    private final Job refreshJob = new Job("refresh module structure") {
+        @Override
+        protected IStatus run(final IProgressMonitor monitor) {
+            ErlModule module;
+            while (!monitor.isCanceled() && (module = nextToRefresh()) != null) {
+                module.refreshStructure();
+            }
+            return Status.OK_STATUS;
+        }
+    };
+
+    public static synchronized ModuleStructureCache getDefault() {
+        if (fgInstance == null) {
+            final ErlangPlugin plugin = ErlangPlugin.getDefault();
+            final File dir = plugin != null ? plugin.getStateLocation()
+                    .append("structure").toFile() : null;
+            fgInstance = new ModuleStructureCache(dir);
+            fgInstance.pruneJob.schedule(PRUNE_DELAY);
+        }
+        return fgInstance;
+    }
+
+    public ModuleStructureCache(final File dir) {
+        this.dir = dir;
+        refreshJob.setSystem(true);
+        refreshJob.setPriority(Job.DECORATE);
+        pruneJob.setSystem(true);
+        pruneJob.setPriority(Job.DECORATE);
+    }
+
+    /**
+     * Digest of the bytes of a module source, used to check that a snapshot
+     * is still valid.
+     */
+    public static byte[] digest(final byte[] source) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-1");
+            return md.digest(source);
+        } catch (final NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether there is a snapshot for the path, whatever its source.
+     */
+    public boolean contains(final String path) {
+        final File file = getFile(path);
+        return file != null && file.isFile();
+    }
+
+    /**
+     * Returns the structure saved for the path, or null if there is none or
+     * it was made from another source.
+     */
+    public OtpErlangObject get(final String path, final byte[] digest) {
+        final File file = getFile(path);
+        if (file == null || digest == null || !file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new InflaterInputStream(
+                    new BufferedInputStream(new FileInputStream(file))));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !path.equals(in.readUTF())) {
+                return null;
+            }
+            final byte[] savedDigest = new byte[in.readUnsignedShort()];
+            in.readFully(savedDigest);
+            if (!Arrays.equals(digest, savedDigest)) {
+                return null;
+            }
+            final byte[] term = new byte[in.readInt()];
+            in.readFully(term);
+            final OtpErlangObject result = new OtpInputStream(term).read_any();
+            return result instanceof OtpErlangTuple
+                    || result instanceof OtpErlangBinary ? result : null;
+        } catch (final IOException e) {
+            ErlLogger.debug("could not read structure snapshot %s: %s",
+                    file, e.getMessage());
+            return null;
+        } catch (final OtpErlangDecodeException e) {
+            ErlLogger.debug("could not read structure snapshot %s: %s",
+                    file, e.getMessage());
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Saves the result of a parse. Results containing parse errors or forms
+     * that need the backend to be interpreted are not saved.
+     */
+    public void put(final String path, final byte[] digest,
+            final OtpErlangObject structure) {
+        final File file = getFile(path);
+        if (file == null || digest == null || structure == null) {
+            return;
+        }
+        if (!isSelfContained(structure)) {
+            remove(path);
+            return;
+        }
+        final OtpOutputStream term = new OtpOutputStream(structure);
+        final File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            dir.mkdirs();
+            out = new DataOutputStream(new DeflaterOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp))));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(path);
+            out.writeShort(digest.length);
+            out.write(digest);
+            out.writeInt(term.size());
+            term.writeTo(out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+            tmp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    public void remove(final String path) {
+        final File file = getFile(path);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Deletes the snapshots of files that don't exist anymore, i.e. of
+     * modules deleted or renamed while no model was there to see it.
+     * 
+     * @return the number of snapshots deleted
+     */
+    public int prune() {
+        final File[] files = dir != null ? dir.listFiles() : null;
+        if (files == null) {
+            return 0;
+        }
+        int n = 0;
+        for (final File file : files) {
+            if (!file.getName().endsWith(".struct")) {
+                continue;
+            }
+            final String path = readPath(file);
+            if (path == null || !new File(path).isFile()) {
+                if (file.delete()) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The module path a snapshot was saved for, or null if it is not a valid
+     * snapshot.
+     */
+    private static String readPath(final File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new InflaterInputStream(
+                    new BufferedInputStream(new FileInputStream(file))));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            return in.readUTF();
+        } catch (final IOException e) {
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Queues a module built from a snapshot to be parsed again by the
+     * backend.
+     */
+    public void scheduleRefresh(final ErlModule module) {
+        synchronized (toRefresh) {
+            toRefresh.add(module);
+        }
+        refreshJob.schedule(REFRESH_DELAY);
+    }
+
+    private ErlModule nextToRefresh() {
+        synchronized (toRefresh) {
+            if (toRefresh.isEmpty()) {
+                return null;
+            }
+            final ErlModule module = toRefresh.iterator().next();
+            toRefresh.remove(module);
+            return module;
+        }
+    }
+
+    private File getFile(final String path) {
+        if (dir == null || path == null) {
+            return null;
+        }
+        final String name = new File(path).getName();
+        return new File(dir, name + "_" + Integer.toHexString(path.hashCode())
+                + ".struct");
+    }
+
+    private static boolean isSelfContained(final OtpErlangObject structure) {
+        if (structure instanceof OtpErlangBinary) {
+            // the binary encoding has neither errors nor syntax trees
+            return true;
+        }
+        final OtpErlangObject forms = ((OtpErlangTuple) structure)
+                .elementAt(0);
+        if (!(forms instanceof OtpErlangList)) {
+            return false;
+        }
+        for (final OtpErlangObject form : (OtpErlangList) forms) {
+            if (form instanceof OtpErlangTuple) {
+                final OtpErlangObject type = ((OtpErlangTuple) form)
+                        .elementAt(0);
+                if (type instanceof OtpErlangAtom) {
+                    final String typeS = ((OtpErlangAtom) type).atomValue();
+                    // errors are formatted and syntax trees are converted by
+                    // the backend when the elements are created
+                    if ("error".equals(typeS) || "tree".equals(typeS)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void close(final Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (final IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+package org.erlide.core.internal.model.erlang;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.erlide.core.model.erlang.IErlComment;
+import org.erlide.core.model.erlang.IErlMember;
+import org.erlide.core.model.erlang.IErlModule;
+import org.erlide.core.model.root.IErlElement;
+import org.erlide.core.model.util.ErlangFunction;
+import org.erlide.jinterface.util.Util;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+/**
+ * Builds module elements from the binary encoding of a noparse result (see
+ * erlide_np_binary.erl), without converting it to Erlang terms first.
+ * <p>
+ * The forms are indexed when the decoder is created, so that their
+ * signatures can be compared with those of the current elements before any
+ * element is built.
+ */
+public final class ModuleStructureDecoder {
+
+    public static final int VERSION = 1;
+
+    private static final int FUNCTION = 1;
+    private static final int ATTRIBUTE = 2;
+
+    private static final int VALUE_NONE = 0;
+    private static final int VALUE_TERM = 1;
+    private static final int VALUE_EXPORT = 2;
+    private static final int VALUE_IMPORT = 3;
+    private static final int VALUE_RECORD = 4;
+
+    private static final OtpErlangAtom UNDEFINED = new OtpErlangAtom("u");
+
+    private final byte[] bytes;
+    private final ErlParser parser;
+    private final int[] formStart;
+    private final FormSignature[] signatures;
+    private final int commentsStart;
+    private int pos;
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the bytes aren't a supported encoding
+     */
+    public ModuleStructureDecoder(final byte[] bytes, final ErlParser parser) {
+        this.bytes = bytes;
+        this.parser = parser;
+        if (bytes.length < 4 || bytes[0] != 'E' || bytes[1] != 'N'
+                || bytes[2] != 'P' || bytes[3] != VERSION) {
+            throw new IllegalArgumentException("unknown module structure "
+                    + "encoding");
+        }
+        pos = 4;
+        final int count = readUInt();
+        formStart = new int[count];
+        signatures = new FormSignature[count];
+        for (int i = 0; i < count; i++) {
+            final int line = readUInt();
+            final int offset = readUInt();
+            final int size = readUInt();
+            check(size);
+            formStart[i] = pos;
+            signatures[i] = FormSignature.of(bytes, pos, size, line, offset);
+            pos += size;
+        }
+        commentsStart = pos;
+    }
+
+    public int getFormCount() {
+        return formStart.length;
+    }
+
+    FormSignature getSignature(final int index) {
+        return signatures[index];
+    }
+
+    /**
+     * Creates the element for a form, or returns null if the form isn't
+     * shown in the model.
+     */
+    public IErlMember createForm(final IErlModule module, final int index) {
+        final FormSignature signature = signatures[index];
+        final int line = signature.getLine();
+        final int offset = signature.getOffset();
+        pos = formStart[index];
+        final int kind = readByte();
+        final int lastLine = line + readSInt();
+        final int length = readUInt();
+        final SourceRefElement result;
+        if (kind == FUNCTION) {
+            result = readFunction(module, line, offset);
+            ErlParser.setPos(result, line, lastLine, offset, length, true);
+        } else if (kind == ATTRIBUTE) {
+            result = readAttribute(module, line, offset);
+            if (result == null) {
+                return null;
+            }
+            ErlParser.setPos(result, line, lastLine, offset, length, false);
+        } else {
+            throw new IllegalArgumentException("unknown form kind " + kind);
+        }
+        return (IErlMember) result;
+    }
+
+    public List<IErlComment> createComments(final IErlModule module) {
+        pos = commentsStart;
+        final int count = readUInt();
+        final List<IErlComment> result = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            final int line = readUInt();
+            final int offset = readUInt();
+            final int length = readUInt();
+            final String text = readString();
+            final ErlComment comment = new ErlComment(module, text,
+                    line == 0 || line == 1);
+            ErlParser.setPos(comment, line, line, offset + 1, length, true);
+            result.add(comment);
+        }
+        return result;
+    }
+
+    private ErlFunction readFunction(final IErlModule module, final int line,
+            final int offset) {
+        final String name = readString();
+        final int arity = readUInt();
+        final List<String> parameters = readStrings();
+        final String head = readString();
+        final int nameOffset = offset + readSInt();
+        final int nameLength = readUInt();
+        String comment = readString();
+        if (comment != null) {
+            comment = comment.replaceAll("\n", "<br/>");
+        }
+        final boolean exported = readByte() != 0;
+        final ErlFunction f = new ErlFunction(module, name, arity, head,
+                comment, exported, parameters);
+        f.setNameRange(nameOffset, nameLength);
+        final int count = readUInt();
+        final List<ErlFunctionClause> clauses = Lists
+                .newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            final int clauseLine = line + readSInt();
+            final int clauseLastLine = line + readSInt();
+            final int clauseOffset = offset + readSInt();
+            final int clauseLength = readUInt();
+            final List<String> clauseParameters = readStrings();
+            final String clauseHead = readString();
+            final int clauseNameOffset = clauseOffset + readSInt();
+            final int clauseNameLength = readUInt();
+            final ErlFunctionClause cl = new ErlFunctionClause(f, "#" + i,
+                    clauseHead, clauseParameters);
+            cl.setNameRange(clauseNameOffset, clauseNameLength);
+            ErlParser.setPos(cl, clauseLine, clauseLastLine, clauseOffset,
+                    clauseLength, true);
+            clauses.add(cl);
+        }
+        f.setChildren(clauses);
+        return f;
+    }
+
+    private SourceRefElement readAttribute(final IErlModule module,
+            final int line, final int offset) {
+        final String name = readString();
+        final String extra = readString();
+        final int kind = readByte();
+        switch (kind) {
+        case VALUE_EXPORT:
+            return new ErlExport(module, readFunctions(), extra);
+        case VALUE_IMPORT:
+            final String importModule = readString();
+            return new ErlImport(module, importModule, readFunctions());
+        case VALUE_RECORD:
+            return readRecordDef(module, extra, line, offset);
+        case VALUE_NONE:
+        case VALUE_TERM:
+            final OtpErlangObject value = kind == VALUE_NONE ? UNDEFINED
+                    : readTerm();
+            return (SourceRefElement) parser.createAttribute(module,
+                    new OtpErlangAtom(name), value,
+                    extra == null ? null : new OtpErlangString(extra));
+        default:
+            throw new IllegalArgumentException("unknown attribute value "
+                    + kind);
+        }
+    }
+
+    private ErlRecordDef readRecordDef(final IErlModule module,
+            final String extra, final int line, final int offset) {
+        final ErlRecordDef r = new ErlRecordDef(module, extra);
+        final int count = readUInt();
+        final List<IErlElement> fields = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            final ErlRecordField field = new ErlRecordField(r, readString());
+            final int fieldLine = line + readSInt();
+            final int fieldLastLine = line + readSInt();
+            final int fieldOffset = offset + readSInt();
+            final int fieldLength = readUInt();
+            field.setExtra(readString());
+            ErlParser.setPos(field, fieldLine, fieldLastLine, fieldOffset,
+                    fieldLength, false);
+            fields.add(field);
+        }
+        r.setChildren(fields);
+        return r;
+    }
+
+    private List<ErlangFunction> readFunctions() {
+        final int count = readUInt();
+        final List<ErlangFunction> result = Lists
+                .newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            final String name = readString();
+            result.add(new ErlangFunction(name, readUInt()));
+        }
+        return result;
+    }
+
+    private OtpErlangObject readTerm() {
+        final int size = readUInt();
+        check(size);
+        final byte[] term = Arrays.copyOfRange(bytes, pos, pos + size);
+        pos += size;
+        try {
+            return new OtpInputStream(term).read_any();
+        } catch (final OtpErlangDecodeException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private List<String> readStrings() {
+        final int count = readUInt();
+        final List<String> result = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            result.add(readString());
+        }
+        return result;
+    }
+
+    /**
+     * Reads UTF-8, or Latin-1 if that fails, like
+     * {@link Util#stringValue(OtpErlangObject)} does for binaries.
+     */
+    private String readString() {
+        final int size = readUInt() - 1;
+        if (size < 0) {
+            return null;
+        }
+        check(size);
+        final int from = pos;
+        pos += size;
+        for (int i = from; i < pos; i++) {
+            if (bytes[i] < 0) {
+                final String result = Util.decode(
+                        Arrays.copyOfRange(bytes, from, pos), "UTF-8");
+                if (result != null) {
+                    return result;
+                }
+                return new String(bytes, from, size, Charsets.ISO_8859_1);
+            }
+        }
+        return new String(bytes, from, size, Charsets.ISO_8859_1);
+    }
+
+    private int readSInt() {
+        final int n = readUInt();
+        return n >>> 1 ^ -(n & 1);
+    }
+
+    private int readUInt() {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = readByte();
+            result |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("bad integer at " + pos);
+    }
+
+    private int readByte() {
+        check(1);
+        return bytes[pos++] & 0xff;
+    }
+
+    private void check(final int size) {
+        if (size < 0 || pos + size > bytes.length) {
+            throw new IllegalArgumentException("truncated module structure");
+        }
+    }
+
+}
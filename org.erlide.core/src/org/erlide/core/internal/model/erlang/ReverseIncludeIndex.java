@@ -0,0 +1,198 @@
+package org.erlide.core.internal.model.erlang;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.erlide.core.model.erlang.IErlModule;
+import org.erlide.core.model.erlang.ModuleKind;
+import org.erlide.core.model.root.ErlModelException;
+import org.erlide.core.model.util.ErlangIncludeFile;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+/**
+ * Maps include file names to the modules (and headers) that include them. It
+ * is updated from parse results each time a module's structure is built, and
+ * filled for the other modules by scanning their sources, so that the
+ * dependents of a header can be found without opening every module in the
+ * project.
+ */
+public class ReverseIncludeIndex {
+
+    private static ReverseIncludeIndex fgInstance = null;
+
+    private static final Pattern INCLUDE = Pattern.compile(
+            "^\\s*-\\s*include(?:_lib)?\\s*\\(\\s*\"([^\"]*)\"",
+            Pattern.MULTILINE);
+
+    // include file name (last path segment) -> including modules
+    private final SetMultimap<String, IErlModule> includers = HashMultimap
+            .create();
+    // module -> include file names it had when last parsed
+    private final Map<IErlModule, Collection<String>> includes = Maps
+            .newHashMap();
+
+    public static synchronized ReverseIncludeIndex getDefault() {
+        if (fgInstance == null) {
+            fgInstance = new ReverseIncludeIndex();
+        }
+        return fgInstance;
+    }
+
+    /**
+     * Records the include files of a module that was just parsed, replacing
+     * what was known before.
+     */
+    public synchronized void moduleParsed(final IErlModule module,
+            final Collection<ErlangIncludeFile> includeFiles) {
+        final List<String> names = Lists.newArrayList();
+        for (final ErlangIncludeFile includeFile : includeFiles) {
+            names.add(includeFile.getFilenameLastPart());
+        }
+        put(module, names);
+    }
+
+    /**
+     * Records the include files found by scanning a module's source, unless
+     * it was parsed in the meantime.
+     */
+    private synchronized void moduleScanned(final IErlModule module,
+            final Collection<String> names) {
+        if (!isIndexed(module)) {
+            put(module, names);
+        }
+    }
+
+    private void put(final IErlModule module, final Collection<String> names) {
+        removeModule(module);
+        for (final String name : names) {
+            includers.put(name, module);
+        }
+        includes.put(module, names);
+    }
+
+    public synchronized void removeModule(final IErlModule module) {
+        final Collection<String> names = includes.remove(module);
+        if (names != null) {
+            for (final String name : names) {
+                includers.remove(name, module);
+            }
+        }
+    }
+
+    public synchronized boolean isIndexed(final IErlModule module) {
+        return includes.containsKey(module);
+    }
+
+    /**
+     * Makes sure all the given modules are in the index. Those that were
+     * never parsed have their -include and -include_lib lines scanned from
+     * the file, without building their structure; afterwards the index is
+     * kept current by the parses done anyway on reconcile and build.
+     */
+    public void ensureIndexed(final Collection<IErlModule> modules)
+            throws ErlModelException {
+        for (final IErlModule module : modules) {
+            if (isIndexed(module)) {
+                continue;
+            }
+            final Collection<String> names = scanIncludes(module);
+            if (names != null) {
+                moduleScanned(module, names);
+            } else if (module.isOpen()) {
+                // no file to scan, but the structure is there
+                moduleParsed(module, module.getIncludeFiles());
+            }
+        }
+    }
+
+    private static Collection<String> scanIncludes(final IErlModule module) {
+        final String filePath = module.getFilePath();
+        if (filePath == null) {
+            return null;
+        }
+        final String text;
+        try {
+            // latin-1 maps each byte to a char, which is enough for the names
+            text = Files.toString(new File(filePath), Charsets.ISO_8859_1);
+        } catch (final IOException e) {
+            return null;
+        }
+        return scanIncludes(text);
+    }
+
+    /**
+     * The last path segments of the files included by the given source.
+     */
+    static List<String> scanIncludes(final String text) {
+        final List<String> names = Lists.newArrayList();
+        final Matcher m = INCLUDE.matcher(text);
+        while (m.find()) {
+            final String filename = m.group(1);
+            names.add(new ErlangIncludeFile(false, filename)
+                    .getFilenameLastPart());
+        }
+        return names;
+    }
+
+    /**
+     * The names of the files included by the given modules, as far as they
+     * are indexed.
+     */
+    public synchronized Set<String> getIncludedNames(
+            final Collection<IErlModule> modules) {
+        final Set<String> result = Sets.newHashSet();
+        for (final IErlModule module : modules) {
+            final Collection<String> names = includes.get(module);
+            if (names != null) {
+                result.addAll(names);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The modules that directly include a file with the given name.
+     */
+    public synchronized Set<IErlModule> getDirectIncluders(
+            final String includeName) {
+        return Sets.newHashSet(includers.get(includeName));
+    }
+
+    /**
+     * The modules that include a file with the given name, directly or
+     * through other headers.
+     */
+    public synchronized Set<IErlModule> getAllIncluders(
+            final String includeName) {
+        final Set<IErlModule> result = Sets.newHashSet();
+        final Set<String> seen = Sets.newHashSet(includeName);
+        final List<String> work = Lists.newArrayList(includeName);
+        while (!work.isEmpty()) {
+            final String name = work.remove(work.size() - 1);
+            for (final IErlModule module : includers.get(name)) {
+                if (!result.add(module)) {
+                    continue;
+                }
+                if (ModuleKind.nameToModuleKind(module.getName()) == ModuleKind.HRL
+                        && seen.add(module.getName())) {
+                    work.add(module.getName());
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,151 @@
+package org.erlide.core.internal.model.erlang;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.erlide.core.model.erlang.ISourceRange;
+import org.erlide.core.model.erlang.ISourceReference;
+import org.erlide.core.model.root.ErlModelException;
+import org.erlide.core.model.root.IErlElement;
+import org.erlide.core.model.root.IParent;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Position lookup for the members of a module (and their clauses, fields,
+ * ...), by offset and by line.
+ * <p>
+ * The source ranges of all descendants are kept sorted by start, together
+ * with the running maximum of their ends, so that the ranges containing a
+ * position are found with a binary search followed by a short backwards walk.
+ * When several ranges contain the position, the result is the same as that
+ * of {@link org.erlide.core.internal.model.root.ErlModel#innermostThat}: the
+ * first match in post-order, i.e. the innermost element of the first member
+ * containing the position.
+ * <p>
+ * An index is built for one snapshot of the module's children; since
+ * snapshots are replaced, never modified, when the module is reparsed,
+ * {@link #isFor(List)} tells whether it is still current.
+ */
+public class SourceRangeIndex {
+
+    private static class Entry {
+        final IErlElement element;
+        final int order;
+        final int start;
+        final int end;
+
+        Entry(final IErlElement element, final int order, final int start,
+                final int end) {
+            this.element = element;
+            this.order = order;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final Comparator<Entry> BY_START = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry o1, final Entry o2) {
+            return o1.start < o2.start ? -1 : o1.start == o2.start ? 0 : 1;
+        }
+    };
+
+    /**
+     * Closed intervals sorted by start, with the running maximum of ends.
+     */
+    private static class Intervals {
+        private final Entry[] entries;
+        private final int[] maxEnds;
+
+        Intervals(final List<Entry> list) {
+            entries = list.toArray(new Entry[list.size()]);
+            Arrays.sort(entries, BY_START);
+            maxEnds = new int[entries.length];
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < entries.length; i++) {
+                max = Math.max(max, entries[i].end);
+                maxEnds[i] = max;
+            }
+        }
+
+        IErlElement find(final int pos) {
+            // last entry starting at or before pos
+            int lo = 0;
+            int hi = entries.length - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (entries[mid].start <= pos) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            Entry best = null;
+            for (int i = hi; i >= 0 && maxEnds[i] >= pos; i--) {
+                final Entry e = entries[i];
+                if (e.end >= pos && (best == null || e.order < best.order)) {
+                    best = e;
+                }
+            }
+            return best == null ? null : best.element;
+        }
+    }
+
+    private final List<IErlElement> children;
+    private final Intervals offsets;
+    private final Intervals lines;
+
+    public SourceRangeIndex(final List<IErlElement> children) {
+        this.children = children;
+        final List<Entry> offsetEntries = Lists.newArrayList();
+        final List<Entry> lineEntries = Lists.newArrayList();
+        add(children, offsetEntries, lineEntries, new int[1]);
+        offsets = new Intervals(offsetEntries);
+        lines = new Intervals(lineEntries);
+    }
+
+    /**
+     * Whether this index was built from the given children snapshot.
+     */
+    public boolean isFor(final List<IErlElement> snapshot) {
+        return children == snapshot;
+    }
+
+    public IErlElement getElementAt(final int offset) {
+        return offsets.find(offset);
+    }
+
+    public IErlElement getElementAtLine(final int line) {
+        return lines.find(line);
+    }
+
+    private static void add(final List<IErlElement> elements,
+            final List<Entry> offsetEntries, final List<Entry> lineEntries,
+            final int[] order) {
+        for (final IErlElement e : elements) {
+            // children first, to number the elements in post-order
+            if (e instanceof IParent) {
+                try {
+                    add(((IParent) e).getChildren(), offsetEntries,
+                            lineEntries, order);
+                } catch (final ErlModelException ex) {
+                    // no children
+                }
+            }
+            final int n = order[0]++;
+            if (e instanceof ISourceReference) {
+                final ISourceReference sr = (ISourceReference) e;
+                final ISourceRange r = sr.getSourceRange();
+                if (r != null) {
+                    offsetEntries.add(new Entry(e, n, r.getOffset(), r
+                            .getOffset() + r.getLength()));
+                }
+                lineEntries.add(new Entry(e, n, sr.getLineStart(), sr
+                        .getLineEnd()));
+            }
+        }
+    }
+
+}
@@ -32,6 +32,8 @@ public abstract class SourceRefElement extends ErlElement implements
     protected int fSourceRangeOffset;
     protected int fSourceRangeLength;
     protected int lineStart, lineEnd;
+    // set by ErlParser, to find the element again after a reparse
+    FormSignature formSignature;
 
     protected SourceRefElement(final IParent parent, final String name) {
         super(parent, name);
@@ -136,9 +138,7 @@ public abstract class SourceRefElement extends ErlElement implements
      */
     @Override
     public boolean hasChildren() {
-        synchronized (getModelLock()) {
-            return internalGetChildren().size() > 0;
-        }
+        return internalGetChildren().size() > 0;
     }
 
     public void setSourceRangeOffset(final int offset) {
@@ -167,6 +167,32 @@ public abstract class SourceRefElement extends ErlElement implements
         return lineEnd;
     }
 
+    /**
+     * Returns a copy of this element moved by the given deltas, for a form
+     * that a reparse found unchanged at another position. This element isn't
+     * changed, since readers may still see it in the previous children of
+     * its parent. Elements with children must copy them with the copy as
+     * their parent.
+     */
+    protected SourceRefElement shifted(final int offsetDelta,
+            final int lineDelta) {
+        final SourceRefElement copy = (SourceRefElement) clone();
+        copy.setPositions(this, offsetDelta, lineDelta);
+        return copy;
+    }
+
+    /**
+     * Sets the positions of this element to those of <code>other</code>,
+     * moved by the given deltas.
+     */
+    protected void setPositions(final SourceRefElement other,
+            final int offsetDelta, final int lineDelta) {
+        fSourceRangeOffset = other.fSourceRangeOffset + offsetDelta;
+        fSourceRangeLength = other.fSourceRangeLength;
+        lineStart = other.lineStart + lineDelta;
+        lineEnd = other.lineEnd + lineDelta;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (!super.equals(o) || !(o instanceof SourceRefElement)) {
@@ -179,8 +205,8 @@ public abstract class SourceRefElement extends ErlElement implements
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(super.hashCode(), fSourceRangeOffset,
-                fSourceRangeLength);
+        // not the offset: a moved copy of the element keeps its hash code
+        return Objects.hashCode(super.hashCode(), fSourceRangeLength);
     }
 
     @Override
@@ -52,7 +52,14 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
      */
     private final IParent fParent;
 
-    private final List<IErlElement> fChildren = Lists.newArrayList();
+    /**
+     * Immutable snapshot of the children. Readers use whatever snapshot is
+     * current without locking; writers build a new list and publish it, so a
+     * reconcile never blocks lookups in this or any other element.
+     */
+    private volatile List<IErlElement> fChildren = Collections.emptyList();
+    // not final: a clone gets its own
+    private Object fChildrenLock = new Object();
 
     /**
      * This element's name, or an empty <code>String</code> if this element does
@@ -247,18 +254,14 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
      */
     @Override
     public boolean hasChildren() {
-        synchronized (getModelLock()) {
-            return !internalGetChildren().isEmpty();
-        }
+        return !internalGetChildren().isEmpty();
     }
 
     @Override
     public boolean hasChildrenOfKind(final Kind kind) {
-        synchronized (getModelLock()) {
-            for (final IErlElement child : internalGetChildren()) {
-                if (child.getKind() == kind) {
-                    return true;
-                }
+        for (final IErlElement child : internalGetChildren()) {
+            if (child.getKind() == kind) {
+                return true;
             }
         }
         return false;
@@ -421,10 +424,17 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
     public void clearCaches() {
     }
 
+    /**
+     * Returns a shallow copy of this element. The copy has the same parent and
+     * starts with the same children snapshot; setting its children doesn't
+     * change this element.
+     */
     @Override
     public Object clone() {
         try {
-            return super.clone();
+            final ErlElement copy = (ErlElement) super.clone();
+            copy.fChildrenLock = new Object();
+            return copy;
         } catch (final CloneNotSupportedException e) {
             throw new Error();
         }
@@ -432,21 +442,20 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
 
     @Override
     public List<IErlElement> getChildren() throws ErlModelException {
-        synchronized (getModelLock()) {
-            return Collections.unmodifiableList(Lists
-                    .newArrayList(internalGetChildren()));
-        }
+        return internalGetChildren();
     }
 
+    /**
+     * The current (unmodifiable) snapshot of the children; it is never
+     * changed in place, so it can be iterated without locking.
+     */
     protected List<IErlElement> internalGetChildren() {
         return fChildren;
     }
 
     @Override
     public int getChildCount() {
-        synchronized (getModelLock()) {
-            return internalGetChildren().size();
-        }
+        return internalGetChildren().size();
     }
 
     /**
@@ -460,11 +469,9 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
     public List<IErlElement> getChildrenOfKind(final Kind kind)
             throws ErlModelException {
         final List<IErlElement> result = Lists.newArrayList();
-        synchronized (getModelLock()) {
-            for (final IErlElement element : internalGetChildren()) {
-                if (element.getKind() == kind) {
-                    result.add(element);
-                }
+        for (final IErlElement element : internalGetChildren()) {
+            if (element.getKind() == kind) {
+                result.add(element);
             }
         }
         return result;
@@ -484,9 +491,7 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
      * Returns <code>true</code> if this child is in my children collection
      */
     protected boolean includesChild(final IErlElement child) {
-        synchronized (getModelLock()) {
-            return internalGetChildren().contains(child);
-        }
+        return internalGetChildren().contains(child);
     }
 
     /**
@@ -499,27 +504,37 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
 
     @Override
     public void removeChild(final IErlElement child) {
-        synchronized (getModelLock()) {
+        synchronized (fChildrenLock) {
             clearCaches();
-            fChildren.remove(child);
+            final List<IErlElement> newChildren = Lists.newArrayList(fChildren);
+            if (newChildren.remove(child)) {
+                fChildren = Collections.unmodifiableList(newChildren);
+            }
         }
     }
 
     @Override
     public void addChild(final IErlElement child) {
-        synchronized (getModelLock()) {
+        synchronized (fChildrenLock) {
             clearCaches();
-            fChildren.add(child);
+            final List<IErlElement> newChildren = Lists
+                    .newArrayListWithCapacity(fChildren.size() + 1);
+            newChildren.addAll(fChildren);
+            newChildren.add(child);
+            fChildren = Collections.unmodifiableList(newChildren);
         }
     }
 
     @Override
     public void setChildren(final Collection<? extends IErlElement> children) {
-        synchronized (getModelLock()) {
+        synchronized (fChildrenLock) {
             clearCaches();
-            fChildren.clear();
-            if (children != null) {
-                fChildren.addAll(children);
+            if (children == null || children.isEmpty()) {
+                fChildren = Collections.emptyList();
+            } else {
+                final List<IErlElement> newChildren = Lists
+                        .newArrayList(children);
+                fChildren = Collections.unmodifiableList(newChildren);
             }
         }
     }
@@ -545,11 +560,9 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
 
     private static IErlElement getChildNamed(final ErlElement parent,
             final String name) {
-        synchronized (parent.getModelLock()) {
-            for (final IErlElement child : parent.internalGetChildren()) {
-                if (child.getName().equals(name)) {
-                    return child;
-                }
+        for (final IErlElement child : parent.internalGetChildren()) {
+            if (child.getName().equals(name)) {
+                return child;
             }
         }
         return null;
@@ -557,11 +570,9 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
 
     private static IErlElement getChildWithResource(final ErlElement parent,
             final IResource rsrc) {
-        synchronized (parent.getModelLock()) {
-            for (final IErlElement child : parent.internalGetChildren()) {
-                if (rsrc.equals(child.getResource())) {
-                    return child;
-                }
+        for (final IErlElement child : parent.internalGetChildren()) {
+            if (rsrc.equals(child.getResource())) {
+                return child;
             }
         }
         return null;
@@ -571,9 +582,7 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
     public final void accept(final IErlElementVisitor visitor,
             final Set<AcceptFlags> flags, final IErlElement.Kind leafKind)
             throws ErlModelException {
-        synchronized (getModelLock()) {
-            internalAccept(visitor, flags, leafKind);
-        }
+        internalAccept(visitor, flags, leafKind);
     }
 
     private final void internalAccept(final IErlElementVisitor visitor,
@@ -639,9 +648,4 @@ public abstract class ErlElement extends PlatformObject implements IErlElement,
         return ErlModelCache.getDefault();
     }
 
-    @Override
-    public Object getModelLock() {
-        return getModel().getModelLock();
-    }
-
 }
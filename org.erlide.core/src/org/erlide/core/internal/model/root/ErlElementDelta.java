@@ -243,6 +243,10 @@ public class ErlElementDelta implements IErlElementDelta {
 
                     // child was changed then changed -> it is changed
                 case CHANGED:
+                    // only fine-grained if both changes are
+                    if ((child.fFlags & F_FINE_GRAINED) == 0) {
+                        ((ErlElementDelta) existingChild).fFlags &= ~F_FINE_GRAINED;
+                    }
                     final IErlElementDelta[] children = child.getChildren(ALL);
                     for (final IErlElementDelta element : children) {
                         final ErlElementDelta childsChild = (ErlElementDelta) element;
@@ -323,6 +327,25 @@ public class ErlElementDelta implements IErlElementDelta {
         fResourceDeltas.add(child);
     }
 
+    /**
+     * Creates the nested deltas resulting from an add operation. Convenience
+     * method for creating add deltas. The constructor should be used to create
+     * the root delta and then an add operation should call this method.
+     */
+    public void added(final IErlElement element) {
+        insertDeltaTree(element, new ErlElementDelta(ADDED, 0, element));
+    }
+
+    /**
+     * Creates the nested deltas resulting from a delete operation. Convenience
+     * method for creating removed deltas. The constructor should be used to
+     * create the root delta and then the delete operation should call this
+     * method.
+     */
+    public void removed(final IErlElement element) {
+        insertDeltaTree(element, new ErlElementDelta(REMOVED, 0, element));
+    }
+
     /**
      * Creates the nested deltas resulting from a change operation. Convenience
      * method for creating change deltas. The constructor should be used to
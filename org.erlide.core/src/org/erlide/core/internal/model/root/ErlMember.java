@@ -49,6 +49,20 @@ public abstract class ErlMember extends SourceRefElement implements IErlMember {
         fNameRangeLength = length;
     }
 
+    @Override
+    protected void setPositions(final SourceRefElement other,
+            final int offsetDelta, final int lineDelta) {
+        super.setPositions(other, offsetDelta, lineDelta);
+        if (other instanceof ErlMember) {
+            final ErlMember m = (ErlMember) other;
+            fNameRangeOffset = m.fNameRangeOffset;
+            fNameRangeLength = m.fNameRangeLength;
+            if (fNameRangeOffset != 0 || fNameRangeLength != 0) {
+                fNameRangeOffset += offsetDelta;
+            }
+        }
+    }
+
     @Override
     public ISourceRange getNameRange() {
         if (fNameRangeOffset == 0 && fNameRangeLength == 0) {
@@ -1,12 +1,15 @@
 package org.erlide.core.internal.model.root;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import org.eclipse.core.runtime.IPath;
+import org.erlide.core.internal.model.root.ModelCacheMap.Weigher;
 import org.erlide.core.model.erlang.IErlModule;
 import org.erlide.core.model.root.ErlModelManager;
 import org.erlide.core.model.root.IErlElement;
@@ -15,7 +18,6 @@ import org.erlide.core.model.root.IErlProject;
 import org.erlide.core.model.util.ErlideUtil;
 import org.erlide.core.services.search.ErlideOpen.ExternalTreeEntry;
 import org.erlide.jinterface.util.IDisposable;
-import org.erlide.jinterface.util.LRUCache;
 import org.erlide.jinterface.util.Tuple;
 
 import com.google.common.collect.Lists;
@@ -24,11 +26,12 @@ import com.google.common.collect.Sets;
 
 public class ErlModelCache implements IDisposable {
 
-    private static final int CACHE_SIZE = 100;
-    // TODO make a more educated guess here...
-    // private static final int NAME_CACHE_SIZE = 300;
+    // the limits can be changed with -Derlide.modelcache.<name>=<weight>
+    private static final String CACHE_SIZE_PROPERTY = "erlide.modelcache.";
     private static ErlModelCache fgInstance = null;
 
+    private final List<ModelCacheMap<?, ?>> caches = Lists.newArrayList();
+
     private final Map<IErlModule, List<IErlModule>> moduleIncludeCache;
     private final Map<String, IErlModule> pathToModuleCache;
     private final Map<String, Tuple<IErlProject, List<ExternalTreeEntry>>> externalTreeCache;
@@ -41,9 +44,12 @@ public class ErlModelCache implements IDisposable {
     private final Map<IErlProject, String> projectExternalIncludesStringCache;
     private final Map<IErlProject, Collection<IPath>> projectSourceDirsCache;
     private final Map<IErlProject, Collection<IPath>> projectIncludeDirsCache;
+    private final Map<ModuleIndex.Kind, Map<IErlProject, ModuleIndex>> moduleIndexCaches;
+    // one index per kind over all projects, for lookups in ALL_PROJECTS scope
+    private final Map<ModuleIndex.Kind, ModuleIndex> workspaceIndexes;
     private final boolean disabled;
 
-    public static ErlModelCache getDefault() {
+    public static synchronized ErlModelCache getDefault() {
         if (fgInstance == null) {
             fgInstance = new ErlModelCache();
         }
@@ -63,22 +69,66 @@ public class ErlModelCache implements IDisposable {
         }
     }
 
-    private static <K, V> Map<K, V> newCache() {
-        return new LRUCache<K, V>(CACHE_SIZE).asSynchronized();
+    private static final Weigher<String, Tuple<IErlProject, List<ExternalTreeEntry>>> EXTERNAL_TREE_WEIGHER = new Weigher<String, Tuple<IErlProject, List<ExternalTreeEntry>>>() {
+        @Override
+        public int weigh(final String key,
+                final Tuple<IErlProject, List<ExternalTreeEntry>> value) {
+            return 1 + value.o2.size();
+        }
+    };
+
+    private static final Weigher<IErlProject, ModuleIndex> MODULE_INDEX_WEIGHER = new Weigher<IErlProject, ModuleIndex>() {
+        @Override
+        public int weigh(final IErlProject key, final ModuleIndex value) {
+            return 1 + value.size();
+        }
+    };
+
+    /**
+     * Creates a cache whose maximum weight can be overridden by a system
+     * property. Without a weigher, the weight is the number of entries.
+     */
+    private <K, V> Map<K, V> newCache(final String name,
+            final long defaultMaxWeight,
+            final Weigher<? super K, ? super V> weigher) {
+        final long maxWeight = Long.getLong(CACHE_SIZE_PROPERTY + name,
+                defaultMaxWeight);
+        final ModelCacheMap<K, V> cache = new ModelCacheMap<K, V>(name,
+                maxWeight, weigher);
+        caches.add(cache);
+        return cache;
     }
 
     private ErlModelCache() {
-        pathToModuleCache = newCache();
-        editedModulesMap = Maps.newHashMap();
+        pathToModuleCache = newCache("modulesByPath", 5000, null);
+        editedModulesMap = Maps.newConcurrentMap();
         // nameToModuleCache = newCache();
-        moduleIncludeCache = newCache();
-        externalTreeCache = newCache();
-        projectModuleCache = newCache();
-        projectIncludeCache = newCache();
-        projectExternalModulesStringCache = newCache();
-        projectExternalIncludesStringCache = newCache();
-        projectSourceDirsCache = newCache();
-        projectIncludeDirsCache = newCache();
+        moduleIncludeCache = newCache("moduleIncludes", 20000,
+                ModelCacheMap.BY_SIZE);
+        externalTreeCache = newCache("externalTrees", 200000,
+                EXTERNAL_TREE_WEIGHER);
+        projectModuleCache = newCache("projectModules", 100000,
+                ModelCacheMap.BY_SIZE);
+        projectIncludeCache = newCache("projectIncludes", 50000,
+                ModelCacheMap.BY_SIZE);
+        projectExternalModulesStringCache = newCache("externalModules",
+                1000, null);
+        projectExternalIncludesStringCache = newCache("externalIncludes",
+                1000, null);
+        projectSourceDirsCache = newCache("sourceDirs", 1000,
+                ModelCacheMap.BY_SIZE);
+        projectIncludeDirsCache = newCache("includeDirs", 1000,
+                ModelCacheMap.BY_SIZE);
+        moduleIndexCaches = Maps.newEnumMap(ModuleIndex.Kind.class);
+        for (final ModuleIndex.Kind kind : ModuleIndex.Kind.values()) {
+            final Map<IErlProject, ModuleIndex> cache = newCache("moduleIndex."
+                    + kind.name().toLowerCase(Locale.ENGLISH), 200000,
+                    MODULE_INDEX_WEIGHER);
+            moduleIndexCaches.put(kind, cache);
+        }
+        final Map<ModuleIndex.Kind, ModuleIndex> indexes = Maps
+                .newEnumMap(ModuleIndex.Kind.class);
+        workspaceIndexes = Collections.synchronizedMap(indexes);
         modelChangeListener = new ModelChangeListener();
         ErlModelManager.getErlangModel().addModelChangeListener(
                 modelChangeListener);
@@ -125,7 +175,7 @@ public class ErlModelCache implements IDisposable {
     // }
 
     public void putEdited(final String path, final IErlModule module) {
-        if (disabled) {
+        if (disabled || path == null) {
             return;
         }
         if (module == null) {
@@ -136,6 +186,9 @@ public class ErlModelCache implements IDisposable {
     }
 
     public IErlModule getModuleByPath(final String path) {
+        if (path == null) {
+            return null;
+        }
         final IErlModule module = editedModulesMap.get(path);
         if (module != null) {
             return module;
@@ -246,13 +299,13 @@ public class ErlModelCache implements IDisposable {
         final List<IErlModule> includes = projectIncludeCache.get(project);
         if (includes != null) {
             for (final IErlModule module : includes) {
-                moduleIncludeCache.put(module, null);
+                moduleIncludeCache.remove(module);
             }
         }
         final List<IErlModule> modules = projectModuleCache.get(project);
         if (modules != null) {
             for (final IErlModule module : modules) {
-                moduleIncludeCache.put(module, null);
+                moduleIncludeCache.remove(module);
             }
         }
         projectIncludeCache.remove(project);
@@ -272,6 +325,86 @@ public class ErlModelCache implements IDisposable {
         projectExternalIncludesStringCache.remove(project);
         projectIncludeDirsCache.remove(project);
         projectSourceDirsCache.remove(project);
+        for (final Map<IErlProject, ModuleIndex> cache : moduleIndexCaches
+                .values()) {
+            cache.remove(project);
+        }
+        workspaceIndexes.clear();
+    }
+
+    public ModuleIndex getModuleIndex(final IErlProject project,
+            final ModuleIndex.Kind kind) {
+        return moduleIndexCaches.get(kind).get(project);
+    }
+
+    public void putModuleIndex(final IErlProject project,
+            final ModuleIndex.Kind kind, final ModuleIndex index) {
+        if (disabled) {
+            return;
+        }
+        moduleIndexCaches.get(kind).put(project, index);
+    }
+
+    /**
+     * The index of the modules of the given kind in all projects, or null if
+     * it has to be built. It is dropped whenever a project is removed or
+     * created.
+     */
+    public ModuleIndex getWorkspaceIndex(final ModuleIndex.Kind kind) {
+        return workspaceIndexes.get(kind);
+    }
+
+    public void putWorkspaceIndex(final ModuleIndex.Kind kind,
+            final ModuleIndex index) {
+        if (disabled) {
+            return;
+        }
+        workspaceIndexes.put(kind, index);
+    }
+
+    /**
+     * Adds the modules of a newly loaded external entry to the project's
+     * external module index (and include index, for entries with includes),
+     * if it has been built.
+     */
+    public void addToExternalModuleIndexes(final IErlProject project,
+            final Collection<IErlModule> modules, final boolean includes) {
+        if (disabled || project == null || modules.isEmpty()) {
+            return;
+        }
+        addToModuleIndex(project, ModuleIndex.Kind.EXTERNAL_MODULES, modules);
+        if (includes) {
+            addToModuleIndex(project, ModuleIndex.Kind.EXTERNAL_INCLUDES,
+                    modules);
+        }
+    }
+
+    private void addToModuleIndex(final IErlProject project,
+            final ModuleIndex.Kind kind, final Collection<IErlModule> modules) {
+        final Map<IErlProject, ModuleIndex> cache = moduleIndexCaches.get(kind);
+        // taken out while it grows, so that the cache accounts for its new
+        // weight
+        final ModuleIndex index = cache.remove(project);
+        if (index != null) {
+            index.addAll(modules);
+            cache.put(project, index);
+        }
+        final ModuleIndex workspaceIndex = workspaceIndexes.get(kind);
+        if (workspaceIndex != null) {
+            workspaceIndex.addAll(modules);
+        }
+    }
+
+    /**
+     * One line per cache, with its size, weight and hit, miss and eviction
+     * counts.
+     */
+    public List<String> getStatistics() {
+        final List<String> result = Lists.newArrayList();
+        for (final ModelCacheMap<?, ?> cache : caches) {
+            result.add(cache.getStatistics());
+        }
+        return result;
     }
 
     public void pathVarsChanged() {
@@ -346,6 +479,11 @@ public class ErlModelCache implements IDisposable {
 
     public void newProjectCreated() {
         pathToModuleCache.clear();
+        for (final Map<IErlProject, ModuleIndex> cache : moduleIndexCaches
+                .values()) {
+            cache.clear();
+        }
+        workspaceIndexes.clear();
         // nameToModuleCache.clear();
     }
 
@@ -367,5 +505,10 @@ public class ErlModelCache implements IDisposable {
         projectExternalIncludesStringCache.clear();
         projectSourceDirsCache.clear();
         projectIncludeDirsCache.clear();
+        for (final Map<IErlProject, ModuleIndex> cache : moduleIndexCaches
+                .values()) {
+            cache.clear();
+        }
+        workspaceIndexes.clear();
     }
 }
@@ -6,19 +6,34 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.erlide.core.model.root.ErlModelManager;
 import org.erlide.core.model.root.IErlElement;
 import org.erlide.core.model.root.IErlElementDelta;
 import org.erlide.core.model.root.IWorkingCopy;
 import org.erlide.core.model.util.ElementChangedEvent;
 import org.erlide.core.model.util.IElementChangedListener;
+import org.erlide.jinterface.ErlLogger;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 
 public class ErlModelDeltaManager {
     public static final int DEFAULT_CHANGE_EVENT = 0;
 
     private static final boolean verbose = false;
+    /**
+     * How long (in milliseconds) deltas are collected before they are sent to
+     * the listeners.
+     */
+    private static final long DISPATCH_DELAY = Long.getLong(
+            "erlide.model.delta.delay", 50);
     /**
      * Turns delta firing on/off. By default it is on.
      */
@@ -35,8 +50,30 @@ public class ErlModelDeltaManager {
     public List<IErlElementDelta> erlModelDeltas;
     private final ErlModel model;
 
+    /**
+     * Change and reconcile deltas that haven't been sent to the listeners
+     * yet. They are sent together by a background job, so that the thread
+     * that changed the model doesn't wait for the listeners, and a burst of
+     * edits results in a single notification.
+     */
+    private final List<IErlElementDelta> pendingPostChangeDeltas;
+    private final List<IErlElementDelta> pendingReconcileDeltas;
+    private final Object pendingLock = new Object();
+    private final Object dispatchLock = new Object();
+    private final Job dispatchJob;
+
     public ErlModelDeltaManager(final ErlModel model) {
         this.model = model;
+        pendingPostChangeDeltas = Lists.newArrayList();
+        pendingReconcileDeltas = Lists.newArrayList();
+        dispatchJob = new Job("Erlang model notifications") {
+            @Override
+            protected IStatus run(final IProgressMonitor monitor) {
+                dispatch();
+                return Status.OK_STATUS;
+            }
+        };
+        dispatchJob.setSystem(true);
         fFire = true;
         reconcileDeltas = new HashMap<IWorkingCopy, IErlElementDelta>();
         erlModelDeltas = Collections
@@ -46,6 +83,10 @@ public class ErlModelDeltaManager {
     /**
      * Fire Model deltas, flushing them after the fact. If the firing mode has
      * been turned off, this has no effect.
+     * <p>
+     * Change and reconcile deltas are queued and sent to the listeners later
+     * by {@link #dispatch()}; shift events are sent right away, after the
+     * queued deltas.
      */
     protected void fire(final IErlElementDelta customDeltas, final int eventType) {
         if (fFire) {
@@ -56,49 +97,120 @@ public class ErlModelDeltaManager {
                 deltaToNotify = customDeltas;
             }
 
-            final IElementChangedListener[] listeners;
-            final int listenerCount;
-            final int[] listenerMask;
-            // Notification
-            synchronized (model.elementChangedListeners) {
-                listeners = new IElementChangedListener[model.elementChangedListeners
-                        .size()];
-                model.elementChangedListeners.toArray(listeners);
-                listenerCount = listeners.length;
-                listenerMask = null;
-            }
-
             switch (eventType) {
             case DEFAULT_CHANGE_EVENT:
                 // firePreAutoBuildDelta(deltaToNotify, listeners, listenerMask,
                 // listenerCount);
-                firePostChangeDelta(deltaToNotify, listeners, listenerMask,
-                        listenerCount);
-                fireReconcileDelta(listeners, listenerMask, listenerCount);
+                firePostChangeDelta(deltaToNotify);
+                fireReconcileDeltas();
                 break;
             // case ElementChangedEvent.PRE_AUTO_BUILD :
             // firePreAutoBuildDelta(deltaToNotify, listeners, listenerMask,
             // listenerCount);
             // break;
             case ElementChangedEvent.POST_CHANGE:
-                firePostChangeDelta(deltaToNotify, listeners, listenerMask,
-                        listenerCount);
-                fireReconcileDelta(listeners, listenerMask, listenerCount);
+                firePostChangeDelta(deltaToNotify);
+                fireReconcileDeltas();
                 break;
             case ElementChangedEvent.POST_RECONCILE:
-                fireReconcileDelta(listeners, listenerMask, listenerCount);
+                fireReconcileDeltas();
                 break;
             case ElementChangedEvent.POST_SHIFT:
-                fireShiftEvent(deltaToNotify, listeners, listenerMask,
-                        listenerCount);
+                dispatch();
+                final Listeners l = getListeners();
+                fireShiftEvent(deltaToNotify, l.listeners, l.masks,
+                        l.listeners.length);
                 return;
             }
         }
     }
 
-    private void firePostChangeDelta(final IErlElementDelta deltaToNotify,
-            final IElementChangedListener[] listeners,
-            final int[] listenerMask, final int listenerCount) {
+    /**
+     * Fires a delta computed when reconciling a module. It describes a change
+     * that has already been applied to the model, so it is only queued for
+     * the listeners, together with the other deltas of the same burst.
+     */
+    public void fireReconcileDelta(final IErlElementDelta delta) {
+        if (!fFire) {
+            return;
+        }
+        enqueue(pendingReconcileDeltas, delta);
+    }
+
+    /**
+     * Sends the queued deltas to the listeners now, on the calling thread.
+     * All the deltas of one kind are merged in a single delta tree, so that
+     * each listener is notified at most once per kind.
+     */
+    public void dispatch() {
+        synchronized (dispatchLock) {
+            final List<IErlElementDelta> postChange;
+            final List<IErlElementDelta> reconcile;
+            synchronized (pendingLock) {
+                postChange = Lists.newArrayList(pendingPostChangeDeltas);
+                reconcile = Lists.newArrayList(pendingReconcileDeltas);
+                pendingPostChangeDeltas.clear();
+                pendingReconcileDeltas.clear();
+            }
+            if (postChange.isEmpty() && reconcile.isEmpty()) {
+                return;
+            }
+            final long start = System.nanoTime();
+            final Listeners l = getListeners();
+            final IErlElementDelta postChangeDelta = mergeDeltas(postChange);
+            if (postChangeDelta != null) {
+                model.notifyListeners(postChangeDelta,
+                        ElementChangedEvent.POST_CHANGE, l.listeners, l.masks,
+                        l.listeners.length);
+            }
+            final IErlElementDelta reconcileDelta = mergeDeltas(reconcile);
+            if (reconcileDelta != null) {
+                model.notifyListeners(reconcileDelta,
+                        ElementChangedEvent.POST_RECONCILE, l.listeners,
+                        l.masks, l.listeners.length);
+            }
+            ErlLogger.debug("dispatched %d change and %d reconcile deltas "
+                    + "to %d listeners in %d ms", postChange.size(),
+                    reconcile.size(), l.listeners.length,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private void enqueue(final List<IErlElementDelta> queue,
+            final IErlElementDelta delta) {
+        synchronized (pendingLock) {
+            queue.add(delta);
+        }
+        // doesn't postpone a job that is already waiting, so the deltas of a
+        // burst are sent at most DISPATCH_DELAY after the first one
+        dispatchJob.schedule(DISPATCH_DELAY);
+    }
+
+    /**
+     * The registered listeners and their event masks, at the same index.
+     */
+    private static final class Listeners {
+        final IElementChangedListener[] listeners;
+        final int[] masks;
+
+        Listeners(final IElementChangedListener[] listeners, final int[] masks) {
+            this.listeners = listeners;
+            this.masks = masks;
+        }
+    }
+
+    private Listeners getListeners() {
+        final List<IElementChangedListener> listeners = model
+                .elementChangedListeners;
+        synchronized (listeners) {
+            return new Listeners(
+                    listeners.toArray(new IElementChangedListener[listeners
+                            .size()]),
+                    Ints.toArray(model.elementChangedListenerMasks));
+        }
+    }
+
+    private void firePostChangeDelta(final IErlElementDelta deltaToNotify) {
 
         // post change deltas
         if (verbose) {
@@ -112,14 +224,11 @@ public class ErlModelDeltaManager {
             // deltas for
             // subsequent iteration
             flushDeltas();
-            model.notifyListeners(deltaToNotify,
-                    ElementChangedEvent.POST_CHANGE, listeners, listenerMask,
-                    listenerCount);
+            enqueue(pendingPostChangeDeltas, deltaToNotify);
         }
     }
 
-    private void fireReconcileDelta(final IElementChangedListener[] listeners,
-            final int[] listenerMask, final int listenerCount) {
+    private void fireReconcileDeltas() {
         final IErlElementDelta deltaToNotify = mergeDeltas(reconcileDeltas
                 .values());
         if (verbose) {
@@ -133,9 +242,7 @@ public class ErlModelDeltaManager {
             // deltas for
             // subsequent iteration
             reconcileDeltas.clear();
-            model.notifyListeners(deltaToNotify,
-                    ElementChangedEvent.POST_RECONCILE, listeners,
-                    listenerMask, listenerCount);
+            enqueue(pendingReconcileDeltas, deltaToNotify);
         }
     }
 
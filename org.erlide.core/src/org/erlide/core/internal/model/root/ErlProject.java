@@ -17,6 +17,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.core.resources.ICommand;
 import org.eclipse.core.resources.IContainer;
@@ -42,6 +43,7 @@ import org.erlide.core.backend.IBackend;
 import org.erlide.core.backend.runtimeinfo.RuntimeInfo;
 import org.erlide.core.common.CommonUtils;
 import org.erlide.core.common.PreferencesUtils;
+import org.erlide.core.internal.model.erlang.ErlExternalReferenceEntry;
 import org.erlide.core.internal.model.erlang.ErlExternalReferenceEntryList;
 import org.erlide.core.internal.model.erlang.ErlOtpExternalReferenceEntryList;
 import org.erlide.core.internal.model.root.ErlModel.External;
@@ -67,6 +69,7 @@ import org.osgi.service.prefs.BackingStoreException;
 
 import com.ericsson.otp.erlang.RuntimeVersion;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 /**
  * Handle for an Erlang Project.
@@ -691,28 +694,59 @@ public class ErlProject extends Openable implements IErlProject {
 
     @Override
     public Collection<IErlModule> getExternalModules() throws ErlModelException {
+        final ExternalModulesVisitor visitor = new ExternalModulesVisitor(
+                false);
+        accept(visitor, EnumSet.noneOf(AcceptFlags.class), Kind.MODULE);
+        return visitor.result;
+    }
+
+    /**
+     * Collects the modules of all external entries. The external file trees
+     * are prefetched in one call, and each external file is only visited
+     * once, even if the files reference each other.
+     */
+    private static class ExternalModulesVisitor implements IErlElementVisitor {
+
+        private final boolean includesOnly;
+        private final Set<String> visited = Sets.newHashSet();
         final List<IErlModule> result = Lists.newArrayList();
-        accept(new IErlElementVisitor() {
-
-            @Override
-            public boolean visit(final IErlElement element)
-                    throws ErlModelException {
-                final boolean isExternalOrProject = element.getKind() == Kind.EXTERNAL
-                        || element.getKind() == Kind.PROJECT;
-                if (element instanceof IErlModule) {
-                    final IErlModule module = (IErlModule) element;
-                    result.add(module);
-                    return false;
-                } else if (isExternalOrProject) {
-                    if (element instanceof IOpenable) {
-                        final IOpenable openable = (IOpenable) element;
-                        openable.open(null);
+
+        ExternalModulesVisitor(final boolean includesOnly) {
+            this.includesOnly = includesOnly;
+        }
+
+        @Override
+        public boolean visit(final IErlElement element)
+                throws ErlModelException {
+            final boolean isExternalOrProject = element.getKind() == Kind.EXTERNAL
+                    || element.getKind() == Kind.PROJECT;
+            if (element instanceof IErlModule) {
+                final IErlModule module = (IErlModule) element;
+                result.add(module);
+                return false;
+            } else if (isExternalOrProject) {
+                if (element instanceof IErlExternal) {
+                    final IErlExternal external = (IErlExternal) element;
+                    if (includesOnly && !external.hasIncludes()) {
+                        return false;
                     }
                 }
-                return isExternalOrProject;
+                if (element instanceof ErlExternalReferenceEntry
+                        && !visited.add(((ErlExternalReferenceEntry) element)
+                                .getExternalName())) {
+                    return false;
+                }
+                if (element instanceof ErlExternalReferenceEntryList) {
+                    ((ErlExternalReferenceEntryList) element)
+                            .prefetchExternalTrees();
+                }
+                if (element instanceof IOpenable) {
+                    final IOpenable openable = (IOpenable) element;
+                    openable.open(null);
+                }
             }
-        }, EnumSet.noneOf(AcceptFlags.class), Kind.MODULE);
-        return result;
+            return isExternalOrProject;
+        }
     }
 
     @Override
@@ -934,34 +968,9 @@ public class ErlProject extends Openable implements IErlProject {
     @Override
     public Collection<IErlModule> getExternalIncludes()
             throws ErlModelException {
-        final List<IErlModule> result = Lists.newArrayList();
-        accept(new IErlElementVisitor() {
-
-            @Override
-            public boolean visit(final IErlElement element)
-                    throws ErlModelException {
-                final boolean isExternalOrProject = element.getKind() == Kind.EXTERNAL
-                        || element.getKind() == Kind.PROJECT;
-                if (element instanceof IErlModule) {
-                    final IErlModule module = (IErlModule) element;
-                    result.add(module);
-                    return false;
-                } else if (isExternalOrProject) {
-                    if (element instanceof IErlExternal) {
-                        final IErlExternal external = (IErlExternal) element;
-                        if (!external.hasIncludes()) {
-                            return false;
-                        }
-                    }
-                    if (element instanceof IOpenable) {
-                        final IOpenable openable = (IOpenable) element;
-                        openable.open(null);
-                    }
-                }
-                return isExternalOrProject;
-            }
-        }, EnumSet.noneOf(AcceptFlags.class), Kind.MODULE);
-        return result;
+        final ExternalModulesVisitor visitor = new ExternalModulesVisitor(true);
+        accept(visitor, EnumSet.noneOf(AcceptFlags.class), Kind.MODULE);
+        return visitor.result;
     }
 
     void pathVarsChanged() {
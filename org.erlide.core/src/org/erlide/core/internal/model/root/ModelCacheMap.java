@@ -0,0 +1,263 @@
+package org.erlide.core.internal.model.root;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * A bounded, thread safe map for the model caches.
+ * <p>
+ * Entries are spread over a number of segments, each an access ordered
+ * {@link LinkedHashMap} with its own lock, so that threads working with
+ * different keys rarely contend. Each entry has a weight (1 unless a
+ * {@link Weigher} is given) and every segment evicts its least recently used
+ * entries when its share of the maximum weight is exceeded.
+ * <p>
+ * Hits, misses and evictions are counted, to see whether the limits fit the
+ * workspace. Null keys and values are not stored: putting a null value
+ * removes the key.
+ */
+public class ModelCacheMap<K, V> extends AbstractMap<K, V> {
+
+    public interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+    /**
+     * Weighs collection values by their size.
+     */
+    public static final Weigher<Object, Object> BY_SIZE = new Weigher<Object, Object>() {
+        @Override
+        public int weigh(final Object key, final Object value) {
+            if (value instanceof Collection<?>) {
+                return 1 + ((Collection<?>) value).size();
+            }
+            return 1;
+        }
+    };
+
+    private static final int SEGMENTS = 16;
+
+    private final String name;
+    private final long maxWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    private final List<Segment> segments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private class Segment extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        final long segmentMaxWeight;
+        long weight;
+
+        Segment(final long segmentMaxWeight) {
+            super(16, 0.75f, true);
+            this.segmentMaxWeight = segmentMaxWeight;
+        }
+
+        V putWeighed(final K key, final V value) {
+            final V old = put(key, value);
+            if (old != null) {
+                weight -= weigh(key, old);
+            }
+            weight += weigh(key, value);
+            final Iterator<Map.Entry<K, V>> it = entrySet().iterator();
+            // keep at least the new entry, even if it is too heavy alone
+            while (weight > segmentMaxWeight && size() > 1) {
+                final Map.Entry<K, V> eldest = it.next();
+                weight -= weigh(eldest.getKey(), eldest.getValue());
+                it.remove();
+                evictions.incrementAndGet();
+            }
+            return old;
+        }
+
+        V removeWeighed(final Object key) {
+            final V old = remove(key);
+            if (old != null) {
+                @SuppressWarnings("unchecked")
+                final K k = (K) key;
+                weight -= weigh(k, old);
+            }
+            return old;
+        }
+
+        void clearWeighed() {
+            clear();
+            weight = 0;
+        }
+    }
+
+    public ModelCacheMap(final String name, final long maxWeight) {
+        this(name, maxWeight, null);
+    }
+
+    public ModelCacheMap(final String name, final long maxWeight,
+            final Weigher<? super K, ? super V> weigher) {
+        this.name = name;
+        this.maxWeight = Math.max(1, maxWeight);
+        this.weigher = weigher;
+        segments = Lists.newArrayListWithCapacity(SEGMENTS);
+        final long segmentMaxWeight = Math.max(1, this.maxWeight / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new Segment(segmentMaxWeight));
+        }
+    }
+
+    @Override
+    public V get(final Object key) {
+        if (key == null) {
+            return null;
+        }
+        final Segment segment = segmentFor(key);
+        final V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        if (key == null) {
+            return false;
+        }
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        if (key == null) {
+            return null;
+        }
+        if (value == null) {
+            return remove(key);
+        }
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.putWeighed(key, value);
+        }
+    }
+
+    @Override
+    public V remove(final Object key) {
+        if (key == null) {
+            return null;
+        }
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.removeWeighed(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.clearWeighed();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * A snapshot of the entries; changing it doesn't affect the cache.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        final Set<Map.Entry<K, V>> result = Sets.newHashSet();
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                for (final Map.Entry<K, V> e : segment.entrySet()) {
+                    result.add(new SimpleImmutableEntry<K, V>(e));
+                }
+            }
+        }
+        return result;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getWeight() {
+        long weight = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        final long h = hits.get();
+        final long requests = h + misses.get();
+        return requests == 0 ? 1.0 : (double) h / requests;
+    }
+
+    public String getStatistics() {
+        return String.format("%s: %d entries, weight %d/%d, %d hits, "
+                + "%d misses (%.1f%% hit rate), %d evictions", name, size(),
+                getWeight(), maxWeight, getHitCount(), getMissCount(),
+                getHitRate() * 100, getEvictionCount());
+    }
+
+    private int weigh(final K key, final V value) {
+        return weigher == null ? 1 : Math.max(1, weigher.weigh(key, value));
+    }
+
+    private Segment segmentFor(final Object key) {
+        int h = key.hashCode();
+        // spread the bits, as HashMap does
+        h ^= h >>> 20 ^ h >>> 12;
+        h ^= h >>> 7 ^ h >>> 4;
+        return segments.get((h & 0x7fffffff) % SEGMENTS);
+    }
+
+}
@@ -0,0 +1,187 @@
+package org.erlide.core.internal.model.root;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.erlide.core.model.erlang.IErlModule;
+import org.erlide.core.model.root.ErlModelException;
+import org.erlide.core.model.root.ErlModelManager;
+import org.erlide.core.model.root.IErlElement;
+import org.erlide.core.model.root.IErlElement.Kind;
+import org.erlide.core.model.root.IErlModel;
+import org.erlide.core.model.root.IErlProject;
+import org.erlide.core.model.root.IOpenable;
+import org.erlide.jinterface.ErlLogger;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Opens all Erlang projects and their modules in the background, so that a
+ * cold workspace becomes browsable quickly.
+ * <p>
+ * Projects are independent, and opening them and their modules is mostly
+ * spent waiting for the file system and the IDE backend, so the work is
+ * spread over a bounded pool of threads: first every project is opened, then
+ * its external reference lists are opened and every module is parsed. The
+ * parse requests from all threads are in flight on the backend at the same
+ * time. The number of threads can be set with
+ * <code>-Derlide.model.warmup.threads</code>; a value of 0 disables the
+ * warm-up.
+ */
+public class ModelWarmUp extends Job {
+
+    private static final int THREADS = Integer.getInteger(
+            "erlide.model.warmup.threads",
+            Math.max(2, Runtime.getRuntime().availableProcessors() * 2));
+
+    public ModelWarmUp() {
+        super("Initializing Erlang model");
+        setPriority(LONG);
+    }
+
+    public static boolean isEnabled() {
+        return THREADS > 0;
+    }
+
+    @Override
+    protected IStatus run(final IProgressMonitor monitor) {
+        final long start = System.nanoTime();
+        final SubMonitor progress = SubMonitor.convert(monitor, getName(), 100);
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "erlide model warm-up "
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            final IErlModel model = ErlModelManager.getErlangModel();
+            model.open(null);
+            final Collection<IErlProject> projects = model.getErlangProjects();
+
+            progress.subTask("projects");
+            final List<IErlModule> modules = Lists.newArrayList();
+            final List<Callable<Collection<IErlModule>>> projectTasks = Lists
+                    .newArrayList();
+            for (final IErlProject project : projects) {
+                projectTasks.add(new Callable<Collection<IErlModule>>() {
+                    @Override
+                    public Collection<IErlModule> call() throws Exception {
+                        return openProject(project);
+                    }
+                });
+            }
+            for (final Collection<IErlModule> result : runAll(pool,
+                    projectTasks, progress.newChild(20))) {
+                modules.addAll(result);
+            }
+
+            progress.subTask("modules");
+            // the external reference lists are opened along with the
+            // modules, and waited for like them
+            final List<Callable<Object>> moduleTasks = Lists.newArrayList();
+            for (final IErlProject project : projects) {
+                for (final IErlElement external : project
+                        .getChildrenOfKind(Kind.EXTERNAL)) {
+                    if (external instanceof IOpenable) {
+                        moduleTasks.add(openTask((IOpenable) external));
+                    }
+                }
+            }
+            for (final IErlModule module : modules) {
+                moduleTasks.add(openTask(module));
+            }
+            runAll(pool, moduleTasks, progress.newChild(80));
+
+            ErlLogger.info("model warm-up: %d projects, %d modules in %d ms "
+                    + "(%d threads)", projects.size(), modules.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    THREADS);
+        } catch (final InterruptedException e) {
+            return Status.CANCEL_STATUS;
+        } catch (final ErlModelException e) {
+            ErlLogger.warn(e);
+        } finally {
+            pool.shutdownNow();
+            monitor.done();
+        }
+        return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+    }
+
+    /**
+     * Opens a project and returns its modules and includes.
+     */
+    private static Collection<IErlModule> openProject(
+            final IErlProject project) throws ErlModelException {
+        project.open(null);
+        final List<IErlModule> result = Lists.newArrayList(project
+                .getModules());
+        result.addAll(project.getIncludes());
+        return result;
+    }
+
+    private static Callable<Object> openTask(final IOpenable openable) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                openable.open(null);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Runs the tasks on the pool and waits for all of them, reporting one
+     * unit of progress per finished task. Failed tasks are logged.
+     */
+    private static <T> List<T> runAll(final ExecutorService pool,
+            final List<Callable<T>> tasks, final SubMonitor progress)
+            throws InterruptedException {
+        progress.setWorkRemaining(tasks.size());
+        final CompletionService<T> completion = new ExecutorCompletionService<T>(
+                pool);
+        for (final Callable<T> task : tasks) {
+            completion.submit(task);
+        }
+        final List<T> results = Lists.newArrayList();
+        for (int i = 0; i < tasks.size(); i++) {
+            Future<T> done;
+            while ((done = completion.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                if (progress.isCanceled()) {
+                    throw new InterruptedException();
+                }
+            }
+            try {
+                final T result = done.get();
+                if (result != null) {
+                    results.add(result);
+                }
+            } catch (final ExecutionException e) {
+                ErlLogger.warn(e.getCause());
+            }
+            progress.worked(1);
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.erlide.core.internal.model.root;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.erlide.core.model.erlang.IErlModule;
+import org.erlide.jinterface.util.SystemUtils;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+
+/**
+ * Name and path lookup tables for one set of modules (the modules, includes,
+ * external modules or external includes of a project, or of all projects in
+ * the workspace). Built once from the
+ * module list and kept in {@link ErlModelCache} until the project's caches
+ * are invalidated, so that finding a module by name is a hash lookup instead
+ * of a scan of all modules. External entries that are loaded later add their
+ * modules with {@link #addAll(Collection)}.
+ */
+public class ModuleIndex {
+
+    public enum Kind {
+        MODULES, INCLUDES, EXTERNAL_MODULES, EXTERNAL_INCLUDES
+    }
+
+    private final Map<String, IErlModule> byPath = Maps.newHashMap();
+    // keyed by file name (with extension)
+    private final ListMultimap<String, IErlModule> byName = ArrayListMultimap
+            .create();
+    private final ListMultimap<String, IErlModule> byNameLower = ArrayListMultimap
+            .create();
+    // keyed by module name (without extension)
+    private final ListMultimap<String, IErlModule> byModuleName = ArrayListMultimap
+            .create();
+    private final ListMultimap<String, IErlModule> byModuleNameLower = ArrayListMultimap
+            .create();
+
+    public ModuleIndex(final Collection<IErlModule> modules) {
+        for (final IErlModule module : modules) {
+            add(module, false);
+        }
+    }
+
+    /**
+     * Adds modules, replacing the ones already indexed with the same path.
+     */
+    public synchronized void addAll(final Collection<IErlModule> modules) {
+        for (final IErlModule module : modules) {
+            add(module, true);
+        }
+    }
+
+    private void add(final IErlModule module, final boolean replace) {
+        final String path = module.getFilePath();
+        if (path != null) {
+            final IErlModule old = byPath.get(path);
+            if (old != null) {
+                if (!replace) {
+                    return;
+                }
+                remove(old);
+            }
+            byPath.put(path, module);
+        }
+        final String name = module.getName();
+        byName.put(name, module);
+        byNameLower.put(lower(name), module);
+        final String moduleName = module.getModuleName();
+        byModuleName.put(moduleName, module);
+        byModuleNameLower.put(lower(moduleName), module);
+    }
+
+    private void remove(final IErlModule module) {
+        final String name = module.getName();
+        byName.remove(name, module);
+        byNameLower.remove(lower(name), module);
+        final String moduleName = module.getModuleName();
+        byModuleName.remove(moduleName, module);
+        byModuleNameLower.remove(lower(moduleName), module);
+    }
+
+    public synchronized IErlModule findByPath(final String path) {
+        return byPath.get(path);
+    }
+
+    /**
+     * Finds a module by name; a name with an extension is compared with file
+     * names, one without with module names.
+     */
+    public synchronized IErlModule findByName(final String name,
+            final boolean ignoreCase) {
+        final boolean hasExtension = SystemUtils.hasExtension(name);
+        final List<IErlModule> found;
+        if (ignoreCase) {
+            found = (hasExtension ? byNameLower : byModuleNameLower)
+                    .get(lower(name));
+        } else {
+            found = (hasExtension ? byName : byModuleName).get(name);
+        }
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    public synchronized int size() {
+        return byName.size();
+    }
+
+    private static String lower(final String s) {
+        return s.toLowerCase(Locale.ENGLISH);
+    }
+
+}
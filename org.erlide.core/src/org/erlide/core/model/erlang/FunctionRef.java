@@ -46,6 +46,24 @@ public class FunctionRef {
         arity = parent.getArity();
     }
 
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FunctionRef)) {
+            return false;
+        }
+        final FunctionRef other = (FunctionRef) obj;
+        return arity == other.arity && module.equals(other.module)
+                && function.equals(other.function);
+    }
+
+    @Override
+    public int hashCode() {
+        return (module.hashCode() * 31 + function.hashCode()) * 31 + arity;
+    }
+
     @Override
     public String toString() {
         return module + ":" + function + "/" + arity;
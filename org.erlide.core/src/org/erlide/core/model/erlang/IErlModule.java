@@ -142,9 +142,6 @@ public interface IErlModule extends IErlElement, IParent, IOpenable,
 
     boolean exportsAllFunctions();
 
-    @Override
-    Object getModelLock();
-
     boolean isRealFile();
 
     String getScannerName();
@@ -6,4 +6,23 @@ public interface IErlParser {
             final String scannerName, final boolean initialParse,
             final String path, final boolean useCaches);
 
+    /**
+     * As {@link #parse(IErlModule, String, boolean, String, boolean)}; the
+     * result of an initial parse is saved as a snapshot of the source with the
+     * given digest, if it is not null.
+     */
+    public abstract boolean parse(final IErlModule module,
+            final String scannerName, final boolean initialParse,
+            final String path, final byte[] sourceDigest,
+            final boolean useCaches);
+
+    /**
+     * Builds the structure of a module from the snapshot saved by an earlier
+     * initial parse of the same source, without calling the backend.
+     * 
+     * @return false if there is no snapshot for the source with this digest
+     */
+    public abstract boolean restore(final IErlModule module,
+            final String path, final byte[] sourceDigest);
+
 }
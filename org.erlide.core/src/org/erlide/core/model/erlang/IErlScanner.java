@@ -1,5 +1,7 @@
 package org.erlide.core.model.erlang;
 
+import java.util.List;
+
 import org.erlide.core.model.root.ErlToken;
 import org.erlide.jinterface.util.IDisposable;
 
@@ -14,6 +16,11 @@ public interface IErlScanner extends IDisposable {
     void replaceText(final int offset, final int removeLength,
             final String newText);
 
+    /**
+     * Applies the edits in order, with a single call to the backend.
+     */
+    void replaceText(final List<ScannerEdit> edits);
+
     ErlToken getTokenAt(final int offset);
 
     String getText();
@@ -0,0 +1,25 @@
+package org.erlide.core.model.erlang;
+
+/**
+ * A text replacement to apply to a scanner: <code>removeLength</code>
+ * characters at <code>offset</code> are replaced by <code>text</code>.
+ */
+public class ScannerEdit {
+    public final int offset;
+    public final int removeLength;
+    public final String text;
+
+    public ScannerEdit(final int offset, final int removeLength,
+            final String text) {
+        this.offset = offset;
+        this.removeLength = removeLength;
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return "ScannerEdit(" + offset + ", " + removeLength + ", "
+                + text.length() + " chars)";
+    }
+
+}
@@ -143,6 +143,14 @@ public final class ErlToken {
         }
     }
 
+    public ErlToken(final int kind, final int line, final int offset,
+            final int length) {
+        this.kind = kind;
+        this.line = line;
+        this.offset = offset;
+        this.length = length;
+    }
+
     // eof token
     private ErlToken(final int kind) {
         this.kind = kind;
@@ -160,6 +168,10 @@ public final class ErlToken {
         return offset;
     }
 
+    public int getLine() {
+        return line;
+    }
+
     @Override
     public String toString() {
         return "{" + kind + ", " + line + "/" + offset + "+" + length + "}";
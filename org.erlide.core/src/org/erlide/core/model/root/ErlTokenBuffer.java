@@ -0,0 +1,177 @@
+package org.erlide.core.model.root;
+
+import java.util.Arrays;
+
+/**
+ * Scanner tokens packed in a single <code>int</code> array (kind, line,
+ * offset and length of each token), to avoid creating an object per token
+ * when large texts are scanned. Tokens are accessed by index.
+ */
+public final class ErlTokenBuffer {
+
+    private static final int KIND = 0;
+    private static final int LINE = 1;
+    private static final int OFFSET = 2;
+    private static final int LENGTH = 3;
+    private static final int STRIDE = 4;
+
+    private int[] data;
+    private int size;
+
+    public ErlTokenBuffer(final int capacity) {
+        data = new int[Math.max(1, capacity) * STRIDE];
+    }
+
+    /**
+     * Decodes the binary tokens returned by the light scanner,
+     * <code>&lt;&lt;Kind:8, Line:24, Offset:24, Length:24&gt;&gt;</code>
+     * each, shifting their offsets by <code>offset</code>.
+     */
+    public static ErlTokenBuffer fromBinary(final byte[] bytes,
+            final int offset) {
+        final ErlTokenBuffer result = new ErlTokenBuffer(bytes.length / 10);
+        for (int i = 0; i + 10 <= bytes.length; i += 10) {
+            result.add(bytes[i], int24(bytes, i + 1), int24(bytes, i + 4)
+                    + offset, int24(bytes, i + 7));
+        }
+        return result;
+    }
+
+    private static int int24(final byte[] bytes, final int index) {
+        return (0xff & bytes[index]) << 16 | (0xff & bytes[index + 1]) << 8
+                | 0xff & bytes[index + 2];
+    }
+
+    public void add(final int kind, final int line, final int offset,
+            final int length) {
+        if ((size + 1) * STRIDE > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        final int base = size * STRIDE;
+        data[base + KIND] = kind;
+        data[base + LINE] = line;
+        data[base + OFFSET] = offset;
+        data[base + LENGTH] = length;
+        size++;
+    }
+
+    public void add(final ErlToken token) {
+        add(token.getKind(), token.getLine(), token.getOffset(),
+                token.getLength());
+    }
+
+    /**
+     * Appends the tokens <code>from</code> (inclusive) to <code>to</code>
+     * (exclusive) of another buffer, shifting their offsets and lines.
+     */
+    public void addAll(final ErlTokenBuffer other, final int from,
+            final int to, final int offsetDelta, final int lineDelta) {
+        for (int i = from; i < to; i++) {
+            add(other.getKind(i), other.getLine(i) + lineDelta,
+                    other.getOffset(i) + offsetDelta, other.getLength(i));
+        }
+    }
+
+    public void removeLast() {
+        if (size > 0) {
+            size--;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getKind(final int index) {
+        return get(index, KIND);
+    }
+
+    public int getLine(final int index) {
+        return get(index, LINE);
+    }
+
+    public int getOffset(final int index) {
+        return get(index, OFFSET);
+    }
+
+    public int getLength(final int index) {
+        return get(index, LENGTH);
+    }
+
+    public int getEnd(final int index) {
+        return getOffset(index) + getLength(index);
+    }
+
+    /**
+     * Returns the index of the token starting at <code>offset</code>, or -1.
+     */
+    public int indexOf(final int offset) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int o = data[mid * STRIDE + OFFSET];
+            if (o < offset) {
+                lo = mid + 1;
+            } else if (o > offset) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first token ending after <code>offset</code>,
+     * or {@link #size()} if there is none.
+     */
+    public int indexOfFirstEndingAfter(final int offset) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int base = mid * STRIDE;
+            if (data[base + OFFSET] + data[base + LENGTH] <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the token at <code>index</code> as an {@link ErlToken}; this
+     * creates a new object.
+     */
+    public ErlToken getToken(final int index) {
+        return new ErlToken(getKind(index), getLine(index), getOffset(index),
+                getLength(index));
+    }
+
+    private int get(final int index, final int field) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+                    + size);
+        }
+        return data[index * STRIDE + field];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                b.append(", ");
+            }
+            b.append(getToken(i));
+        }
+        return b.append(']').toString();
+    }
+
+}
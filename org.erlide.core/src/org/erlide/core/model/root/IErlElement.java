@@ -241,6 +241,4 @@ public interface IErlElement extends IAdaptable, IDisposable {
 
     String toStringWithAncestors();
 
-    Object getModelLock();
-
 }
@@ -151,6 +151,14 @@ public interface IErlModel extends IErlElement, IOpenable, IParent,
 
     void registerModelDelta(IErlElementDelta delta);
 
+    /**
+     * Notifies the element changed listeners (with POST_RECONCILE) of the
+     * changes found when parsing a module. Only listeners registered with a
+     * mask that includes POST_RECONCILE get it; the editor folding uses it to
+     * update only the folds of the changed members.
+     */
+    void fireReconcileDelta(IErlElementDelta delta);
+
     IErlModule getModuleFromFile(IParent parent, String name,
             String initialText, String path, String key);
 
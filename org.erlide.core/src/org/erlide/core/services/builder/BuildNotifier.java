@@ -101,6 +101,18 @@ public class BuildNotifier {
         checkCancelWithinCompiler();
     }
 
+    /**
+     * Reports the compilation throughput, in modules per second.
+     */
+    public void reportThroughput(final int modules, final long millis) {
+        final double rate = millis > 0 ? modules * 1000.0 / millis : modules;
+        final String message = NLS.bind(BuilderMessages.build_throughput,
+                String.valueOf(modules),
+                String.format("%.1f", Double.valueOf(rate)));
+        subTask(message);
+        ErlLogger.debug(message);
+    }
+
     public void done() {
         updateProgress(1.0f);
         subTask(BuilderMessages.build_done);
@@ -44,6 +44,7 @@ import org.erlide.core.model.root.ErlModelManager;
 import org.erlide.core.model.root.IErlProject;
 import org.erlide.core.model.util.ErlangIncludeFile;
 import org.erlide.core.model.util.PluginUtils;
+import org.erlide.core.services.codeassist.CompletionCache;
 import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.IRpcCallSite;
 import org.erlide.jinterface.rpc.IRpcFuture;
@@ -58,9 +59,54 @@ import com.google.common.collect.Sets;
 
 public final class BuilderHelper {
 
+    static final int FLUSH_MARKERS = Integer.getInteger(
+            "erlide.markers.flush", 1000);
+    static final long FLUSH_INTERVAL = Long.getLong(
+            "erlide.markers.interval", 2000);
+
+    private MarkerBatch markerBatch;
+    private long lastMarkerFlush;
+    private Collection<String> compiledBeams;
+
     public BuilderHelper() {
     }
 
+    /**
+     * When a batch is set, compilation and task markers are accumulated in it
+     * instead of being created immediately; they are created by
+     * {@link #flushMarkers()}.
+     */
+    public void setMarkerBatch(final MarkerBatch markerBatch) {
+        this.markerBatch = markerBatch;
+        lastMarkerFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Creates the markers accumulated so far, if a batch is set and it holds
+     * at least {@link #FLUSH_MARKERS} markers or wasn't flushed for
+     * {@link #FLUSH_INTERVAL} ms. Whoever set the batch applies the rest.
+     */
+    public void flushMarkers() {
+        if (markerBatch == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (markerBatch.size() < FLUSH_MARKERS
+                && now - lastMarkerFlush < FLUSH_INTERVAL) {
+            return;
+        }
+        lastMarkerFlush = now;
+        markerBatch.apply(null);
+    }
+
+    /**
+     * When a collection is set, the paths of the beam files produced by
+     * successful compilations are added to it.
+     */
+    public void setCompiledBeams(final Collection<String> compiledBeams) {
+        this.compiledBeams = compiledBeams;
+    }
+
     public static boolean isDebugging() {
         return ErlangPlugin.getDefault().isDebugging()
                 && "true".equalsIgnoreCase(Platform
@@ -378,7 +424,14 @@ public final class BuilderHelper {
             final String beamf = source.getFullPath().removeFileExtension()
                     .lastSegment();
             InternalErlideBuilder.loadModule(project, beamf);
+            CompletionCache.getDefault().remove(beamf);
             refreshDirs(project, t.elementAt(2));
+            if (compiledBeams != null) {
+                for (final OtpErlangObject beam : (OtpErlangList) t
+                        .elementAt(2)) {
+                    compiledBeams.add(((OtpErlangString) beam).stringValue());
+                }
+            }
         } else {
             // ErlLogger.debug(">>>> compile error... %s\n   %s",
             // resource.getName(), t);
@@ -387,7 +440,11 @@ public final class BuilderHelper {
         // process compilation messages
         if (t.elementAt(1) instanceof OtpErlangList) {
             final OtpErlangList l = (OtpErlangList) t.elementAt(1);
-            MarkerUtils.addErrorMarkers(source, l);
+            if (markerBatch != null) {
+                MarkerUtils.addErrorMarkers(markerBatch, source, l);
+            } else {
+                MarkerUtils.addErrorMarkers(source, l);
+            }
         } else {
             ErlLogger.warn("bad result from builder: %s", t);
         }
@@ -510,6 +567,10 @@ public final class BuilderHelper {
     }
 
     private void createTaskMarkers(final IProject project, final IResource res) {
+        if (markerBatch != null) {
+            MarkerUtils.createTaskMarkers(markerBatch, project, res);
+            return;
+        }
         final Job job = new Job("tasks") {
             @Override
             protected IStatus run(final IProgressMonitor monitor) {
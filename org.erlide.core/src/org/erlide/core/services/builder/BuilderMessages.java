@@ -32,6 +32,7 @@ public final class BuilderMessages extends NLS {
     public static String build_preparingBuild;
     public static String build_readingDelta;
     public static String build_dialyzerProblem;
+    public static String build_throughput;
 
     static {
         NLS.initializeMessages(BUNDLE_NAME, BuilderMessages.class);
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2009 * and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available
+ * at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     *
+ *******************************************************************************/
+package org.erlide.core.services.builder;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.erlide.jinterface.ErlLogger;
+import org.erlide.jinterface.rpc.IRpcCallSite;
+import org.erlide.jinterface.rpc.IRpcFuture;
+import org.erlide.jinterface.rpc.RpcTimeoutException;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+
+/**
+ * Flow-controlled compilation: keeps at most a bounded window of compile
+ * requests in flight on the build backend, instead of queueing one request
+ * per resource up front. The window starts at the number of backend
+ * schedulers and is adjusted from the backend's saturation (additive
+ * increase, multiplicative decrease): when more processes are waiting in the
+ * run queues than there are schedulers, compile requests are queueing behind
+ * each other and the window is halved; when the run queues are short, the
+ * window grows by one. The window is adjusted at most once per average
+ * compile round trip, so that each decision sees the effect of the previous
+ * one. Results are completed as soon as they arrive; a request that fails is
+ * completed without a result, which reports it on the resource.
+ */
+public class CompilePipeline {
+
+    /**
+     * Starts the compilation of one resource; may return null if there is
+     * nothing to wait for.
+     */
+    public interface CompileStarter {
+        IRpcFuture start(IResource resource);
+    }
+
+    private static final int DEFAULT_SCHEDULERS = 2;
+    private static final long POLL_TIMEOUT = 100;
+    private static final long SAMPLE_INTERVAL = Long.getLong(
+            "erlide.compile.sample", 200);
+
+    private final IProject project;
+    private final IRpcCallSite backend;
+    private final OtpErlangList compilerOptions;
+    private final BuilderHelper helper;
+    private final BuildNotifier notifier;
+
+    private final int schedulers;
+    private final int minWindow;
+    private final int maxWindow;
+    private int window;
+    private long lastSample;
+    private long roundTrip;
+    private int compiled;
+
+    private static class InFlight {
+        final IRpcFuture future;
+        final IResource resource;
+        final long started;
+
+        InFlight(final IRpcFuture future, final IResource resource) {
+            this.future = future;
+            this.resource = resource;
+            started = System.currentTimeMillis();
+        }
+    }
+
+    public CompilePipeline(final IProject project, final IRpcCallSite backend,
+            final OtpErlangList compilerOptions, final BuilderHelper helper,
+            final BuildNotifier notifier) {
+        this.project = project;
+        this.backend = backend;
+        this.compilerOptions = compilerOptions;
+        this.helper = helper;
+        this.notifier = notifier;
+        schedulers = getSchedulers(backend);
+        minWindow = 1;
+        maxWindow = schedulers * 4;
+        window = schedulers;
+    }
+
+    /**
+     * Compiles all resources, never having more than the current window in
+     * flight. Returns the number of resources that were actually compiled.
+     */
+    public int run(final Iterable<IResource> resources,
+            final CompileStarter starter) {
+        final long time = System.currentTimeMillis();
+        final LinkedList<InFlight> inFlight = new LinkedList<InFlight>();
+        final Iterator<IResource> pending = resources.iterator();
+        while (pending.hasNext() || !inFlight.isEmpty()) {
+            notifier.checkCancel();
+            while (pending.hasNext() && inFlight.size() < window) {
+                final IResource resource = pending.next();
+                final IRpcFuture f = starter.start(resource);
+                if (f != null) {
+                    inFlight.add(new InFlight(f, resource));
+                }
+            }
+            if (!inFlight.isEmpty()) {
+                collect(inFlight);
+            }
+        }
+        notifier.reportThroughput(compiled, System.currentTimeMillis() - time);
+        return compiled;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    private void collect(final LinkedList<InFlight> inFlight) {
+        boolean any = false;
+        final Iterator<InFlight> it = inFlight.iterator();
+        while (it.hasNext()) {
+            final InFlight item = it.next();
+            if (item.future.isDone() && tryComplete(item, 0)) {
+                it.remove();
+                any = true;
+            }
+        }
+        if (!any) {
+            // block a little on the oldest request instead of spinning
+            if (tryComplete(inFlight.getFirst(), POLL_TIMEOUT)) {
+                inFlight.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Completes the request if its result arrives within the timeout (0
+     * waits for it). A failed request is completed without a result, so that
+     * it isn't polled again. Returns false if the request is still running.
+     */
+    private boolean tryComplete(final InFlight item, final long timeout) {
+        OtpErlangObject result;
+        try {
+            result = timeout == 0 ? item.future.get() : item.future
+                    .get(timeout);
+        } catch (final RpcTimeoutException e) {
+            return false;
+        } catch (final Exception e) {
+            ErlLogger.warn("compiling %s failed: %s",
+                    item.resource.getName(), e.getMessage());
+            result = null;
+        }
+        complete(item, result);
+        return true;
+    }
+
+    private void complete(final InFlight item, final OtpErlangObject result) {
+        final long rtt = System.currentTimeMillis() - item.started;
+        roundTrip = roundTrip == 0 ? rtt : (7 * roundTrip + rtt) / 8;
+        adjustWindow();
+        helper.completeCompile(project, item.resource, result, backend,
+                compilerOptions);
+        // markers are published in a few batches per build, so that long
+        // builds still show them before the end
+        helper.flushMarkers();
+        notifier.compiled(item.resource);
+        compiled++;
+    }
+
+    private void adjustWindow() {
+        // results often arrive in bursts; one decision per round trip
+        final long now = System.currentTimeMillis();
+        if (now - lastSample < Math.max(SAMPLE_INTERVAL, roundTrip)) {
+            return;
+        }
+        lastSample = now;
+        final int runQueue = getRunQueue(backend);
+        if (runQueue < 0) {
+            return;
+        }
+        // processes waiting for a scheduler mean the requests already in
+        // flight are queueing: back off; otherwise probe for more parallelism
+        if (runQueue > schedulers) {
+            window = Math.max(minWindow, window / 2);
+        } else if (runQueue < schedulers && window < maxWindow) {
+            window++;
+        }
+        if (BuilderHelper.isDebugging()) {
+            ErlLogger.debug("compile run queue %d, round trip %d ms, "
+                    + "window %d", Integer.valueOf(runQueue),
+                    Long.valueOf(roundTrip), Integer.valueOf(window));
+        }
+    }
+
+    /**
+     * The number of processes ready to run but waiting for a scheduler on
+     * the backend, or -1 if it can't be read.
+     */
+    private static int getRunQueue(final IRpcCallSite backend) {
+        try {
+            final OtpErlangObject r = backend.call("erlang", "statistics",
+                    "a", "run_queue");
+            if (r instanceof OtpErlangLong) {
+                return ((OtpErlangLong) r).intValue();
+            }
+        } catch (final Exception e) {
+            ErlLogger.warn(e);
+        }
+        return -1;
+    }
+
+    private static int getSchedulers(final IRpcCallSite backend) {
+        try {
+            final OtpErlangObject r = backend.call("erlang", "system_info",
+                    "a", "schedulers_online");
+            if (r instanceof OtpErlangLong) {
+                return Math.max(1, ((OtpErlangLong) r).intValue());
+            }
+        } catch (final Exception e) {
+            ErlLogger.warn(e);
+        }
+        return DEFAULT_SCHEDULERS;
+    }
+
+}
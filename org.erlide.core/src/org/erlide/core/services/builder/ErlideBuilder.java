@@ -14,7 +14,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.eclipse.core.resources.IFolder;
@@ -36,11 +35,11 @@ import org.erlide.core.backend.IBackend;
 import org.erlide.core.model.root.ErlModelManager;
 import org.erlide.core.model.root.IErlProject;
 import org.erlide.core.services.builder.BuilderHelper.SearchVisitor;
+import org.erlide.core.services.search.ErlangXref;
 import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.IRpcFuture;
 
 import com.ericsson.otp.erlang.OtpErlangList;
-import com.ericsson.otp.erlang.OtpErlangObject;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
@@ -157,60 +156,47 @@ public class ErlideBuilder {
                 backend.addProjectPath(project);
 
                 notifier.setProgressPerCompilationUnit(1.0f / n);
-                final Map<IRpcFuture, IResource> results = new HashMap<IRpcFuture, IResource>();
+                final List<IResource> resources = Lists.newArrayList();
+                final Map<IResource, BuildResource> buildResources = new HashMap<IResource, BuildResource>();
                 for (final BuildResource bres : resourcesToBuild) {
-                    notifier.checkCancel();
-                    final IResource resource = bres.getResource();
-                    // notifier.aboutToCompile(resource);
-                    if ("erl".equals(resource.getFileExtension())) {
-                        final String outputDir = erlProject.getOutputLocation()
-                                .toString();
-                        final IRpcFuture f = helper.startCompileErl(project,
-                                bres, outputDir, backend, compilerOptions,
-                                kind == IncrementalProjectBuilder.FULL_BUILD);
-                        if (f != null) {
-                            results.put(f, resource);
-                        }
-                    } else if ("yrl".equals(resource.getFileExtension())) {
-                        final IRpcFuture f = helper.startCompileYrl(project,
-                                resource, backend, compilerOptions);
-                        if (f != null) {
-                            results.put(f, resource);
-                        }
-                    } else {
-                        ErlLogger.warn("Don't know how to compile: %s",
-                                resource.getName());
-                    }
+                    resources.add(bres.getResource());
+                    buildResources.put(bres.getResource(), bres);
                 }
-
-                final List<Entry<IRpcFuture, IResource>> done = Lists
-                        .newArrayList();
-                final List<Entry<IRpcFuture, IResource>> waiting = Lists
-                        .newArrayList(results.entrySet());
-
-                // TODO should use some kind of notification!
-                while (waiting.size() > 0) {
-                    for (final Entry<IRpcFuture, IResource> result : waiting) {
-                        notifier.checkCancel();
-                        OtpErlangObject r;
-                        try {
-                            r = result.getKey().get(100);
-                        } catch (final Exception e) {
-                            r = null;
-                        }
-                        if (r != null) {
-                            final IResource resource = result.getValue();
-
-                            helper.completeCompile(project, resource, r,
-                                    backend, compilerOptions);
-                            notifier.compiled(resource);
-
-                            done.add(result);
+                final String outputDir = erlProject.getOutputLocation()
+                        .toString();
+                final MarkerBatch markers = new MarkerBatch();
+                helper.setMarkerBatch(markers);
+                final List<String> beams = Lists.newArrayList();
+                helper.setCompiledBeams(beams);
+                final CompilePipeline pipeline = new CompilePipeline(project,
+                        backend, compilerOptions, helper, notifier);
+                try {
+                    pipeline.run(resources, new CompilePipeline.CompileStarter() {
+                        @Override
+                        public IRpcFuture start(final IResource resource) {
+                            // notifier.aboutToCompile(resource);
+                            if ("erl".equals(resource.getFileExtension())) {
+                                return helper.startCompileErl(project,
+                                        buildResources.get(resource), outputDir,
+                                        backend, compilerOptions,
+                                        kind == IncrementalProjectBuilder.FULL_BUILD);
+                            } else if ("yrl".equals(resource.getFileExtension())) {
+                                return helper.startCompileYrl(project, resource,
+                                        backend, compilerOptions);
+                            } else {
+                                ErlLogger.warn("Don't know how to compile: %s",
+                                        resource.getName());
+                                return null;
+                            }
                         }
-                    }
-                    waiting.removeAll(done);
-                    done.clear();
+                    });
+                } finally {
+                    helper.setMarkerBatch(null);
+                    helper.setCompiledBeams(null);
+                    markers.apply(null);
                 }
+                ErlangXref.updateModules(BackendCore.getBackendManager()
+                        .getIdeBackend(), beams);
                 helper.refreshOutputDir(project);
 
                 try {
@@ -0,0 +1,109 @@
+package org.erlide.core.services.builder;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceRuleFactory;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.erlide.jinterface.ErlLogger;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Accumulates marker creations (typically for one build) and applies them
+ * in a single workspace operation, so that listeners get one resource change
+ * notification per batch instead of one per marker attribute.
+ */
+public class MarkerBatch {
+
+    private static class PendingMarker {
+        final IResource resource;
+        final String type;
+        final Map<String, Object> attributes;
+
+        PendingMarker(final IResource resource, final String type,
+                final Map<String, Object> attributes) {
+            this.resource = resource;
+            this.type = type;
+            this.attributes = attributes;
+        }
+    }
+
+    private final List<PendingMarker> markers = Lists.newArrayList();
+
+    public synchronized void add(final IResource resource, final String type,
+            final Map<String, Object> attributes) {
+        markers.add(new PendingMarker(resource, type, attributes));
+    }
+
+    public synchronized int size() {
+        return markers.size();
+    }
+
+    /**
+     * Creates all pending markers in one workspace operation and empties the
+     * batch. A marker that can't be created is logged and skipped.
+     */
+    public void apply(final IProgressMonitor monitor) {
+        final List<PendingMarker> pending;
+        synchronized (this) {
+            if (markers.isEmpty()) {
+                return;
+            }
+            pending = Lists.newArrayList(markers);
+            markers.clear();
+        }
+        final IWorkspaceRunnable action = new IWorkspaceRunnable() {
+            @Override
+            public void run(final IProgressMonitor pm) throws CoreException {
+                for (final PendingMarker m : pending) {
+                    if (!m.resource.exists()) {
+                        continue;
+                    }
+                    try {
+                        final IMarker marker = m.resource
+                                .createMarker(m.type);
+                        marker.setAttributes(m.attributes);
+                    } catch (final CoreException e) {
+                        ErlLogger.warn(e);
+                    }
+                }
+            }
+        };
+        try {
+            ResourcesPlugin.getWorkspace().run(action, getRule(pending),
+                    IWorkspace.AVOID_UPDATE, monitor);
+        } catch (final CoreException e) {
+            ErlLogger.warn(e);
+        }
+    }
+
+    /**
+     * The rule covering the markers of all targets. If the current thread
+     * already holds a rule that doesn't contain it, no rule is used, since
+     * the operation couldn't be started otherwise.
+     */
+    private static ISchedulingRule getRule(final List<PendingMarker> pending) {
+        final IResourceRuleFactory factory = ResourcesPlugin.getWorkspace()
+                .getRuleFactory();
+        ISchedulingRule rule = null;
+        for (final PendingMarker m : pending) {
+            rule = MultiRule.combine(rule, factory.markerRule(m.resource));
+        }
+        final ISchedulingRule current = Job.getJobManager().currentRule();
+        if (rule != null && current != null && !current.contains(rule)) {
+            return null;
+        }
+        return rule;
+    }
+
+}
@@ -4,11 +4,12 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
@@ -31,7 +32,6 @@ import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.IRpcCallSite;
 import org.erlide.jinterface.util.ErlUtils;
 import org.erlide.jinterface.util.SystemUtils;
-import org.erlide.jinterface.util.Tuple;
 import org.erlide.jinterface.util.Util;
 
 import com.ericsson.otp.erlang.OtpErlangList;
@@ -47,6 +47,8 @@ public final class MarkerUtils {
     private static final String FIXME = "FIXME";
     private static final String XXX = "XXX";
     private static final String TODO = "TODO";
+    private static final Pattern TASK_PATTERN = Pattern
+            .compile("^[^%]*%+[ \t]*(TODO|XXX|FIXME).*");
     // Copied from org.eclipse.ui.ide (since we don't want ui code in core)
     public static final String PATH_ATTRIBUTE = "org.eclipse.ui.views.markers.path";//$NON-NLS-1$
     public static final String DIALYZE_WARNING_MARKER = ErlangCore.PLUGIN_ID
@@ -92,6 +94,17 @@ public final class MarkerUtils {
      */
     public static void addErrorMarkers(final IResource resource,
             final OtpErlangList errorList) {
+        final MarkerBatch batch = new MarkerBatch();
+        addErrorMarkers(batch, resource, errorList);
+        batch.apply(null);
+    }
+
+    /**
+     * Add error markers from a list of error tuples to a batch; they are
+     * created when the batch is applied.
+     */
+    public static void addErrorMarkers(final MarkerBatch batch,
+            final IResource resource, final OtpErlangList errorList) {
         final OtpErlangObject[] messages = errorList.elements();
         final Map<String, List<OtpErlangTuple>> groupedMessages = groupMessagesByFile(messages);
 
@@ -102,7 +115,7 @@ public final class MarkerUtils {
                     fileName);
 
             for (final OtpErlangTuple data : entry.getValue()) {
-                addAnnotationForMessage(resource, fileName, res, data);
+                addAnnotationForMessage(batch, resource, fileName, res, data);
             }
         }
     }
@@ -149,8 +162,9 @@ public final class MarkerUtils {
         return res;
     }
 
-    private static void addAnnotationForMessage(final IResource resource,
-            final String fileName, final IResource res,
+    private static void addAnnotationForMessage(final MarkerBatch batch,
+            final IResource resource, final String fileName,
+            final IResource res,
             final OtpErlangTuple data) {
         int line = 0;
         if (data.elementAt(0) instanceof OtpErlangLong) {
@@ -179,15 +193,11 @@ public final class MarkerUtils {
         if (msg.length() > 1000) {
             msg = msg.substring(0, 1000) + "...";
         }
-        final IMarker marker = addMarker(res, resource.getProject(), fileName,
-                msg, line, sev, PROBLEM_MARKER);
-        if (marker != null) {
-            try {
-                marker.setAttribute(IMarker.SOURCE_ID, resource.getLocation()
-                        .toString());
-            } catch (final CoreException e) {
-            }
-        }
+        final Map<String, Object> attributes = markerAttributes(msg, line,
+                sev, fileName);
+        attributes.put(IMarker.SOURCE_ID, resource.getLocation().toString());
+        batch.add(markerTarget(res, resource.getProject()), PROBLEM_MARKER,
+                attributes);
     }
 
     private static Map<String, List<OtpErlangTuple>> groupMessagesByFile(
@@ -423,30 +433,42 @@ public final class MarkerUtils {
 
     public static IMarker addMarker(final IResource file,
             final IProject project, final String path, final String message,
-            int lineNumber, final int severity, final String markerKind) {
+            final int lineNumber, final int severity, final String markerKind) {
         try {
-            IResource resource;
-            if (file != null) {
-                resource = file;
-            } else if (project != null) {
-                resource = project;
-            } else {
-                resource = ResourcesPlugin.getWorkspace().getRoot();
-            }
-            final IMarker marker = resource.createMarker(markerKind);
-            marker.setAttribute(IMarker.MESSAGE, message);
-            marker.setAttribute(IMarker.SEVERITY, severity);
-            if (lineNumber == -1) {
-                lineNumber = 1;
-            }
-            marker.setAttribute(IMarker.LINE_NUMBER, lineNumber);
-            marker.setAttribute(PATH_ATTRIBUTE, path);
+            final IMarker marker = markerTarget(file, project).createMarker(
+                    markerKind);
+            marker.setAttributes(markerAttributes(message, lineNumber,
+                    severity, path));
             return marker;
         } catch (final CoreException e) {
         }
         return null;
     }
 
+    private static IResource markerTarget(final IResource file,
+            final IProject project) {
+        if (file != null) {
+            return file;
+        } else if (project != null) {
+            return project;
+        } else {
+            return ResourcesPlugin.getWorkspace().getRoot();
+        }
+    }
+
+    private static Map<String, Object> markerAttributes(final String message,
+            int lineNumber, final int severity, final String path) {
+        final Map<String, Object> attributes = Maps.newHashMap();
+        attributes.put(IMarker.MESSAGE, message);
+        attributes.put(IMarker.SEVERITY, Integer.valueOf(severity));
+        if (lineNumber == -1) {
+            lineNumber = 1;
+        }
+        attributes.put(IMarker.LINE_NUMBER, Integer.valueOf(lineNumber));
+        attributes.put(PATH_ATTRIBUTE, path);
+        return attributes;
+    }
+
     public static void addDialyzerWarningMarker(final IErlElementLocator model,
             final String path, final int line, final String message) {
         IResource file = null;
@@ -473,6 +495,17 @@ public final class MarkerUtils {
 
     public static void createTaskMarkers(final IProject project,
             final IResource resource) {
+        final MarkerBatch batch = new MarkerBatch();
+        createTaskMarkers(batch, project, resource);
+        batch.apply(null);
+    }
+
+    /**
+     * Scan a file for task comments, adding the task markers to a batch; they
+     * are created when the batch is applied.
+     */
+    public static void createTaskMarkers(final MarkerBatch batch,
+            final IProject project, final IResource resource) {
         if (SystemUtils.hasFeatureEnabled("erlide.skip.tasks")) {
             return;
         }
@@ -480,8 +513,8 @@ public final class MarkerUtils {
                 project);
         if (p != null) {
             try {
-                // getMarkersFor(resource, p);
-                getNoScanMarkersFor(resource, p);
+                // getMarkersFor(batch, resource, p);
+                getNoScanMarkersFor(batch, resource, p);
             } catch (final ErlModelException e) {
             }
         }
@@ -489,8 +522,9 @@ public final class MarkerUtils {
     }
 
     @SuppressWarnings("unused")
-    private static void getMarkersFor(final IResource resource,
-            final IErlProject p) throws ErlModelException {
+    private static void getMarkersFor(final MarkerBatch batch,
+            final IResource resource, final IErlProject p)
+            throws ErlModelException {
         final IErlModule m = p.getModule(resource.getName());
         if (m == null) {
             return;
@@ -500,15 +534,19 @@ public final class MarkerUtils {
         for (final IErlComment c : cl) {
             final String text = c.getName();
             final int line = c.getLineStart();
-            mkTaskMarker(resource, line, text, TODO, IMarker.PRIORITY_NORMAL);
-            mkTaskMarker(resource, line, text, XXX, IMarker.PRIORITY_NORMAL);
-            mkTaskMarker(resource, line, text, FIXME, IMarker.PRIORITY_HIGH);
+            mkTaskMarker(batch, resource, line, text, TODO,
+                    IMarker.PRIORITY_NORMAL);
+            mkTaskMarker(batch, resource, line, text, XXX,
+                    IMarker.PRIORITY_NORMAL);
+            mkTaskMarker(batch, resource, line, text, FIXME,
+                    IMarker.PRIORITY_HIGH);
         }
         // m.disposeScanner(); FIXME why did we need this?
     }
 
-    private static void getNoScanMarkersFor(final IResource resource,
-            final IErlProject p) throws ErlModelException {
+    private static void getNoScanMarkersFor(final MarkerBatch batch,
+            final IResource resource, final IErlProject p)
+            throws ErlModelException {
         if (!(resource instanceof IFile)) {
             return;
         }
@@ -519,25 +557,21 @@ public final class MarkerUtils {
             final BufferedReader reader = new BufferedReader(
                     new InputStreamReader(input));
             try {
+                final Matcher matcher = TASK_PATTERN.matcher("");
                 String line = reader.readLine();
-                final List<Tuple<String, Integer>> cl = new ArrayList<Tuple<String, Integer>>();
                 int numline = 0;
                 while (line != null) {
-                    if (line.matches("^[^%]*%+[ \t]*(TODO|XXX|FIXME).*")) {
-                        cl.add(new Tuple<String, Integer>(line, numline));
+                    if (matcher.reset(line).matches()) {
+                        mkTaskMarker(batch, resource, numline, line, TODO,
+                                IMarker.PRIORITY_NORMAL);
+                        mkTaskMarker(batch, resource, numline, line, XXX,
+                                IMarker.PRIORITY_NORMAL);
+                        mkTaskMarker(batch, resource, numline, line, FIXME,
+                                IMarker.PRIORITY_HIGH);
                     }
                     numline++;
                     line = reader.readLine();
                 }
-
-                for (final Tuple<String, Integer> c : cl) {
-                    mkTaskMarker(resource, c.o2, c.o1, TODO,
-                            IMarker.PRIORITY_NORMAL);
-                    mkTaskMarker(resource, c.o2, c.o1, XXX,
-                            IMarker.PRIORITY_NORMAL);
-                    mkTaskMarker(resource, c.o2, c.o1, FIXME,
-                            IMarker.PRIORITY_HIGH);
-                }
             } finally {
                 reader.close();
             }
@@ -548,10 +582,11 @@ public final class MarkerUtils {
         }
     }
 
-    private static void mkTaskMarker(final IResource resource, final int line,
-            final String text, final String tag, final int prio) {
-        if (text.contains(tag)) {
-            final int ix = text.indexOf(tag);
+    private static void mkTaskMarker(final MarkerBatch batch,
+            final IResource resource, final int line, final String text,
+            final String tag, final int prio) {
+        final int ix = text.indexOf(tag);
+        if (ix >= 0) {
             final String msg = text.substring(ix);
             int dl = 0;
             for (int i = 0; i < ix; i++) {
@@ -559,7 +594,13 @@ public final class MarkerUtils {
                     dl++;
                 }
             }
-            addTaskMarker(resource, resource, msg, line + 1 + dl, prio);
+            final Map<String, Object> attributes = Maps.newHashMap();
+            attributes.put(IMarker.MESSAGE, msg);
+            attributes.put(IMarker.PRIORITY, Integer.valueOf(prio));
+            attributes.put(IMarker.SOURCE_ID, resource.getFullPath()
+                    .toString());
+            attributes.put(IMarker.LINE_NUMBER, Integer.valueOf(line + 1 + dl));
+            batch.add(resource, TASK_MARKER, attributes);
         }
     }
 
@@ -0,0 +1,242 @@
+package org.erlide.core.services.codeassist;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.erlide.core.services.codeassist.ErlideContextAssist.RecordCompletion;
+import org.erlide.core.services.search.ErlideDoc;
+import org.erlide.jinterface.rpc.IRpcCallSite;
+import org.erlide.jinterface.util.LRUCache;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.google.common.collect.Lists;
+
+/**
+ * Keeps what content assist gets from the backend, so that proposals can be
+ * computed again as the user keeps typing without a round trip each time.
+ * <p>
+ * The signatures of the exported functions of a module are kept until a new
+ * version of the module is loaded; only the most recently used modules are
+ * kept, their number can be set with
+ * <code>-Derlide.completion.modules</code>. The variables, module names and
+ * record context of the last completion are kept too: when the identifier
+ * being completed just got longer, they are filtered locally.
+ */
+public class CompletionCache {
+
+    private static final int MAX_MODULES = Integer.getInteger(
+            "erlide.completion.modules", 100);
+    /**
+     * How long the module names are reused; modules get loaded meanwhile.
+     */
+    private static final long MODULES_TIMEOUT = 10000;
+
+    private static CompletionCache fgInstance = null;
+
+    private static final class Signatures {
+        final IRpcCallSite backend;
+        final OtpErlangList list;
+
+        Signatures(final IRpcCallSite backend, final OtpErlangList list) {
+            this.backend = backend;
+            this.list = list;
+        }
+    }
+
+    private final Map<String, Signatures> signatures = new LRUCache<String, Signatures>(
+            MAX_MODULES);
+    /**
+     * Counts the removals, so that signatures fetched while their module was
+     * loaded again aren't kept.
+     */
+    private long generation = 0;
+
+    private IRpcCallSite variablesBackend;
+    private String variablesSource;
+    private Collection<String> variables;
+
+    private IRpcCallSite modulesBackend;
+    private boolean modulesIncludes;
+    private String modulesPrefix;
+    private List<String> modules;
+    private long modulesTime;
+
+    private IRpcCallSite recordBackend;
+    private String recordBefore;
+    private RecordCompletion record;
+
+    public static synchronized CompletionCache getDefault() {
+        if (fgInstance == null) {
+            fgInstance = new CompletionCache();
+        }
+        return fgInstance;
+    }
+
+    /**
+     * Returns the exported functions of a module with their parameters (see
+     * {@link ErlideDoc#getSignatures(IRpcCallSite, String, String)}),
+     * fetching them if they aren't cached, or null if the backend has none.
+     */
+    public OtpErlangList getSignatures(final IRpcCallSite b,
+            final String module, final String stateDir) {
+        final long start;
+        synchronized (this) {
+            final Signatures s = signatures.get(module);
+            if (s != null && s.backend == b) {
+                return s.list;
+            }
+            start = generation;
+        }
+        final OtpErlangObject res = ErlideDoc.getSignatures(b, module,
+                stateDir);
+        if (!(res instanceof OtpErlangList)) {
+            return null;
+        }
+        final OtpErlangList list = (OtpErlangList) res;
+        synchronized (this) {
+            if (generation == start) {
+                signatures.put(module, new Signatures(b, list));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Drops the signatures of a module, of which a new version was loaded.
+     */
+    public synchronized void remove(final String module) {
+        generation++;
+        signatures.remove(module);
+    }
+
+    /**
+     * Returns the variables in a piece of source that start with a prefix.
+     * All the variables of the last source are kept.
+     */
+    public Collection<String> getVariables(final IRpcCallSite b,
+            final String src, final String prefix) {
+        Collection<String> all = null;
+        synchronized (this) {
+            if (b == variablesBackend && src.equals(variablesSource)) {
+                all = variables;
+            }
+        }
+        if (all == null) {
+            all = ErlideContextAssist.getVariables(b, src, "");
+            synchronized (this) {
+                variablesBackend = b;
+                variablesSource = src;
+                variables = all;
+            }
+        }
+        final SortedSet<String> result = new TreeSet<String>();
+        for (final String var : all) {
+            if (var.startsWith(prefix)) {
+                result.add(var);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names of the modules or include files that start with a
+     * prefix, among the given ones and, for modules, those loaded in the
+     * backend. The names of the last query are filtered again if the prefix
+     * just got longer.
+     */
+    public List<String> getModules(final IRpcCallSite b, final String prefix,
+            final List<String> projectModules, final boolean includes) {
+        final long now = System.currentTimeMillis();
+        List<String> all = null;
+        synchronized (this) {
+            if (b == modulesBackend && includes == modulesIncludes
+                    && prefix.startsWith(modulesPrefix)
+                    && now - modulesTime < MODULES_TIMEOUT
+                    && modules.containsAll(projectModules)) {
+                all = modules;
+            }
+        }
+        if (all == null) {
+            all = Lists.newArrayList();
+            final OtpErlangObject res = ErlideDoc.getModules(b, prefix,
+                    projectModules, includes);
+            if (res instanceof OtpErlangList) {
+                for (final OtpErlangObject o : (OtpErlangList) res) {
+                    if (o instanceof OtpErlangString) {
+                        all.add(((OtpErlangString) o).stringValue());
+                    }
+                }
+            }
+            synchronized (this) {
+                modulesBackend = b;
+                modulesIncludes = includes;
+                modulesPrefix = prefix;
+                modules = all;
+                modulesTime = now;
+            }
+        }
+        final List<String> result = Lists.newArrayList();
+        for (final String name : all) {
+            if (name.startsWith(prefix)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if the text before the cursor is in a record. If it only adds
+     * to the name or field being completed the last time, the last result is
+     * reused with a longer prefix.
+     */
+    public RecordCompletion checkRecordCompletion(final IRpcCallSite b,
+            final String before) {
+        synchronized (this) {
+            if (b == recordBackend && before.startsWith(recordBefore)) {
+                final String added = before.substring(recordBefore.length());
+                final String prefix = record.getPrefix();
+                if (isAtomContinuation(prefix, added)) {
+                    return record.withPrefix(prefix + added);
+                }
+            }
+        }
+        final RecordCompletion rc = ErlideContextAssist.checkRecordCompletion(
+                b, before);
+        if (rc != null && (rc.isNameWanted() || rc.isFieldWanted())) {
+            synchronized (this) {
+                recordBackend = b;
+                recordBefore = before;
+                record = rc;
+            }
+        }
+        return rc;
+    }
+
+    /**
+     * True if appending some characters to an unquoted atom prefix gives a
+     * longer unquoted atom prefix.
+     */
+    private static boolean isAtomContinuation(final String prefix,
+            final String added) {
+        if (prefix.startsWith("'")) {
+            return false;
+        }
+        for (int i = 0; i < added.length(); i++) {
+            final char c = added.charAt(i);
+            if (i == 0 && prefix.length() == 0) {
+                if (!Character.isLowerCase(c)) {
+                    return false;
+                }
+            } else if (!Character.isLetterOrDigit(c) && c != '_' && c != '@') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
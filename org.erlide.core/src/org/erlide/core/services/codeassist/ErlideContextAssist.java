@@ -72,6 +72,21 @@ public class ErlideContextAssist {
             }
         }
 
+        private RecordCompletion(final int kind, final String name,
+                final String prefix, final List<String> fields) {
+            this.kind = kind;
+            this.name = name;
+            this.prefix = prefix;
+            this.fields = fields;
+        }
+
+        /**
+         * Returns the same completion, for a longer prefix.
+         */
+        public RecordCompletion withPrefix(final String newPrefix) {
+            return new RecordCompletion(kind, name, newPrefix, fields);
+        }
+
         public boolean isNameWanted() {
             return kind == RECORD_NAME;
         }
@@ -0,0 +1,401 @@
+package org.erlide.core.services.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.erlide.core.model.erlang.FunctionRef;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangRangeException;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The calls between functions, as found by xref (the <code>E</code> query),
+ * kept on the Java side so that the call hierarchy doesn't need a round trip
+ * per node.
+ * <p>
+ * Every function gets an int id; the callees and callers of each function
+ * are kept as arrays of ids. The calls made by a module can be replaced when
+ * it is compiled again. Whole hierarchies are computed level by level, the
+ * functions of a level being expanded in parallel; the number of threads
+ * can be set with <code>-Derlide.callgraph.threads</code>.
+ */
+public final class CallGraph {
+
+    private static final int THREADS = Integer.getInteger(
+            "erlide.callgraph.threads", Runtime.getRuntime()
+                    .availableProcessors());
+    /**
+     * Levels with fewer functions than this are expanded by the calling
+     * thread.
+     */
+    private static final int MIN_PARALLEL = 256;
+
+    private static ExecutorService pool = null;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<FunctionRef, Integer> ids = Maps.newHashMap();
+    private final List<FunctionRef> functions = Lists.newArrayList();
+    private int[][] callees = new int[64][];
+    private int[] calleeCount = new int[64];
+    private int[][] callers = new int[64][];
+    private int[] callerCount = new int[64];
+    /**
+     * The ids of the functions of a module that call something.
+     */
+    private final Map<String, int[]> moduleCallers = Maps.newHashMap();
+    private int edgeCount = 0;
+
+    /**
+     * @param edges
+     *            the calls, as <code>{Caller, Callee}</code> tuples of
+     *            <code>{M, F, A}</code>
+     * @throws IllegalArgumentException
+     *             if an edge isn't such a tuple
+     */
+    public CallGraph(final OtpErlangList edges) {
+        final Map<String, List<Integer>> byModule = Maps.newHashMap();
+        for (final OtpErlangObject o : edges) {
+            final int caller = addEdge(o);
+            final String module = functions.get(caller).module;
+            List<Integer> list = byModule.get(module);
+            if (list == null) {
+                list = Lists.newArrayList();
+                byModule.put(module, list);
+            }
+            list.add(caller);
+        }
+        for (final Map.Entry<String, List<Integer>> e : byModule.entrySet()) {
+            moduleCallers.put(e.getKey(), distinct(e.getValue()));
+        }
+    }
+
+    /**
+     * Replaces the calls made by the functions of a module.
+     *
+     * @param edges
+     *            the calls the module makes now, as in the constructor
+     */
+    public void replaceModule(final String module, final OtpErlangList edges) {
+        lock.writeLock().lock();
+        try {
+            final int[] old = moduleCallers.remove(module);
+            if (old != null) {
+                for (final int caller : old) {
+                    for (int i = 0; i < calleeCount[caller]; i++) {
+                        remove(callers, callerCount, callees[caller][i],
+                                caller);
+                    }
+                    edgeCount -= calleeCount[caller];
+                    calleeCount[caller] = 0;
+                }
+            }
+            final List<Integer> added = Lists.newArrayList();
+            for (final OtpErlangObject o : edges) {
+                final int caller = addEdge(o);
+                if (!module.equals(functions.get(caller).module)) {
+                    throw new IllegalArgumentException("not a call from "
+                            + module + ": " + o);
+                }
+                added.add(caller);
+            }
+            if (!added.isEmpty()) {
+                moduleCallers.put(module, distinct(added));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public FunctionRef[] getCallers(final FunctionRef function) {
+        return neighbours(function, true);
+    }
+
+    public FunctionRef[] getCallees(final FunctionRef function) {
+        return neighbours(function, false);
+    }
+
+    /**
+     * Returns the callers of a function, their callers, and so on, down to
+     * the given depth, as a map from each function reached to its callers.
+     * The functions at the given depth are not expanded.
+     */
+    public Map<FunctionRef, FunctionRef[]> getCallerHierarchy(
+            final FunctionRef root, final int depth)
+            throws InterruptedException {
+        return hierarchy(root, depth, true);
+    }
+
+    /**
+     * Like {@link #getCallerHierarchy(FunctionRef, int)}, following the
+     * calls instead.
+     */
+    public Map<FunctionRef, FunctionRef[]> getCalleeHierarchy(
+            final FunctionRef root, final int depth)
+            throws InterruptedException {
+        return hierarchy(root, depth, false);
+    }
+
+    public int getFunctionCount() {
+        lock.readLock().lock();
+        try {
+            return functions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getEdgeCount() {
+        lock.readLock().lock();
+        try {
+            return edgeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private FunctionRef[] neighbours(final FunctionRef function,
+            final boolean up) {
+        lock.readLock().lock();
+        try {
+            final Integer id = ids.get(function);
+            if (id == null) {
+                return new FunctionRef[0];
+            }
+            return up ? refs(callers[id], callerCount[id]) : refs(
+                    callees[id], calleeCount[id]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Map<FunctionRef, FunctionRef[]> hierarchy(final FunctionRef root,
+            final int depth, final boolean up) throws InterruptedException {
+        final Map<FunctionRef, FunctionRef[]> result = Maps.newHashMap();
+        lock.readLock().lock();
+        try {
+            final int[][] adjacency = up ? callers : callees;
+            final int[] count = up ? callerCount : calleeCount;
+            final Integer id = ids.get(root);
+            if (id == null) {
+                return result;
+            }
+            final BitSet seen = new BitSet(functions.size());
+            seen.set(id);
+            int[] level = { id };
+            for (int d = 0; d < depth && level.length > 0; d++) {
+                final int[][] next = expand(level, adjacency, count);
+                final int[] found = new int[countAll(next)];
+                int n = 0;
+                for (int i = 0; i < level.length; i++) {
+                    result.put(functions.get(level[i]),
+                            refs(next[i], next[i].length));
+                    for (final int f : next[i]) {
+                        if (!seen.get(f)) {
+                            seen.set(f);
+                            found[n++] = f;
+                        }
+                    }
+                }
+                level = Arrays.copyOf(found, n);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the neighbours of each function of a level, splitting the
+     * level among the pool's threads if it is large. The caller holds the
+     * read lock, so the arrays don't change meanwhile.
+     */
+    private static int[][] expand(final int[] level, final int[][] adjacency,
+            final int[] count) throws InterruptedException {
+        final int[][] result = new int[level.length][];
+        if (THREADS <= 1 || level.length < MIN_PARALLEL) {
+            expand(level, adjacency, count, result, 0, level.length);
+            return result;
+        }
+        final int chunk = (level.length + THREADS - 1) / THREADS;
+        final List<Future<Object>> futures = Lists.newArrayList();
+        for (int from = 0; from < level.length; from += chunk) {
+            final int start = from;
+            final int end = Math.min(level.length, from + chunk);
+            futures.add(getPool().submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    expand(level, adjacency, count, result, start, end);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (final Future<Object> f : futures) {
+                f.get();
+            }
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (final Future<Object> f : futures) {
+                f.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    private static void expand(final int[] level, final int[][] adjacency,
+            final int[] count, final int[][] result, final int from,
+            final int to) {
+        for (int i = from; i < to; i++) {
+            final int f = level[i];
+            result[i] = count[f] == 0 ? new int[0] : Arrays.copyOf(
+                    adjacency[f], count[f]);
+        }
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "erlide call graph "
+                            + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Adds a call and returns the id of the caller.
+     */
+    private int addEdge(final OtpErlangObject o) {
+        if (!(o instanceof OtpErlangTuple)
+                || ((OtpErlangTuple) o).arity() != 2) {
+            throw new IllegalArgumentException("not a call: " + o);
+        }
+        final OtpErlangTuple t = (OtpErlangTuple) o;
+        final int caller = id(functionRef(t.elementAt(0)));
+        final int callee = id(functionRef(t.elementAt(1)));
+        add(callees, calleeCount, caller, callee);
+        add(callers, callerCount, callee, caller);
+        edgeCount++;
+        return caller;
+    }
+
+    private int id(final FunctionRef function) {
+        final Integer id = ids.get(function);
+        if (id != null) {
+            return id;
+        }
+        final int result = functions.size();
+        functions.add(function);
+        ids.put(function, result);
+        if (result == callees.length) {
+            final int size = result * 2;
+            callees = Arrays.copyOf(callees, size);
+            calleeCount = Arrays.copyOf(calleeCount, size);
+            callers = Arrays.copyOf(callers, size);
+            callerCount = Arrays.copyOf(callerCount, size);
+        }
+        return result;
+    }
+
+    private FunctionRef[] refs(final int[] list, final int n) {
+        final FunctionRef[] result = new FunctionRef[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = functions.get(list[i]);
+        }
+        return result;
+    }
+
+    private static void add(final int[][] adjacency, final int[] count,
+            final int from, final int to) {
+        int[] list = adjacency[from];
+        final int n = count[from];
+        if (list == null) {
+            list = new int[2];
+            adjacency[from] = list;
+        } else if (n == list.length) {
+            list = Arrays.copyOf(list, n * 2);
+            adjacency[from] = list;
+        }
+        list[n] = to;
+        count[from] = n + 1;
+    }
+
+    private static void remove(final int[][] adjacency, final int[] count,
+            final int from, final int to) {
+        final int[] list = adjacency[from];
+        final int n = count[from];
+        for (int i = 0; i < n; i++) {
+            if (list[i] == to) {
+                list[i] = list[n - 1];
+                count[from] = n - 1;
+                return;
+            }
+        }
+    }
+
+    private static int countAll(final int[][] lists) {
+        int result = 0;
+        for (final int[] list : lists) {
+            result += list.length;
+        }
+        return result;
+    }
+
+    private static int[] distinct(final List<Integer> list) {
+        final int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        Arrays.sort(result);
+        int n = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (n == 0 || result[n - 1] != result[i]) {
+                result[n++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static FunctionRef functionRef(final OtpErlangObject o) {
+        if (!(o instanceof OtpErlangTuple)
+                || ((OtpErlangTuple) o).arity() != 3) {
+            throw new IllegalArgumentException("not a function: " + o);
+        }
+        final OtpErlangTuple t = (OtpErlangTuple) o;
+        try {
+            return new FunctionRef(((OtpErlangAtom) t.elementAt(0)).atomValue(),
+                    ((OtpErlangAtom) t.elementAt(1)).atomValue(),
+                    ((OtpErlangLong) t.elementAt(2)).intValue());
+        } catch (final ClassCastException e) {
+            throw new IllegalArgumentException("not a function: " + o);
+        } catch (final OtpErlangRangeException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+}
@@ -1,7 +1,11 @@
 package org.erlide.core.services.search;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.runtime.IPath;
 import org.erlide.core.model.erlang.FunctionRef;
@@ -12,11 +16,39 @@ import org.erlide.jinterface.rpc.IRpcCallSite;
 import org.erlide.jinterface.rpc.IRpcFuture;
 import org.erlide.jinterface.util.ErlUtils;
 
+import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.google.common.collect.Sets;
 
+/**
+ * Access to the xref server of a backend.
+ * <p>
+ * The calls between the modules in xref are fetched once, when first
+ * needed, and kept in a {@link CallGraph} that answers the call hierarchy
+ * queries. The builder reports the beams it produces through
+ * {@link #updateModules(IRpcCallSite, Collection)}, which updates just those
+ * modules in xref and in the graph. The graph is only fetched again when a
+ * new project is added or a full update finds changed modules.
+ */
 public final class ErlangXref {
 
+    private static final int GRAPH_TIMEOUT = 60000;
+    private static final int UPDATE_TIMEOUT = 60000;
+
+    private static final Object graphLock = new Object();
+    private static CallGraph graph = null;
+    /**
+     * Counts the changes to xref, so that a graph fetched meanwhile isn't
+     * kept.
+     */
+    private static long generation = 0;
+    /**
+     * The output directories of the projects added to xref.
+     */
+    private static final Set<String> projects = Sets.newHashSet();
+
     public static void start(final IRpcCallSite b) {
         try {
             b.call("erlide_xref", "start", "");
@@ -27,6 +59,10 @@ public final class ErlangXref {
     }
 
     public static void stop(final IRpcCallSite b) {
+        synchronized (graphLock) {
+            projects.clear();
+        }
+        dropCallGraph();
         try {
             b.call("erlide_xref", "stop", "");
         } catch (final Exception e) {
@@ -41,6 +77,13 @@ public final class ErlangXref {
             final IPath outputLocation = project.getWorkspaceProject()
                     .getFolder(project.getOutputLocation()).getLocation();
             final String loc = outputLocation.toString();
+            final boolean added;
+            synchronized (graphLock) {
+                added = projects.add(loc);
+            }
+            if (added) {
+                dropCallGraph();
+            }
             return b.async_call("erlide_xref", "add_project", "s", loc);
         } catch (final Exception e) {
             ErlLogger.debug(e);
@@ -50,18 +93,149 @@ public final class ErlangXref {
 
     public static void update(final IRpcCallSite b) {
         try {
-            b.call("erlide_xref", "update", "");
+            final OtpErlangObject r = b.call(UPDATE_TIMEOUT, "erlide_xref",
+                    "update", "");
+            final Bindings bind = ErlUtils.match("{ok, L}", r);
+            if (bind == null
+                    || ((OtpErlangList) bind.get("L")).arity() > 0) {
+                dropCallGraph();
+            }
         } catch (final Exception e) {
             ErlLogger.debug(e);
+            dropCallGraph();
         }
     }
 
-    @SuppressWarnings("boxing")
+    /**
+     * Updates the modules of some beam files in xref, if it is running, and
+     * the calls they make in the call graph.
+     */
+    public static void updateModules(final IRpcCallSite b,
+            final Collection<String> beams) {
+        if (b == null || beams.isEmpty()) {
+            return;
+        }
+        try {
+            final long time = System.nanoTime();
+            final OtpErlangObject r = b.call(UPDATE_TIMEOUT, "erlide_xref",
+                    "update_modules", "ls", beams);
+            final Bindings bind = ErlUtils.match("{ok, L}", r);
+            if (bind == null) {
+                ErlLogger.warn("could not update xref: %s", r);
+                dropCallGraph();
+                return;
+            }
+            final OtpErlangList l = (OtpErlangList) bind.get("L");
+            final CallGraph g;
+            synchronized (graphLock) {
+                generation++;
+                g = graph;
+            }
+            if (g != null) {
+                for (final OtpErlangObject o : l) {
+                    final OtpErlangTuple t = (OtpErlangTuple) o;
+                    g.replaceModule(
+                            ((OtpErlangAtom) t.elementAt(0)).atomValue(),
+                            (OtpErlangList) t.elementAt(1));
+                }
+            }
+            if (l.arity() > 0) {
+                ErlLogger.debug("updated %d module(s) in xref in %d ms",
+                        l.arity(), TimeUnit.NANOSECONDS.toMillis(System
+                                .nanoTime() - time));
+            }
+        } catch (final Exception e) {
+            ErlLogger.debug(e);
+            dropCallGraph();
+        }
+    }
+
+    /**
+     * Returns the call graph of the modules in xref, fetching it if needed,
+     * or null if it can't be fetched.
+     */
+    public static CallGraph getCallGraph(final IRpcCallSite b) {
+        final long start;
+        synchronized (graphLock) {
+            if (graph != null) {
+                return graph;
+            }
+            start = generation;
+        }
+        try {
+            final long time = System.nanoTime();
+            final OtpErlangObject r = b.call(GRAPH_TIMEOUT, "erlide_xref",
+                    "call_edges", "");
+            final Bindings bind = ErlUtils.match("{ok, L}", r);
+            if (bind == null) {
+                return null;
+            }
+            final CallGraph g = new CallGraph((OtpErlangList) bind.get("L"));
+            ErlLogger.debug("fetched call graph of %d functions, %d calls "
+                    + "in %d ms", g.getFunctionCount(), g.getEdgeCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+            synchronized (graphLock) {
+                if (generation == start) {
+                    graph = g;
+                }
+            }
+            return g;
+        } catch (final Exception e) {
+            ErlLogger.debug(e);
+        }
+        return null;
+    }
+
     public static FunctionRef[] functionUse(final IRpcCallSite b,
             final String mod, final String fun, final int arity) {
+        final CallGraph g = getCallGraph(b);
+        if (g != null) {
+            return g.getCallers(new FunctionRef(mod, fun, arity));
+        }
+        return analyze(b, "function_use", mod, fun, arity);
+    }
+
+    public static FunctionRef[] functionCall(final IRpcCallSite b,
+            final String mod, final String fun, final int arity) {
+        final CallGraph g = getCallGraph(b);
+        if (g != null) {
+            return g.getCallees(new FunctionRef(mod, fun, arity));
+        }
+        return analyze(b, "function_call", mod, fun, arity);
+    }
+
+    /**
+     * Returns the callers of a function and, recursively, theirs, down to
+     * the given depth (see {@link CallGraph#getCallerHierarchy}), or null if
+     * the call graph can't be fetched.
+     */
+    public static Map<FunctionRef, FunctionRef[]> callerHierarchy(
+            final IRpcCallSite b, final FunctionRef ref, final int depth) {
+        final CallGraph g = getCallGraph(b);
+        if (g == null) {
+            return null;
+        }
+        try {
+            final long time = System.nanoTime();
+            final Map<FunctionRef, FunctionRef[]> result = g
+                    .getCallerHierarchy(ref, depth);
+            ErlLogger.debug("caller hierarchy of %s to depth %d: "
+                    + "%d functions in %d ms", ref, depth, result.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+            return result;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @SuppressWarnings("boxing")
+    private static FunctionRef[] analyze(final IRpcCallSite b,
+            final String fn, final String mod, final String fun,
+            final int arity) {
         try {
-            final OtpErlangObject r = b.call("erlide_xref", "function_use",
-                    "aai", mod, fun, arity);
+            final OtpErlangObject r = b.call("erlide_xref", fn, "aai", mod,
+                    fun, arity);
             final Bindings bind = ErlUtils.match("{ok, L}", r);
             if (bind == null) {
                 return new FunctionRef[0];
@@ -78,6 +252,13 @@ public final class ErlangXref {
         return null;
     }
 
+    private static void dropCallGraph() {
+        synchronized (graphLock) {
+            generation++;
+            graph = null;
+        }
+    }
+
     private ErlangXref() {
     }
 
@@ -86,4 +267,9 @@ public final class ErlangXref {
         return functionUse(b, ref.module, ref.function, ref.arity);
     }
 
+    public static FunctionRef[] functionCall(final IRpcCallSite b,
+            final FunctionRef ref) {
+        return functionCall(b, ref.module, ref.function, ref.arity);
+    }
+
 }
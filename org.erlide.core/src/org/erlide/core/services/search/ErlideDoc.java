@@ -7,8 +7,12 @@ import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.IRpcCallSite;
 import org.erlide.jinterface.rpc.RpcException;
 
+import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
 import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
 
 public class ErlideDoc {
     public static OtpErlangObject getProposalsWithDoc(final IRpcCallSite b,
@@ -23,6 +27,49 @@ public class ErlideDoc {
         return res;
     }
 
+    /**
+     * Returns the exported functions of a module with their parameters, as
+     * <code>[{FunWithArity, FunWithParameters, [{Offset, Length}]}]</code>,
+     * without documentation. The parameters are named as in the
+     * documentation, which the backend reads once per version of it.
+     */
+    public static OtpErlangObject getSignatures(final IRpcCallSite b,
+            final String mod, final String stateDir) {
+        OtpErlangObject res = null;
+        try {
+            res = b.call("erlide_otp_doc", "get_signatures", "as", mod,
+                    stateDir);
+        } catch (final RpcException e) {
+            ErlLogger.warn(e);
+        }
+        return res;
+    }
+
+    /**
+     * Returns the documentation of one function, or null if there is none.
+     */
+    public static String getFunctionDoc(final IRpcCallSite b,
+            final String mod, final String fun, final int arity,
+            final String stateDir) {
+        try {
+            final OtpErlangList funs = new OtpErlangList(new OtpErlangTuple(
+                    new OtpErlangObject[] { new OtpErlangAtom(fun),
+                            new OtpErlangLong(arity) }));
+            final OtpErlangObject res = b.call("erlide_otp_doc",
+                    "get_doc_from_fun_arity_list", "axs", mod, funs, stateDir);
+            if (res instanceof OtpErlangList
+                    && ((OtpErlangList) res).arity() > 0) {
+                final OtpErlangObject doc = ((OtpErlangList) res).elementAt(0);
+                if (doc instanceof OtpErlangString) {
+                    return ((OtpErlangString) doc).stringValue();
+                }
+            }
+        } catch (final RpcException e) {
+            ErlLogger.warn(e);
+        }
+        return null;
+    }
+
     public static OtpErlangObject getModules(final IRpcCallSite b,
             final String prefix, final List<String> projectModules,
             final boolean includes) {
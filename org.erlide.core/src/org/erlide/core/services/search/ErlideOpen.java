@@ -2,6 +2,7 @@ package org.erlide.core.services.search;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.core.runtime.IPath;
 import org.erlide.core.backend.BackendUtils;
@@ -18,6 +19,7 @@ import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangString;
 import com.ericsson.otp.erlang.OtpErlangTuple;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 public class ErlideOpen {
 
@@ -135,6 +137,8 @@ public class ErlideOpen {
     // return new ArrayList<String>();
     // }
 
+    public static final String EXTERNAL_ROOT = "root";
+
     public static class ExternalTreeEntry {
         private final String parentPath;
         private final String path;
@@ -168,6 +172,35 @@ public class ErlideOpen {
         }
     }
 
+    /**
+     * Returns one level of the external modules tree: the entries listed by
+     * <code>parentPath</code>, or the top level entries of
+     * <code>externalModules</code> if it is {@link #EXTERNAL_ROOT}.
+     */
+    public static List<ExternalTreeEntry> getExternalChildren(
+            final IRpcCallSite backend, final String parentPath,
+            final String externalModules, final OtpErlangList pathVars) {
+        try {
+            final OtpErlangObject res = backend.call("erlide_open",
+                    "get_external_children", "ssx", parentPath,
+                    externalModules, pathVars);
+            if (Util.isOk(res)) {
+                return getExternalTreeEntries(res);
+            }
+        } catch (final RpcException e) {
+            ErlLogger.warn(e);
+        }
+        return Lists.newArrayList();
+    }
+
+    /**
+     * Returns the whole external modules tree of <code>externalModules</code>
+     * in one call, each entry with its parent path. A file listed more than
+     * once is only returned the first time, so cycles between external files
+     * are broken.
+     *
+     * @return the entries, or null if the call failed
+     */
     public static List<ExternalTreeEntry> getExternalModuleTree(
             final IRpcCallSite backend, final String externalModules,
             final OtpErlangList pathVars) {
@@ -176,28 +209,29 @@ public class ErlideOpen {
                     "get_external_module_tree", "x",
                     mkContext(externalModules, null, pathVars, null, null));
             if (Util.isOk(res)) {
-                OtpErlangTuple t = (OtpErlangTuple) res;
-                final OtpErlangList l = (OtpErlangList) t.elementAt(1);
-                final List<ExternalTreeEntry> result = Lists
-                        .newArrayListWithCapacity(l.arity());
-                for (final OtpErlangObject i : l) {
-                    t = (OtpErlangTuple) i;
-                    final String parentPath = Util.stringValue(t.elementAt(0));
-                    final String path = Util.stringValue(t.elementAt(1));
-                    // final String name = Util.stringValue(t.elementAt(2));
-                    // final OtpErlangAtom isModuleA = (OtpErlangAtom) t
-                    // .elementAt(3);
-                    final OtpErlangAtom isModuleA = (OtpErlangAtom) t
-                            .elementAt(2);
-                    result.add(new ExternalTreeEntry(parentPath, path,// name,
-                            isModuleA.atomValue().equals("module")));
-                }
-                return result;
+                return getExternalTreeEntries(res);
             }
         } catch (final RpcException e) {
             ErlLogger.warn(e);
         }
-        return Lists.newArrayList();
+        return null;
+    }
+
+    private static List<ExternalTreeEntry> getExternalTreeEntries(
+            final OtpErlangObject res) {
+        OtpErlangTuple t = (OtpErlangTuple) res;
+        final OtpErlangList l = (OtpErlangList) t.elementAt(1);
+        final List<ExternalTreeEntry> result = Lists.newArrayListWithCapacity(l
+                .arity());
+        for (final OtpErlangObject i : l) {
+            t = (OtpErlangTuple) i;
+            final String parent = Util.stringValue(t.elementAt(0));
+            final String path = Util.stringValue(t.elementAt(1));
+            final OtpErlangAtom isModuleA = (OtpErlangAtom) t.elementAt(2);
+            result.add(new ExternalTreeEntry(parent, path, isModuleA
+                    .atomValue().equals("module")));
+        }
+        return result;
     }
 
     public static String getExternalInclude(final IRpcCallSite backend,
@@ -228,6 +262,33 @@ public class ErlideOpen {
         }
     }
 
+    /**
+     * Returns the OTP library directories, each mapped to whether it has an
+     * include directory.
+     */
+    public static Map<String, Boolean> getLibDirsWithIncludes(
+            final IRpcCallSite backend) {
+        try {
+            final OtpErlangObject res = backend.call("erlide_open",
+                    "get_lib_dirs_with_includes", "");
+            if (Util.isOk(res)) {
+                final OtpErlangList l = (OtpErlangList) ((OtpErlangTuple) res)
+                        .elementAt(1);
+                final Map<String, Boolean> result = Maps.newLinkedHashMap();
+                for (final OtpErlangObject o : l) {
+                    final OtpErlangTuple t = (OtpErlangTuple) o;
+                    result.put(Util.stringValue(t.elementAt(0)), Boolean
+                            .valueOf(((OtpErlangAtom) t.elementAt(1))
+                                    .booleanValue()));
+                }
+                return result;
+            }
+        } catch (final RpcException e) {
+            ErlLogger.error(e);
+        }
+        return null;
+    }
+
     public static List<String> getLibFiles(final IRpcCallSite backend,
             final String entry) {
         try {
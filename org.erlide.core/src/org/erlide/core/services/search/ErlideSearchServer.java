@@ -17,6 +17,7 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
 public class ErlideSearchServer {
 
     private static final int SEARCH_LONG_TIMEOUT = 50000;
+    private static final int DEFAULT_BATCH_SIZE = 10;
 
     private static OtpErlangList getModulesFromScope(final ErlSearchScope scope) {
         final OtpErlangObject result[] = new OtpErlangObject[scope.size()];
@@ -40,12 +41,26 @@ public class ErlideSearchServer {
             final ErlangSearchPattern pattern, final ErlSearchScope scope,
             final String stateDir, final IRpcResultCallback callback)
             throws RpcException {
+        startFindRefs(backend, pattern, scope, stateDir, DEFAULT_BATCH_SIZE,
+                1, callback);
+    }
+
+    /**
+     * Starts a search that reports its results to the callback each time it
+     * has searched <code>batchSize</code> modules. The modules are searched
+     * by <code>shards</code> concurrent processes on the backend, or by one
+     * per scheduler if <code>shards</code> is 0.
+     */
+    public static void startFindRefs(final IRpcCallSite backend,
+            final ErlangSearchPattern pattern, final ErlSearchScope scope,
+            final String stateDir, final int batchSize, final int shards,
+            final IRpcResultCallback callback) throws RpcException {
         final OtpErlangList modules = getModulesFromScope(scope);
         ErlLogger.debug("startFindRefs " + pattern.getSearchObject() + "    "
                 + modules);
         backend.async_call_result(callback, "erlide_search_server",
-                "start_find_refs", "xxxs", pattern.getSearchObject(), modules,
-                stateDir);
+                "start_find_refs", "xxxsii", pattern.getSearchObject(),
+                modules, stateDir, batchSize, shards);
     }
 
     public static OtpErlangObject findRefs(final IRpcCallSite backend,
@@ -63,6 +78,24 @@ public class ErlideSearchServer {
         return null;
     }
 
+    /**
+     * Returns the references collected by noparse for a module, or null.
+     */
+    public static OtpErlangList getModuleRefs(final IRpcCallSite backend,
+            final IErlModule module, final String stateDir)
+            throws RpcException {
+        final OtpErlangObject r = backend.call(SEARCH_LONG_TIMEOUT,
+                "erlide_search_server", "get_module_refs", "ass",
+                module.getScannerName(), module.getFilePath(), stateDir);
+        if (Util.isOk(r)) {
+            final OtpErlangObject refs = ((OtpErlangTuple) r).elementAt(1);
+            if (refs instanceof OtpErlangList) {
+                return (OtpErlangList) refs;
+            }
+        }
+        return null;
+    }
+
     public static void cancelSearch(final IRpcCallSite backend,
             final OtpErlangPid searchDeamonPid) throws RpcException {
         backend.call("erlide_search_server", "cancel_find_refs", "x",
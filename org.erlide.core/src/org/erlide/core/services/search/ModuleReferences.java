@@ -0,0 +1,336 @@
+package org.erlide.core.services.search;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.erlide.jinterface.util.Util;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangRangeException;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * The references of one module, as collected by noparse (the
+ * <code>#ref{}</code> records in erlide_search_server.hrl), indexed by what
+ * they refer to.
+ * <p>
+ * The keys are the reference data, normalized the way
+ * erlide_search_server:check_pattern/6 compares them with a search pattern:
+ * local calls become external calls to this module, function definitions are
+ * also keyed by module, and function references are also keyed with an
+ * undefined arity. Variables are keyed together with the clause they are in.
+ */
+public final class ModuleReferences {
+
+    private static final OtpErlangAtom EXTERNAL_CALL = new OtpErlangAtom(
+            "external_call");
+    private static final OtpErlangAtom LOCAL_CALL = new OtpErlangAtom(
+            "local_call");
+    private static final OtpErlangAtom FUNCTION_DEF = new OtpErlangAtom(
+            "function_def");
+    private static final OtpErlangAtom FUNCTION_DEF_MOD = new OtpErlangAtom(
+            "function_def_mod");
+    private static final OtpErlangAtom INCLUDE_REF = new OtpErlangAtom(
+            "include_ref");
+    private static final OtpErlangAtom MACRO_DEF = new OtpErlangAtom(
+            "macro_def");
+    private static final OtpErlangAtom MACRO_REF = new OtpErlangAtom(
+            "macro_ref");
+    private static final OtpErlangAtom RECORD_DEF = new OtpErlangAtom(
+            "record_def");
+    private static final OtpErlangAtom RECORD_REF = new OtpErlangAtom(
+            "record_ref");
+    private static final OtpErlangAtom TYPE_DEF = new OtpErlangAtom("type_def");
+    private static final OtpErlangAtom TYPE_REF = new OtpErlangAtom("type_ref");
+    private static final OtpErlangAtom VAR_DEF = new OtpErlangAtom("var_def");
+    private static final OtpErlangAtom VAR_REF = new OtpErlangAtom("var_ref");
+    private static final OtpErlangAtom VAR_PATTERN = new OtpErlangAtom(
+            "var_pattern");
+    private static final OtpErlangAtom RECORD_FIELD_DEF = new OtpErlangAtom(
+            "record_field_def");
+    private static final OtpErlangAtom RECORD_FIELD_REF = new OtpErlangAtom(
+            "record_field_ref");
+    private static final OtpErlangAtom UNDEFINED = new OtpErlangAtom(
+            "undefined");
+    private static final OtpErlangAtom ANY_MODULE = new OtpErlangAtom("_");
+
+    private static final Set<OtpErlangAtom> DEFINITIONS = ImmutableSet.of(
+            FUNCTION_DEF, MACRO_DEF, TYPE_DEF, new OtpErlangAtom("module_def"),
+            VAR_DEF, RECORD_FIELD_DEF);
+
+    private final OtpErlangAtom module;
+    private final String modulePath;
+    private final List<Entry> entries;
+    private final ListMultimap<OtpErlangObject, ModuleLineFunctionArityRef> index;
+
+    private static final class Entry {
+        final OtpErlangTuple key;
+        final ModuleLineFunctionArityRef ref;
+
+        Entry(final OtpErlangTuple key, final ModuleLineFunctionArityRef ref) {
+            this.key = key;
+            this.ref = ref;
+        }
+    }
+
+    /**
+     * @param refs
+     *            the references, as returned by
+     *            erlide_search_server:get_module_refs/3
+     * @throws IllegalArgumentException
+     *             if a reference isn't a <code>#ref{}</code> record
+     */
+    public ModuleReferences(final String moduleName, final String modulePath,
+            final OtpErlangList refs) {
+        module = new OtpErlangAtom(moduleName);
+        this.modulePath = modulePath;
+        entries = Lists.newArrayListWithCapacity(refs.arity());
+        index = ArrayListMultimap.create();
+        for (final OtpErlangObject o : refs) {
+            add(o);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the references matching a search pattern (see
+     * {@link ErlangSearchPattern#getSearchObject()}), or null if the pattern
+     * can't be matched here; variable patterns are left to the backend.
+     */
+    public List<ModuleLineFunctionArityRef> find(final OtpErlangObject pattern) {
+        final List<OtpErlangObject> keys = getSearchKeys(pattern);
+        return keys == null ? null : lookup(keys);
+    }
+
+    /**
+     * The keys a search pattern is looked up with, or null if it can't be
+     * matched with the keys of the references; variable patterns are left to
+     * the backend.
+     */
+    static List<OtpErlangObject> getSearchKeys(final OtpErlangObject pattern) {
+        final List<OtpErlangObject> keys = Lists.newArrayList();
+        if (pattern instanceof OtpErlangList) {
+            for (final OtpErlangObject o : (OtpErlangList) pattern) {
+                keys.add(o);
+            }
+        } else {
+            keys.add(pattern);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            if (!(keys.get(i) instanceof OtpErlangTuple)) {
+                return null;
+            }
+            final OtpErlangTuple t = (OtpErlangTuple) keys.get(i);
+            final OtpErlangObject tag = t.elementAt(0);
+            if (VAR_PATTERN.equals(tag)) {
+                return null;
+            } else if (INCLUDE_REF.equals(tag)) {
+                keys.set(i, includeKey(t));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * The keys of the references that searches can look up, i.e. all but
+     * those of variables.
+     */
+    Set<OtpErlangObject> getSearchableKeys() {
+        final Set<OtpErlangObject> result = Sets.newHashSet();
+        for (final OtpErlangObject key : index.keySet()) {
+            final OtpErlangObject tag = ((OtpErlangTuple) key).elementAt(0);
+            if (!(tag instanceof OtpErlangTuple)) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the references to what the reference at an offset refers to,
+     * including its definition, or null if there is no reference there.
+     */
+    public List<ModuleLineFunctionArityRef> findOccurrences(final int offset) {
+        Entry found = null;
+        for (final Entry e : entries) {
+            final ModuleLineFunctionArityRef ref = e.ref;
+            if (ref.getOffset() <= offset
+                    && offset <= ref.getOffset() + ref.getLength()
+                    && (found == null || ref.getLength() < found.ref
+                            .getLength())) {
+                found = e;
+            }
+        }
+        if (found == null) {
+            return null;
+        }
+        return lookup(occurrenceKeys(found.key));
+    }
+
+    List<ModuleLineFunctionArityRef> lookup(
+            final Collection<OtpErlangObject> keys) {
+        // a reference can match several keys, but is returned once
+        final Set<ModuleLineFunctionArityRef> result = Sets.newLinkedHashSet();
+        for (final OtpErlangObject key : keys) {
+            result.addAll(index.get(key));
+        }
+        return Lists.newArrayList(result);
+    }
+
+    private void add(final OtpErlangObject o) {
+        if (!(o instanceof OtpErlangTuple)
+                || ((OtpErlangTuple) o).arity() != 8) {
+            throw new IllegalArgumentException("not a reference: " + o);
+        }
+        final OtpErlangTuple t = (OtpErlangTuple) o;
+        if (!(t.elementAt(1) instanceof OtpErlangTuple)) {
+            throw new IllegalArgumentException("not a reference: " + o);
+        }
+        final OtpErlangTuple data = (OtpErlangTuple) t.elementAt(1);
+        final OtpErlangObject function = t.elementAt(4);
+        final OtpErlangObject arity = t.elementAt(5);
+        final OtpErlangObject clause = t.elementAt(6);
+        final ModuleLineFunctionArityRef ref;
+        try {
+            ref = new ModuleLineFunctionArityRef(modulePath, intValue(t
+                    .elementAt(2)), intValue(t.elementAt(3)),
+                    stringValue(function), intValue(arity),
+                    stringValue(clause), Boolean.parseBoolean(stringValue(t
+                            .elementAt(7))), DEFINITIONS.contains(data
+                            .elementAt(0)));
+        } catch (final OtpErlangRangeException e) {
+            throw new IllegalArgumentException(e);
+        }
+        final OtpErlangObject tag = data.elementAt(0);
+        final OtpErlangTuple key;
+        if (LOCAL_CALL.equals(tag)) {
+            key = tuple(EXTERNAL_CALL, module, data.elementAt(1),
+                    data.elementAt(2));
+        } else if (TYPE_REF.equals(tag)
+                && ANY_MODULE.equals(data.elementAt(1))) {
+            key = tuple(TYPE_REF, module, data.elementAt(2));
+        } else if (INCLUDE_REF.equals(tag)) {
+            key = includeKey(data);
+        } else if (VAR_DEF.equals(tag) || VAR_REF.equals(tag)) {
+            key = tuple(data, function, arity, clause);
+        } else {
+            key = data;
+        }
+        entries.add(new Entry(key, ref));
+        index.put(key, ref);
+        if (FUNCTION_DEF.equals(tag)) {
+            final OtpErlangTuple modKey = tuple(FUNCTION_DEF_MOD, module,
+                    data.elementAt(1), data.elementAt(2));
+            index.put(modKey, ref);
+            index.put(anyArity(modKey), ref);
+        }
+        if (FUNCTION_DEF.equals(tag)
+                || EXTERNAL_CALL.equals(key.elementAt(0))) {
+            index.put(anyArity(key), ref);
+        }
+    }
+
+    /**
+     * The keys of the references to the same thing as a reference with the
+     * given key, whether they are uses or definitions.
+     */
+    private List<OtpErlangObject> occurrenceKeys(final OtpErlangTuple key) {
+        final List<OtpErlangObject> result = Lists.newArrayList();
+        final OtpErlangObject tag = key.elementAt(0);
+        if (EXTERNAL_CALL.equals(tag)) {
+            result.add(key);
+            result.add(tuple(FUNCTION_DEF_MOD, key.elementAt(1),
+                    key.elementAt(2), key.elementAt(3)));
+        } else if (FUNCTION_DEF.equals(tag)) {
+            result.add(tuple(EXTERNAL_CALL, module, key.elementAt(1),
+                    key.elementAt(2)));
+            result.add(key);
+        } else if (TYPE_REF.equals(tag)) {
+            result.add(key);
+            if (module.equals(key.elementAt(1))) {
+                result.add(tuple(TYPE_DEF, key.elementAt(2)));
+            }
+        } else if (TYPE_DEF.equals(tag)) {
+            result.add(tuple(TYPE_REF, module, key.elementAt(1)));
+            result.add(key);
+        } else if (tag instanceof OtpErlangTuple) {
+            // a variable, with its clause
+            final OtpErlangTuple var = (OtpErlangTuple) tag;
+            final OtpErlangObject other = VAR_DEF.equals(var.elementAt(0)) ? VAR_REF
+                    : VAR_DEF;
+            result.add(key);
+            result.add(tuple(tuple(other, var.elementAt(1)), key.elementAt(1),
+                    key.elementAt(2), key.elementAt(3)));
+        } else {
+            result.add(key);
+            final OtpErlangAtom other = partner(tag);
+            if (other != null) {
+                final OtpErlangObject[] elements = key.elements();
+                elements[0] = other;
+                result.add(new OtpErlangTuple(elements));
+            }
+        }
+        return result;
+    }
+
+    private static OtpErlangAtom partner(final OtpErlangObject tag) {
+        if (MACRO_REF.equals(tag)) {
+            return MACRO_DEF;
+        } else if (MACRO_DEF.equals(tag)) {
+            return MACRO_REF;
+        } else if (RECORD_REF.equals(tag)) {
+            return RECORD_DEF;
+        } else if (RECORD_DEF.equals(tag)) {
+            return RECORD_REF;
+        } else if (RECORD_FIELD_REF.equals(tag)) {
+            return RECORD_FIELD_DEF;
+        } else if (RECORD_FIELD_DEF.equals(tag)) {
+            return RECORD_FIELD_REF;
+        }
+        return null;
+    }
+
+    private static OtpErlangTuple anyArity(final OtpErlangTuple key) {
+        final OtpErlangObject[] elements = key.elements();
+        elements[elements.length - 1] = UNDEFINED;
+        return new OtpErlangTuple(elements);
+    }
+
+    /**
+     * File names can come as strings or lists, depending on their characters.
+     */
+    private static OtpErlangTuple includeKey(final OtpErlangTuple t) {
+        return tuple(INCLUDE_REF,
+                new OtpErlangString(Util.stringValue(t.elementAt(1))));
+    }
+
+    private static OtpErlangTuple tuple(final OtpErlangObject... elements) {
+        return new OtpErlangTuple(elements);
+    }
+
+    private static int intValue(final OtpErlangObject o)
+            throws OtpErlangRangeException {
+        return ((OtpErlangLong) o).intValue();
+    }
+
+    private static String stringValue(final OtpErlangObject o) {
+        if (o instanceof OtpErlangAtom) {
+            return ((OtpErlangAtom) o).atomValue();
+        }
+        return Util.stringValue(o);
+    }
+
+}
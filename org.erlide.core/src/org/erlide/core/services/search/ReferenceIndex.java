@@ -0,0 +1,777 @@
+package org.erlide.core.services.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.erlide.core.ErlangPlugin;
+import org.erlide.core.model.erlang.IErlModule;
+import org.erlide.jinterface.ErlLogger;
+import org.erlide.jinterface.rpc.IRpcCallSite;
+import org.erlide.jinterface.rpc.RpcException;
+import org.erlide.jinterface.util.LRUCache;
+
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A persistent inverted index of the references in the modules, so that mark
+ * occurrences and searches don't need a round trip to the backend.
+ * <p>
+ * The parser feeds it the references noparse collects when it parses a
+ * module (the <code>#ref{}</code> records, in external term format). For
+ * each key a reference can be searched with (see {@link ModuleReferences}),
+ * the index keeps the modules that have it, so that a search only decodes
+ * the modules that can match; keys are held as 64 bit fingerprints, a
+ * collision only makes a module a candidate. The references of a module,
+ * with their offsets, are saved in a file per module under the plugin state
+ * location, and the keys in an index file, written in the background after
+ * changes. The references of the most recently used modules are kept
+ * decoded; their number can be set with
+ * <code>-Derlide.search.index.modules</code>.
+ * <p>
+ * The references of a module are used as long as its file has the time stamp
+ * and length it had when they were indexed. Those of a parse of the file are
+ * saved; those of a parse of editor text are only kept in memory, like the
+ * structure of the module. Modules without valid references are left to the
+ * search server.
+ */
+public class ReferenceIndex {
+
+    private static final int MAGIC = 0x45524931; // "ERI1"
+    private static final int VERSION = 1;
+    private static final String INDEX_FILE = "refs.index";
+    private static final long SAVE_DELAY = 10000;
+    private static final long PRUNE_DELAY = 60000;
+    private static final int MAX_MODULES = Integer.getInteger(
+            "erlide.search.index.modules", 200);
+
+    private static ReferenceIndex fgInstance = null;
+
+    private final File dir;
+    /** The indexed modules, by id; removed modules leave their id free. */
+    private final List<Entry> modules = Lists.newArrayList();
+    private final List<Integer> freeIds = Lists.newArrayList();
+    private final Map<String, Entry> byPath = Maps.newHashMap();
+    /** For each key fingerprint, the sorted ids of the modules having it. */
+    private final Map<Long, int[]> postings = Maps.newHashMap();
+    private final Map<String, ModuleReferences> decoded = new LRUCache<String, ModuleReferences>(
+            MAX_MODULES);
+    /** The references of editor text, which can't be read back. */
+    private final Map<String, ModuleReferences> unsaved = Maps.newHashMap();
+    private boolean loaded = false;
+    private boolean dirty = false;
+
+    private static final class Entry {
+        final int id;
+        final String path;
+        final String moduleName;
+        /** The fingerprints of the searchable keys; sorted. */
+        final long[] keys;
+        final long stamp;
+        final long length;
+        final boolean saved;
+
+        Entry(final int id, final String path, final String moduleName,
+                final long[] keys, final long stamp, final long length,
+                final boolean saved) {
+            this.id = id;
+            this.path = path;
+            this.moduleName = moduleName;
+            this.keys = keys;
+            this.stamp = stamp;
+            this.length = length;
+            this.saved = saved;
+        }
+
+        boolean isCurrent() {
+            final File file = new File(path);
+            return file.lastModified() == stamp && file.length() == length;
+        }
+    }
+
+    private final Job saveJob = new Job("save reference index") {
+        @Override
+        protected IStatus run(final IProgressMonitor monitor) {
+            save();
+            return Status.OK_STATUS;
+        }
+    };
+
+    private final Job pruneJob = new Job("prune reference index") {
+        @Override
+        protected IStatus run(final IProgressMonitor monitor) {
+            final int n = prune();
+            if (n > 0) {
+                ErlLogger.debug("deleted %d stale reference files", n);
+            }
+            return Status.OK_STATUS;
+        }
+    };
+
+    public static synchronized ReferenceIndex getDefault() {
+        if (fgInstance == null) {
+            final ErlangPlugin plugin = ErlangPlugin.getDefault();
+            final File dir = plugin != null ? plugin.getStateLocation()
+                    .append("refs").toFile() : null;
+            fgInstance = new ReferenceIndex(dir);
+            fgInstance.pruneJob.schedule(PRUNE_DELAY);
+        }
+        return fgInstance;
+    }
+
+    /**
+     * @param dir
+     *            where the references are saved, or null to keep them only
+     *            in memory
+     */
+    public ReferenceIndex(final File dir) {
+        this.dir = dir;
+        saveJob.setSystem(true);
+        saveJob.setPriority(Job.DECORATE);
+        pruneJob.setSystem(true);
+        pruneJob.setPriority(Job.DECORATE);
+    }
+
+    /**
+     * Indexes the references of a module, as returned by noparse.
+     *
+     * @param save
+     *            whether they are from a parse of the module file, and can be
+     *            saved
+     */
+    public void put(final IErlModule module, final byte[] refs,
+            final boolean save) {
+        final String path = module.getFilePath();
+        if (path != null) {
+            put(path, module.getModuleName(), refs, save);
+        }
+    }
+
+    public void put(final String path, final String moduleName,
+            final byte[] refs, final boolean save) {
+        final ModuleReferences decodedRefs = decode(path, moduleName, refs);
+        if (decodedRefs == null) {
+            remove(path);
+            return;
+        }
+        final boolean saved = save && write(path, moduleName, refs);
+        add(path, moduleName, decodedRefs, saved, false);
+    }
+
+    /**
+     * Returns the references of a module if they are indexed and its file
+     * hasn't changed since, or null.
+     */
+    public ModuleReferences get(final IErlModule module) {
+        final String path = module.getFilePath();
+        return path != null ? get(path) : null;
+    }
+
+    public ModuleReferences get(final String path) {
+        final Entry entry;
+        synchronized (this) {
+            load();
+            entry = byPath.get(path);
+            if (entry == null) {
+                return null;
+            }
+        }
+        if (!entry.isCurrent()) {
+            remove(entry);
+            return null;
+        }
+        synchronized (this) {
+            final ModuleReferences refs = entry.saved ? decoded.get(path)
+                    : unsaved.get(path);
+            if (refs != null || !entry.saved) {
+                return refs;
+            }
+        }
+        final ModuleReferences refs = read(entry);
+        if (refs == null) {
+            remove(entry);
+            return null;
+        }
+        synchronized (this) {
+            if (byPath.get(path) == entry) {
+                decoded.put(path, refs);
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * Returns the references of a module, fetching them from the backend if
+     * they aren't indexed. Returns null if the backend has none, or if the
+     * module has no file.
+     */
+    public ModuleReferences get(final IRpcCallSite backend,
+            final IErlModule module, final String stateDir)
+            throws RpcException {
+        final String path = module.getFilePath();
+        if (path == null) {
+            return null;
+        }
+        final ModuleReferences indexed = get(path);
+        if (indexed != null) {
+            return indexed;
+        }
+        final long time = System.nanoTime();
+        final OtpErlangList list = ErlideSearchServer.getModuleRefs(backend,
+                module, stateDir);
+        if (list == null) {
+            return null;
+        }
+        final ModuleReferences refs;
+        try {
+            refs = new ModuleReferences(module.getModuleName(), path, list);
+        } catch (final IllegalArgumentException e) {
+            ErlLogger.warn("could not index references of %s: %s",
+                    module.getName(), e.getMessage());
+            return null;
+        }
+        ErlLogger.debug("got %d references of %s in %d ms", refs.size(),
+                module.getName(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+        // unless the module was parsed in the meantime
+        add(path, module.getModuleName(), refs, false, true);
+        return refs;
+    }
+
+    /**
+     * Finds the references matching a search pattern (see
+     * {@link ErlangSearchPattern#getSearchObject()}) in the modules with the
+     * given paths. Only the modules having one of the pattern's keys are
+     * looked at.
+     *
+     * @param notIndexed
+     *            gets the paths of the modules the index can't answer for,
+     *            which must be searched by the backend; all of them for
+     *            variable patterns
+     */
+    public List<ModuleLineFunctionArityRef> find(
+            final OtpErlangObject pattern, final Collection<String> paths,
+            final Collection<String> notIndexed) {
+        final List<ModuleLineFunctionArityRef> result = Lists.newArrayList();
+        final List<OtpErlangObject> keys = ModuleReferences
+                .getSearchKeys(pattern);
+        if (keys == null) {
+            notIndexed.addAll(paths);
+            return result;
+        }
+        final BitSet candidates = new BitSet();
+        final Map<String, Entry> entries = Maps.newHashMap();
+        synchronized (this) {
+            load();
+            for (final OtpErlangObject key : keys) {
+                final int[] ids = postings.get(fingerprint(key));
+                if (ids != null) {
+                    for (final int id : ids) {
+                        candidates.set(id);
+                    }
+                }
+            }
+            for (final String path : paths) {
+                entries.put(path, byPath.get(path));
+            }
+        }
+        for (final String path : paths) {
+            final Entry entry = entries.get(path);
+            if (entry == null || !entry.isCurrent()) {
+                notIndexed.add(path);
+            } else if (candidates.get(entry.id)) {
+                final ModuleReferences refs = get(path);
+                if (refs == null) {
+                    notIndexed.add(path);
+                } else {
+                    result.addAll(refs.lookup(keys));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the references of a module, which has been parsed without them.
+     */
+    public void remove(final IErlModule module) {
+        final String path = module.getFilePath();
+        if (path != null) {
+            remove(path);
+        }
+    }
+
+    /**
+     * Drops the references of a file, e.g. because it was deleted.
+     */
+    public void remove(final String path) {
+        synchronized (this) {
+            load();
+            final Entry entry = byPath.get(path);
+            if (entry == null) {
+                return;
+            }
+            unindex(entry);
+        }
+        delete(path);
+    }
+
+    /**
+     * Drops an entry found stale, unless it was replaced in the meantime.
+     */
+    private void remove(final Entry entry) {
+        synchronized (this) {
+            if (byPath.get(entry.path) != entry) {
+                return;
+            }
+            unindex(entry);
+        }
+        delete(entry.path);
+    }
+
+    /**
+     * @param ifAbsent
+     *            whether the references are only added if the path isn't
+     *            indexed
+     */
+    private void add(final String path, final String moduleName,
+            final ModuleReferences refs, final boolean saved,
+            final boolean ifAbsent) {
+        final long[] keys = fingerprints(refs.getSearchableKeys());
+        final File file = new File(path);
+        final long stamp = file.lastModified();
+        final long length = file.length();
+        final boolean wasSaved;
+        synchronized (this) {
+            load();
+            final Entry old = byPath.get(path);
+            if (ifAbsent && old != null) {
+                return;
+            }
+            wasSaved = old != null && old.saved;
+            final int id;
+            if (old != null) {
+                id = old.id;
+            } else if (!freeIds.isEmpty()) {
+                id = freeIds.remove(freeIds.size() - 1);
+            } else {
+                id = modules.size();
+                modules.add(null);
+            }
+            final Entry entry = new Entry(id, path, moduleName, keys, stamp,
+                    length, saved);
+            updatePostings(id, old != null ? old.keys : new long[0], keys);
+            modules.set(id, entry);
+            byPath.put(path, entry);
+            if (saved) {
+                decoded.put(path, refs);
+                unsaved.remove(path);
+            } else {
+                unsaved.put(path, refs);
+                decoded.remove(path);
+            }
+            if (saved || wasSaved) {
+                scheduleSave();
+            }
+        }
+        if (!saved && wasSaved) {
+            delete(path);
+        }
+    }
+
+    private void unindex(final Entry entry) {
+        updatePostings(entry.id, entry.keys, new long[0]);
+        modules.set(entry.id, null);
+        freeIds.add(entry.id);
+        byPath.remove(entry.path);
+        decoded.remove(entry.path);
+        unsaved.remove(entry.path);
+        if (entry.saved) {
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Moves a module from the postings of the keys it doesn't have anymore
+     * to those of its new keys; both key arrays are sorted.
+     */
+    private void updatePostings(final int id, final long[] oldKeys,
+            final long[] newKeys) {
+        int i = 0;
+        int j = 0;
+        while (i < oldKeys.length || j < newKeys.length) {
+            if (j == newKeys.length || i < oldKeys.length
+                    && oldKeys[i] < newKeys[j]) {
+                final Long key = oldKeys[i++];
+                final int[] ids = without(postings.get(key), id);
+                if (ids.length == 0) {
+                    postings.remove(key);
+                } else {
+                    postings.put(key, ids);
+                }
+            } else if (i == oldKeys.length || newKeys[j] < oldKeys[i]) {
+                final Long key = newKeys[j++];
+                postings.put(key, with(postings.get(key), id));
+            } else {
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private static int[] with(final int[] ids, final int id) {
+        if (ids == null) {
+            return new int[] { id };
+        }
+        final int at = Arrays.binarySearch(ids, id);
+        if (at >= 0) {
+            return ids;
+        }
+        final int[] result = new int[ids.length + 1];
+        final int pos = -at - 1;
+        System.arraycopy(ids, 0, result, 0, pos);
+        result[pos] = id;
+        System.arraycopy(ids, pos, result, pos + 1, ids.length - pos);
+        return result;
+    }
+
+    private static int[] without(final int[] ids, final int id) {
+        final int at = ids == null ? -1 : Arrays.binarySearch(ids, id);
+        if (at < 0) {
+            return ids == null ? new int[0] : ids;
+        }
+        final int[] result = new int[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        System.arraycopy(ids, at + 1, result, at, ids.length - at - 1);
+        return result;
+    }
+
+    private static long[] fingerprints(final Set<OtpErlangObject> keys) {
+        final long[] result = new long[keys.size()];
+        int i = 0;
+        for (final OtpErlangObject key : keys) {
+            result[i++] = fingerprint(key);
+        }
+        Arrays.sort(result);
+        // collisions leave duplicates
+        int n = 0;
+        for (i = 0; i < result.length; i++) {
+            if (n == 0 || result[i] != result[n - 1]) {
+                result[n++] = result[i];
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the printed key, which is the same from one
+     * session to the next.
+     */
+    static long fingerprint(final OtpErlangObject key) {
+        final String s = key.toString();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static ModuleReferences decode(final String path,
+            final String moduleName, final byte[] refs) {
+        try {
+            final OtpErlangObject list = new OtpInputStream(refs).read_any();
+            if (list instanceof OtpErlangList) {
+                return new ModuleReferences(moduleName, path,
+                        (OtpErlangList) list);
+            }
+            ErlLogger.warn("could not index references of %s: %s", path,
+                    list);
+        } catch (final OtpErlangDecodeException e) {
+            ErlLogger.warn("could not index references of %s: %s", path,
+                    e.getMessage());
+        } catch (final IllegalArgumentException e) {
+            ErlLogger.warn("could not index references of %s: %s", path,
+                    e.getMessage());
+        }
+        return null;
+    }
+
+    private synchronized void scheduleSave() {
+        if (dir != null) {
+            dirty = true;
+            saveJob.schedule(SAVE_DELAY);
+        }
+    }
+
+    /**
+     * Writes the keys of the saved modules to the index file.
+     */
+    public void save() {
+        final List<Entry> entries = Lists.newArrayList();
+        synchronized (this) {
+            if (!dirty || dir == null) {
+                return;
+            }
+            dirty = false;
+            for (final Entry entry : byPath.values()) {
+                if (entry.saved) {
+                    entries.add(entry);
+                }
+            }
+        }
+        final File file = new File(dir, INDEX_FILE);
+        final File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            dir.mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (final Entry entry : entries) {
+                out.writeUTF(entry.path);
+                out.writeUTF(entry.moduleName);
+                out.writeLong(entry.stamp);
+                out.writeLong(entry.length);
+                out.writeInt(entry.keys.length);
+                for (final long key : entry.keys) {
+                    out.writeLong(key);
+                }
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+            tmp.delete();
+            synchronized (this) {
+                dirty = true;
+            }
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Reads the index file, the first time the index is used. Modules whose
+     * files don't exist anymore are dropped.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        final File file = dir != null ? new File(dir, INDEX_FILE) : null;
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        final long time = System.nanoTime();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            final int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                final String path = in.readUTF();
+                final String moduleName = in.readUTF();
+                final long stamp = in.readLong();
+                final long length = in.readLong();
+                final long[] keys = new long[in.readInt()];
+                for (int k = 0; k < keys.length; k++) {
+                    keys[k] = in.readLong();
+                }
+                final Entry entry = new Entry(modules.size(), path,
+                        moduleName, keys, stamp, length, true);
+                if (entry.isCurrent()) {
+                    modules.add(entry);
+                    byPath.put(path, entry);
+                    updatePostings(entry.id, new long[0], keys);
+                } else {
+                    dirty = true;
+                }
+            }
+        } catch (final IOException e) {
+            ErlLogger.warn("could not read reference index %s: %s", file,
+                    e.getMessage());
+        } finally {
+            close(in);
+        }
+        ErlLogger.debug("loaded references of %d modules in %d ms",
+                byPath.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+    }
+
+    /**
+     * Deletes the reference files of modules that aren't indexed anymore.
+     *
+     * @return the number of files deleted
+     */
+    public int prune() {
+        final File[] files = dir != null ? dir.listFiles() : null;
+        if (files == null) {
+            return 0;
+        }
+        final Set<String> indexed;
+        synchronized (this) {
+            load();
+            indexed = Sets.newHashSet(byPath.keySet());
+        }
+        int n = 0;
+        for (final File file : files) {
+            if (!file.getName().endsWith(".refs")) {
+                continue;
+            }
+            final String path = readPath(file);
+            if (path == null || !indexed.contains(path)) {
+                if (file.delete()) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private boolean write(final String path, final String moduleName,
+            final byte[] refs) {
+        final File file = getFile(path);
+        if (file == null) {
+            return false;
+        }
+        final File source = new File(path);
+        final File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            dir.mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(path);
+            out.writeUTF(moduleName);
+            out.writeLong(source.lastModified());
+            out.writeLong(source.length());
+            // already compressed by noparse
+            out.writeInt(refs.length);
+            out.write(refs);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+            return true;
+        } catch (final IOException e) {
+            ErlLogger.warn(e);
+            tmp.delete();
+            return false;
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Reads the saved references of a module, or returns null if they aren't
+     * those of the indexed file.
+     */
+    private ModuleReferences read(final Entry entry) {
+        final File file = getFile(entry.path);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !entry.path.equals(in.readUTF())
+                    || !entry.moduleName.equals(in.readUTF())
+                    || in.readLong() != entry.stamp
+                    || in.readLong() != entry.length) {
+                return null;
+            }
+            final byte[] refs = new byte[in.readInt()];
+            in.readFully(refs);
+            return decode(entry.path, entry.moduleName, refs);
+        } catch (final IOException e) {
+            ErlLogger.debug("could not read references %s: %s", file,
+                    e.getMessage());
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private static String readPath(final File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            return in.readUTF();
+        } catch (final IOException e) {
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private void delete(final String path) {
+        final File file = getFile(path);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    private File getFile(final String path) {
+        if (dir == null) {
+            return null;
+        }
+        final String name = new File(path).getName();
+        return new File(dir, name + "_" + Integer.toHexString(path.hashCode())
+                + ".refs");
+    }
+
+    private static void close(final Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (final IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
@@ -10,6 +10,7 @@
          get_exported/2,
          get_modules/3,
          get_proposals/3,
+         get_signatures/2,
          get_all_doc_dirs/0]).
 
 -export([fix_proposals/3]).
@@ -21,6 +22,7 @@
 -include("erlide.hrl").
 
 -define(CACHE_VERSION, 2).
+-define(PARS_CACHE_VERSION, 1).
 
 %% recursively return tags for which Fun returns true
 %%
@@ -498,6 +500,85 @@ get_proposals(Mod0, Prefix, StateDir) ->
 	    Error
     end.
 
+%% Get all exported functions with their parameters, but without the
+%% documentation, which can be fetched for one function at a time with
+%% get_doc_from_fun_arity_list/3. The parameter names are those of the
+%% documentation, see get_cached_signatures/2.
+%% [{FunWithArity, FunWithParameters, [{Offset, Length}]}]
+
+get_signatures(Mod, StateDir) ->
+    {DocMod, Functions} = case Mod of
+			      '<auto_imported>' ->
+				  {erlang, erlide_util:get_auto_imported("")};
+			      _ ->
+				  {Mod, get_exported(Mod, "")}
+			  end,
+    case Functions of
+	L when is_list(L) ->
+	    Signatures = dict:from_list(get_cached_signatures(DocMod, StateDir)),
+	    [get_signature(FA, Signatures) || FA <- L];
+	Error ->
+	    Error
+    end.
+
+get_signature(FA, Signatures) ->
+    case dict:find(FA, Signatures) of
+	{ok, Signature} ->
+	    Signature;
+	error ->
+	    [{FunWithArity, FunWithParameters, Pars, _Doc}] =
+		fix_proposals([FA], [""], 0),
+	    {FunWithArity, FunWithParameters, Pars}
+    end.
+
+%% The signatures of the exported functions of a module, with the parameter
+%% names from its documentation:
+%% [{{F, A}, {FunWithArity, FunWithParameters, [{Offset, Length}]}}]
+%% The HTML documentation is read once for each version of it; the result
+%% is cached in StateDir. Modules without documentation have none.
+
+get_cached_signatures(Mod, StateDir) ->
+    try
+        Module = atom_to_list(Mod),
+        DocFileName = filename:join(get_doc_dir(Module), Module ++ ".html"),
+        case filelib:is_regular(DocFileName) of
+            true ->
+                CacheFileName = filename:join([StateDir, "erlide_doc",
+                                               Module ++ ".erlide_doc_pars"]),
+                filelib:ensure_dir(CacheFileName),
+                Renew = fun(_F) -> extract_signatures(Mod, StateDir) end,
+                {_Cached, Signatures} =
+                    erlide_util:check_and_renew_cached(
+                      DocFileName, CacheFileName, ?PARS_CACHE_VERSION,
+                      Renew, true),
+                Signatures;
+            false ->
+                []
+        end
+    catch
+        exit:E ->
+            ?D(E),
+            [];
+        error:E ->
+            ?D(E),
+            []
+    end.
+
+extract_signatures(Mod, StateDir) ->
+    case get_exported(Mod, "") of
+        L when is_list(L) ->
+            case get_doc_for_external(StateDir, Mod, L) of
+                Docs when is_list(Docs), length(Docs) =:= length(L) ->
+                    [{FA, {FunWithArity, FunWithParameters, Pars}}
+                     || {FA, {FunWithArity, FunWithParameters, Pars, _Doc}}
+                            <- lists:zip(L, fix_proposals(L, Docs, 0))];
+                _ ->
+                    []
+            end;
+        _ ->
+            []
+    end.
+
 fix_proposals(FunArityList, DocList, PrefixLength) ->
 %%     ?Debug({prefixLength, PrefixLength}),
     fix_proposals(FunArityList, DocList, PrefixLength, []).
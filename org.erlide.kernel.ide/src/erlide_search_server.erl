@@ -27,6 +27,9 @@
          stop/0,
          find_refs/3,
          start_find_refs/4,
+         start_find_refs/5,
+         start_find_refs/6,
+         get_module_refs/3,
          cancel_find_refs/1]).
 
 %% called from Erlang
@@ -50,6 +53,7 @@
 %%
 
 -define(SERVER, erlide_search_server).
+-define(DEFAULT_BATCH_SIZE, 10).
 
 -record(state, {modules=[], dummy}). %% FIXME still too simple data mode
 -record(module, {scanner_name, module_name, refs}).
@@ -84,14 +88,31 @@ find_refs(Pattern, Modules, StateDir)
     R = server_cmd(find_refs, {Pattern, Modules, StateDir}),
     R.
 
+%% returns the refs of one module, for the index kept on the Java side
+get_module_refs(ScannerName, ModulePath, StateDir) ->
+    server_cmd(get_module_refs, {ScannerName, ModulePath, StateDir}).
+
 %% 
-start_find_refs(JPid, Pattern, Modules, StateDir)
+start_find_refs(JPid, Pattern, Modules, StateDir) ->
+    start_find_refs(JPid, Pattern, Modules, StateDir, ?DEFAULT_BATCH_SIZE).
+
+%% the results are sent to JPid each time BatchSize modules are searched
+start_find_refs(JPid, Pattern, Modules, StateDir, BatchSize) ->
+    start_find_refs(JPid, Pattern, Modules, StateDir, BatchSize, 1).
+
+%% the modules are searched by Shards processes, or one per scheduler if
+%% Shards is 0
+start_find_refs(JPid, Pattern, Modules, StateDir, BatchSize, Shards)
   when is_tuple(Pattern), is_list(Modules), is_list(StateDir) ->
-    start_find_refs(JPid, [Pattern], Modules, StateDir); 
-start_find_refs(JPid, Pattern, Modules, StateDir)
-  when is_list(Pattern), is_list(Modules), is_list(StateDir) ->
+    start_find_refs(JPid, [Pattern], Modules, StateDir, BatchSize, Shards); 
+start_find_refs(JPid, Pattern, Modules, StateDir, BatchSize, Shards)
+  when is_list(Pattern), is_list(Modules), is_list(StateDir),
+       is_integer(BatchSize), BatchSize > 0,
+       is_integer(Shards), Shards >= 0 ->
     ?D({JPid, Pattern}),
-    R = server_cmd(start_find_refs, {Pattern, Modules, JPid, StateDir}),
+    R = server_cmd(start_find_refs,
+                   {Pattern, Modules, JPid, StateDir, BatchSize,
+                    shards(Shards)}),
     R.
 
 remove_module(ScannerName) ->
@@ -194,9 +215,15 @@ do_cmd(find_refs, {Ref, Modules, StateDir}, State) ->
     R = do_find_refs(Modules, Ref, StateDir, State, []),
     ?D(R),
     R;
-do_cmd(start_find_refs, {Pattern, Modules, JPid, StateDir}, State) ->
+do_cmd(get_module_refs, {ScannerName, ModulePath, StateDir},
+       #state{modules=Modules} = State) ->
+    Refs = get_module_refs(ScannerName, ModulePath, StateDir, Modules),
+    {{ok, Refs}, State};
+do_cmd(start_find_refs,
+       {Pattern, Modules, JPid, StateDir, BatchSize, Shards}, State) ->
     ?D(start_find_refs),
-    R = do_start_find_refs(Pattern, Modules, JPid, StateDir, State),
+    R = do_start_find_refs(Pattern, Modules, JPid, StateDir, BatchSize,
+                           Shards, State),
     R;
 do_cmd(cancel_find_refs, Pid, State) ->
     Pid ! cancel,
@@ -210,30 +237,63 @@ do_cmd(modules, _, #state{modules=Modules} = State) ->
     Names = [M || #module{scanner_name=M} <- Modules],
     {Names, State}.
 
-do_start_find_refs(Pattern, Modules, JPid, StateDir, State) ->
+shards(0) ->
+    erlang:system_info(schedulers_online);
+shards(N) ->
+    N.
+
+do_start_find_refs(Pattern, Modules, JPid, StateDir, BatchSize, Shards,
+                   State) ->
     ?D({do_start_find_refs, Pattern, JPid}),
     Pid = spawn_link(fun() ->
-                             ModuleChunks = chunkify(Modules, 10),
+                             ModuleChunks = chunkify(Modules, BatchSize),
                              ?D({JPid, length(ModuleChunks)}),
                              JPid ! {start, length(ModuleChunks)},
                              ?D({JPid, length(ModuleChunks)}),
-                             R = do_background_find_refs(ModuleChunks, Pattern, JPid, StateDir, State),
+                             R = do_background_find_refs(ModuleChunks, Pattern, JPid, StateDir, Shards, State),
                              ?D({stop, R}),
                              JPid ! {stop, R}
                      end),
     {Pid, State}.
 
-do_background_find_refs([], _Pattern, _JPid, _StateDir, _State) ->
+%% The chunks are handed out one at a time to the workers that ask for
+%% them, so that a shard with big modules doesn't hold up the others. The
+%% workers send their results to JPid themselves, tagged with the pid of
+%% this process, which is the one that is cancelled.
+do_background_find_refs(Chunks, Pattern, JPid, StateDir, Shards, State) ->
+    Self = self(),
+    N = erlang:min(Shards, length(Chunks)),
+    Workers = [spawn_link(fun() ->
+                                  find_refs_worker(Self, Pattern, JPid,
+                                                   StateDir, State)
+                          end) || _ <- lists:seq(1, N)],
+    hand_out_chunks(Chunks, Workers).
+
+hand_out_chunks(_Chunks, []) ->
     ok;
-do_background_find_refs([Chunk | Rest], Pattern, JPid, StateDir, State) ->
-    {R, _State} = do_find_refs(Chunk, Pattern, StateDir, State, []),
-    ?D({1, R}),
-    JPid ! {progress, {self(), 1, R}},
+hand_out_chunks(Chunks, Workers) ->
+    receive
+        cancel ->
+            hand_out_chunks([], Workers);
+        {next_chunk, Worker} when Chunks =:= [] ->
+            Worker ! done,
+            hand_out_chunks([], lists:delete(Worker, Workers));
+        {next_chunk, Worker} ->
+            [Chunk | Rest] = Chunks,
+            Worker ! {chunk, Chunk},
+            hand_out_chunks(Rest, Workers)
+    end.
+
+find_refs_worker(Coordinator, Pattern, JPid, StateDir, State) ->
+    Coordinator ! {next_chunk, self()},
     receive
-        cancel -> 
+        {chunk, Chunk} ->
+            {R, _State} = do_find_refs(Chunk, Pattern, StateDir, State, []),
+            ?D({1, R}),
+            JPid ! {progress, {Coordinator, 1, R}},
+            find_refs_worker(Coordinator, Pattern, JPid, StateDir, State);
+        done ->
             ok
-    after 0 ->
-            do_background_find_refs(Rest, Pattern, JPid, StateDir, State)
     end.
 
 chunkify(List, N) ->
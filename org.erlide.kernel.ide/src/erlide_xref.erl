@@ -12,7 +12,9 @@
          modules/0,
 	 module_call/1,
 	 module_use/1,
-	 update/0]).
+	 update/0,
+	 update_modules/1,
+	 call_edges/0]).
 
 %-define(DEBUG, 1).
 
@@ -71,6 +73,70 @@ update() ->
     start(),
     xref:update(?XREF, []).
 
+%% Brings the modules of the given beam files up to date, without
+%% rereading everything like update/0 does. Beams are only added if xref
+%% already knows modules in their directory, and the modules whose beam
+%% is gone from those directories are removed. Returns the call edges of
+%% the changed and removed modules, so that the caller can drop what it
+%% has cached about them. Does nothing if the server isn't running.
+update_modules(BeamFiles) ->
+    case whereis(?XREF) of
+        undefined ->
+            {ok, []};
+        _ ->
+            Known = [{M, filename:absname(D)}
+                     || {M, Info} <- xref:info(?XREF, modules),
+                        D <- [proplists:get_value(directory, Info)],
+                        is_list(D)],
+            Dirs = lists:usort([D || {_, D} <- Known]),
+            Beams = [B || B <- BeamFiles,
+                          lists:member(beam_dir(B), Dirs)],
+            Changed = [M || B <- Beams, M <- update_module(B, Known)],
+            Touched = lists:usort([beam_dir(B) || B <- Beams]),
+            Removed = [M || {M, D} <- Known,
+                            lists:member(D, Touched),
+                            not filelib:is_regular(
+                                  filename:join(D, atom_to_list(M)
+                                                ++ ".beam"))],
+            xref:remove_module(?XREF, Removed),
+            ?D({Changed, Removed}),
+            {ok, [{M, module_edges(M)} || M <- Changed]
+                 ++ [{M, []} || M <- Removed]}
+    end.
+
+beam_dir(Beam) ->
+    filename:dirname(filename:absname(Beam)).
+
+update_module(Beam, Known) ->
+    Module = list_to_atom(filename:basename(Beam, ".beam")),
+    R = case lists:keymember(Module, 1, Known) of
+            true ->
+                xref:replace_module(?XREF, Module, Beam);
+            false ->
+                xref:add_module(?XREF, Beam)
+        end,
+    case R of
+        {ok, M} ->
+            [M];
+        _Error ->
+            ?D(_Error),
+            []
+    end.
+
+module_edges(Module) ->
+    Query = lists:flatten(io_lib:format("E | ~p : Mod", [Module])),
+    case xref:q(?XREF, Query) of
+        {ok, Edges} ->
+            Edges;
+        _ ->
+            []
+    end.
+
+%% All the calls between functions, as {Caller, Callee}.
+call_edges() ->
+    start(),
+    xref:q(?XREF, "E").
+
 modules() ->
     start(),
     xref:q(?XREF, "M").
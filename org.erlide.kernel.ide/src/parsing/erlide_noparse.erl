@@ -9,7 +9,8 @@
 %%
 
 %% called from Java
--export([initial_parse/5, reparse/1, remove_cache_files/2]).
+-export([initial_parse/5, initial_parse/6, initial_parse/7, reparse/1,
+         reparse/2, reparse/3, remove_cache_files/2]).
 
 %% called from Erlang
 -export([read_module_refs/3]).
@@ -41,6 +42,18 @@
 %% API Functions
 %%
 
+%% Format is term or {binary, Version}; see erlide_np_binary. The model is
+%% returned as a term if the version isn't supported.
+initial_parse(ScannerName, ModuleFileName, StateDir, UseCache,
+              UpdateSearchServer, Format) ->
+    case initial_parse(ScannerName, ModuleFileName, StateDir, UseCache,
+                       UpdateSearchServer) of
+        {ok, Res, Cached} ->
+            {ok, encode(Res, Format), Cached};
+        Error ->
+            Error
+    end.
+
 initial_parse(ScannerName, ModuleFileName, StateDir, UseCache,
               UpdateSearchServer) ->
     try
@@ -63,6 +76,32 @@ initial_parse(ScannerName, ModuleFileName, StateDir, UseCache,
             {error, Reason}
     end.
 
+%% Like initial_parse/6, but also returns the refs of the module, as written
+%% to the refs file: {ok, Model, Cached, RefsBinary}. The refs are undefined
+%% if they couldn't be read.
+initial_parse(ScannerName, ModuleFileName, StateDir, UseCache,
+              UpdateSearchServer, Format, with_refs) ->
+    case initial_parse(ScannerName, ModuleFileName, StateDir, UseCache,
+                       UpdateSearchServer, Format) of
+        {ok, Res, Cached} ->
+            BaseName = filename:join(StateDir, atom_to_list(ScannerName)),
+            Refs = case file:read_file(BaseName ++ ".refs") of
+                       {ok, Binary} -> Binary;
+                       _ -> undefined
+                   end,
+            {ok, Res, Cached, Refs};
+        Error ->
+            Error
+    end.
+
+reparse(ScannerName, Format) ->
+    case reparse(ScannerName) of
+        {ok, Res, unused} ->
+            {ok, encode(Res, Format), unused};
+        Error ->
+            Error
+    end.
+
 reparse(ScannerName) ->
     try
         Res = do_parse(ScannerName, "", "", true),
@@ -73,6 +112,18 @@ reparse(ScannerName) ->
             {error, Reason}
     end.
 
+%% Like reparse/2, but also returns the refs of the module, encoded like in
+%% the refs file: {ok, Model, unused, RefsBinary}.
+reparse(ScannerName, Format, with_refs) ->
+    try
+        Toks = erlide_scanner_server:getTokens(ScannerName),
+        {Res, Refs} = do_parse2(ScannerName, "", Toks, "", true),
+        {ok, encode(Res, Format), unused, term_to_binary(Refs, [compressed])}
+    catch
+        error:Reason ->
+            {error, Reason}
+    end.
+
 read_module_refs(ScannerName, ModulePath, StateDir) ->
     ?D(ScannerName),
     BaseName = filename:join(StateDir, atom_to_list(ScannerName)),
@@ -110,9 +161,28 @@ remove_cache_files(ScannerName, StateDir) ->
 %% Internal functions
 %%
 
+encode(Model, {binary, Version}) ->
+    case erlide_np_binary:is_supported(Version) of
+        true ->
+            try
+                erlide_np_binary:encode(Model, Version)
+            catch
+                error:_ ->
+                    Model
+            end;
+        false ->
+            Model
+    end;
+encode(Model, _) ->
+    Model.
+
 do_parse(ScannerName, RefsFileName, StateDir, UpdateSearchServer) ->
     Toks = erlide_scanner_server:getTokens(ScannerName),
-    do_parse2(ScannerName, RefsFileName, Toks, StateDir, UpdateSearchServer).
+    {Model, _Refs} = do_parse2(ScannerName, RefsFileName, Toks, StateDir,
+                               UpdateSearchServer),
+    Model.
+
+%% returns the model and the refs
 
 do_parse2(ScannerName, RefsFileName, Toks, StateDir, UpdateSearchServer) ->
     ?D({do_parse, ScannerName, length(Toks)}),
@@ -142,7 +212,7 @@ do_parse2(ScannerName, RefsFileName, Toks, StateDir, UpdateSearchServer) ->
     end,
     update_search_server(UpdateSearchServer, ScannerName, Refs),
 %%     ?D(FixedModel),
-    FixedModel.
+    {FixedModel, Refs}.
 
 update_search_server(true, ScannerName, Refs) ->
     erlide_search_server:add_module_refs(ScannerName, Refs);
@@ -0,0 +1,170 @@
+%% Description: Compact binary encoding of the noparse model, decoded by
+%% the Java side (ModuleStructureDecoder) without building Erlang terms.
+%%
+%% Format, version 1 (uint is an unsigned LEB128 varint, sint a zigzag
+%% encoded one, str is uint(Size+1) followed by UTF-8 bytes, 0 for none):
+%%
+%%   <<"ENP", Version>>, uint FormCount, Form*, uint CommentCount, Comment*
+%%   Form     = uint Line, uint Offset, uint BodySize, Body
+%%   Body     = 1, sint DLastLine, uint Length, str Name, uint Arity,
+%%              uint ArgCount, str Arg*, str Head, sint DNameOffset,
+%%              uint NameLength, str Comment, Exported:8,
+%%              uint ClauseCount, Clause*
+%%            | 2, sint DLastLine, uint Length, str Name, str Extra, Value
+%%   Clause   = sint DLine, sint DLastLine, sint DOffset, uint Length,
+%%              uint ArgCount, str Arg*, str Head, sint DNameOffset,
+%%              uint NameLength
+%%   Value    = 0 | 1, uint Size, ExternalTerm | 2, Funs | 3, str Module, Funs
+%%            | 4, uint FieldCount, Field*
+%%   Funs     = uint Count, (str Name, uint Arity)*
+%%   Field    = str Name, sint DLine, sint DLastLine, sint DOffset,
+%%              uint Length, str Extra
+%%   Comment  = uint Line, uint Offset, uint Length, str Text
+%%
+%% Lines and offsets in a body are relative to the form's, so that the body
+%% of a form that was only moved doesn't change.
+
+-module(erlide_np_binary).
+
+%%
+%% Include files
+%%
+
+-include("erlide_noparse.hrl").
+-include("erlide_scanner.hrl").
+
+%%
+%% Exported Functions
+%%
+
+-export([encode/2, is_supported/1]).
+
+-define(VERSION, 1).
+
+%%
+%% API Functions
+%%
+
+is_supported(Version) ->
+    Version =:= ?VERSION.
+
+encode(#model{forms=Forms, comments=Comments}, ?VERSION) ->
+    EncodedForms = [F || F <- [form(Form) || Form <- Forms], F =/= skip],
+    iolist_to_binary([<<"ENP", ?VERSION>>,
+                      uint(length(EncodedForms)), EncodedForms,
+                      uint(length(Comments)),
+                      [comment(C) || C <- Comments]]).
+
+%%
+%% Local Functions
+%%
+
+form(#function{pos={{Line, LastLine, Offset}, Length}, name=Name,
+               arity=Arity, args=Args, head=Head, clauses=Clauses,
+               name_pos={{_, NameOffset}, NameLength}, comment=Comment,
+               exported=Exported}) when is_atom(Name) ->
+    Body = [1, sint(LastLine - Line), uint(Length), name(Name), uint(Arity),
+            strs(Args), str(Head), sint(NameOffset - Offset),
+            uint(NameLength), str(Comment), exported(Exported),
+            uint(length(Clauses)), [clause(C, Line, Offset) || C <- Clauses]],
+    form(Line, Offset, Body);
+form(#attribute{pos={{Line, LastLine, Offset}, Length}, name=Name,
+                args=Args, extra=Extra}) when is_atom(Name) ->
+    Body = [2, sint(LastLine - Line), uint(Length), name(Name), str(Extra),
+            value(Name, Args, Line, Offset)],
+    form(Line, Offset, Body);
+form(_) ->
+    skip.
+
+form(Line, Offset, Body) ->
+    B = iolist_to_binary(Body),
+    [uint(Line), uint(Offset), uint(byte_size(B)), B].
+
+clause(#clause{pos={{Line, LastLine, Offset}, Length}, args=Args, head=Head,
+               name_pos={{_, NameOffset}, NameLength}}, FormLine, FormOffset) ->
+    [sint(Line - FormLine), sint(LastLine - FormLine),
+     sint(Offset - FormOffset), uint(Length), strs(Args), str(Head),
+     sint(NameOffset - Offset), uint(NameLength)].
+
+%% the value of type specs isn't used
+value(Name, _Args, _, _) when Name=:=spec; Name=:=type; Name=:=opaque ->
+    0;
+value(_Name, u, _, _) ->
+    0;
+value(export, Args, _, _) ->
+    case is_funs(Args) of
+        true -> [2, funs(Args)];
+        false -> term(Args)
+    end;
+value(import, {Module, Funs} = Args, _, _) when is_atom(Module) ->
+    case is_funs(Funs) of
+        true -> [3, name(Module), funs(Funs)];
+        false -> term(Args)
+    end;
+value(record, {RecordName, Fields} = Args, Line, Offset)
+  when is_atom(RecordName), is_list(Fields) ->
+    case lists:all(fun is_field/1, Fields) of
+        true -> [4, uint(length(Fields)),
+                 [field(F, Line, Offset) || F <- Fields]];
+        false -> term(Args)
+    end;
+value(_Name, Args, _, _) ->
+    term(Args).
+
+term(Term) ->
+    B = term_to_binary(Term),
+    [1, uint(byte_size(B)), B].
+
+is_funs(L) when is_list(L) ->
+    lists:all(fun({F, A}) when is_atom(F), is_integer(A), A >= 0 -> true;
+                 (_) -> false
+              end, L);
+is_funs(_) ->
+    false.
+
+funs(Funs) ->
+    [uint(length(Funs)), [[name(F), uint(A)] || {F, A} <- Funs]].
+
+is_field({Name, {{_, _, _}, _}, _}) when is_atom(Name) ->
+    true;
+is_field(_) ->
+    false.
+
+field({Name, {{Line, LastLine, Offset}, Length}, Extra}, FormLine,
+      FormOffset) ->
+    [name(Name), sint(Line - FormLine), sint(LastLine - FormLine),
+     sint(Offset - FormOffset), uint(Length), str(Extra)].
+
+comment(#token{line=Line, offset=Offset, length=Length, value=Value}) ->
+    [uint(Line), uint(Offset), uint(Length), str(Value)].
+
+exported(true) -> 1;
+exported(_) -> 0.
+
+name(Atom) ->
+    str(atom_to_binary(Atom, utf8)).
+
+strs(L) when is_list(L) ->
+    [uint(length(L)), [str(S) || S <- L]];
+strs(_) ->
+    uint(0).
+
+str(B) when is_binary(B) ->
+    [uint(byte_size(B) + 1), B];
+str(L) when is_list(L) ->
+    case catch unicode:characters_to_binary(L) of
+        B when is_binary(B) -> str(B);
+        _ -> uint(0)
+    end;
+str(_) ->
+    uint(0).
+
+sint(N) when N >= 0 ->
+    uint(N bsl 1);
+sint(N) ->
+    uint(((-N) bsl 1) - 1).
+
+uint(N) when N < 128 ->
+    N;
+uint(N) ->
+    [128 bor (N band 127), uint(N bsr 7)].
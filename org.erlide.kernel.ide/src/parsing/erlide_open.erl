@@ -14,9 +14,11 @@
          get_external_modules/2,
          get_external_module/2,
          get_external_module_tree/1,
+         get_external_children/3,
          get_external_include/2,
 		 get_external_1/3,
          get_lib_dirs/0,
+         get_lib_dirs_with_includes/0,
          get_lib_src_include/1,
          get_lib_files/1
         ]).
@@ -92,6 +94,13 @@ get_lib_dirs() ->
     Libs = lists:filter(fun(N) -> lists:prefix(LibDir, N) end, CodeLibs),
     {ok, Libs}.
 
+%% The library directories, each with whether it has an include directory,
+%% so that the libraries don't have to be opened to know it.
+get_lib_dirs_with_includes() ->
+    {ok, Libs} = get_lib_dirs(),
+    {ok, [{Lib, filelib:is_dir(filename:join(get_lib_dir(Lib), "include"))}
+          || Lib <- Libs]}.
+
 get_lib_src_include(Dir) ->
     Dirs = ["src", "include"],
     R = get_dirs(Dirs, get_lib_dir(Dir), []),
@@ -186,6 +195,44 @@ get_external_modules(Prefix, #open_context{externalModules=ExternalModulesFiles,
 get_external_module_tree(#open_context{externalModules=ExternalModulesFiles, pathVars=PathVars}) ->
     {ok, get_external_module_tree(ExternalModulesFiles, PathVars)}.
 
+%% One level of the external modules tree, so that it can be loaded as
+%% it is expanded. The children of "root" are the (packed) external
+%% files; the children of an external file are the modules and other
+%% .erlidex files it lists.
+get_external_children("root", PackedFileNames, PathVars) ->
+    FileNames = replace_path_vars(erlide_util:unpack(PackedFileNames), PathVars),
+    {ok, [{"root", FN, entry} || FN <- unique(FileNames), filelib:is_regular(FN)]};
+get_external_children(Parent, _PackedFileNames, PathVars) ->
+    FN = replace_path_var(Parent, PathVars),
+    case file:read_file(FN) of
+        {ok, B} ->
+            Lines = replace_path_vars(erlide_util:split_lines(B), PathVars),
+            {ok, [{FN, L, external_kind(L)} || L <- unique(Lines)]};
+        _ ->
+            {ok, []}
+    end.
+
+external_kind(FileName) ->
+    case filename:extension(FileName) of
+        ".erlidex" ->
+            entry;
+        _ ->
+            module
+    end.
+
+unique(L) ->
+    unique(L, [], []).
+
+unique([], _Seen, Acc) ->
+    lists:reverse(Acc);
+unique([X | Rest], Seen, Acc) ->
+    case lists:member(X, Seen) of
+        true ->
+            unique(Rest, Seen, Acc);
+        false ->
+            unique(Rest, [X | Seen], [X | Acc])
+    end.
+
 get_external_module(Name, #open_context{externalModules=ExternalModulesFiles, pathVars=PathVars}) ->
     ExternalModules = get_external_modules_files(ExternalModulesFiles, PathVars),
     case [XM || XM <- ExternalModules, has_name(Name, XM)] of
@@ -18,7 +18,7 @@
 %%
 
 -export([create/1, destroy/1, initialScan/5, getTokenAt/2, getTokenWindow/4, 
-         getTokens/1, replaceText/4, check_all/2]).
+         getTokens/1, replaceText/4, replaceTexts/2, check_all/2]).
 
 %% stop/0
 
@@ -88,6 +88,10 @@ replaceText(ScannerName, Offset, RemoveLength, NewText)
   when is_atom(ScannerName), is_integer(Offset), is_integer(RemoveLength), is_list(NewText) ->
     server_cmd(ScannerName, replace_text, {Offset, RemoveLength, NewText}).
 
+%% Edits = [{Offset, RemoveLength, NewText}], applied in order
+replaceTexts(ScannerName, Edits) when is_atom(ScannerName), is_list(Edits) ->
+    server_cmd(ScannerName, replace_texts, Edits).
+
 check_all(ScannerName, Text) when is_atom(ScannerName), is_list(Text) ->
     MatchTest = match_test(ScannerName, Text),
     ScanTest = scan_test(ScannerName),
@@ -217,6 +221,12 @@ do_cmd(get_token_at, Offset, Module) ->
 do_cmd(replace_text, {Offset, RemoveLength, NewText}, Module) ->
     ?D({replace_text, Offset, RemoveLength, length(NewText)}),
     erlide_scanner:replace_text(Module, Offset, RemoveLength, NewText);
+do_cmd(replace_texts, Edits, Module) ->
+    ?D({replace_texts, length(Edits)}),
+    lists:foldl(fun({Offset, RemoveLength, NewText}, M) ->
+                        erlide_scanner:replace_text(M, Offset, RemoveLength,
+                                                    NewText)
+                end, Module, Edits);
 do_cmd(get_text, [], Module) ->
     {erlide_scanner:lines_to_text(Module#module.lines), Module};
 do_cmd(get_text_line, Line, Module) ->
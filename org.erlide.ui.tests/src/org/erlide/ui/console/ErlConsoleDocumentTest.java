@@ -0,0 +1,223 @@
+package org.erlide.ui.console;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.util.List;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IRegion;
+import org.erlide.core.backend.console.BackendShellListener;
+import org.erlide.core.backend.console.IBackendShell;
+import org.erlide.core.backend.console.IoRequest;
+import org.erlide.core.backend.console.IoRequest.IoRequestKind;
+import org.erlide.core.backend.console.IoRequestBuffer;
+import org.erlide.core.backend.console.IoRequestBuffer.TextUpdate;
+import org.erlide.core.backend.console.IoRequestSpill;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangPid;
+
+/**
+ * The partitions of the console document must follow the requests after the
+ * shell discards output and after older output is paged back in. Stdout
+ * lines start with 'o', stderr lines with 'e'.
+ */
+public class ErlConsoleDocumentTest {
+
+    private File dir;
+    private IoRequestBuffer buffer;
+    private IoRequestSpill spill;
+    private int added;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "doctest"
+                + System.nanoTime());
+        buffer = new IoRequestBuffer(100);
+        spill = new IoRequestSpill(dir, "console");
+        buffer.setSpill(spill);
+    }
+
+    @After
+    public void tearDown() {
+        spill.dispose();
+        dir.delete();
+    }
+
+    @Test
+    public void partitionsShouldFollowTrimAndPageIn() throws Exception {
+        addLines(10);
+        final ErlConsoleDocument doc = new ErlConsoleDocument(new TestShell());
+        doc.update();
+        assertThat(doc.get(), is(buffer.getText()));
+        assertPartitions(doc);
+
+        // the shell discards all that was shown, then part of it
+        addLines(30);
+        doc.update();
+        assertThat(doc.get(), is(buffer.getText()));
+        assertPartitions(doc);
+        addLines(5);
+        doc.update();
+        assertThat(doc.get(), is(buffer.getText()));
+        assertPartitions(doc);
+
+        // older output is paged in, then more is discarded and kept
+        assertThat(doc.loadOlderOutput(20), greaterThan(0));
+        assertThat(doc.get(), endsWith(buffer.getText()));
+        assertPartitions(doc);
+        addLines(10);
+        doc.update();
+        assertThat(doc.get(), endsWith(buffer.getText()));
+        assertPartitions(doc);
+
+        // searching pages in up to the match
+        final int at = doc.findOlderOutput("e1\n");
+        assertThat(doc.get(at, 3), is("e1\n"));
+        assertThat(doc.get(), endsWith(buffer.getText()));
+        assertPartitions(doc);
+    }
+
+    private void addLines(final int n) {
+        for (int i = 0; i < n; i++, added++) {
+            if (added % 2 == 0) {
+                buffer.add(new IoRequest("o" + added + "\n",
+                        IoRequestKind.STDOUT));
+            } else {
+                buffer.add(new IoRequest("e" + added + "\n",
+                        IoRequestKind.STDERR));
+            }
+        }
+    }
+
+    private static void assertPartitions(final ErlConsoleDocument doc)
+            throws BadLocationException {
+        for (int line = 0; line < doc.getNumberOfLines(); line++) {
+            final IRegion r = doc.getLineInformation(line);
+            if (r.getLength() == 0) {
+                continue;
+            }
+            final IoRequestKind expected = doc
+                    .getChar(r.getOffset()) == 'o' ? IoRequestKind.STDOUT
+                    : IoRequestKind.STDERR;
+            final String text = doc.get(r.getOffset(), r.getLength());
+            for (int i = 0; i < r.getLength(); i++) {
+                assertThat(text, doc.getContentType(r.getOffset() + i),
+                        is(expected.name()));
+            }
+        }
+    }
+
+    private class TestShell implements IBackendShell {
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void send(final String string) {
+        }
+
+        @Override
+        public String getId() {
+            return "test";
+        }
+
+        @Override
+        public void input(final String s) {
+        }
+
+        @Override
+        public void add(final OtpErlangObject msg) {
+        }
+
+        @Override
+        public void add(final String text, final IoRequestKind kind) {
+        }
+
+        @Override
+        public IoRequest findAtPos(final int thePos) {
+            return buffer.findAtPos(thePos);
+        }
+
+        @Override
+        public List<IoRequest> getAllFrom(final OtpErlangPid sender) {
+            return buffer.getAllFrom(sender);
+        }
+
+        @Override
+        public void add(final List<OtpErlangObject> msgs) {
+        }
+
+        @Override
+        public void dispose() {
+        }
+
+        @Override
+        public void addListener(final BackendShellListener listener) {
+        }
+
+        @Override
+        public void removeListener(final BackendShellListener listener) {
+        }
+
+        @Override
+        public int getTextLength() {
+            return buffer.getTextLength();
+        }
+
+        @Override
+        public String getText() {
+            return buffer.getText();
+        }
+
+        @Override
+        public String getText(final int offset, final int length) {
+            return buffer.getText(offset, length);
+        }
+
+        @Override
+        public TextUpdate getTextSince(final long offset) {
+            return buffer.getTextSince(offset);
+        }
+
+        @Override
+        public void setRetention(final long chars) {
+            buffer.setRetention(chars);
+        }
+
+        @Override
+        public long getHistoryStart() {
+            return spill.getStart();
+        }
+
+        @Override
+        public List<IoRequest> getHistory(final long from, final long to) {
+            return spill.readRange(from, to);
+        }
+
+        @Override
+        public long findInHistory(final String text, final long from,
+                final long to) {
+            return spill.lastIndexOf(text, from, to);
+        }
+
+        @Override
+        public double getLinesPerSecond() {
+            return 0;
+        }
+
+        @Override
+        public long getDroppedFrames() {
+            return 0;
+        }
+    }
+
+}
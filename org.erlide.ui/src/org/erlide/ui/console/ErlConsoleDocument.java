@@ -10,6 +10,9 @@
  *******************************************************************************/
 package org.erlide.ui.console;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.Document;
@@ -19,14 +22,34 @@ import org.eclipse.jface.text.rules.IPartitionTokenScanner;
 import org.eclipse.swt.widgets.Display;
 import org.erlide.core.backend.console.BackendShellListener;
 import org.erlide.core.backend.console.IBackendShell;
+import org.erlide.core.backend.console.IoRequest;
 import org.erlide.core.backend.console.IoRequest.IoRequestKind;
+import org.erlide.core.backend.console.IoRequestBuffer.TextUpdate;
+
+import com.google.common.collect.Lists;
 
 public final class ErlConsoleDocument extends Document implements
         BackendShellListener {
 
     private static String[] LEGAL_CONTENT_TYPES = null;
+    /**
+     * How many characters of older output the document keeps in front of
+     * the text retained by the shell.
+     */
+    private static final long MAX_HISTORY = Long.getLong(
+            "erlide.console.history", 4 * 1024 * 1024);
 
     private final IBackendShell shell;
+    private long shownBase;
+    private long shownEnd;
+    /**
+     * Older output paged back in from the shell's history, in front of the
+     * retained text; it covers the absolute offsets from historyStart to
+     * shownBase.
+     */
+    private final List<IoRequest> history = Lists.newArrayList();
+    private long historyStart;
+    private final AtomicBoolean updatePending = new AtomicBoolean();
 
     public ErlConsoleDocument(final IBackendShell shell) {
         super();
@@ -52,7 +75,7 @@ public final class ErlConsoleDocument extends Document implements
     }
 
     private IPartitionTokenScanner createScanner() {
-        return new IoRequestScanner(shell);
+        return new IoRequestScanner(this);
     }
 
     @Override
@@ -60,20 +83,218 @@ public final class ErlConsoleDocument extends Document implements
         if (aShell != shell) {
             return;
         }
-        final String text = shell.getText();
+        // at most one update waiting in the UI queue; it will pick up
+        // everything that arrived before it runs
+        if (!updatePending.compareAndSet(false, true)) {
+            return;
+        }
         Display.getDefault().asyncExec(new Runnable() {
 
             @Override
             public void run() {
-                try {
-                    replace(0, getLength(), text);
-                } catch (final BadLocationException e) {
-                    e.printStackTrace();
-                }
+                updatePending.set(false);
+                update();
             }
         });
     }
 
+    /**
+     * Appends what the shell received since the last update and drops what
+     * it discarded, instead of replacing the whole document. Once older
+     * output was paged in, discarded text is kept as part of it.
+     * <p>
+     * The partitioner rescans inside {@link #replace(int, int, String)} and
+     * maps document offsets to requests through {@link #findAtPos(int)}, so
+     * the offsets are always updated before the text is changed.
+     */
+    void update() {
+        final TextUpdate u = shell.getTextSince(shownEnd);
+        try {
+            if (u.getFrom() != shownEnd) {
+                // what is shown was discarded meanwhile: start over
+                history.clear();
+                historyStart = u.getBase();
+                shownBase = u.getBase();
+                shownEnd = u.getEnd();
+                replace(0, getLength(), u.getText());
+                return;
+            }
+            if (u.getBase() > shownBase) {
+                discardUpTo(u.getBase());
+            }
+            if (u.getText().length() > 0) {
+                shownEnd = u.getEnd();
+                replace(getLength(), 0, u.getText());
+            }
+        } catch (final BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The shell no longer retains the text before the given offset. If older
+     * output is shown, that text becomes part of it; otherwise it is removed
+     * from the document.
+     */
+    private void discardUpTo(final long base) throws BadLocationException {
+        final List<IoRequest> discarded = history.isEmpty() ? null : shell
+                .getHistory(shownBase, base);
+        if (discarded != null && covers(discarded, shownBase, base)) {
+            // the text stays where it is, only its requests move
+            history.addAll(discarded);
+            shownBase = base;
+            trimHistory();
+            return;
+        }
+        final int removed = (int) (base - historyStart);
+        history.clear();
+        historyStart = base;
+        shownBase = base;
+        replace(0, removed, "");
+    }
+
+    /**
+     * Drops the oldest paged-in requests while there are more than
+     * {@link #MAX_HISTORY} characters of them.
+     */
+    private void trimHistory() throws BadLocationException {
+        final long keepFrom = shownBase - MAX_HISTORY;
+        int n = 0;
+        while (n < history.size()
+                && history.get(n).getAbsoluteStart() < keepFrom) {
+            n++;
+        }
+        if (n == 0) {
+            return;
+        }
+        final long start = n < history.size() ? history.get(n)
+                .getAbsoluteStart() : shownBase;
+        final int removed = (int) (start - historyStart);
+        history.subList(0, n).clear();
+        historyStart = start;
+        replace(0, removed, "");
+    }
+
+    private static boolean covers(final List<IoRequest> reqs,
+            final long from, final long to) {
+        if (reqs.isEmpty()) {
+            return false;
+        }
+        final IoRequest last = reqs.get(reqs.size() - 1);
+        return reqs.get(0).getAbsoluteStart() == from
+                && last.getAbsoluteStart() + last.getLength() == to;
+    }
+
+    /**
+     * How many more characters of older output may be paged in.
+     */
+    private long getHistoryRoom() {
+        return MAX_HISTORY - (shownBase - historyStart);
+    }
+
+    /**
+     * True if the shell still has output older than what is shown, and
+     * there is room to page it in.
+     */
+    public boolean hasOlderOutput() {
+        final long start = shell.getHistoryStart();
+        return start >= 0 && start < historyStart && getHistoryRoom() > 0;
+    }
+
+    /**
+     * Pages in about the given number of characters of older output in front
+     * of the document, within {@link #MAX_HISTORY}; returns how many were
+     * added.
+     */
+    public int loadOlderOutput(final int chars) {
+        final long room = Math.min(chars, getHistoryRoom());
+        if (room <= 0) {
+            return 0;
+        }
+        final long start = Math.max(0, historyStart - room);
+        final List<IoRequest> older = shell.getHistory(start, historyStart);
+        if (older.isEmpty()
+                || !covers(older, older.get(0).getAbsoluteStart(),
+                        historyStart)) {
+            // what is shown isn't contiguous with the history any more
+            return 0;
+        }
+        final StringBuilder text = new StringBuilder();
+        for (final IoRequest req : older) {
+            text.append(req.getMessage());
+        }
+        final long oldStart = historyStart;
+        history.addAll(0, older);
+        historyStart = older.get(0).getAbsoluteStart();
+        try {
+            replace(0, 0, text.toString());
+        } catch (final BadLocationException e) {
+            e.printStackTrace();
+            history.subList(0, older.size()).clear();
+            historyStart = oldStart;
+            return 0;
+        }
+        return text.length();
+    }
+
+    /**
+     * Searches the older output that could still be paged in, newest first.
+     * If the text is found, the output up to it is paged in and the document
+     * offset of the match is returned; otherwise -1.
+     */
+    public int findOlderOutput(final String text) {
+        final long from = Math.max(0, shownBase - MAX_HISTORY);
+        final long at = shell.findInHistory(text, from, historyStart);
+        if (at < 0) {
+            return -1;
+        }
+        if (loadOlderOutput((int) (historyStart - at)) == 0
+                || at < historyStart) {
+            return -1;
+        }
+        return (int) (at - historyStart);
+    }
+
+    /**
+     * Finds the request shown at a document offset.
+     */
+    public IoRequest findAtPos(final int offset) {
+        final long abs = historyStart + offset;
+        if (abs >= shownEnd) {
+            return null;
+        }
+        if (abs >= shownBase) {
+            final IoRequest req = shell.findAtPos((int) (abs - shownBase));
+            // the shell may have discarded more since the last update
+            if (req == null || abs < req.getAbsoluteStart()
+                    || abs >= req.getAbsoluteStart() + req.getLength()) {
+                return null;
+            }
+            return req;
+        }
+        int lo = 0;
+        int hi = history.size() - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final IoRequest req = history.get(mid);
+            if (abs < req.getAbsoluteStart()) {
+                hi = mid - 1;
+            } else if (abs >= req.getAbsoluteStart() + req.getLength()) {
+                lo = mid + 1;
+            } else {
+                return req;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The document offset where a request starts.
+     */
+    public int getStart(final IoRequest req) {
+        return (int) (req.getAbsoluteStart() - historyStart);
+    }
+
     public IBackendShell getShell() {
         return shell;
     }
@@ -20,12 +20,15 @@ import java.util.Set;
 import java.util.TreeSet;
 
 import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.action.IMenuListener;
 import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.action.IToolBarManager;
 import org.eclipse.jface.action.MenuManager;
 import org.eclipse.jface.action.Separator;
+import org.eclipse.jface.dialogs.InputDialog;
+import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.resource.JFaceResources;
 import org.eclipse.jface.text.Document;
 import org.eclipse.jface.text.DocumentEvent;
@@ -38,6 +41,7 @@ import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.jface.viewers.ISelectionChangedListener;
 import org.eclipse.jface.viewers.SelectionChangedEvent;
+import org.eclipse.jface.window.Window;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.custom.StyleRange;
@@ -57,6 +61,7 @@ import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Menu;
+import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Widget;
 import org.eclipse.ui.IActionBars;
 import org.eclipse.ui.ISharedImages;
@@ -87,6 +92,12 @@ import com.ericsson.otp.erlang.OtpErlangPid;
 public class ErlangConsolePage extends Page implements IAdaptable,
         IPropertyChangeListener {
     public static final String ID = "org.erlide.ui.views.console";
+    /**
+     * How many characters of discarded output are paged back in at a time.
+     */
+    private static final int HISTORY_PAGE = Integer.getInteger(
+            "erlide.console.page", 256 * 1024);
+    private static final int RATE_PERIOD = 1000;
 
     private static final Color[] colors = {
             new Color(Display.getDefault(), 0xFF, 0xFF, 0xFF),
@@ -138,6 +149,31 @@ public class ErlangConsolePage extends Page implements IAdaptable,
     };
 
     private Composite composite;
+    private boolean rateShown;
+
+    /**
+     * Shows the shell's output rate in the status line while output is
+     * arriving.
+     */
+    private final Runnable showRate = new Runnable() {
+        @Override
+        public void run() {
+            if (shell == null || consoleText.isDisposed()) {
+                return;
+            }
+            final double rate = shell.getLinesPerSecond();
+            if (consoleText.isVisible() && (rate > 0 || rateShown)) {
+                final String message = rate > 0 ? String.format(
+                        "Console: %.0f lines/s, %d dropped updates",
+                        Double.valueOf(rate),
+                        Long.valueOf(shell.getDroppedFrames())) : null;
+                getSite().getActionBars().getStatusLineManager()
+                        .setMessage(message);
+                rateShown = rate > 0;
+            }
+            consoleText.getDisplay().timerExec(RATE_PERIOD, this);
+        }
+    };
 
     public ErlangConsolePage(final IConsoleView view,
             final ErlangConsole console) {
@@ -223,7 +259,7 @@ public class ErlangConsolePage extends Page implements IAdaptable,
 
     public void markRequest(final IoRequest req) {
         final StyleRange range = new StyleRange();
-        range.start = req.getStart();
+        range.start = fDoc.getStart(req);
         range.length = req.getLength();
         range.background = getColor(fGroupByLeader ? req.getLeader() : req
                 .getSender());
@@ -282,6 +318,7 @@ public class ErlangConsolePage extends Page implements IAdaptable,
             }
         });
         consoleOutputViewer.setDocument(fDoc);
+        consoleText.getDisplay().timerExec(RATE_PERIOD, showRate);
         consoleOutputViewer
                 .configure(new ErlangConsoleSourceViewerConfiguration());
 
@@ -514,12 +551,60 @@ public class ErlangConsolePage extends Page implements IAdaptable,
 
         menuManager.add(new Separator("FIND")); //$NON-NLS-1$
         menuManager.add(fGlobalActions.get(ActionFactory.FIND.getId()));
+        if (fDoc.hasOlderOutput()) {
+            menuManager.add(new Action("Show Older Output") {
+                @Override
+                public void run() {
+                    showOlderOutput();
+                }
+            });
+            menuManager.add(new Action("Find in Older Output...") {
+                @Override
+                public void run() {
+                    findInOlderOutput();
+                }
+            });
+        }
         // menuManager.add(new FollowHyperlinkAction(consoleOutputViewer));
         // menuManager.add(fClearOutputAction);
 
         menuManager.add(new Separator(IWorkbenchActionConstants.MB_ADDITIONS));
     }
 
+    /**
+     * Pages discarded output back in above what is shown, and keeps the
+     * view at the text that was at the top.
+     */
+    void showOlderOutput() {
+        final int added = fDoc.loadOlderOutput(HISTORY_PAGE);
+        if (added > 0) {
+            consoleOutputViewer.setSelectedRange(added, 0);
+            consoleOutputViewer.revealRange(added, 0);
+        }
+    }
+
+    /**
+     * Searches the discarded output, newest first, and pages it back in up
+     * to the match.
+     */
+    void findInOlderOutput() {
+        final Shell parent = consoleOutputViewer.getControl().getShell();
+        final InputDialog dialog = new InputDialog(parent,
+                "Find in Older Output", "Find:", "", null);
+        if (dialog.open() != Window.OK || dialog.getValue().length() == 0) {
+            return;
+        }
+        final String text = dialog.getValue();
+        final int at = fDoc.findOlderOutput(text);
+        if (at < 0) {
+            MessageDialog.openInformation(parent, "Find in Older Output",
+                    "String not found");
+            return;
+        }
+        consoleOutputViewer.setSelectedRange(at, text.length());
+        consoleOutputViewer.revealRange(at, text.length());
+    }
+
     protected void configureToolBar(final IToolBarManager mgr) {
         // mgr.appendToGroup(IConsoleConstants.OUTPUT_GROUP,
         // fClearOutputAction);
@@ -14,18 +14,17 @@ import org.eclipse.core.runtime.Assert;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.rules.IPartitionTokenScanner;
 import org.eclipse.jface.text.rules.IToken;
-import org.erlide.core.backend.console.IBackendShell;
 import org.erlide.core.backend.console.IoRequest;
 
 public class IoRequestScanner implements IPartitionTokenScanner {
 
-    private final IBackendShell model;
+    private final ErlConsoleDocument model;
     private int docOffset;
     private int docLength;
     private int crtOffset;
     private int crtLength;
 
-    public IoRequestScanner(final IBackendShell model) {
+    public IoRequestScanner(final ErlConsoleDocument model) {
         Assert.isNotNull(model);
         this.model = model;
     }
@@ -38,7 +37,7 @@ public class IoRequestScanner implements IPartitionTokenScanner {
         docLength = length;
         final IoRequest req = model.findAtPos(docOffset);
         if (req != null) {
-            crtOffset = req.getStart();
+            crtOffset = model.getStart(req);
         } else {
             crtOffset = -1;
         }
@@ -47,8 +46,10 @@ public class IoRequestScanner implements IPartitionTokenScanner {
 
     @Override
     public int getTokenLength() {
-        if (crtOffset + crtLength > docLength) {
-            return crtLength - (docLength - crtOffset);
+        // a request may start before the range, but not end after it
+        final int end = docOffset + docLength;
+        if (crtOffset + crtLength > end) {
+            return end - crtOffset;
         }
         return crtLength;
     }
@@ -62,7 +63,7 @@ public class IoRequestScanner implements IPartitionTokenScanner {
     public IToken nextToken() {
         IoRequest req;
         crtOffset = crtOffset + crtLength;
-        if (crtOffset > docOffset + docLength) {
+        if (crtOffset >= docOffset + docLength) {
             return new IoRequestToken(null);
         }
         req = model.findAtPos(crtOffset);
@@ -80,7 +81,7 @@ public class IoRequestScanner implements IPartitionTokenScanner {
         docLength = length;
         final IoRequest req = model.findAtPos(docOffset);
         if (req != null) {
-            crtOffset = req.getStart();
+            crtOffset = model.getStart(req);
         } else {
             crtOffset = -1;
         }
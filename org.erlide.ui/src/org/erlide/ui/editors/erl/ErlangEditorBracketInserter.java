@@ -1,6 +1,5 @@
 package org.erlide.ui.editors.erl;
 
-import java.util.List;
 import java.util.Stack;
 
 import org.eclipse.jface.text.BadLocationException;
@@ -26,9 +25,9 @@ import org.eclipse.swt.events.VerifyEvent;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.ui.texteditor.ITextEditorExtension3;
 import org.eclipse.ui.texteditor.link.EditorLinkedModeUI;
-import org.erlide.core.backend.BackendException;
-import org.erlide.core.internal.model.erlang.ErlideScanner;
+import org.erlide.core.internal.model.erlang.ErlLexer;
 import org.erlide.core.model.root.ErlToken;
+import org.erlide.core.model.root.ErlTokenBuffer;
 import org.erlide.jinterface.ErlLogger;
 
 class ErlangEditorBracketInserter implements VerifyKeyListener,
@@ -315,18 +314,14 @@ class ErlangEditorBracketInserter implements VerifyKeyListener,
         final IRegion endLine = document.getLineInformationOfOffset(offset
                 + length);
 
-        List<ErlToken> tokens = null;
         final int getOffset = offset + length, getLength = endLine.getOffset()
                 + endLine.getLength() - getOffset;
         final String str = document.get(getOffset, getLength);
-        try {
-            tokens = ErlideScanner.lightScanString(str, 0);
-        } catch (final BackendException e) {
-        }
+        final ErlTokenBuffer tokens = new ErlLexer(str).scan();
 
         int kind = ErlToken.KIND_OTHER;
-        if (tokens != null && tokens.size() > 0) {
-            kind = tokens.get(0).getKind();
+        if (!tokens.isEmpty()) {
+            kind = tokens.getKind(0);
         } else if (str.length() > 0) {
             kind = str.charAt(0);
         }
@@ -43,7 +43,9 @@ import org.erlide.core.services.search.ErlangSearchPattern.LimitTo;
 import org.erlide.core.services.search.ErlideOpen;
 import org.erlide.core.services.search.ErlideSearchServer;
 import org.erlide.core.services.search.ModuleLineFunctionArityRef;
+import org.erlide.core.services.search.ModuleReferences;
 import org.erlide.core.services.search.OpenResult;
+import org.erlide.core.services.search.ReferenceIndex;
 import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.IRpcCallSite;
 import org.erlide.jinterface.rpc.RpcException;
@@ -103,28 +105,16 @@ public class MarkOccurencesHandler {
             }
             try {
                 final int offset = aSelection.getOffset();
-                final OpenResult res = ErlideOpen.open(ideBackend, theModule,
-                        offset, ModelUtils.getImportsAsList(theModule), "",
-                         ErlModelManager.getErlangModel().getPathVars());
-                final ErlangSearchPattern pattern = SearchUtil
-                        .getSearchPatternFromOpenResultAndLimitTo(theModule,
-                                offset, res, LimitTo.ALL_OCCURRENCES, false);
-                if (fCanceled) {
-                    return;
-                }
-                if (pattern != null) {
-                    final ErlSearchScope scope = new ErlSearchScope();
-                    scope.addModule(theModule);
-                    final List<ModuleLineFunctionArityRef> findRefs = Lists
-                            .newArrayList();
-                    final OtpErlangObject refs = ErlideSearchServer.findRefs(
-                            ideBackend, pattern, scope,
-                            erlangEditor.getStateDir());
-                    if (refs != null) {
-                        SearchUtil.addSearchResult(findRefs, refs);
-                        fRefs = erlangEditor.markOccurencesHandler
-                                .getErlangRefs(theModule, findRefs);
-                    }
+                final ModuleReferences moduleRefs = ReferenceIndex
+                        .getDefault().get(ideBackend, theModule,
+                                erlangEditor.getStateDir());
+                final List<ModuleLineFunctionArityRef> occurrences = moduleRefs == null ? null
+                        : moduleRefs.findOccurrences(offset);
+                if (occurrences != null) {
+                    fRefs = erlangEditor.markOccurencesHandler.getErlangRefs(
+                            theModule, occurrences);
+                } else {
+                    findRefsOnBackend(ideBackend, theModule, offset);
                 }
             } catch (final RpcException e) {
                 ErlLogger.debug(e);
@@ -144,6 +134,39 @@ public class MarkOccurencesHandler {
             }
         }
 
+        /**
+         * Asks the backend what is at the offset and where it is used, when
+         * the index has no reference there.
+         */
+        private void findRefsOnBackend(final IRpcCallSite ideBackend,
+                final IErlModule theModule, final int offset)
+                throws RpcException, ErlModelException,
+                OtpErlangRangeException {
+            final OpenResult res = ErlideOpen.open(ideBackend, theModule,
+                    offset, ModelUtils.getImportsAsList(theModule), "",
+                    ErlModelManager.getErlangModel().getPathVars());
+            final ErlangSearchPattern pattern = SearchUtil
+                    .getSearchPatternFromOpenResultAndLimitTo(theModule,
+                            offset, res, LimitTo.ALL_OCCURRENCES, false);
+            if (fCanceled) {
+                return;
+            }
+            if (pattern != null) {
+                final ErlSearchScope scope = new ErlSearchScope();
+                scope.addModule(theModule);
+                final List<ModuleLineFunctionArityRef> findRefs = Lists
+                        .newArrayList();
+                final OtpErlangObject refs = ErlideSearchServer.findRefs(
+                        ideBackend, pattern, scope,
+                        erlangEditor.getStateDir());
+                if (refs != null) {
+                    SearchUtil.addSearchResult(findRefs, refs);
+                    fRefs = erlangEditor.markOccurencesHandler
+                            .getErlangRefs(theModule, findRefs);
+                }
+            }
+        }
+
         // cannot use cancel() because it is declared final
         void doCancel() {
             fCanceled = true;
@@ -9,6 +9,7 @@ import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.CoreException;
@@ -39,13 +40,12 @@ import org.erlide.core.model.root.IErlProject;
 import org.erlide.core.model.util.CoreUtil;
 import org.erlide.core.model.util.ErlangFunction;
 import org.erlide.core.model.util.ModelUtils;
-import org.erlide.core.services.codeassist.ErlideContextAssist;
+import org.erlide.core.services.codeassist.CompletionCache;
 import org.erlide.core.services.codeassist.ErlideContextAssist.RecordCompletion;
 import org.erlide.core.services.search.ErlideDoc;
 import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.IRpcCallSite;
 import org.erlide.jinterface.util.StringUtils;
-import org.erlide.jinterface.util.Util;
 import org.erlide.ui.internal.ErlideUIPlugin;
 import org.erlide.ui.prefs.plugin.NavigationPreferencePage;
 import org.erlide.ui.templates.ErlTemplateCompletionProcessor;
@@ -58,6 +58,8 @@ import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangRangeException;
 import com.ericsson.otp.erlang.OtpErlangString;
 import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
@@ -93,6 +95,16 @@ public abstract class AbstractErlContentAssistProcessor {
         return false;
     }
 
+    /**
+     * Computing proposals for longer than this (in ms) is logged as a
+     * warning.
+     */
+    private static final long SLOW_COMPLETION = Long.getLong(
+            "erlide.completion.slow", 300);
+    private static int completions = 0;
+    private static long completionTime = 0;
+    private static long maxCompletionTime = 0;
+
     protected final ISourceViewer sourceViewer;
     protected final IErlModule module;
     protected static URL fgStyleSheet;
@@ -123,21 +135,14 @@ public abstract class AbstractErlContentAssistProcessor {
                     || kind == Kinds.INCLUDE_LIBS;
             final List<String> names = ModelUtils.findUnitsWithPrefix(prefix,
                     project, kind != Kinds.INCLUDES, includes);
-            final OtpErlangObject res = ErlideDoc.getModules(backend, prefix,
-                    names, includes);
-            if (res instanceof OtpErlangList) {
-                final OtpErlangList resList = (OtpErlangList) res;
-                for (final OtpErlangObject o : resList) {
-                    if (o instanceof OtpErlangString) {
-                        final OtpErlangString s = (OtpErlangString) o;
-                        final String suffix = includes ? "" : ":";
-                        final String cpl = quoted(s.stringValue() + suffix,
-                                kind);
-                        final int prefixLength = prefix.length();
-                        result.add(new CompletionProposal(cpl, offset
-                                - prefixLength, prefixLength, cpl.length()));
-                    }
-                }
+            final List<String> modules = CompletionCache.getDefault()
+                    .getModules(backend, prefix, names, includes);
+            for (final String name : modules) {
+                final String suffix = includes ? "" : ":";
+                final String cpl = quoted(name + suffix, kind);
+                final int prefixLength = prefix.length();
+                result.add(new CompletionProposal(cpl, offset - prefixLength,
+                        prefixLength, cpl.length()));
             }
         }
         return result;
@@ -161,6 +166,7 @@ public abstract class AbstractErlContentAssistProcessor {
         if (module == null) {
             return null;
         }
+        final long start = System.nanoTime();
         try {
             final IDocument doc = viewer.getDocument();
             String before = getBefore(viewer, doc, offset);
@@ -187,7 +193,7 @@ public abstract class AbstractErlContentAssistProcessor {
             }
             RecordCompletion rc = null;
             if (hashMarkPos >= 0) {
-                rc = ErlideContextAssist.checkRecordCompletion(
+                rc = CompletionCache.getDefault().checkRecordCompletion(
                         CoreUtil.getBuildOrIdeBackend(project), before);
             }
             if (rc != null && rc.isNameWanted()) {
@@ -275,9 +281,35 @@ public abstract class AbstractErlContentAssistProcessor {
         } catch (final Exception e) {
             ErlLogger.warn(e);
             return null;
+        } finally {
+            completed(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         }
     }
 
+    @SuppressWarnings("boxing")
+    private static synchronized void completed(final long time) {
+        completions++;
+        completionTime += time;
+        maxCompletionTime = Math.max(maxCompletionTime, time);
+        if (time > SLOW_COMPLETION) {
+            ErlLogger.warn("computing completion proposals took %d ms "
+                    + "(average %d ms over %d)", time, completionTime
+                    / completions, completions);
+        } else {
+            ErlLogger.debug("computed completion proposals in %d ms", time);
+        }
+    }
+
+    /**
+     * Returns how long computing the completion proposals took, in ms: the
+     * number of computations, their average and the longest.
+     */
+    public static synchronized long[] getCompletionLatency() {
+        return new long[] { completions,
+                completions == 0 ? 0 : completionTime / completions,
+                maxCompletionTime };
+    }
+
     protected abstract Set<Kinds> filterFlags(Set<Kinds> flags);
 
     private ICompletionProposal[] getNoCompletion(final int offset) {
@@ -434,8 +466,8 @@ public abstract class AbstractErlContentAssistProcessor {
             final IDocument doc = sourceViewer.getDocument();
             final int prefixLength = prefix.length();
             final String src = doc.get(o, offset - o - prefixLength);
-            final Collection<String> vars = ErlideContextAssist.getVariables(b,
-                    src, prefix);
+            final Collection<String> vars = CompletionCache.getDefault()
+                    .getVariables(b, src, prefix);
             for (final String var : vars) {
                 result.add(new CompletionProposal(var, offset - prefixLength,
                         prefixLength, var.length()));
@@ -489,10 +521,10 @@ public abstract class AbstractErlContentAssistProcessor {
             if (ModelUtils.isOtpModule(theModule)) {
                 final String stateDir = ErlideUIPlugin.getDefault()
                         .getStateLocation().toString();
-                final OtpErlangObject res = ErlideDoc.getProposalsWithDoc(b,
-                        moduleName, prefix, stateDir);
-                addFunctionProposalsWithDoc(offset, prefix, result, res, null,
-                        arityOnly);
+                final OtpErlangList signatures = CompletionCache.getDefault()
+                        .getSignatures(b, moduleName, stateDir);
+                addFunctionProposals(b, moduleName, offset, prefix, result,
+                        signatures, null, arityOnly);
             } else {
                 addFunctionsFromModule(offset, prefix, arityOnly, result,
                         theModule);
@@ -544,10 +576,11 @@ public abstract class AbstractErlContentAssistProcessor {
             final IRpcCallSite backend, final int offset, final String prefix) {
         final String stateDir = ErlideUIPlugin.getDefault().getStateLocation()
                 .toString();
-        final OtpErlangObject res = ErlideDoc.getProposalsWithDoc(backend,
-                "<auto_imported>", prefix, stateDir);
+        final OtpErlangList signatures = CompletionCache.getDefault()
+                .getSignatures(backend, "<auto_imported>", stateDir);
         final List<ICompletionProposal> result = new ArrayList<ICompletionProposal>();
-        addFunctionProposalsWithDoc(offset, prefix, result, res, null, false);
+        addFunctionProposals(backend, "erlang", offset, prefix, result,
+                signatures, null, false);
         return result;
     }
 
@@ -557,9 +590,10 @@ public abstract class AbstractErlContentAssistProcessor {
                 .toString();
         final List<ICompletionProposal> result = new ArrayList<ICompletionProposal>();
         for (final IErlImport imp : module.getImports()) {
-            final OtpErlangObject res = ErlideDoc.getProposalsWithDoc(backend,
-                    imp.getImportModule(), prefix, stateDir);
-            addFunctionProposalsWithDoc(offset, prefix, result, res, imp, false);
+            final OtpErlangList signatures = CompletionCache.getDefault()
+                    .getSignatures(backend, imp.getImportModule(), stateDir);
+            addFunctionProposals(backend, imp.getImportModule(), offset,
+                    prefix, result, signatures, imp, false);
         }
         return result;
     }
@@ -586,46 +620,66 @@ public abstract class AbstractErlContentAssistProcessor {
         return result;
     }
 
-    void addFunctionProposalsWithDoc(final int offset, final String aprefix,
-            final List<ICompletionProposal> result, final OtpErlangObject res,
-            final IErlImport erlImport, final boolean arityOnly) {
-        if (res instanceof OtpErlangList) {
-            final OtpErlangList resl = (OtpErlangList) res;
-            for (final OtpErlangObject i : resl) {
-                // {FunWithArity, FunWithParameters, [{Offset, Length}], Doc}
-                final OtpErlangTuple f = (OtpErlangTuple) i;
-                final String funWithArity = ((OtpErlangString) f.elementAt(0))
-                        .stringValue();
-                if (!filterImported(erlImport, funWithArity)) {
-                    continue;
-                }
-                String funWithParameters = arityOnly ? funWithArity
-                        : ((OtpErlangString) f.elementAt(1)).stringValue();
-                final OtpErlangList parOffsets = (OtpErlangList) f.elementAt(2);
-                String docStr = null;
-                if (f.arity() > 3) {
-                    final OtpErlangObject elt = f.elementAt(3);
-                    if (elt instanceof OtpErlangString) {
-                        final StringBuffer sb = new StringBuffer(
-                                Util.stringValue(elt));
-                        if (sb.length() > 0) {
-                            HTMLPrinter.insertPageProlog(sb, 0, fgStyleSheet);
-                            HTMLPrinter.addPageEpilog(sb);
-                        }
-                        docStr = sb.toString();
-                    }
-                }
+    /**
+     * Adds the functions that start with the prefix, from signatures as
+     * returned by {@link CompletionCache#getSignatures}. Their documentation
+     * is fetched from the given module if they get selected.
+     */
+    void addFunctionProposals(final IRpcCallSite backend,
+            final String docModule, final int offset, final String aprefix,
+            final List<ICompletionProposal> result,
+            final OtpErlangList signatures, final IErlImport erlImport,
+            final boolean arityOnly) {
+        if (signatures == null) {
+            return;
+        }
+        final String stateDir = ErlideUIPlugin.getDefault().getStateLocation()
+                .toString();
+        for (final OtpErlangObject i : signatures) {
+            // {FunWithArity, FunWithParameters, [{Offset, Length}]}
+            final OtpErlangTuple f = (OtpErlangTuple) i;
+            final String funWithArity = ((OtpErlangString) f.elementAt(0))
+                    .stringValue();
+            final int slash = funWithArity.lastIndexOf('/');
+            final String name = funWithArity.substring(0, slash);
+            if (!name.startsWith(aprefix)
+                    || !filterImported(erlImport, funWithArity)) {
+                continue;
+            }
+            String funWithParameters = arityOnly ? funWithArity
+                    : ((OtpErlangString) f.elementAt(1)).stringValue();
+            funWithParameters = funWithParameters.substring(aprefix.length());
+            final List<Point> offsetsAndLengths = new ArrayList<Point>();
+            if (!arityOnly) {
+                // the offsets are relative to the start of the name
+                addOffsetsAndLengths((OtpErlangList) f.elementAt(2), offset
+                        - aprefix.length(), offsetsAndLengths);
+            }
+            final int arity = Integer.parseInt(funWithArity
+                    .substring(slash + 1));
+            addFunctionCompletion(offset, result, funWithArity,
+                    getDoc(backend, docModule, name, arity, stateDir),
+                    funWithParameters, offsetsAndLengths);
+        }
+    }
 
-                funWithParameters = funWithParameters.substring(aprefix
-                        .length());
-                final List<Point> offsetsAndLengths = new ArrayList<Point>();
-                if (!arityOnly) {
-                    addOffsetsAndLengths(parOffsets, offset, offsetsAndLengths);
+    private static Supplier<String> getDoc(final IRpcCallSite backend,
+            final String module, final String function, final int arity,
+            final String stateDir) {
+        return new Supplier<String>() {
+            @Override
+            public String get() {
+                final String doc = ErlideDoc.getFunctionDoc(backend, module,
+                        function, arity, stateDir);
+                if (doc == null || doc.length() == 0) {
+                    return null;
                 }
-                addFunctionCompletion(offset, result, funWithArity, docStr,
-                        funWithParameters, offsetsAndLengths);
+                final StringBuffer sb = new StringBuffer(doc);
+                HTMLPrinter.insertPageProlog(sb, 0, fgStyleSheet);
+                HTMLPrinter.addPageEpilog(sb);
+                return sb.toString();
             }
-        }
+        };
     }
 
     /**
@@ -641,6 +695,15 @@ public abstract class AbstractErlContentAssistProcessor {
             final List<ICompletionProposal> result, final String funWithArity,
             final String docStr, final String funWithParameters,
             final List<Point> offsetsAndLengths) {
+        addFunctionCompletion(offset, result, funWithArity,
+                Suppliers.ofInstance(docStr), funWithParameters,
+                offsetsAndLengths);
+    }
+
+    protected void addFunctionCompletion(final int offset,
+            final List<ICompletionProposal> result, final String funWithArity,
+            final Supplier<String> docStr, final String funWithParameters,
+            final List<Point> offsetsAndLengths) {
         int cursorPosition = funWithParameters.length();
         if (offsetsAndLengths.size() > 0) {
             cursorPosition = offsetsAndLengths.get(0).x;
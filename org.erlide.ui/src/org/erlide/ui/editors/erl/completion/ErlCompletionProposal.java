@@ -19,6 +19,9 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.ui.texteditor.link.EditorLinkedModeUI;
 import org.erlide.jinterface.ErlLogger;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
 public class ErlCompletionProposal implements ICompletionProposal {
 
     protected static final class ExitPolicy implements LinkedModeUI.IExitPolicy {
@@ -92,8 +95,8 @@ public class ErlCompletionProposal implements ICompletionProposal {
     private final Image image;
     /** The context information of this proposal. */
     private final IContextInformation contextInformation;
-    /** The additional info of this proposal. */
-    private final String additionalProposalInfo;
+    /** The additional info of this proposal, computed when first shown. */
+    private final Supplier<String> additionalProposalInfo;
     /** A sourceViewer (from the erlang editor) */
     private final ISourceViewer sourceViewer;
 
@@ -116,6 +119,23 @@ public class ErlCompletionProposal implements ICompletionProposal {
             final IContextInformation contextInformation,
             final String additionalProposalInfo,
             final ISourceViewer sourceViewer) {
+        this(offsetsAndLengths, displayString, replacementString,
+                replacementOffset, replacementLength, cursorPosition, image,
+                contextInformation, Suppliers
+                        .ofInstance(additionalProposalInfo), sourceViewer);
+    }
+
+    /**
+     * Like the other constructor, but the additional info is only computed
+     * if the proposal is selected, then kept.
+     */
+    public ErlCompletionProposal(final List<Point> offsetsAndLengths,
+            final String displayString, final String replacementString,
+            final int replacementOffset, final int replacementLength,
+            final int cursorPosition, final Image image,
+            final IContextInformation contextInformation,
+            final Supplier<String> additionalProposalInfo,
+            final ISourceViewer sourceViewer) {
         this.offsetsAndLengths = offsetsAndLengths;
         this.displayString = displayString;
         this.replacementString = replacementString;
@@ -124,7 +144,8 @@ public class ErlCompletionProposal implements ICompletionProposal {
         this.cursorPosition = cursorPosition;
         this.image = image;
         this.contextInformation = contextInformation;
-        this.additionalProposalInfo = additionalProposalInfo;
+        this.additionalProposalInfo = Suppliers
+                .memoize(additionalProposalInfo);
         this.sourceViewer = sourceViewer;
     }
 
@@ -147,7 +168,7 @@ public class ErlCompletionProposal implements ICompletionProposal {
      */
     @Override
     public String getAdditionalProposalInfo() {
-        return additionalProposalInfo;
+        return additionalProposalInfo.get();
     }
 
     /*
@@ -32,7 +32,7 @@ class ElementChangedListener implements IElementChangedListener {
     @Override
     public void elementChanged(final ElementChangedEvent e) {
 
-        if (page.getControl() == null) {
+        if (page == null || page.getControl() == null) {
             return;
         }
 
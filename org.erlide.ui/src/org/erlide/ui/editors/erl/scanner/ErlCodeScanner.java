@@ -10,8 +10,6 @@
  *******************************************************************************/
 package org.erlide.ui.editors.erl.scanner;
 
-import java.util.List;
-
 import org.eclipse.core.runtime.preferences.IEclipsePreferences.IPreferenceChangeListener;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences.PreferenceChangeEvent;
 import org.eclipse.core.runtime.preferences.InstanceScope;
@@ -25,8 +23,10 @@ import org.eclipse.jface.text.rules.Token;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.RGB;
 import org.erlide.core.backend.BackendException;
+import org.erlide.core.internal.model.erlang.ErlLexer;
 import org.erlide.core.internal.model.erlang.ErlideScanner;
 import org.erlide.core.model.root.ErlToken;
+import org.erlide.core.model.root.ErlTokenBuffer;
 import org.erlide.jinterface.ErlLogger;
 import org.erlide.ui.prefs.HighlightStyle;
 import org.erlide.ui.prefs.TokenHighlight;
@@ -52,11 +52,21 @@ public class ErlCodeScanner implements ITokenScanner, IPreferenceChangeListener
     private static Token t_tildeTag;
     private static Token t_escapeTag;
 
+    /**
+     * Set <code>-Derlide.scanner.backend=true</code> to scan with the backend
+     * instead of {@link ErlLexer}.
+     */
+    private static final boolean USE_BACKEND = Boolean
+            .getBoolean("erlide.scanner.backend");
+
     protected final IColorManager fColorManager;
-    protected List<ErlToken> fTokens;
+    // token offsets are relative to rangeOffset
+    protected ErlTokenBuffer fTokens;
     protected int fCrtToken;
     private int rangeLength;
     private int rangeOffset;
+    private String fLastText;
+    private ErlTokenBuffer fLastTokens;
 
     public ErlCodeScanner(final IColorManager colorManager) {
         fColorManager = colorManager;
@@ -101,12 +111,8 @@ public class ErlCodeScanner implements ITokenScanner, IPreferenceChangeListener
     // "when", "bnot", "not", "div", "rem", "band", "and", "bor", "bxor",
     // "bsl", "bsr", "or", "xor", "spec", });
 
-    public IToken convert(final ErlToken tk) {
-        if (tk == ErlToken.EOF) {
-            return Token.EOF;
-        }
-
-        switch (tk.getKind()) {
+    public IToken convert(final int kind) {
+        switch (kind) {
         case ErlToken.KIND_STRING:
             return t_string;
         case ErlToken.KIND_ATOM:
@@ -204,67 +210,89 @@ public class ErlCodeScanner implements ITokenScanner, IPreferenceChangeListener
         if (text == null) {
             return;
         }
-
+        fCrtToken = -1;
+        if (USE_BACKEND) {
+            fTokens = scanWithBackend(text);
+            return;
+        }
         try {
-            fCrtToken = -1;
+            fTokens = scan(text);
+        } catch (final RuntimeException e) {
+            ErlLogger.warn(e);
+            fLastText = null;
+            fTokens = scanWithBackend(text);
+        }
+    }
 
-            final String str = text;
-            fTokens = ErlideScanner.lightScanString(str, rangeOffset);
+    /**
+     * Scans the text, relexing only around the changed part if it mostly
+     * matches the text scanned last time (which is the usual case while
+     * typing, since the damaged region is normally the same partition).
+     */
+    private ErlTokenBuffer scan(final String text) {
+        final String last = fLastText;
+        ErlTokenBuffer tokens = null;
+        if (last != null) {
+            final int max = Math.min(last.length(), text.length());
+            int prefix = 0;
+            while (prefix < max && last.charAt(prefix) == text.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < max - prefix
+                    && last.charAt(last.length() - 1 - suffix) == text
+                            .charAt(text.length() - 1 - suffix)) {
+                suffix++;
+            }
+            if (prefix + suffix > text.length() / 2) {
+                tokens = ErlLexer.rescan(fLastTokens, text, prefix,
+                        last.length() - prefix - suffix, text.length()
+                                - prefix - suffix);
+            }
+        }
+        if (tokens == null) {
+            tokens = new ErlLexer(text).scan();
+        }
+        fLastText = text;
+        fLastTokens = tokens;
+        return tokens;
+    }
 
+    private static ErlTokenBuffer scanWithBackend(final String text) {
+        try {
+            return ErlideScanner.lightScanString(text, 0);
         } catch (final BackendException e) {
-            // e.printStackTrace();
+            return null;
         }
     }
 
     @Override
     public IToken nextToken() {
-        final ErlToken nextErlToken = nextErlToken();
-        return convert(nextErlToken);
+        if (fTokens == null) {
+            return Token.EOF;
+        }
+        fCrtToken++;
+        if (fCrtToken >= fTokens.size()
+                || fTokens.getOffset(fCrtToken) >= rangeLength) {
+            return Token.EOF;
+        }
+        return convert(fTokens.getKind(fCrtToken));
     }
 
     @Override
     public int getTokenOffset() {
-        if (fTokens == null) {
-            return 0;
-        }
-
-        if (fCrtToken >= fTokens.size()) {
+        if (fTokens == null || fCrtToken >= fTokens.size()) {
             return 0;
         }
-
-        final ErlToken tk = fTokens.get(fCrtToken);
-        return tk.getOffset();
+        return rangeOffset + fTokens.getOffset(fCrtToken);
     }
 
     @Override
     public int getTokenLength() {
-        if (fTokens == null) {
-            return 0;
-        }
-
-        if (fCrtToken >= fTokens.size()) {
+        if (fTokens == null || fCrtToken >= fTokens.size()) {
             return 0;
         }
-
-        final ErlToken tk = fTokens.get(fCrtToken);
-        return tk.getLength();
-    }
-
-    public ErlToken nextErlToken() {
-        if (fTokens == null) {
-            return ErlToken.EOF;
-        }
-
-        fCrtToken++;
-        if (fCrtToken >= fTokens.size()) {
-            return ErlToken.EOF;
-        }
-
-        final ErlToken tk = fTokens.get(fCrtToken);
-        if (tk.getOffset() >= rangeOffset + rangeLength) {
-            return ErlToken.EOF;
-        }
-        return fTokens.get(fCrtToken);
+        return fTokens.getLength(fCrtToken);
     }
 
     @Override
@@ -43,7 +43,6 @@ import org.erlide.core.model.root.ErlModelManager;
 import org.erlide.core.model.root.IErlElement;
 import org.erlide.core.model.root.IErlElement.Kind;
 import org.erlide.core.model.root.IErlElementDelta;
-import org.erlide.core.model.root.IErlModel;
 import org.erlide.core.model.root.IParent;
 import org.erlide.core.model.util.ElementChangedEvent;
 import org.erlide.core.model.util.IElementChangedListener;
@@ -521,8 +520,6 @@ public class DefaultErlangFoldingStructureProvider implements
             fEditor = editor;
             fViewer = viewer;
             fViewer.addProjectionListener(this);
-            final IErlModel mdl = ErlModelManager.getErlangModel();
-            mdl.addModelChangeListener(this);
         }
     }
 
@@ -533,7 +530,6 @@ public class DefaultErlangFoldingStructureProvider implements
             fViewer.removeProjectionListener(this);
             fViewer = null;
             fEditor = null;
-            ErlModelManager.getErlangModel().removeModelChangeListener(this);
         }
     }
 
@@ -557,9 +553,12 @@ public class DefaultErlangFoldingStructureProvider implements
 
         initialize();
         if (fEditor instanceof ErlangEditor && fModule != null) {
+            // the folds follow the deltas of the module's reconciles
             fElementListener = new ElementChangedListener();
             ErlModelManager.getErlangModel().addElementChangedListener(
-                    fElementListener);
+                    fElementListener,
+                    ElementChangedEvent.POST_CHANGE
+                            | ElementChangedEvent.POST_RECONCILE);
             boolean structureKnown = false;
             try {
                 structureKnown = fModule.isStructureKnown();
@@ -769,7 +768,7 @@ public class DefaultErlangFoldingStructureProvider implements
         return null;
     }
 
-    protected void processDelta(final IErlElementDelta delta) {
+    protected synchronized void processDelta(final IErlElementDelta delta) {
         if (!isInstalled()) {
             return;
         }
@@ -803,59 +802,10 @@ public class DefaultErlangFoldingStructureProvider implements
             final List<ErlangProjectionAnnotation> deletions = new ArrayList<ErlangProjectionAnnotation>();
             final List<ErlangProjectionAnnotation> updates = new ArrayList<ErlangProjectionAnnotation>();
 
-            // use a linked map to maintain ordering of comments
-            final Map<ErlangProjectionAnnotation, Position> updated = new LinkedHashMap<ErlangProjectionAnnotation, Position>();
-
-            computeAdditions(fModule, updated);
-            final Map<Object, List<Tuple>> previous = createAnnotationMap(model);
-
-            for (final Entry<ErlangProjectionAnnotation, Position> entry : updated
-                    .entrySet()) {
-                final ErlangProjectionAnnotation newAnnotation = entry.getKey();
-                final IErlElement element = newAnnotation.getElement();
-                final Position newPosition = entry.getValue();
-
-                final List<Tuple> annotations = previous.get(element);
-                if (annotations == null) {
-
-                    additions.put(newAnnotation, newPosition);
-
-                } else {
-                    final Iterator<Tuple> x = annotations.iterator();
-                    boolean matched = false;
-                    while (x.hasNext()) {
-                        final Tuple tuple = x.next();
-                        final ErlangProjectionAnnotation existingAnnotation = tuple.annotation;
-                        final Position existingPosition = tuple.position;
-                        if (newAnnotation.isComment() == existingAnnotation
-                                .isComment()) {
-                            if (existingPosition != null
-                                    && !newPosition.equals(existingPosition)) {
-                                existingPosition.setOffset(newPosition
-                                        .getOffset());
-                                existingPosition.setLength(newPosition
-                                        .getLength());
-                                updates.add(existingAnnotation);
-                            }
-                            matched = true;
-                            x.remove();
-                            break;
-                        }
-                    }
-                    if (!matched) {
-                        additions.put(newAnnotation, newPosition);
-                    }
-
-                    if (annotations.isEmpty()) {
-                        previous.remove(element);
-                    }
-                }
-            }
-
-            for (final List<Tuple> l : previous.values()) {
-                for (final Tuple t : l) {
-                    deletions.add(t.annotation);
-                }
+            if ((delta.getFlags() & IErlElementDelta.F_FINE_GRAINED) != 0) {
+                computeChanges(delta, model, additions, deletions);
+            } else {
+                computeChanges(model, additions, deletions, updates);
             }
 
             match(deletions, additions, updates);
@@ -875,6 +825,113 @@ public class DefaultErlangFoldingStructureProvider implements
         }
     }
 
+    /**
+     * Computes the changes of the folds from a fine-grained reconcile delta,
+     * without looking at the unchanged members. The folds of the removed
+     * members are deleted and folds are computed for the added ones; a member
+     * that only moved is both, and keeps its fold state through
+     * {@link #match(List, Map, List)}. Comments are rebuilt by each parse, so
+     * all their folds are replaced the same way.
+     */
+    private void computeChanges(final IErlElementDelta delta,
+            final IAnnotationModel model,
+            final Map<ErlangProjectionAnnotation, Position> additions,
+            final List<ErlangProjectionAnnotation> deletions) {
+        final Set<IErlElement> removed = new HashSet<IErlElement>();
+        final List<IErlElement> added = new ArrayList<IErlElement>();
+        for (final IErlElementDelta d : delta
+                .getChildren(IErlElementDelta.ALL)) {
+            // a member replaced by an equal one is a change
+            if (d.getKind() != IErlElementDelta.ADDED) {
+                removed.add(d.getElement());
+            }
+            if (d.getKind() != IErlElementDelta.REMOVED) {
+                added.add(d.getElement());
+            }
+        }
+        final Iterator<?> e = model.getAnnotationIterator();
+        while (e.hasNext()) {
+            final Object annotation = e.next();
+            if (annotation instanceof ErlangProjectionAnnotation) {
+                final ErlangProjectionAnnotation epa = (ErlangProjectionAnnotation) annotation;
+                final IErlElement element = epa.getElement();
+                if (epa.isComment() || removed.contains(element)
+                        || removed.contains(element.getParent())) {
+                    deletions.add(epa);
+                }
+            }
+        }
+        try {
+            computeAdditions(added, additions);
+            computeAdditions(fModule.getComments(), additions);
+        } catch (final ErlModelException x) {
+            ErlLogger.warn(x);
+        }
+    }
+
+    /**
+     * Computes the changes of the folds from the whole module.
+     */
+    private void computeChanges(final IAnnotationModel model,
+            final Map<ErlangProjectionAnnotation, Position> additions,
+            final List<ErlangProjectionAnnotation> deletions,
+            final List<ErlangProjectionAnnotation> updates) {
+        // use a linked map to maintain ordering of comments
+        final Map<ErlangProjectionAnnotation, Position> updated = new LinkedHashMap<ErlangProjectionAnnotation, Position>();
+
+        computeAdditions(fModule, updated);
+        final Map<Object, List<Tuple>> previous = createAnnotationMap(model);
+
+        for (final Entry<ErlangProjectionAnnotation, Position> entry : updated
+                .entrySet()) {
+            final ErlangProjectionAnnotation newAnnotation = entry.getKey();
+            final IErlElement element = newAnnotation.getElement();
+            final Position newPosition = entry.getValue();
+
+            final List<Tuple> annotations = previous.get(element);
+            if (annotations == null) {
+
+                additions.put(newAnnotation, newPosition);
+
+            } else {
+                final Iterator<Tuple> x = annotations.iterator();
+                boolean matched = false;
+                while (x.hasNext()) {
+                    final Tuple tuple = x.next();
+                    final ErlangProjectionAnnotation existingAnnotation = tuple.annotation;
+                    final Position existingPosition = tuple.position;
+                    if (newAnnotation.isComment() == existingAnnotation
+                            .isComment()) {
+                        if (existingPosition != null
+                                && !newPosition.equals(existingPosition)) {
+                            existingPosition.setOffset(newPosition
+                                    .getOffset());
+                            existingPosition.setLength(newPosition
+                                    .getLength());
+                            updates.add(existingAnnotation);
+                        }
+                        matched = true;
+                        x.remove();
+                        break;
+                    }
+                }
+                if (!matched) {
+                    additions.put(newAnnotation, newPosition);
+                }
+
+                if (annotations.isEmpty()) {
+                    previous.remove(element);
+                }
+            }
+        }
+
+        for (final List<Tuple> l : previous.values()) {
+            for (final Tuple t : l) {
+                deletions.add(t.annotation);
+            }
+        }
+    }
+
     /**
      * Matches deleted annotations to changed or added ones. A deleted
      * annotation/position tuple that has a matching addition / change is
@@ -941,7 +998,7 @@ public class DefaultErlangFoldingStructureProvider implements
      * <code>positionMap</code> is <code>null</code>.
      * <p>
      * A tuple is said to match another if their annotations have the same
-     * comment flag and their position offsets are equal.
+     * comment flag and element kind and their position offsets are equal.
      * </p>
      * <p>
      * If a match is found, the annotation gets removed from
@@ -963,7 +1020,9 @@ public class DefaultErlangFoldingStructureProvider implements
         final Iterator<ErlangProjectionAnnotation> it = annotations.iterator();
         while (it.hasNext()) {
             final ErlangProjectionAnnotation annotation = it.next();
-            if (tuple.annotation.isComment() == annotation.isComment()) {
+            if (tuple.annotation.isComment() == annotation.isComment()
+                    && tuple.annotation.getElement().getKind() == annotation
+                            .getElement().getKind()) {
                 final Position position = positionMap == null ? fCachedModel
                         .getPosition(annotation) : positionMap.get(annotation);
                 if (position == null) {
@@ -1086,7 +1145,7 @@ public class DefaultErlangFoldingStructureProvider implements
     }
 
     @Override
-    public void elementChanged(final IErlElement element) {
+    public synchronized void elementChanged(final IErlElement element) {
         // TODO fixa elementchangelistener n?n g?ng
         if (fEditor == null) {
             return;
@@ -2,6 +2,7 @@ package org.erlide.ui.internal.search;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -17,6 +18,8 @@ import org.erlide.core.services.search.ErlSearchScope;
 import org.erlide.core.services.search.ErlangSearchPattern;
 import org.erlide.core.services.search.ErlideSearchServer;
 import org.erlide.core.services.search.ModuleLineFunctionArityRef;
+import org.erlide.core.services.search.ReferenceIndex;
+import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.IRpcResultCallback;
 import org.erlide.jinterface.rpc.RpcException;
 import org.erlide.ui.internal.ErlideUIPlugin;
@@ -30,6 +33,20 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class ErlSearchQuery implements ISearchQuery {
+    /**
+     * The number of modules the backend searches before it sends what it has
+     * found; can be set with <code>-Derlide.search.batch</code>.
+     */
+    private static final int BATCH_SIZE = Integer.getInteger(
+            "erlide.search.batch", 1);
+    /**
+     * The number of processes that search the modules on the backend, 0
+     * meaning one per scheduler; can be set with
+     * <code>-Derlide.search.shards</code>.
+     */
+    private static final int SHARDS = Integer.getInteger(
+            "erlide.search.shards", 0);
+
     private final ErlangSearchPattern pattern;
     private final ErlSearchScope scope;
     private final Map<String, IErlModule> pathToModuleMap;
@@ -38,6 +55,10 @@ public class ErlSearchQuery implements ISearchQuery {
     private String stateDirCached = null;
     private final String scopeDescription;
 
+    private long startTime;
+    private volatile long timeToFirstResult = -1;
+    private volatile long totalTime = -1;
+
     public ErlSearchQuery(final ErlangSearchPattern pattern,
             final ErlSearchScope scope, final String scopeDescription) {
         this.pattern = pattern;
@@ -86,6 +107,32 @@ public class ErlSearchQuery implements ISearchQuery {
     @Override
     public IStatus run(final IProgressMonitor monitor)
             throws OperationCanceledException {
+        startTime = System.nanoTime();
+        timeToFirstResult = -1;
+        totalTime = -1;
+        // modules with indexed references are searched here, the others by
+        // the backend
+        final List<String> notIndexed = Lists.newArrayList();
+        final List<ModuleLineFunctionArityRef> localResult = ReferenceIndex
+                .getDefault().find(pattern.getSearchObject(),
+                        pathToModuleMap.keySet(), notIndexed);
+        final ErlSearchScope backendScope = new ErlSearchScope();
+        for (final String path : notIndexed) {
+            backendScope.addModule(pathToModuleMap.get(path));
+        }
+        for (final IErlModule module : scope.getModules()) {
+            if (module.getFilePath() == null) {
+                backendScope.addModule(module);
+            }
+        }
+        if (backendScope.size() == 0) {
+            if (fSearchResult != null) {
+                fSearchResult.removeAll();
+            }
+            addMatches(localResult);
+            finished();
+            return Status.OK_STATUS;
+        }
         final Object locker = new Object();
         final IRpcResultCallback callback = new IRpcResultCallback() {
 
@@ -102,6 +149,7 @@ public class ErlSearchQuery implements ISearchQuery {
                     progressMax = 10;
                 }
                 monitor.beginTask("Searching", progressMax);
+                addMatches(localResult);
             }
 
             @Override
@@ -142,7 +190,8 @@ public class ErlSearchQuery implements ISearchQuery {
         };
         try {
             ErlideSearchServer.startFindRefs(BackendCore.getBackendManager()
-                    .getIdeBackend(), pattern, scope, getStateDir(), callback);
+                    .getIdeBackend(), pattern, backendScope, getStateDir(),
+                    BATCH_SIZE, SHARDS, callback);
         } catch (final RpcException e) {
             return new Status(IStatus.ERROR, ErlideUIPlugin.PLUGIN_ID,
                     "Search error", e);
@@ -153,10 +202,43 @@ public class ErlSearchQuery implements ISearchQuery {
             } catch (final InterruptedException e) {
             }
         }
+        finished();
         return Status.OK_STATUS;
     }
 
+    private void finished() {
+        totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                - startTime);
+        ErlLogger.debug("search for %s: %d matches, first after %d ms, "
+                + "%d ms in total", pattern.labelString(),
+                ((ErlangSearchResult) getSearchResult()).getMatchCount(),
+                timeToFirstResult, totalTime);
+    }
+
+    /**
+     * Returns how long the last run took to find its first match, in
+     * milliseconds, or -1 if it hasn't found any.
+     */
+    public long getTimeToFirstResult() {
+        return timeToFirstResult;
+    }
+
+    /**
+     * Returns how long the last run took, in milliseconds, or -1 if it hasn't
+     * finished.
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
     private void addMatches(final List<ModuleLineFunctionArityRef> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        if (timeToFirstResult < 0) {
+            timeToFirstResult = TimeUnit.NANOSECONDS.toMillis(System
+                    .nanoTime() - startTime);
+        }
         final List<Match> l = Lists.newArrayListWithCapacity(chunk.size());
         final List<ErlangSearchElement> resultAdded = Lists
                 .newArrayListWithCapacity(chunk.size());
@@ -166,9 +248,7 @@ public class ErlSearchQuery implements ISearchQuery {
             resultAdded.add((ErlangSearchElement) m.getElement());
         }
         fSearchResult = (ErlangSearchResult) getSearchResult();
-        final List<ErlangSearchElement> result = fSearchResult.getResult();
-        result.addAll(resultAdded);
-        fSearchResult.setResult(result);
+        fSearchResult.addResult(resultAdded);
         fSearchResult.addMatches(l.toArray(new Match[l.size()]));
     }
 
@@ -97,7 +97,19 @@ public class ErlangSearchResult extends AbstractTextSearchResult implements
         final String occurrences = getOccurrencesLabel(matchCount);
         final String scope = query.getScopeDescription();
         return query.getLabel() + " - " + matchCount + " " + occurrences
-                + " in " + scope + ".";
+                + " in " + scope + "." + getTimeLabel();
+    }
+
+    private String getTimeLabel() {
+        final long total = query.getTotalTime();
+        if (total < 0) {
+            return "";
+        }
+        final long first = query.getTimeToFirstResult();
+        if (first < 0) {
+            return " (" + total + " ms)";
+        }
+        return " (first after " + first + " ms, " + total + " ms in total)";
     }
 
     private String getOccurrencesLabel(final int matchCount) {
@@ -132,6 +144,10 @@ public class ErlangSearchResult extends AbstractTextSearchResult implements
         this.result = result;
     }
 
+    public synchronized void addResult(final List<ErlangSearchElement> added) {
+        result.addAll(added);
+    }
+
     private static final Match[] NO_MATCHES = new Match[0];
 
     @Override
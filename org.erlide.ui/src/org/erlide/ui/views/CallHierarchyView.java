@@ -12,7 +12,13 @@ package org.erlide.ui.views;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.util.OpenStrategy;
 import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.LabelProvider;
@@ -34,6 +40,7 @@ import org.eclipse.swt.widgets.Tree;
 import org.eclipse.swt.widgets.TreeItem;
 import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.part.ViewPart;
+import org.eclipse.ui.progress.UIJob;
 import org.erlide.core.backend.BackendCore;
 import org.erlide.core.model.erlang.FunctionRef;
 import org.erlide.core.model.erlang.IErlFunction;
@@ -43,10 +50,26 @@ import org.erlide.jinterface.ErlLogger;
 import org.erlide.jinterface.rpc.IRpcCallSite;
 import org.erlide.ui.editors.util.EditorUtility;
 
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
 public class CallHierarchyView extends ViewPart {
+    /**
+     * How deep the callers of a function are computed at once; deeper ones
+     * are computed when expanded.
+     */
+    private static final int DEPTH = Integer.getInteger(
+            "erlide.callhierarchy.depth", 5);
+
     Tree tree;
     TreeViewer treeViewer;
     Label lblRoot;
+    /**
+     * The callers computed so far, and the functions whose callers are being
+     * computed; both are only used in the UI thread.
+     */
+    Map<FunctionRef, FunctionRef[]> hierarchy;
+    final Set<FunctionRef> pending = Sets.newHashSet();
 
     static class ViewerLabelProvider extends LabelProvider {
         @Override
@@ -97,12 +120,10 @@ public class CallHierarchyView extends ViewPart {
                 return new Object[0];
             }
             final IErlFunction parent = (IErlFunction) parentElement;
-            final FunctionRef ref = new FunctionRef(parent);
-            final IRpcCallSite b = BackendCore.getBackendManager()
-                    .getIdeBackend();
-            final FunctionRef[] children = ErlangXref.functionUse(b, ref);
+            final FunctionRef[] children = getCallers(parent);
             if (children == null) {
-                return new Object[0];
+                computeHierarchy(parent, false);
+                return new Object[] { "<searching...>" };
             }
             if (parentElement == input && children.length == 0) {
                 // TODO ErlangXref should cache _all_ projects added to it
@@ -130,7 +151,12 @@ public class CallHierarchyView extends ViewPart {
 
         @Override
         public boolean hasChildren(final Object element) {
-            return getChildren(element).length > 0;
+            if (!(element instanceof IErlFunction)) {
+                return false;
+            }
+            // unknown callers are computed when expanded
+            final FunctionRef[] children = getCallers((IErlFunction) element);
+            return children == null || children.length > 0;
         }
     }
 
@@ -159,9 +185,12 @@ public class CallHierarchyView extends ViewPart {
                     tltmRefresh.addSelectionListener(new SelectionAdapter() {
                         @Override
                         public void widgetSelected(final SelectionEvent e) {
-                            final IRpcCallSite b = BackendCore
-                                    .getBackendManager().getIdeBackend();
-                            ErlangXref.update(b);
+                            hierarchy = null;
+                            pending.clear();
+                            final Object input = treeViewer.getInput();
+                            if (input instanceof IErlFunction) {
+                                computeHierarchy((IErlFunction) input, true);
+                            }
                             treeViewer.refresh();
                         }
                     });
@@ -177,6 +206,10 @@ public class CallHierarchyView extends ViewPart {
                     @Override
                     public void mouseDoubleClick(final MouseEvent e) {
                         final TreeItem[] sel = tree.getSelection();
+                        if (sel.length == 0
+                                || !(sel[0].getData() instanceof IErlFunction)) {
+                            return;
+                        }
                         final IErlFunction el = (IErlFunction) sel[0].getData();
                         final boolean activateOnOpen = getSite() != null ? true
                                 : OpenStrategy.activateOnOpen();
@@ -211,6 +244,8 @@ public class CallHierarchyView extends ViewPart {
         if (ref == null) {
             return;
         }
+        hierarchy = null;
+        pending.clear();
         treeViewer.setInput(ref);
         // treeViewer.expandToLevel(2);
         treeViewer.refresh();
@@ -220,8 +255,77 @@ public class CallHierarchyView extends ViewPart {
         if (msg == null) {
             return;
         }
+        hierarchy = null;
+        pending.clear();
         treeViewer.setInput(msg);
         treeViewer.refresh();
     }
 
+    FunctionRef[] getCallers(final IErlFunction fun) {
+        return hierarchy != null ? hierarchy.get(new FunctionRef(fun)) : null;
+    }
+
+    /**
+     * Computes the callers of a function, to {@link #DEPTH} levels, in a job,
+     * and shows them when done. The call graph may have to be fetched first,
+     * which can take a while for large projects.
+     */
+    void computeHierarchy(final IErlFunction fun, final boolean updateXref) {
+        final FunctionRef ref = new FunctionRef(fun);
+        if (!pending.add(ref)) {
+            return;
+        }
+        final Object input = treeViewer.getInput();
+        final Job job = new Job("compute call hierarchy") {
+            @Override
+            protected IStatus run(final IProgressMonitor monitor) {
+                final IRpcCallSite b = BackendCore.getBackendManager()
+                        .getIdeBackend();
+                if (updateXref) {
+                    ErlangXref.update(b);
+                }
+                Map<FunctionRef, FunctionRef[]> found = ErlangXref
+                        .callerHierarchy(b, ref, DEPTH);
+                if (found == null) {
+                    found = Maps.newHashMap();
+                    final FunctionRef[] callers = ErlangXref.functionUse(b,
+                            ref);
+                    found.put(ref, callers != null ? callers
+                            : new FunctionRef[0]);
+                }
+                showHierarchy(input, fun, found);
+                return Status.OK_STATUS;
+            }
+        };
+        job.setPriority(Job.SHORT);
+        job.setSystem(true);
+        job.schedule();
+    }
+
+    void showHierarchy(final Object input, final IErlFunction fun,
+            final Map<FunctionRef, FunctionRef[]> found) {
+        final Job job = new UIJob("update call hierarchy") {
+            @Override
+            public IStatus runInUIThread(final IProgressMonitor monitor) {
+                pending.remove(new FunctionRef(fun));
+                if (tree.isDisposed() || treeViewer.getInput() != input) {
+                    return Status.OK_STATUS;
+                }
+                if (hierarchy == null) {
+                    hierarchy = Maps.newHashMap();
+                }
+                hierarchy.putAll(found);
+                if (fun == input) {
+                    treeViewer.refresh();
+                } else {
+                    treeViewer.refresh(fun);
+                }
+                return Status.OK_STATUS;
+            }
+        };
+        job.setPriority(Job.INTERACTIVE);
+        job.setSystem(true);
+        job.schedule();
+    }
+
 }